@@ -0,0 +1,238 @@
+package com.xiaozhi.common.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+/**
+ * 两级缓存：进程内缓存（L1）在前，Redis缓存（L2）在后
+ * 读取先查L1，未命中再查L2并回填；写入和删除同时作用于两级，并通知其他节点删除各自的L1。
+ * L1条目有过期时间，通知丢失时最多在过期时间内读到旧值。
+ * 从L2读到的值回填L1前记下key所在分段的版本号，回填后版本号变了（期间有删除或失效通知）就撤回，
+ * 避免读到的旧值在删除之后才写入L1。
+ * 返回的是L1中的同一个对象，调用方不应修改。
+ */
+public class TwoLevelCache implements Cache {
+
+    private record Entry(ValueWrapper value, long expiresAt) {
+    }
+
+    // 版本号分段数，key按哈希落到分段上，删除时只影响同一分段里正在回填的key
+    private static final int STRIPES = 64;
+
+    private final Cache remote;
+    private final int maxSize;
+    private final long ttlNanos;
+    // 写入或删除后通知其他节点，参数为缓存名和key，key为null表示清空
+    private final BiConsumer<String, String> publisher;
+    private final Map<String, Entry> local = new ConcurrentHashMap<>();
+    // 每次删除本地副本前递增
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private final Counter hits;
+    private final Counter misses;
+
+    public TwoLevelCache(Cache remote, int maxSize, long ttlNanos, BiConsumer<String, String> publisher) {
+        this.remote = remote;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlNanos = ttlNanos;
+        this.publisher = publisher;
+        this.hits = Counter.builder("xiaozhi.cache.local")
+                .description("进程内缓存的命中情况")
+                .tag("cache", remote.getName())
+                .tag("result", "hit")
+                .register(Metrics.globalRegistry);
+        this.misses = Counter.builder("xiaozhi.cache.local")
+                .description("进程内缓存的命中情况")
+                .tag("cache", remote.getName())
+                .tag("result", "miss")
+                .register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return remote.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remote.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = localKey(key);
+        Entry entry = local.get(localKey);
+        if (entry != null && System.nanoTime() - entry.expiresAt() < 0) {
+            hits.increment();
+            return entry.value();
+        }
+        misses.increment();
+        long version = version(localKey);
+        ValueWrapper value = remote.get(key);
+        if (value != null) {
+            store(localKey, value, version);
+        }
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper value = get(key);
+        if (value == null) {
+            return null;
+        }
+        Object object = value.get();
+        if (object != null && type != null && !type.isInstance(object)) {
+            throw new IllegalStateException("缓存值不是所需类型 [" + type.getName() + "]: " + object);
+        }
+        return (T) object;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper value = get(key);
+        if (value != null) {
+            return (T) value.get();
+        }
+        String localKey = localKey(key);
+        long version = version(localKey);
+        T loaded = remote.get(key, valueLoader);
+        store(localKey, new SimpleValueWrapper(loaded), version);
+        return loaded;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        String localKey = localKey(key);
+        long version = version(localKey);
+        remote.put(key, value);
+        store(localKey, new SimpleValueWrapper(value), version);
+        publisher.accept(getName(), localKey);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = remote.putIfAbsent(key, value);
+        String localKey = localKey(key);
+        removeLocal(localKey);
+        publisher.accept(getName(), localKey);
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        String localKey = localKey(key);
+        removeLocal(localKey);
+        publisher.accept(getName(), localKey);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean present = remote.evictIfPresent(key);
+        String localKey = localKey(key);
+        removeLocal(localKey);
+        publisher.accept(getName(), localKey);
+        return present;
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        clearLocal();
+        publisher.accept(getName(), null);
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean present = remote.invalidate();
+        clearLocal();
+        publisher.accept(getName(), null);
+        return present;
+    }
+
+    /**
+     * 其他节点修改了缓存，删除本地副本
+     *
+     * @param key 为null时清空
+     */
+    void invalidateLocal(String key) {
+        if (key == null) {
+            clearLocal();
+        } else {
+            removeLocal(key);
+        }
+    }
+
+    /**
+     * 回填L1，读取L2之后key被删除过时撤回
+     *
+     * @param version 读取L2之前的版本号
+     */
+    private void store(String localKey, ValueWrapper value, long version) {
+        if (local.size() >= maxSize) {
+            shrink();
+        }
+        Entry entry = new Entry(value, System.nanoTime() + ttlNanos);
+        local.put(localKey, entry);
+        // 删除先递增版本号再删除本地副本：删除在put之后时会删掉这个条目，在put之前时这里能看到版本号变化
+        if (version(localKey) != version) {
+            local.remove(localKey, entry);
+        }
+    }
+
+    private void removeLocal(String localKey) {
+        versions.incrementAndGet(stripe(localKey));
+        local.remove(localKey);
+    }
+
+    private void clearLocal() {
+        for (int i = 0; i < STRIPES; i++) {
+            versions.incrementAndGet(i);
+        }
+        local.clear();
+    }
+
+    private long version(String localKey) {
+        return versions.get(stripe(localKey));
+    }
+
+    private static int stripe(String localKey) {
+        return (localKey.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    /**
+     * 超出容量时先删除过期条目，仍然超出则从最早写入的开始删除一部分
+     */
+    private void shrink() {
+        long now = System.nanoTime();
+        local.values().removeIf(entry -> now - entry.expiresAt() >= 0);
+        int excess = local.size() - maxSize * 9 / 10;
+        if (excess <= 0) {
+            return;
+        }
+        // 有效期相同，过期时间越早写入越早
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(local.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().expiresAt() - now));
+        for (int i = 0; i < excess && i < entries.size(); i++) {
+            Map.Entry<String, Entry> eldest = entries.get(i);
+            local.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+}
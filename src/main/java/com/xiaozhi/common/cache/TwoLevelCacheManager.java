@@ -0,0 +1,124 @@
+package com.xiaozhi.common.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 两级缓存管理器，包装Redis缓存管理器
+ * 缓存写入或删除时通过Redis发布失效通知，各节点收到后删除自己的进程内缓存。
+ * 缓存之外的进程内状态（如会话的对话配置）也可以借用同一频道，按名称登记监听器。
+ */
+public class TwoLevelCacheManager implements CacheManager {
+    private static final Logger logger = LoggerFactory.getLogger(TwoLevelCacheManager.class);
+
+    /**
+     * 失效通知的频道
+     */
+    public static final String INVALIDATION_CHANNEL = "XiaoZhi:CacheInvalidation";
+
+    // 通知内容的字段分隔符：节点ID、缓存名、key
+    private static final char SEPARATOR = '\u001F';
+
+    private final CacheManager remote;
+    private final ObjectProvider<StringRedisTemplate> redisTemplate;
+    private final int maxSize;
+    private final long ttlNanos;
+    // 本节点ID，忽略自己发出的通知
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, TwoLevelCache> caches = new ConcurrentHashMap<>();
+    private final Map<String, List<Consumer<String>>> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize 每个缓存的进程内条目上限
+     * @param ttlSeconds 进程内条目的有效期
+     */
+    public TwoLevelCacheManager(CacheManager remote, ObjectProvider<StringRedisTemplate> redisTemplate,
+            int maxSize, long ttlSeconds) {
+        this.remote = remote;
+        this.redisTemplate = redisTemplate;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        TwoLevelCache cache = caches.get(name);
+        if (cache != null) {
+            return cache;
+        }
+        Cache remoteCache = remote.getCache(name);
+        if (remoteCache == null) {
+            return null;
+        }
+        return caches.computeIfAbsent(name, n -> new TwoLevelCache(remoteCache, maxSize, ttlNanos, this::publish));
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return remote.getCacheNames();
+    }
+
+    /**
+     * 登记失效通知的监听器，收到其他节点发来的该名称的通知时调用，参数为key，null表示全部
+     */
+    public void addInvalidationListener(String name, Consumer<String> listener) {
+        listeners.computeIfAbsent(name, n -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * 通知其他节点，自己不会收到
+     */
+    public void publishInvalidation(String name, String key) {
+        publish(name, key);
+    }
+
+    /**
+     * 处理其他节点发来的失效通知
+     */
+    public void onInvalidation(String message) {
+        int first = message.indexOf(SEPARATOR);
+        int second = first < 0 ? -1 : message.indexOf(SEPARATOR, first + 1);
+        if (second < 0 || message.startsWith(nodeId + SEPARATOR)) {
+            return;
+        }
+        String name = message.substring(first + 1, second);
+        String key = second + 1 < message.length() ? message.substring(second + 1) : null;
+        TwoLevelCache cache = caches.get(name);
+        if (cache != null) {
+            cache.invalidateLocal(key);
+        }
+        for (Consumer<String> listener : listeners.getOrDefault(name, List.of())) {
+            try {
+                listener.accept(key);
+            } catch (Exception e) {
+                logger.warn("Не удалось обработать уведомление об инвалидации - {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    private void publish(String name, String key) {
+        try {
+            StringRedisTemplate template = redisTemplate.getIfAvailable();
+            if (template != null) {
+                template.convertAndSend(INVALIDATION_CHANNEL,
+                        nodeId + SEPARATOR + name + SEPARATOR + (key == null ? "" : key));
+            }
+        } catch (Exception e) {
+            // 通知失败时其他节点的本地副本最多在有效期内是旧值
+            logger.warn("Не удалось опубликовать уведомление об инвалидации кэша: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.xiaozhi.common.config;
+
+import com.xiaozhi.common.cache.TwoLevelCacheManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 缓存配置
+ * 使用Redis缓存时在前面加一层进程内缓存，角色、配置、设备等按帧查询的数据不必每次访问Redis。
+ */
+@Configuration
+public class CacheConfig {
+
+    /**
+     * 把自动配置的Redis缓存管理器包装成两级缓存
+     * cache.local.enabled=false时保持原样
+     */
+    @Bean
+    public static BeanPostProcessor twoLevelCacheManagerPostProcessor(Environment environment,
+            ObjectProvider<StringRedisTemplate> redisTemplate) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof RedisCacheManager redisCacheManager
+                        && environment.getProperty("cache.local.enabled", Boolean.class, true)) {
+                    return new TwoLevelCacheManager(redisCacheManager, redisTemplate,
+                            environment.getProperty("cache.local.max-size", Integer.class, 10000),
+                            environment.getProperty("cache.local.ttl-seconds", Long.class, 60L));
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * 订阅其他节点的缓存失效通知
+     */
+    @Bean
+    @ConditionalOnProperty(name = "spring.cache.type", havingValue = "redis")
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory connectionFactory,
+            CacheManager cacheManager) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 在订阅线程中按到达顺序处理，保证先删除旧的角色和配置缓存，再按通知重新解析对话配置
+        container.setTaskExecutor(new SyncTaskExecutor());
+        if (cacheManager instanceof TwoLevelCacheManager twoLevelCacheManager) {
+            container.addMessageListener(
+                    (message, pattern) -> twoLevelCacheManager
+                            .onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(TwoLevelCacheManager.INVALIDATION_CHANNEL));
+        }
+        return container;
+    }
+}
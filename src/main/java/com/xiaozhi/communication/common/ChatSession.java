@@ -4,6 +4,9 @@ import com.xiaozhi.communication.domain.iot.IotDescriptor;
 import com.xiaozhi.dialogue.llm.memory.Conversation;
 import com.xiaozhi.dialogue.llm.tool.ToolsSessionHolder;
 import com.xiaozhi.dialogue.llm.tool.mcp.device.DeviceMcpHolder;
+import com.xiaozhi.dialogue.service.AudioMailbox;
+import com.xiaozhi.dialogue.service.DialogueContext;
+import com.xiaozhi.dialogue.service.DialogueProfile;
 import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.entity.SysRole;
 import com.xiaozhi.enums.ListenMode;
@@ -83,12 +86,30 @@ public abstract class ChatSession {
      * 当前session是否支持function_call
      */
     protected boolean supportFunctionCall = true;
+    /**
+     * 对话配置快照，角色或配置变更时整体替换
+     */
+    protected volatile DialogueProfile dialogueProfile;
+
+    /**
+     * 音频信箱，收到的音频包在这里按顺序串行处理
+     */
+    protected volatile AudioMailbox audioMailbox;
+
+    /**
+     * 当前这一轮对话的状态，开始新的一轮时整体替换
+     */
+    protected volatile DialogueContext dialogueContext;
 
     /**
      * 最近一次对话的模型响应时间及TTS响应时间
      */
     public static final String ATTR_FIRST_MODEL_RESPONSE_TIME = "firstModelResponseTime";
     public static final String ATTR_FIRST_TTS_RESPONSE_TIME = "firstTtsResponseTime";
+    /**
+     * 客户端hello消息中声明的音频参数
+     */
+    public static final String ATTR_CLIENT_AUDIO_PARAMS = "clientAudioParams";
     /**
      * 会话属性存储
      */
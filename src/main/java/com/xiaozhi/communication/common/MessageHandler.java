@@ -2,35 +2,35 @@ package com.xiaozhi.communication.common;
 
 import com.xiaozhi.communication.domain.*;
 import com.xiaozhi.communication.server.websocket.WebSocketSession;
+import com.xiaozhi.dialogue.llm.LlmCapabilityRegistry;
 import com.xiaozhi.dialogue.llm.factory.ChatModelFactory;
 import com.xiaozhi.dialogue.llm.memory.Conversation;
 import com.xiaozhi.dialogue.llm.memory.ConversationFactory;
-import com.xiaozhi.dialogue.llm.providers.OpenAiLlmService;
 import com.xiaozhi.dialogue.llm.tool.ToolsGlobalRegistry;
 import com.xiaozhi.dialogue.llm.tool.ToolsSessionHolder;
+import com.xiaozhi.dialogue.service.DialogueProfile;
+import com.xiaozhi.dialogue.service.DialogueProfileManager;
 import com.xiaozhi.dialogue.service.AudioService;
 import com.xiaozhi.dialogue.service.DialogueService;
 import com.xiaozhi.dialogue.service.IotService;
 import com.xiaozhi.dialogue.service.VadService;
-import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
+import com.xiaozhi.dialogue.tts.cache.PromptBank;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
-import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.entity.SysRole;
 import com.xiaozhi.enums.ListenState;
 import com.xiaozhi.event.ChatAbortEvent;
-import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.service.SysDeviceService;
 import com.xiaozhi.service.SysRoleService;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 import org.springframework.util.ObjectUtils;
-import org.springframework.util.StringUtils;
 
 import java.util.Date;
 import java.util.List;
@@ -55,9 +55,6 @@ public class MessageHandler {
     @Resource
     private SessionManager sessionManager;
 
-    @Resource
-    private SysConfigService configService;
-
     @Resource
     private DialogueService dialogueService;
 
@@ -68,7 +65,7 @@ public class MessageHandler {
     private TtsServiceFactory ttsFactory;
 
     @Resource
-    private SttServiceFactory sttFactory;
+    private PromptBank promptBank;
 
     @Resource
     private ConversationFactory conversationFactory;
@@ -76,6 +73,12 @@ public class MessageHandler {
     @Resource
     private ChatModelFactory chatModelFactory;
 
+    @Resource
+    private LlmCapabilityRegistry capabilityRegistry;
+
+    @Resource
+    private DialogueProfileManager profileManager;
+
     @Resource
     private ToolsGlobalRegistry toolsGlobalRegistry;
 
@@ -101,7 +104,8 @@ public class MessageHandler {
         sessionManager.registerSession(sessionId, chatSession);
 
         logger.info("开始查询设备信息 - DeviceId: {}", deviceId);
-        SysDevice device = Optional.ofNullable(deviceService.selectDeviceById(deviceId)).orElse(new SysDevice());
+        SysDevice device = Optional.ofNullable(deviceService.selectDeviceById(deviceId)).map(MessageHandler::copyOf)
+                .orElse(new SysDevice());
         device.setDeviceId(deviceId);
         device.setSessionId(sessionId);
         sessionManager.registerDevice(sessionId, device);
@@ -133,31 +137,21 @@ public class MessageHandler {
         //以上同步处理结束后，再启动虚拟线程进行设备初始化，确保chatSession中已设置的sysDevice信息
         Thread.startVirtualThread(() -> {
             try {
-                if (role.getSttId() != null) {
-                    SysConfig sttConfig = configService.selectConfigById(role.getSttId());
-                    if (sttConfig != null) {
-                        sttFactory.getSttService(sttConfig);// 提前初始化，加速后续使用
-                    }
-                }
-                if (role.getTtsId() != null) {
-                    SysConfig ttsConfig = configService.selectConfigById(role.getTtsId());
-                    if (ttsConfig != null) {
-                        ttsFactory.getTtsService(ttsConfig, role.getVoiceName(), role.getTtsPitch(), role.getTtsSpeed());// 提前初始化，加速后续使用
-                    }
+                // 解析对话配置（同时初始化STT服务），之后按帧处理直接读取
+                DialogueProfile profile = profileManager.resolve(role);
+                chatSession.setDialogueProfile(profile);
+                if (profile.ttsConfig() != null) {
+                    ttsFactory.getTtsService(profile.ttsConfig(), profile.voiceName(), profile.ttsPitch(), profile.ttsSpeed());// 提前初始化，加速后续使用
                 }
+                // 预热该角色音色下的系统提示语，已渲染过的直接跳过
+                promptBank.preload(role);
                 if (role.getModelId() != null) {
                     ChatModel chatModel = chatModelFactory.takeChatModel(chatSession);// 提前初始化，加速后续使用
                     if(chatModel instanceof OpenAiChatModel){
-                        Thread.startVirtualThread(()->{
-                            //如果是openApi类型的ai，异步校验当前模型是否支持function call
-                            // 根据配置ID查询配置
-                            SysConfig config = configService.selectConfigById(role.getModelId());
-                            String model = config.getConfigName();
-                            String endpoint = config.getApiUrl();
-                            String apiKey = config.getApiKey();
-                            OpenAiLlmService openAiLlmService = new OpenAiLlmService(endpoint, apiKey, model);
-                            chatSession.setSupportFunctionCall(openAiLlmService.testFunctionCall());
-                        });
+                        //如果是openApi类型的ai，校验当前模型是否支持function call，每个配置只探测一次
+                        if (profile.modelConfig() != null) {
+                            capabilityRegistry.resolveFunctionCall(profile.modelConfig(), chatSession::setSupportFunctionCall);
+                        }
                     }
                 }
 
@@ -289,6 +283,7 @@ public class MessageHandler {
                         SysDevice boundDevice = deviceService.selectDeviceById(deviceId);
                         if (boundDevice != null) {
                             // 更新会话中的设备信息
+                            boundDevice = copyOf(boundDevice);
                             boundDevice.setSessionId(sessionId);
                             sessionManager.registerDevice(sessionId, boundDevice);
                             
@@ -330,11 +325,11 @@ public class MessageHandler {
             try {
                 // 设备已注册但未配置模型
                 if (device.getDeviceName() != null && device.getRoleId() == null) {
-                    String message = "设备未配置角色，请到角色配置页面完成配置后开始对话";
+                    String message = PromptBank.NO_ROLE_MESSAGE;
 
-                    String audioFilePath = ttsFactory.getDefaultTtsService().textToSpeech(message);
-                    audioService.sendAudioMessage(chatSession, new DialogueService.Sentence(message, audioFilePath), true,
-                            true);
+                    DialogueService.Sentence sentence = new DialogueService.Sentence(message);
+                    sentence.setOpusFrames(promptBank.getDefaultFrames(message));
+                    audioService.sendAudioMessage(chatSession, sentence, true, true);
 
                     // 延迟一段时间后再解除标记
                     try {
@@ -349,20 +344,11 @@ public class MessageHandler {
                 // 设备未命名，生成验证码
                 // 生成新验证码
                 SysDevice codeResult = deviceService.generateCode(device);
-                String audioFilePath;
-                if (!StringUtils.hasText(codeResult.getAudioPath())) {
-                    String codeMessage = "请到设备管理页面添加设备，输入验证码" + codeResult.getCode();
-                    audioFilePath = ttsFactory.getDefaultTtsService().textToSpeech(codeMessage);
-                    codeResult.setDeviceId(deviceId);
-                    codeResult.setSessionId(sessionId);
-                    codeResult.setAudioPath(audioFilePath);
-                    deviceService.updateCode(codeResult);
-                } else {
-                    audioFilePath = codeResult.getAudioPath();
-                }
 
-                audioService.sendAudioMessage(chatSession,
-                        new DialogueService.Sentence(codeResult.getCode(), codeResult.getAudioPath()), true, true);
+                // 验证码播报由提示语音库按数字拼接，不需要再合成和保存音频文件
+                DialogueService.Sentence sentence = new DialogueService.Sentence(codeResult.getCode());
+                sentence.setOpusFrames(promptBank.getActivationCodeFrames(codeResult.getCode()));
+                audioService.sendAudioMessage(chatSession, sentence, true, true);
 
                 // 延迟一段时间后再解除标记
                 try {
@@ -476,6 +462,15 @@ public class MessageHandler {
         }
     }
 
+    /**
+     * 缓存返回的设备对象由所有会话共享，写入会话信息前先复制一份
+     */
+    private static SysDevice copyOf(SysDevice device) {
+        SysDevice copy = new SysDevice();
+        BeanUtils.copyProperties(device, copy);
+        return copy;
+    }
+
     public void handleMessage(Message msg, String sessionId) {
         var chatSession = sessionManager.getSession(sessionId);
         switch (msg) {
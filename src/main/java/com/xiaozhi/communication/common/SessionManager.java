@@ -23,6 +23,7 @@ import reactor.core.publisher.Sinks;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -295,6 +296,13 @@ public class SessionManager {
         return sessions.get(sessionId);
     }
 
+    /**
+     * 获取所有会话
+     */
+    public Collection<ChatSession> getSessions() {
+        return sessions.values();
+    }
+
     /**
      * 根据设备ID获取会话
      *
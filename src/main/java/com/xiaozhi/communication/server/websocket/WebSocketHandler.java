@@ -174,6 +174,10 @@ public class WebSocketHandler extends AbstractWebSocketHandler {
                     message.getAudioParams().getSampleRate(),
                     message.getAudioParams().getChannels(),
                     message.getAudioParams().getFrameDuration());
+            ChatSession chatSession = sessionManager.getSession(sessionId);
+            if (chatSession != null) {
+                chatSession.setAttribute(ChatSession.ATTR_CLIENT_AUDIO_PARAMS, message.getAudioParams());
+            }
         }
 
         // 回复hello消息
@@ -9,6 +9,7 @@ import com.xiaozhi.common.web.PageFilter;
 import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.event.DialogueProfileChangeEvent;
 import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.utils.CmsUtils;
 
@@ -16,6 +17,7 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.context.ApplicationContext;
 
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -49,6 +51,9 @@ public class ConfigController extends BaseController {
     @Resource
     private SttServiceFactory sttServiceFactory;
 
+    @Resource
+    private ApplicationContext applicationContext;
+
     /**
      * 配置查询
      * 
@@ -95,6 +100,8 @@ public class ConfigController extends BaseController {
                         ttsServiceFactory.removeCache(oldSysConfig);
                     }
                 }
+                // 引用该配置的在线会话重新解析对话配置
+                applicationContext.publishEvent(DialogueProfileChangeEvent.config(this, config.getConfigId()));
             }
             return ResultMessage.success();
         } catch (Exception e) {
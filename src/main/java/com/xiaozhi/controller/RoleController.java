@@ -3,9 +3,11 @@ package com.xiaozhi.controller;
 import com.github.pagehelper.PageInfo;
 import com.xiaozhi.common.web.ResultMessage;
 import com.xiaozhi.common.web.PageFilter;
+import com.xiaozhi.dialogue.tts.cache.PromptBank;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysRole;
+import com.xiaozhi.event.DialogueProfileChangeEvent;
 import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.service.SysRoleService;
 import com.xiaozhi.utils.CmsUtils;
@@ -15,6 +17,7 @@ import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.context.ApplicationContext;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -40,6 +43,12 @@ public class RoleController extends BaseController {
     @Resource
     private SysConfigService configService;
 
+    @Resource
+    private PromptBank promptBank;
+
+    @Resource
+    private ApplicationContext applicationContext;
+
     /**
      * 角色查询
      * 
@@ -76,6 +85,10 @@ public class RoleController extends BaseController {
         try {
             role.setUserId(CmsUtils.getUserId());
             roleService.update(role);
+            // 角色音色可能变化，预热新音色下的系统提示语
+            promptBank.preload(roleService.selectRoleById(role.getRoleId()));
+            // 使用该角色的在线会话重新解析对话配置
+            applicationContext.publishEvent(DialogueProfileChangeEvent.role(this, role.getRoleId()));
             return ResultMessage.success();
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -95,6 +108,9 @@ public class RoleController extends BaseController {
         try {
             role.setUserId(CmsUtils.getUserId());
             roleService.add(role);
+            if (role.getRoleId() != null) {
+                promptBank.preload(roleService.selectRoleById(role.getRoleId()));
+            }
             return ResultMessage.success();
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -8,7 +8,10 @@ import com.xiaozhi.dialogue.llm.tool.XiaoZhiToolCallingManager;
 import com.xiaozhi.communication.common.SessionManager;
 import com.xiaozhi.mcp.McpSessionManager;
 import com.xiaozhi.dialogue.llm.memory.Conversation;
-import com.xiaozhi.utils.EmojiUtils;
+import com.xiaozhi.dialogue.llm.segment.SegmenterRules;
+import com.xiaozhi.dialogue.llm.segment.SentenceSegmenter;
+import com.xiaozhi.utils.CancellationToken;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
@@ -29,6 +32,7 @@ import org.springframework.ai.model.tool.ToolExecutionResult;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
@@ -37,8 +41,6 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import org.springframework.ai.tool.ToolCallback;
@@ -55,30 +57,9 @@ public class ChatService {
 
     public static final String TOOL_CONTEXT_SESSION_KEY = "session";
 
-    // 句子结束标点符号模式（中英文句号、感叹号、问号）
-    private static final Pattern SENTENCE_END_PATTERN = Pattern.compile("[。！？!?]");
-
-    // 逗号、分号等停顿标点
-    private static final Pattern PAUSE_PATTERN = Pattern.compile("[，、；,;]");
-
-    // 冒号和引号等特殊标点
-    private static final Pattern SPECIAL_PATTERN = Pattern.compile("[：:\"]");
-
-    // 换行符
-    private static final Pattern NEWLINE_PATTERN = Pattern.compile("[\n\r]");
-
-    // 数字模式（用于检测小数点是否在数字中）
-    private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+\\.\\d+");
-
-    // 表情符号模式
-    private static final Pattern EMOJI_PATTERN = Pattern.compile("\\p{So}|\\p{Sk}|\\p{Sm}");
-
-    // 最小句子长度（字符数）
-    private static final int MIN_SENTENCE_LENGTH = 5;
-
-    // 新句子判断的字符阈值
-    private static final int NEW_SENTENCE_TOKEN_THRESHOLD = 8;
-
+    // 断句规则的语言，见SegmenterRules.forLanguage
+    @Value("${llm.segmenter.language:zh}")
+    private String segmenterLanguage;
 
     @Resource
     private ChatModelFactory chatModelFactory;
@@ -335,6 +316,11 @@ public class ChatService {
      */
     public Flux<ChatResponse> chatStream(ChatSession session, String message,
             boolean useFunctionCall) {
+        return chatStream(session, new UserMessage(message), useFunctionCall);
+    }
+
+    private Flux<ChatResponse> chatStream(ChatSession session, UserMessage userMessage,
+            boolean useFunctionCall) {
         if(useFunctionCall){
             //处理mcp自定义
             mcpSessionManager.customMcpHandler(session);
@@ -349,7 +335,6 @@ public class ChatService {
             conversationTimestamp = System.currentTimeMillis();
         }
 
-        UserMessage userMessage = new UserMessage(message);
         Long userTimeMillis = session.getUserTimeMillis();
         Conversation conversation = session.getConversation();
         conversation.add(userMessage, userTimeMillis);
@@ -473,14 +458,56 @@ public class ChatService {
         return null; // Используются defaultOptions из ChatModel
     }
 
-    public void chatStreamBySentence(ChatSession session, String message, boolean useFunctionCall,
+    public Disposable chatStreamBySentence(ChatSession session, String message, boolean useFunctionCall,
             TriConsumer<String, Boolean, Boolean> sentenceHandler) {
+        return chatStreamBySentence(session, message, useFunctionCall, sentenceHandler, CancellationToken.NONE);
+    }
+
+    /**
+     * 可取消的流式对话，令牌取消时停止模型请求，已生成的部分回复仍然保存到对话历史
+     *
+     * @param token 对话的取消令牌，已经取消时不发出请求
+     */
+    public Disposable chatStreamBySentence(ChatSession session, String message, boolean useFunctionCall,
+            TriConsumer<String, Boolean, Boolean> sentenceHandler, CancellationToken token) {
+        return chatStreamBySentence(session, new UserMessage(message), useFunctionCall, sentenceHandler, null, token);
+    }
+
+    /**
+     * 推测执行的流式对话
+     * 请求立即发出，句子和消息入库都要等调用方确认后才生效，取消时撤回已加入对话历史的用户消息，
+     * 确认时把用户消息换成最终识别文本
+     *
+     * @param message         推测的用户文本
+     * @param sentenceHandler 确认后接收句子的处理器
+     * @param token           对话的取消令牌，确认后对话被打断时也能停止请求
+     */
+    public SpeculativeChat speculate(ChatSession session, String message, boolean useFunctionCall,
+            TriConsumer<String, Boolean, Boolean> sentenceHandler, CancellationToken token) {
+        SpeculativeChat speculative = new SpeculativeChat(message, sentenceHandler);
+        UserMessage userMessage = new UserMessage(message);
+        Disposable subscription = chatStreamBySentence(session, userMessage, useFunctionCall,
+                speculative::accept, speculative, token);
+        speculative.bind(subscription != null ? subscription : () -> {},
+                () -> session.getConversation().remove(userMessage),
+                text -> session.getConversation().replace(userMessage, new UserMessage(text)));
+        return speculative;
+    }
+
+    private Disposable chatStreamBySentence(ChatSession session, UserMessage userMessage, boolean useFunctionCall,
+            TriConsumer<String, Boolean, Boolean> sentenceHandler, SpeculativeChat speculative,
+            CancellationToken token) {
+        String message = userMessage.getText();
+        if (token.isCancelled()) {
+            // 对话已被打断，不再请求模型，用户消息也不加入对话历史
+            return null;
+        }
         try {
             // 在对话开始时清除工具调用记录，确保每次对话都是干净的
             XiaoZhiToolCallingManager.clearRecentToolCall(session.getSessionId());
             
             // 创建流式响应监听器
-            StreamResponseListener streamListener = new TokenStreamResponseListener(session, message, sentenceHandler, useFunctionCall);
+            StreamResponseListener streamListener = new TokenStreamResponseListener(session, message, sentenceHandler, useFunctionCall, speculative);
             final StringBuilder toolName = new StringBuilder(); // 当前句子的缓冲区
             final StringBuilder fullResponse = new StringBuilder(); // 完整响应的缓冲区
             final List<ChatResponse> chatResponses = new ArrayList<>(); // 收集所有的ChatResponse
@@ -488,7 +515,8 @@ public class ChatService {
             
             AtomicReference<Usage> llmUsage = new AtomicReference<>();
             // 调用现有的流式方法
-            chatStream(session, message, useFunctionCall)
+            Disposable subscription = chatStream(session, userMessage, useFunctionCall)
+                    .doOnCancel(streamListener::onCancel)
                     .subscribe(
                             chatResponse -> {
                                 // 收集所有的ChatResponse用于后续处理
@@ -537,6 +565,9 @@ public class ChatService {
                                 
                                 streamListener.onComplete(toolName.toString(), llmUsage.get());
                             });
+            // 对话被打断时取消订阅，停止接收模型输出
+            token.onCancel(subscription::dispose);
+            return subscription;
         } catch (Exception e) {
             String errorMessage = "Извините, я столкнулся с проблемой при обработке вашего запроса.";
             
@@ -580,26 +611,11 @@ public class ChatService {
             
             // Отправляем ошибку пользователю
             sentenceHandler.accept(errorMessage, true, true);
+            return null;
         }
     }
 
 
-    /**
-     * 判断文本是否包含实质性内容（不仅仅是空白字符或标点符号）
-     *
-     * @param text 要检查的文本
-     * @return 是否包含实质性内容
-     */
-    private boolean containsSubstantialContent(String text) {
-        if (text == null || text.trim().length() < MIN_SENTENCE_LENGTH) {
-            return false;
-        }
-
-        // 移除所有标点符号和空白字符后，检查是否还有内容
-        String stripped = text.replaceAll("[\\p{P}\\s]", "");
-        return stripped.length() >= 2; // 至少有两个非标点非空白字符
-    }
-
     /**
      * 三参数消费者接口
      */
@@ -609,8 +625,6 @@ public class ChatService {
 
     class TokenStreamResponseListener implements StreamResponseListener {
 
-        final StringBuilder currentSentence = new StringBuilder(); // 当前句子的缓冲区
-        final StringBuilder contextBuffer = new StringBuilder(); // 上下文缓冲区，用于检测数字中的小数点
         final AtomicInteger sentenceCount = new AtomicInteger(0); // 已发送句子的计数
         final StringBuilder fullResponse = new StringBuilder(); // 完整响应的缓冲区
         final AtomicBoolean finalSentenceSent = new AtomicBoolean(false); // 跟踪最后一个句子是否已发送
@@ -618,13 +632,19 @@ public class ChatService {
         ChatSession session;
         TriConsumer<String, Boolean, Boolean> sentenceHandler;
         boolean useFunctionCall;
+        // 推测执行时不为空，消息要等确认后才入库
+        SpeculativeChat speculative;
+        final SentenceSegmenter segmenter; // 流式断句
 
         public TokenStreamResponseListener(ChatSession session, String message,
-                TriConsumer<String, Boolean, Boolean> sentenceHandler, boolean useFunctionCall) {
+                TriConsumer<String, Boolean, Boolean> sentenceHandler, boolean useFunctionCall,
+                SpeculativeChat speculative) {
             this.message = message;
             this.session = session;
             this.sentenceHandler = sentenceHandler;
             this.useFunctionCall = useFunctionCall;
+            this.speculative = speculative;
+            this.segmenter = new SentenceSegmenter(SegmenterRules.forLanguage(segmenterLanguage), this::onSentence);
         }
 
         @Override
@@ -633,89 +653,26 @@ public class ChatService {
                 return;
             }
             // 将token添加到完整响应
-            fullResponse.append(token);
-
-            // 逐字符处理token
-            for (int i = 0; i < token.length();) {
-                int codePoint = token.codePointAt(i);
-                String charStr = new String(Character.toChars(codePoint));
-
-                // 将字符添加到上下文缓冲区（保留最近的字符以检测数字模式）
-                contextBuffer.append(charStr);
-                if (contextBuffer.length() > 20) { // 保留足够的上下文
-                    contextBuffer.delete(0, contextBuffer.length() - 20);
-                }
-
-                // 将字符添加到当前句子缓冲区
-                currentSentence.append(charStr);
-
-                // 检查各种断句标记
-                boolean shouldSendSentence = false;
-                boolean isEndMark = SENTENCE_END_PATTERN.matcher(charStr).find();
-                boolean isPauseMark = PAUSE_PATTERN.matcher(charStr).find();
-                boolean isSpecialMark = SPECIAL_PATTERN.matcher(charStr).find();
-                boolean isNewline = NEWLINE_PATTERN.matcher(charStr).find();
-                boolean isEmoji = EmojiUtils.isEmoji(codePoint);
-
-                // 检查当前句子是否包含颜文字
-                boolean containsKaomoji = false;
-                if (currentSentence.length() >= 3) { // 颜文字至少需要3个字符
-                    containsKaomoji = EmojiUtils.containsKaomoji(currentSentence.toString());
-                }
-
-                // 如果当前字符是句号，检查它是否是数字中的小数点
-                if (isEndMark && charStr.equals(".")) {
-                    String context = contextBuffer.toString();
-                    Matcher numberMatcher = NUMBER_PATTERN.matcher(context);
-                    // 如果找到数字模式（如"0.271"），则不视为句子结束标点
-                    if (numberMatcher.find() && numberMatcher.end() >= context.length() - 3) {
-                        isEndMark = false;
-                    }
-                }
-
-                // 判断是否应该发送当前句子
-                if (isEndMark) {
-                    // 句子结束标点是强断句信号
-                    shouldSendSentence = true;
-                } else if (isNewline) {
-                    // 换行符也是强断句信号
-                    shouldSendSentence = true;
-                } else if ((isPauseMark || isSpecialMark || isEmoji || containsKaomoji)
-                        && currentSentence.length() >= MIN_SENTENCE_LENGTH) {
-                    // 停顿标点、特殊标点、表情符号或颜文字在句子足够长时可以断句
-                    shouldSendSentence = true;
-                }
-
-                // 如果应该发送句子，且当前句子长度满足要求
-                if (shouldSendSentence && currentSentence.length() >= MIN_SENTENCE_LENGTH) {
-                    String sentence = currentSentence.toString().trim();
-
-                    // 过滤颜文字
-                    sentence = EmojiUtils.filterKaomoji(sentence);
-
-                    if (containsSubstantialContent(sentence)) {
-                        boolean isFirst = sentenceCount.get() == 0;
-                        boolean isLast = false; // 只有在onComplete中才会有最后一个句子
-
-                        sentenceHandler.accept(sentence, isFirst, isLast);
-                        sentenceCount.incrementAndGet();
+            synchronized (fullResponse) {
+                fullResponse.append(token);
+            }
 
-                        // 清空当前句子缓冲区
-                        currentSentence.setLength(0);
-                    }
-                }
+            segmenter.accept(token);
+        }
 
-                // 移动到下一个码点
-                i += Character.charCount(codePoint);
-            }
+        private void onSentence(String sentence) {
+            boolean isFirst = sentenceCount.get() == 0;
+            boolean isLast = false; // 只有在onComplete中才会有最后一个句子
+            sentenceHandler.accept(sentence, isFirst, isLast);
+            sentenceCount.incrementAndGet();
         }
 
         @Override
         public void onComplete(String toolName, Usage llmUsage) {
             // 检查该会话是否已完成处理
             // 处理当前缓冲区剩余的内容（如果有）
-            if (currentSentence.length() > 0 && !finalSentenceSent.get()) {
-                String sentence = currentSentence.toString().trim();
+            if (!segmenter.isEmpty() && !finalSentenceSent.get()) {
+                String sentence = segmenter.drain();
                 boolean isFirst = sentenceCount.get() == 0;
                 boolean isLast = true; // 这是最后一个句子
 
@@ -731,12 +688,39 @@ public class ChatService {
                 finalSentenceSent.set(true);
             }
 
-            persistMessages(toolName, llmUsage);
+            if (speculative != null) {
+                speculative.onConfirmed(() -> persistMessages(toolName, llmUsage));
+            } else {
+                persistMessages(toolName, llmUsage);
+            }
 
             // 记录处理的句子数量
             logger.debug("Всего обработано {} предложений", sentenceCount.get());
         }
 
+        /**
+         * 对话被打断，保存已经生成的部分回复，避免对话历史中的用户消息没有回应
+         * 保存时可能要等待TTS响应时间，不在取消的线程中执行
+         */
+        @Override
+        public void onCancel() {
+            String partial;
+            synchronized (fullResponse) {
+                partial = fullResponse.toString();
+            }
+            logger.debug("Поток LLM отменён - SessionId: {}, сгенерировано символов: {}",
+                    session.getSessionId(), partial.length());
+            if (partial.isEmpty()) {
+                return;
+            }
+            Runnable persist = () -> persistMessages("", null);
+            if (speculative != null) {
+                speculative.onConfirmed(persist);
+            } else {
+                Thread.startVirtualThread(persist);
+            }
+        }
+
         /**
          * 保存消息,只保存用户输入与输出。
          * Message在没有持久化前，是不会有messageId的。
@@ -749,7 +733,11 @@ public class ChatService {
             UserMessage userMessage = new UserMessage(message);
             Long userTimeMillis = session.getUserTimeMillis();
 
-            AssistantMessage assistantMessage = new AssistantMessage(fullResponse.toString(), Map.of("toolName", toolName));
+            String response;
+            synchronized (fullResponse) {
+                response = fullResponse.toString();
+            }
+            AssistantMessage assistantMessage = new AssistantMessage(response, Map.of("toolName", toolName));
             // 将Usage附加于AssistantMessage的metadata。以后可以考虑封装AssistantMessage的子类，减少metadata样板代码。
             ChatMemory.setUsage(assistantMessage, llmUsage);
             // 首次模型响应时间、首次TTS响应时间都是AssistantMessage才具备的metadata，UserMessage没有实际也不应该有。
@@ -0,0 +1,178 @@
+package com.xiaozhi.dialogue.llm;
+
+import com.xiaozhi.common.cache.TwoLevelCacheManager;
+import com.xiaozhi.dialogue.llm.providers.OpenAiLlmService;
+import com.xiaozhi.entity.SysConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 模型能力登记
+ * 按配置ID记录OpenAI协议模型是否支持FunctionCall，每个配置只探测一次，结果写入缓存（生产环境为Redis，重启和多实例共用）。
+ * 结果过期后先继续使用旧值，同时在后台重新探测；同一配置同时只有一个探测请求，设备集中重连时不会再发出探测。
+ * 接口地址或模型变化后旧结果不再使用，配置更新时移除；使用Redis两级缓存时，其他节点收到该缓存的失效通知后一并移除本地副本。
+ */
+@Component
+public class LlmCapabilityRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(LlmCapabilityRegistry.class);
+
+    private static final String CACHE_NAME = "XiaoZhi:LlmCapability";
+
+    /**
+     * 探测结果，记录探测时的接口地址和模型，两者变化时结果作废
+     */
+    public record Capability(String endpoint, String model, boolean functionCall, long probedAt)
+            implements Serializable {
+    }
+
+    // 探测结果的有效期
+    @Value("${llm.capability.ttl-hours:24}")
+    private long ttlHours;
+
+    @Resource
+    private CacheManager cacheManager;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 本地副本，避免每次都访问Redis
+    private final Map<Integer, Capability> local = new ConcurrentHashMap<>();
+    // 进行中的探测，同一配置只发一次请求
+    private final Map<Integer, CompletableFuture<Capability>> probing = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (cacheManager instanceof TwoLevelCacheManager manager) {
+            manager.addInvalidationListener(CACHE_NAME, this::onRemoteChange);
+        }
+    }
+
+    /**
+     * 获取模型是否支持FunctionCall
+     * 有有效结果时立即回调；没有时发起（或等待进行中的）探测，完成后回调，探测失败不回调
+     */
+    public void resolveFunctionCall(SysConfig config, Consumer<Boolean> callback) {
+        Capability capability = lookup(config);
+        if (capability != null) {
+            record("hit");
+            callback.accept(capability.functionCall());
+            if (isExpired(capability)) {
+                probe(config);
+            }
+            return;
+        }
+        record("miss");
+        probe(config).thenAccept(result -> {
+            if (result != null) {
+                callback.accept(result.functionCall());
+            }
+        });
+    }
+
+    /**
+     * 配置更新时移除探测结果
+     */
+    public void evict(Integer configId) {
+        if (configId == null) {
+            return;
+        }
+        local.remove(configId);
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache != null) {
+            cache.evict(configId);
+        }
+    }
+
+    /**
+     * 其他节点移除或更新了探测结果，key为配置ID，null表示全部
+     */
+    private void onRemoteChange(String key) {
+        if (key == null) {
+            local.clear();
+        } else {
+            try {
+                local.remove(Integer.valueOf(key));
+            } catch (NumberFormatException e) {
+                local.clear();
+            }
+        }
+    }
+
+    private Capability lookup(SysConfig config) {
+        Capability capability = local.get(config.getConfigId());
+        if (capability == null) {
+            Cache cache = cacheManager.getCache(CACHE_NAME);
+            capability = cache != null ? cache.get(config.getConfigId(), Capability.class) : null;
+            if (capability != null) {
+                local.put(config.getConfigId(), capability);
+            }
+        }
+        if (capability == null || !Objects.equals(capability.endpoint(), config.getApiUrl())
+                || !Objects.equals(capability.model(), config.getConfigName())) {
+            return null;
+        }
+        return capability;
+    }
+
+    private CompletableFuture<Capability> probe(SysConfig config) {
+        Integer configId = config.getConfigId();
+        CompletableFuture<Capability> future = new CompletableFuture<>();
+        CompletableFuture<Capability> running = probing.putIfAbsent(configId, future);
+        if (running != null) {
+            return running;
+        }
+        Thread.startVirtualThread(() -> {
+            Capability capability = null;
+            try {
+                record("probe");
+                Boolean functionCall = new OpenAiLlmService(config.getApiUrl(), config.getApiKey(),
+                        config.getConfigName()).probeFunctionCall();
+                // 请求失败时不记录结果，下次再探测
+                if (functionCall != null) {
+                    capability = new Capability(config.getApiUrl(), config.getConfigName(), functionCall,
+                            System.currentTimeMillis());
+                    local.put(configId, capability);
+                    Cache cache = cacheManager.getCache(CACHE_NAME);
+                    if (cache != null) {
+                        cache.put(configId, capability);
+                    }
+                    logger.info("Поддержка FunctionCall моделью {} (конфигурация {}): {}", config.getConfigName(), configId, functionCall);
+                }
+            } catch (Exception e) {
+                logger.warn("Не удалось проверить поддержку FunctionCall моделью {}: {}", config.getConfigName(), e.getMessage());
+            } finally {
+                probing.remove(configId);
+                future.complete(capability);
+            }
+        });
+        return future;
+    }
+
+    private boolean isExpired(Capability capability) {
+        return System.currentTimeMillis() - capability.probedAt() > TimeUnit.HOURS.toMillis(ttlHours);
+    }
+
+    private void record(String result) {
+        Counter.builder("xiaozhi.llm.capability")
+                .description("模型能力查询，hit/miss为查询结果，probe为实际发出的探测请求")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
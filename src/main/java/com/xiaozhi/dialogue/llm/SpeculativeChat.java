@@ -0,0 +1,151 @@
+package com.xiaozhi.dialogue.llm;
+
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 推测执行的流式对话
+ * 最终识别结果出来之前，先用稳定的中间结果请求模型。模型返回的句子先缓存起来，
+ * 确认最终文本一致后按原顺序交给句子处理器，之后的句子直接转发，对话历史中的用户消息换成最终识别文本；
+ * 文本不一致时取消请求，并把提前加入对话历史的用户消息撤回。
+ * 推测请求不启用工具调用，工具的副作用在取消时无法撤回。
+ */
+public class SpeculativeChat {
+
+    private enum State { PENDING, CONFIRMED, CANCELLED }
+
+    private record PendingSentence(String text, boolean isFirst, boolean isLast) {
+    }
+
+    private final String message;
+    private final ChatService.TriConsumer<String, Boolean, Boolean> sentenceHandler;
+    private final List<PendingSentence> buffered = new ArrayList<>();
+    private State state = State.PENDING;
+    // 确认后才执行的操作（消息入库）
+    private Runnable confirmedAction;
+    private Disposable subscription;
+    private Runnable rollback;
+    // 确认时用最终文本替换对话历史中的用户消息
+    private Consumer<String> rewrite;
+
+    SpeculativeChat(String message, ChatService.TriConsumer<String, Boolean, Boolean> sentenceHandler) {
+        this.message = message;
+        this.sentenceHandler = sentenceHandler;
+    }
+
+    /**
+     * 推测时使用的用户文本
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 关联模型请求的订阅、撤回和改写操作，如果已经被取消则立即撤回
+     */
+    void bind(Disposable subscription, Runnable rollback, Consumer<String> rewrite) {
+        synchronized (this) {
+            if (state != State.CANCELLED) {
+                this.subscription = subscription;
+                this.rollback = rollback;
+                this.rewrite = rewrite;
+                return;
+            }
+        }
+        subscription.dispose();
+        rollback.run();
+    }
+
+    /**
+     * 模型输出的句子，确认前缓存，确认后直接转发，取消后丢弃
+     */
+    synchronized void accept(String text, Boolean isFirst, Boolean isLast) {
+        switch (state) {
+            case PENDING -> buffered.add(new PendingSentence(text, isFirst, isLast));
+            case CONFIRMED -> sentenceHandler.accept(text, isFirst, isLast);
+            case CANCELLED -> {
+            }
+        }
+    }
+
+    /**
+     * 登记确认后才执行的操作，已确认时在虚拟线程中立即执行
+     */
+    void onConfirmed(Runnable action) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                confirmedAction = action;
+                return;
+            }
+            if (state == State.CANCELLED) {
+                return;
+            }
+        }
+        Thread.startVirtualThread(action);
+    }
+
+    /**
+     * 确认推测结果，把对话历史中的用户消息换成最终文本，再按顺序交出已缓存的句子
+     *
+     * @param finalText 最终识别结果，与推测文本只在标点和空白上不同
+     * @return 已经被取消时返回false
+     */
+    public boolean confirm(String finalText) {
+        Runnable action;
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return state == State.CONFIRMED;
+            }
+            state = State.CONFIRMED;
+            // 在消息入库之前改写，入库的是最终识别文本
+            if (rewrite != null && !message.equals(finalText)) {
+                rewrite.accept(finalText);
+            }
+            rewrite = null;
+            // 在锁内交出缓存的句子，保证与之后到达的句子顺序一致
+            for (PendingSentence sentence : buffered) {
+                sentenceHandler.accept(sentence.text(), sentence.isFirst(), sentence.isLast());
+            }
+            buffered.clear();
+            action = confirmedAction;
+            confirmedAction = null;
+        }
+        if (action != null) {
+            Thread.startVirtualThread(action);
+        }
+        return true;
+    }
+
+    /**
+     * 取消推测：停止模型请求，丢弃缓存的句子并撤回用户消息
+     *
+     * @return 已经确认过时返回false
+     */
+    public boolean cancel() {
+        Disposable toDispose;
+        Runnable toRollback;
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return state == State.CANCELLED;
+            }
+            state = State.CANCELLED;
+            buffered.clear();
+            confirmedAction = null;
+            toDispose = subscription;
+            toRollback = rollback;
+            subscription = null;
+            rollback = null;
+            rewrite = null;
+        }
+        if (toDispose != null) {
+            toDispose.dispose();
+        }
+        if (toRollback != null) {
+            toRollback.run();
+        }
+        return true;
+    }
+}
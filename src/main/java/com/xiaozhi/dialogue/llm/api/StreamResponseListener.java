@@ -27,4 +27,10 @@ public interface StreamResponseListener {
      * @param e 发生的异常
      */
     void onError(Throwable e);
+
+    /**
+     * 当流式响应被取消时调用，之后不会再调用onComplete
+     */
+    default void onCancel() {
+    }
 }
\ No newline at end of file
@@ -1,15 +1,19 @@
 package com.xiaozhi.dialogue.llm.factory;
 
+import com.xiaozhi.common.cache.TwoLevelCacheManager;
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.dialogue.llm.providers.CozeChatModel;
 import com.xiaozhi.dialogue.llm.providers.DifyChatModel;
 import com.xiaozhi.dialogue.llm.providers.OpenAiLlmService;
+import com.xiaozhi.dialogue.service.DialogueProfile;
 import com.xiaozhi.dialogue.token.factory.TokenServiceFactory;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.entity.SysRole;
 import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.service.SysRoleService;
+import com.xiaozhi.utils.HttpUtil;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.model.ChatModel;
@@ -25,7 +29,10 @@ import org.springframework.ai.openai.api.OpenAiApi;
 import org.springframework.ai.zhipuai.ZhiPuAiChatModel;
 import org.springframework.ai.zhipuai.ZhiPuAiChatOptions;
 import org.springframework.ai.zhipuai.api.ZhiPuAiApi;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
 import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.http.client.reactive.JdkClientHttpConnector;
 import org.springframework.stereotype.Component;
@@ -37,11 +44,16 @@ import org.springframework.web.client.RestClient;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import java.net.http.HttpClient;
-import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * ChatModel工厂
  * 根据配置的模型ID，创建对应的ChatModel
+ * 创建好的ChatModel按配置ID和角色的采样参数（temperature、topP）缓存，配置更新时移除，
+ * 角色修改采样参数或模型后自然对应新的缓存key，旧条目由LRU淘汰。
+ * 使用Redis两级缓存时，配置更新通过失效通知同步到其他节点，各节点移除自己缓存的ChatModel。
  */
 @Component
 public class ChatModelFactory {
@@ -53,16 +65,54 @@ public class ChatModelFactory {
     private ToolCallingManager toolCallingManager;
     @Autowired
     private TokenServiceFactory tokenService;
+    @Autowired
+    private ObjectProvider<CacheManager> cacheManager;
     private final Logger logger = LoggerFactory.getLogger(ChatModelFactory.class);
 
+    // 缓存的ChatModel数量上限
+    @Value("${llm.model.cache.size:64}")
+    private int cacheSize;
+
+    // 失效通知中ChatModel使用的名称，key为config:配置ID或agent:智能体平台
+    private static final String INVALIDATION_NAME = "XiaoZhi:ChatModel";
+    private static final String CONFIG_PREFIX = "config:";
+    private static final String AGENT_PREFIX = "agent:";
+
+    // 未使用Redis两级缓存时为null，只有单个节点
+    private TwoLevelCacheManager invalidation;
+
+    private record ModelKey(Integer configId, String provider, Double temperature, Double topP) {
+    }
+
+    // 按访问顺序淘汰的ChatModel缓存，HTTP客户端由HttpUtil共享，淘汰时只需丢弃引用
+    private final Map<ModelKey, ChatModel> modelCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ModelKey, ChatModel> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    @PostConstruct
+    public void init() {
+        if (cacheManager.getIfUnique() instanceof TwoLevelCacheManager manager) {
+            invalidation = manager;
+            manager.addInvalidationListener(INVALIDATION_NAME, this::onRemoteChange);
+        }
+    }
+
     /**
-     * 根据配置ID创建ChatModel，首次调用时缓存，缓存key为配置ID。
+     * 根据会话角色的配置获取ChatModel，首次调用时创建并缓存，缓存key为配置ID和采样参数。
      * 
-     * @see SysConfigService#selectConfigById(Integer) 已经进行了Cacheable,所以此处没有必要缓存
      * @param session 与网络链接绑定的聊天会话
      * @return
      */
     public ChatModel takeChatModel(ChatSession session) {
+        // 优先使用会话已解析的角色和模型配置
+        DialogueProfile profile = session.getDialogueProfile();
+        if (profile != null && profile.modelConfig() != null
+                && Objects.equals(profile.roleId(), session.getSysDevice().getRoleId())) {
+            return createChatModel(profile.modelConfig(), profile.role());
+        }
         SysDevice device = session.getSysDevice();
         SysRole role = roleService.selectRoleById(device.getRoleId());
         return takeChatModel(role);
@@ -82,6 +132,11 @@ public class ChatModelFactory {
      * @return имя модели
      */
     public String getModelName(ChatSession session) {
+        DialogueProfile profile = session.getDialogueProfile();
+        if (profile != null && profile.modelConfig() != null
+                && Objects.equals(profile.roleId(), session.getSysDevice().getRoleId())) {
+            return profile.modelConfig().getConfigName();
+        }
         SysDevice device = session.getSysDevice();
         SysRole role = roleService.selectRoleById(device.getRoleId());
         Integer modelId = role.getModelId();
@@ -123,13 +178,83 @@ public class ChatModelFactory {
         SysConfig config = configService.selectConfigById(modelId);
         return createChatModel(config, role);
     }
+    /**
+     * 配置更新或删除时移除对应的ChatModel，并通知其他节点
+     * 智能体配置（Dify、Coze的密钥）变更时移除该平台的全部ChatModel
+     */
+    public void removeCache(SysConfig config) {
+        if (config == null) {
+            return;
+        }
+        boolean agent = "agent".equals(config.getConfigType()) && config.getProvider() != null;
+        if (agent) {
+            evict(config.getProvider(), null);
+        } else {
+            evict(null, config.getConfigId());
+        }
+        if (invalidation != null && (agent || config.getConfigId() != null)) {
+            invalidation.publishInvalidation(INVALIDATION_NAME, agent
+                    ? AGENT_PREFIX + config.getProvider()
+                    : CONFIG_PREFIX + config.getConfigId());
+        }
+    }
+
+    /**
+     * 其他节点的配置变更，key为null时移除全部
+     */
+    private void onRemoteChange(String key) {
+        if (key == null) {
+            synchronized (modelCache) {
+                modelCache.clear();
+            }
+        } else if (key.startsWith(AGENT_PREFIX)) {
+            evict(key.substring(AGENT_PREFIX.length()), null);
+        } else if (key.startsWith(CONFIG_PREFIX)) {
+            evict(null, Integer.valueOf(key.substring(CONFIG_PREFIX.length())));
+        }
+    }
+
+    /**
+     * 移除智能体平台的全部ChatModel，平台为null时移除该配置的ChatModel
+     */
+    private void evict(String agentProvider, Integer configId) {
+        synchronized (modelCache) {
+            modelCache.keySet().removeIf(key -> agentProvider != null
+                    ? agentProvider.equalsIgnoreCase(key.provider())
+                    : Objects.equals(key.configId(), configId));
+        }
+    }
+
+    /**
+     * 从缓存获取ChatModel，没有时创建
+     * Coze使用会过期的token，不缓存
+     */
+    private ChatModel createChatModel(SysConfig config, SysRole role) {
+        String provider = config.getProvider().toLowerCase();
+        if ("coze".equals(provider)) {
+            return newChatModel(config, role);
+        }
+        var key = new ModelKey(config.getConfigId(), provider, role.getTemperature(), role.getTopP());
+        synchronized (modelCache) {
+            ChatModel chatModel = modelCache.get(key);
+            if (chatModel != null) {
+                return chatModel;
+            }
+        }
+        // 在锁外创建，并发首次创建时以先放入的为准
+        ChatModel chatModel = newChatModel(config, role);
+        synchronized (modelCache) {
+            return modelCache.computeIfAbsent(key, k -> chatModel);
+        }
+    }
+
     /**
      * 创建ChatModel
      * 
      * @param config
      * @return
      */
-    private ChatModel createChatModel(SysConfig config, SysRole role) {
+    private ChatModel newChatModel(SysConfig config, SysRole role) {
         String provider = config.getProvider().toLowerCase();
         String model = config.getConfigName();
         String endpoint = config.getApiUrl();
@@ -205,18 +330,23 @@ public class ChatModelFactory {
         MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
         headers.add("Content-Type", "application/json");
 
-        // LM Studio不支持Http/2，所以需要强制使用HTTP/1.1
+        // 共享的JDK HttpClient：https端点协商HTTP/2，明文http（如LM Studio，不支持Http/2）只用HTTP/1.1
+        HttpClient httpClient = HttpUtil.jdkClientFor(endpoint);
         var openAiApi = OpenAiApi.builder()
                 .apiKey(StringUtils.hasText(apiKey) ? new SimpleApiKey(apiKey) : new NoopApiKey())
                 .baseUrl(endpoint)
                 .completionsPath("/chat/completions")
                 .headers(headers)
                 .webClientBuilder(WebClient.builder()
-                        // Force HTTP/1.1 for streaming
-                        .clientConnector(new JdkClientHttpConnector(HttpClient.newBuilder()
-                                .version(HttpClient.Version.HTTP_1_1)
-                                .connectTimeout(Duration.ofSeconds(30))
-                                .build()))
+                        .clientConnector(new JdkClientHttpConnector(httpClient))
+                        // 按主机记录请求耗时
+                        .filter((request, next) -> {
+                            String host = HttpUtil.host(request.url());
+                            long start = System.nanoTime();
+                            return next.exchange(request)
+                                    .doOnNext(response -> HttpUtil.recordRequest(host, response.statusCode().value(), start))
+                                    .doOnError(e -> HttpUtil.recordFailure(host, start));
+                        })
                         // Добавляем логирование запросов
                         .filter(org.springframework.web.reactive.function.client.ExchangeFilterFunction.ofRequestProcessor(
                                 request -> {
@@ -226,11 +356,19 @@ public class ChatModelFactory {
                                     return reactor.core.publisher.Mono.just(request);
                                 })))
                 .restClientBuilder(RestClient.builder()
-                        // Force HTTP/1.1 for non-streaming
-                        .requestFactory(new JdkClientHttpRequestFactory(HttpClient.newBuilder()
-                                .version(HttpClient.Version.HTTP_1_1)
-                                .connectTimeout(Duration.ofSeconds(30))
-                                .build())))
+                        .requestFactory(new JdkClientHttpRequestFactory(httpClient))
+                        .requestInterceptor((request, body, execution) -> {
+                            String host = HttpUtil.host(request.getURI());
+                            long start = System.nanoTime();
+                            try {
+                                var response = execution.execute(request, body);
+                                HttpUtil.recordRequest(host, response.getStatusCode().value(), start);
+                                return response;
+                            } catch (java.io.IOException e) {
+                                HttpUtil.recordFailure(host, start);
+                                throw e;
+                            }
+                        }))
                 .build();
         var openAiChatOptions = OpenAiChatOptions.builder()
                 .model(model)
@@ -74,6 +74,29 @@ public class Conversation{
         messages.add(message);
     }
 
+    /**
+     * 撤回一条尚未入库的消息，按对象本身匹配。
+     * 推测执行的对话被取消时，用来把提前加入的用户消息移出对话历史。
+     */
+    public boolean remove(Message message) {
+        return messages.removeIf(m -> m == message);
+    }
+
+    /**
+     * 替换一条尚未入库的消息，按对象本身匹配，沿用原消息的元数据。
+     * 推测执行的对话被确认时，用来把推测时加入的用户消息换成最终识别文本。
+     */
+    public boolean replace(Message message, Message replacement) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i) == message) {
+                replacement.getMetadata().putAll(message.getMetadata());
+                messages.set(i, replacement);
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 将数据库记录的SysMessag转换为spring-ai的Message。
      *
@@ -2,6 +2,7 @@ package com.xiaozhi.dialogue.llm.providers;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xiaozhi.utils.HttpUtil;
 import okhttp3.*;
 import okio.BufferedSource;
 import org.slf4j.Logger;
@@ -12,16 +13,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 public class OpenAiLlmService {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     protected static final ObjectMapper objectMapper = new ObjectMapper();
-    protected static final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(10, TimeUnit.SECONDS)
-            .readTimeout(300, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .build();
+    protected static final OkHttpClient client = HttpUtil.client(10, 300);
 
     protected static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
@@ -265,6 +261,15 @@ public class OpenAiLlmService {
     }
 
     public boolean testFunctionCall(){
+        return Boolean.TRUE.equals(probeFunctionCall());
+    }
+
+    /**
+     * 发送一次测试请求检查模型是否支持FunctionCall
+     *
+     * @return 是否支持；请求失败（鉴权、网络、服务端错误等）时返回null，此时无法判断
+     */
+    public Boolean probeFunctionCall(){
         List<Map<String, Object>> formattedMessages = new ArrayList<>();
         // 添加提示词信息
         Map<String, Object> systemMsg = new HashMap<>();
@@ -302,7 +307,8 @@ public class OpenAiLlmService {
             // 发送请求
             try (Response response = client.newCall(request).execute()) {
                 if (!response.isSuccessful()) {
-                    return false;
+                    logger.warn("Не удалось вызвать модель {} для проверки поддержки FunctionCall, код состояния: {}", model, response.code());
+                    return null;
                 }
                 String responseBody = response.body().string();
 
@@ -318,6 +324,7 @@ public class OpenAiLlmService {
             }
         }catch (Exception e){
             logger.error("调用{}模型检查是否支持FunctionCall发生错误", model, e);
+            return null;
         }
         return false;
     }
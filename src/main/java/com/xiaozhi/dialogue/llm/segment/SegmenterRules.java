@@ -0,0 +1,134 @@
+package com.xiaozhi.dialogue.llm.segment;
+
+import com.xiaozhi.utils.EmojiUtils;
+
+/**
+ * 断句规则
+ * 构建时把各类断句字符展开成按码点下标的分类表，断句时每个字符只查一次表。
+ * 不同语言的标点习惯不同，通过{@link #forLanguage(String)}选择，也可以用{@link #builder()}自定义。
+ */
+public final class SegmenterRules {
+
+    // 字符分类
+    static final byte OTHER = 0;
+    // 句子结束标点，强断句
+    static final byte END = 1;
+    // 逗号、分号等停顿标点
+    static final byte PAUSE = 2;
+    // 冒号和引号等特殊标点
+    static final byte SPECIAL = 3;
+    // 换行符，强断句
+    static final byte NEWLINE = 4;
+    // 表情符号
+    static final byte EMOJI = 5;
+    // 英文句点：数字中间的小数点不断句，连续的省略号归入同一句
+    static final byte DOT = 6;
+
+    // 分类表覆盖的码点范围（基本平面和两个补充平面，表情都在其中）
+    private static final int TABLE_SIZE = 0x30000;
+
+    /**
+     * 中文规则，英文句点不断句
+     */
+    public static final SegmenterRules CHINESE = builder().build();
+
+    /**
+     * 英文、俄文等使用句点的语言，句点作为句子结束标点
+     */
+    public static final SegmenterRules LATIN = builder().dot('.').build();
+
+    private final byte[] table;
+    private final int minSentenceLength;
+
+    private SegmenterRules(byte[] table, int minSentenceLength) {
+        this.table = table;
+        this.minSentenceLength = minSentenceLength;
+    }
+
+    /**
+     * 按语言代码选择规则，未知语言使用中文规则
+     */
+    public static SegmenterRules forLanguage(String language) {
+        if (language == null) {
+            return CHINESE;
+        }
+        return switch (language.toLowerCase()) {
+            case "en", "ru", "latin" -> LATIN;
+            default -> CHINESE;
+        };
+    }
+
+    byte classify(int codePoint) {
+        return codePoint < TABLE_SIZE ? table[codePoint] : OTHER;
+    }
+
+    /**
+     * 最小句子长度（UTF-16字符数），短于该长度不断句
+     */
+    public int getMinSentenceLength() {
+        return minSentenceLength;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private String sentenceEnd = "。！？!?";
+        private String pause = "，、；,;";
+        private String special = "：:\"";
+        private String newline = "\n\r";
+        private String dot = "";
+        private int minSentenceLength = 5;
+
+        public Builder sentenceEnd(String chars) {
+            this.sentenceEnd = chars;
+            return this;
+        }
+
+        public Builder pause(String chars) {
+            this.pause = chars;
+            return this;
+        }
+
+        public Builder special(String chars) {
+            this.special = chars;
+            return this;
+        }
+
+        public Builder newline(String chars) {
+            this.newline = chars;
+            return this;
+        }
+
+        public Builder dot(char dot) {
+            this.dot = String.valueOf(dot);
+            return this;
+        }
+
+        public Builder minSentenceLength(int minSentenceLength) {
+            this.minSentenceLength = minSentenceLength;
+            return this;
+        }
+
+        public SegmenterRules build() {
+            byte[] table = new byte[TABLE_SIZE];
+            for (int cp = 0; cp < TABLE_SIZE; cp++) {
+                if (EmojiUtils.isEmoji(cp)) {
+                    table[cp] = EMOJI;
+                }
+            }
+            // 同一字符出现在多个分类时，后设置的分类生效
+            mark(table, special, SPECIAL);
+            mark(table, pause, PAUSE);
+            mark(table, newline, NEWLINE);
+            mark(table, dot, DOT);
+            mark(table, sentenceEnd, END);
+            return new SegmenterRules(table, minSentenceLength);
+        }
+
+        private static void mark(byte[] table, String chars, byte type) {
+            chars.codePoints().filter(cp -> cp < TABLE_SIZE).forEach(cp -> table[cp] = type);
+        }
+    }
+}
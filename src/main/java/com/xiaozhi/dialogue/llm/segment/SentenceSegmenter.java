@@ -0,0 +1,268 @@
+package com.xiaozhi.dialogue.llm.segment;
+
+import com.xiaozhi.utils.EmojiUtils;
+
+import java.util.function.Consumer;
+
+/**
+ * 流式断句器
+ * 逐个码点接收模型输出，凑够一句就交给下游。每个字符只查一次分类表并更新少量状态：
+ * 颜文字、小数点和实质内容的判断都是增量进行的，不会重新扫描已缓存的句子，耗时与输出长度成线性关系。
+ * 断句规则与原先一致：句子结束标点、换行、停顿标点、特殊标点、表情或颜文字处，且句子不短于最小长度、
+ * 至少包含两个非标点非空白字符时断句，颜文字不发送。
+ * 非线程安全，每次对话一个实例。
+ */
+public class SentenceSegmenter {
+
+    // 颜文字括号内最多的字符数，与EmojiUtils中的颜文字模式一致
+    private static final int KAOMOJI_MAX_INNER = 10;
+
+    private final SegmenterRules rules;
+    private final Consumer<String> sink;
+    private final StringBuilder buffer = new StringBuilder(64);
+
+    // 当前句子的码点数
+    private int codePoints = 0;
+    // 当前句子中非标点非空白字符数（UTF-16字符数）
+    private int substantial = 0;
+    // 当前句子是否包含颜文字
+    private boolean kaomoji = false;
+    // 最近两个未闭合的左括号位置（码点下标），-1表示没有
+    private int lastParen = -1, prevParen = -1;
+    private int lastAngle = -1, prevAngle = -1;
+    // 形如 *_* 的颜文字：已读到左侧符号，以及其后连续的下划线或横线数
+    private boolean afterSeparator = false;
+    private int dashRun = 0;
+    // 前两个码点，-1表示没有
+    private int prev1 = -1, prev2 = -1;
+    // 英文句点要看下一个字符才能确定是否断句
+    private boolean pendingDot = false;
+    private boolean dotAfterDigit = false;
+
+    public SentenceSegmenter(SegmenterRules rules, Consumer<String> sink) {
+        this.rules = rules;
+        this.sink = sink;
+    }
+
+    /**
+     * 接收一段模型输出
+     */
+    public void accept(CharSequence token) {
+        for (int i = 0; i < token.length();) {
+            int codePoint = Character.codePointAt(token, i);
+            i += Character.charCount(codePoint);
+            step(codePoint);
+        }
+    }
+
+    /**
+     * 当前是否没有缓存的内容
+     */
+    public boolean isEmpty() {
+        return buffer.isEmpty();
+    }
+
+    /**
+     * 取出剩余内容（去掉首尾空白，不做长度和内容检查），用于输出结束时发送最后一句
+     */
+    public String drain() {
+        String rest = buffer.toString().trim();
+        reset();
+        return rest;
+    }
+
+    private void step(int codePoint) {
+        byte type = rules.classify(codePoint);
+        if (pendingDot) {
+            if (type == SegmenterRules.DOT) {
+                // 省略号，继续等待
+                append(codePoint);
+                dotAfterDigit = false;
+                return;
+            }
+            pendingDot = false;
+            // 数字中间的小数点不断句
+            if (!(dotAfterDigit && isDigit(codePoint))) {
+                tryEmit();
+            }
+        }
+        if (type == SegmenterRules.DOT) {
+            dotAfterDigit = isDigit(prev1);
+            append(codePoint);
+            pendingDot = true;
+            return;
+        }
+        append(codePoint);
+        if (type != SegmenterRules.OTHER || kaomoji) {
+            tryEmit();
+        }
+    }
+
+    private void append(int codePoint) {
+        if (!kaomoji) {
+            kaomoji = detectKaomoji(codePoint);
+        }
+        buffer.appendCodePoint(codePoint);
+        codePoints++;
+        if (!isPunctuation(codePoint) && !isSpace(codePoint)) {
+            substantial += Character.charCount(codePoint);
+        }
+        prev2 = prev1;
+        prev1 = codePoint;
+    }
+
+    /**
+     * 当前句子满足条件时发送并清空
+     */
+    private void tryEmit() {
+        int minLength = rules.getMinSentenceLength();
+        if (buffer.length() < minLength) {
+            return;
+        }
+        String sentence;
+        if (kaomoji) {
+            // 少见情况：过滤掉颜文字后再检查
+            sentence = EmojiUtils.filterKaomoji(buffer.toString().trim());
+            if (!containsSubstantialContent(sentence, minLength)) {
+                return;
+            }
+        } else {
+            int start = 0;
+            int end = buffer.length();
+            while (start < end && buffer.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && buffer.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (end - start < minLength || substantial < 2) {
+                return;
+            }
+            sentence = buffer.substring(start, end);
+        }
+        reset();
+        sink.accept(sentence);
+    }
+
+    private void reset() {
+        buffer.setLength(0);
+        codePoints = 0;
+        substantial = 0;
+        kaomoji = false;
+        lastParen = prevParen = lastAngle = prevAngle = -1;
+        afterSeparator = false;
+        dashRun = 0;
+        prev1 = prev2 = -1;
+        pendingDot = false;
+        dotAfterDigit = false;
+    }
+
+    /**
+     * 读入一个码点后当前句子是否出现了颜文字，与EmojiUtils中的颜文字模式等价
+     */
+    private boolean detectKaomoji(int c) {
+        int index = codePoints;
+        boolean found = false;
+        switch (c) {
+            case '(', '（' -> {
+                prevParen = lastParen;
+                lastParen = index;
+            }
+            case ')', '）' -> {
+                found = closes(lastParen, prevParen, index);
+                lastParen = prevParen = -1;
+            }
+            case '<', '＜' -> {
+                prevAngle = lastAngle;
+                lastAngle = index;
+            }
+            case '>', '＞' -> {
+                found = closes(lastAngle, prevAngle, index);
+                lastAngle = prevAngle = -1;
+            }
+            default -> {
+            }
+        }
+
+        // *_* \-\ ¯-¯
+        if (c == '\\' || c == '¯' || c == '*') {
+            found |= afterSeparator && dashRun >= 1;
+            afterSeparator = true;
+            dashRun = 0;
+        } else if (c == '_' || c == '-') {
+            if (afterSeparator && ++dashRun > 2) {
+                afterSeparator = false;
+            }
+        } else {
+            afterSeparator = false;
+        }
+
+        // :) :-D :( ;-) \o/ =_ =\/
+        if (c == ')' || c == 'D' || c == '(') {
+            found |= prev1 == ':' || (prev1 == '-' && prev2 == ':');
+        }
+        if (c == ')') {
+            found |= prev1 == ';' || (prev1 == '-' && prev2 == ';');
+        }
+        if (c == '/') {
+            found |= prev1 == 'o' && prev2 == '\\';
+        }
+        if (c == '_' || c == '/') {
+            found |= prev1 == '=' || (prev1 == '\\' && prev2 == '=');
+        }
+        return found;
+    }
+
+    /**
+     * 右括号能否与之前未闭合的左括号组成颜文字（括号内1到10个字符）
+     */
+    private static boolean closes(int last, int prev, int index) {
+        if (last < 0) {
+            return false;
+        }
+        int inner = index - last - 1;
+        if (inner >= 1) {
+            return inner <= KAOMOJI_MAX_INNER;
+        }
+        // 紧挨着的一对括号，看更早的左括号
+        return prev >= 0 && index - prev - 1 <= KAOMOJI_MAX_INNER;
+    }
+
+    private static boolean containsSubstantialContent(String text, int minLength) {
+        if (text == null || text.trim().length() < minLength) {
+            return false;
+        }
+        int count = 0;
+        for (int i = 0; i < text.length();) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (!isPunctuation(codePoint) && !isSpace(codePoint)) {
+                count += Character.charCount(codePoint);
+            }
+        }
+        return count >= 2;
+    }
+
+    private static boolean isDigit(int codePoint) {
+        return codePoint >= '0' && codePoint <= '9';
+    }
+
+    /**
+     * 等价于正则\s
+     */
+    private static boolean isSpace(int codePoint) {
+        return codePoint == ' ' || (codePoint >= '\t' && codePoint <= '\r');
+    }
+
+    /**
+     * 等价于正则\p{P}
+     */
+    private static boolean isPunctuation(int codePoint) {
+        return switch (Character.getType(codePoint)) {
+            case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+                    Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION,
+                    Character.FINAL_QUOTE_PUNCTUATION, Character.OTHER_PUNCTUATION -> true;
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package com.xiaozhi.dialogue.service;
+
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 会话的音频信箱
+ * 收到的音频包按到达顺序排队，同一时刻最多一个线程在处理，解码、VAD和STT数据流都在这里串行执行，不需要加锁。
+ * 队列有容量上限，处理跟不上时丢弃最旧的音频包，避免延迟越积越大。
+ */
+public class AudioMailbox {
+    private static final Logger logger = LoggerFactory.getLogger(AudioMailbox.class);
+
+    // 每次调度最多处理的音频包数，处理完让出线程，其他会话不会被长时间占用
+    private static final int BATCH_SIZE = 32;
+
+    private final String sessionId;
+    private final Consumer<byte[]> handler;
+    private final Executor executor;
+    private final int capacity;
+    private final Counter dropped;
+    private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    // 队列中的音频包数，ConcurrentLinkedQueue.size()需要遍历
+    private final AtomicInteger size = new AtomicInteger();
+    // 是否已提交处理任务
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    /**
+     * @param handler 按顺序处理每个音频包
+     * @param capacity 队列中最多保留的音频包数
+     * @param dropped 溢出丢弃的计数
+     */
+    public AudioMailbox(String sessionId, Consumer<byte[]> handler, Executor executor, int capacity,
+            Counter dropped) {
+        this.sessionId = sessionId;
+        this.handler = handler;
+        this.executor = executor;
+        this.capacity = Math.max(1, capacity);
+        this.dropped = dropped;
+    }
+
+    /**
+     * 投递一个音频包，不阻塞调用线程
+     */
+    public void offer(byte[] packet) {
+        if (closed) {
+            return;
+        }
+        queue.offer(packet);
+        if (size.incrementAndGet() > capacity && queue.poll() != null) {
+            size.decrementAndGet();
+            dropped.increment();
+        }
+        schedule();
+    }
+
+    /**
+     * 关闭信箱，丢弃未处理的音频包
+     */
+    public void close() {
+        closed = true;
+        while (queue.poll() != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (Exception e) {
+                scheduled.set(false);
+                logger.error("Не удалось отправить задачу обработки аудио - SessionId: {}", sessionId, e);
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH_SIZE && !closed; i++) {
+                byte[] packet = queue.poll();
+                if (packet == null) {
+                    break;
+                }
+                size.decrementAndGet();
+                try {
+                    handler.accept(packet);
+                } catch (Exception e) {
+                    logger.error("Не удалось обработать аудио - SessionId: {}", sessionId, e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // 释放后再检查一次，避免与offer交错时漏掉刚投递的音频包
+            if (!closed && !queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
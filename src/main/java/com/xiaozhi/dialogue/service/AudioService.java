@@ -2,33 +2,36 @@ package com.xiaozhi.dialogue.service;
 
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
+import com.xiaozhi.communication.domain.AudioParams;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.OpusProcessor;
 
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 
-import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
@@ -45,6 +48,23 @@ public class AudioService {
     // 仅播放文本的 Sleep 时长
     private static final long ONLY_TEXT_SLEEP_TIME_MS = 1000;
 
+    // 流式合成数据未到达时重新检查的间隔
+    private static final long STREAM_POLL_INTERVAL_MS = 10;
+
+    // 每句话开头立即突发发送的帧数，之后按实时节奏发送，设备端始终保持这么多帧的缓冲
+    @Value("${audio.preroll.frames:3}")
+    private int defaultPreRollFrames;
+
+    // 按设备类型覆盖预发送帧数，格式: 类型=帧数,类型=帧数，例如 esp32s3=5,web=1
+    @Value("${audio.preroll.frames.by-type:}")
+    private String preRollFramesByType;
+
+    // 预发送帧数上限，避免超出设备的解码队列
+    @Value("${audio.preroll.frames.max:10}")
+    private int maxPreRollFrames;
+
+    private final Map<String, Integer> preRollFramesOverrides = new HashMap<>();
+
     @Autowired
     private OpusProcessor opusProcessor;
 
@@ -54,30 +74,65 @@ public class AudioService {
     @Autowired
     private MessageService messageService;
 
-    // 使用虚拟线程池处理定时任务
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
-            Runtime.getRuntime().availableProcessors(),
-            Thread.ofVirtual().name("audio-scheduler-", 0).factory());
+    // 所有会话共用的帧发送节拍器
+    @Autowired
+    private FramePacer framePacer;
 
-    // 存储每个会话最后一次发送帧的时间戳
-    private final Map<String, AtomicLong> lastFrameSentTime = new ConcurrentHashMap<>();
+    // 存储每个会话已发送音频在设备端预计播放完的时间（纳秒），跨句子保留，用于计算设备端剩余缓冲
+    private final Map<String, Long> bufferedUntil = new ConcurrentHashMap<>();
 
     // 存储每个会话当前是否正在播放音频
     private final Map<String, AtomicBoolean> isPlaying = new ConcurrentHashMap<>();
     
 
-    // 存储每个会话的调度任务
-    private final Map<String, ScheduledFuture<?>> scheduledTasks = new ConcurrentHashMap<>();
-
     // 存储每个会话的音频发送任务
     private final Map<String, CompletableFuture<?>> sendAudioTasks = new ConcurrentHashMap<>();
 
-    // 存储播放开始时间（纳秒）
+    // 存储当前句子在设备端开始播放的时间（纳秒）
     private final Map<String, Long> playStartTimes = new ConcurrentHashMap<>();
     
-    // 存储播放位置（毫秒）
+    // 存储当前句子已发送的音频时长（毫秒）
     private final Map<String, Long> playPositions = new ConcurrentHashMap<>();
 
+    @PostConstruct
+    public void init() {
+        if (preRollFramesByType == null || preRollFramesByType.isBlank()) {
+            return;
+        }
+        for (String item : preRollFramesByType.split(",")) {
+            String[] pair = item.split("=");
+            if (pair.length != 2) {
+                logger.warn("Неверный формат настройки количества предварительно отправляемых кадров, игнорируется: {}", item);
+                continue;
+            }
+            try {
+                preRollFramesOverrides.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("Неверный формат настройки количества предварительно отправляемых кадров, игнорируется: {}", item);
+            }
+        }
+    }
+
+    /**
+     * 计算会话的预发送帧数
+     * 优先使用设备类型的覆盖配置；客户端hello声明的帧时长比服务端的帧长时，
+     * 设备要收齐一个自己的包才能开始解码，预发送至少覆盖一个客户端帧。
+     */
+    int resolvePreRollFrames(ChatSession session) {
+        int frames = defaultPreRollFrames;
+        SysDevice device = session.getSysDevice();
+        if (device != null && device.getType() != null) {
+            frames = preRollFramesOverrides.getOrDefault(device.getType(), frames);
+        }
+        if (session.getAttribute(ChatSession.ATTR_CLIENT_AUDIO_PARAMS) instanceof AudioParams params
+                && params.getFrameDuration() > 0) {
+            int clientFrames = (int) ((params.getFrameDuration() + OPUS_FRAME_SEND_INTERVAL_MS - 1)
+                    / OPUS_FRAME_SEND_INTERVAL_MS);
+            frames = Math.max(frames, clientFrames);
+        }
+        return Math.max(1, Math.min(frames, maxPreRollFrames));
+    }
+
     /**
      * 发送TTS开始消息
      */
@@ -121,10 +176,15 @@ public class AudioService {
             // 清理播放时间信息
             cleanTimers(sessionId);
             
-            // 延迟500ms后发送stop消息，确保设备完成音频播放
+            // 延迟500ms后发送stop消息，确保设备完成音频播放，预发送的帧还在设备缓冲里时再加上剩余的时长
+            long stopDelayMs = 500;
+            Long bufferedEnd = bufferedUntil.remove(sessionId);
+            if (bufferedEnd != null) {
+                stopDelayMs += Math.max(0, TimeUnit.NANOSECONDS.toMillis(bufferedEnd - System.nanoTime()));
+            }
             CompletableFuture<Void> sendTtsMessageFuture = CompletableFuture.runAsync(() -> {
                 messageService.sendTtsMessage(session, null, "stop");
-            }, CompletableFuture.delayedExecutor(500, TimeUnit.MILLISECONDS));
+            }, CompletableFuture.delayedExecutor(stopDelayMs, TimeUnit.MILLISECONDS));
             // 检查是否需要关闭会话
             if (sessionManager.isCloseAfterChat(sessionId)) {
                 sendTtsMessageFuture.thenRun(() -> {
@@ -148,6 +208,18 @@ public class AudioService {
         }
     }
 
+    /**
+     * 已发送的音频在设备端还能播放多久（毫秒），没有在播放时为0
+     * 只包含已发送的部分，当前句子还没发送的音频不计入
+     */
+    public long getBufferedMillis(String sessionId) {
+        Long end = bufferedUntil.get(sessionId);
+        if (end == null) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()));
+    }
+
     /**
      * 检查会话是否正在播放音频
      */
@@ -172,7 +244,9 @@ public class AudioService {
             boolean isLast) {
 
         String sessionId = session.getSessionId();
-        String audioPath = sentence.getAudioPath();
+        byte[] audio = sentence.getAudio();
+        Flux<byte[]> audioStream = sentence.getAudioStream();
+        List<byte[]> cachedFrames = sentence.getOpusFrames();
         String text = sentence.getText();
 
         // 标记开始播放
@@ -183,9 +257,10 @@ public class AudioService {
         CompletableFuture<Void> startFuture = isFirst ? CompletableFuture.runAsync(()->sendStart(session))
                 : CompletableFuture.completedFuture(null);
         
-        logger.info("向设备发送音频消息（sendAudioMessage） - SessionId: {}, 文本: {}, 音频路径: {}", sessionId, text, audioPath);
+        logger.info("Отправка аудиосообщения на устройство (sendAudioMessage) - SessionId: {}, текст: {}, байт аудио: {}", sessionId, text,
+                audio != null ? audio.length : audioStream != null ? "流式" : cachedFrames != null ? "缓存" : 0);
 
-        if (audioPath == null) {
+        if (audio == null && audioStream == null && cachedFrames == null) {
             if (text != null && !text.isEmpty()) {
                 // 检查是否是纯表情符号（通过检查句子是否有moods但没有实际文本内容）
                 boolean isOnlyEmoji = sentence.getMoods() != null && !sentence.getMoods().isEmpty() && 
@@ -235,7 +310,7 @@ public class AudioService {
                     });
                 }
             }
-            // 如果没有音频路径但是结束消息，发送结束标记
+            // 如果没有音频但是结束消息，发送结束标记
             if (isLast) {
                 return startFuture.thenCompose(v -> sendStop(session));
             }
@@ -252,28 +327,25 @@ public class AudioService {
         // 发送句子表情
         CompletableFuture<Void> emotionFuture = sentenceStartFuture.thenRun(() -> sendSentenceEmotion(session, sentence, null));
 
-        // 处理音频文件
-        CompletableFuture<Void> composeFuture = emotionFuture.thenCompose(v -> CompletableFuture.supplyAsync(() -> {
-            String fullPath = audioPath;
-            File audioFile = new File(fullPath);
-            if (!audioFile.exists()) {
-                logger.warn("音频文件不存在: {}", fullPath);
-                return null;
-            }
-
-            List<byte[]> opusFrames;
-
+        // 编码音频，流式合成的句子边接收PCM边编码
+        final FrameSource[] frameSourceHolder = new FrameSource[1];
+        CompletableFuture<Void> composeFuture = emotionFuture.thenCompose(v -> CompletableFuture.<FrameSource>supplyAsync(() -> {
             try {
-                byte[] audioData = AudioUtils.readAsPcm(fullPath);
+                if (cachedFrames != null) {
+                    return new ListFrameSource(cachedFrames);
+                }
+                if (audioStream != null) {
+                    return new StreamFrameSource(sessionId, audioStream, sentence.getEncodedFramesListener());
+                }
                 // 将PCM转换为Opus帧
-                opusFrames = opusProcessor.pcmToOpus(sessionId, audioData, false);
-                return opusFrames;
+                return new ListFrameSource(opusProcessor.pcmToOpus(sessionId, audio, false));
             } catch (Exception e) {
-                logger.error("处理音频文件失败: {}", fullPath, e);
+                logger.error("Не удалось закодировать аудио - SessionId: {}", sessionId, e);
                 return null;
             }
-        })).thenCompose(opusFrames -> {
-            if (opusFrames == null || opusFrames.isEmpty()) {
+        })).thenCompose(frameSource -> {
+            frameSourceHolder[0] = frameSource;
+            if (frameSource == null || frameSource.isFinished()) {
                 finalPlayingState.set(false);
                 if (isLast) {
                     return sendStop(session);
@@ -288,80 +360,77 @@ public class AudioService {
             CompletableFuture<Void> sendFramesFuture = new CompletableFuture<>();
             
             try {
-                // 计算句子间需要等待的时间（如果有上一帧的话）
-                long initialDelay = 0;
-                AtomicLong lastSentTime = lastFrameSentTime.get(sessionId);
-                if (lastSentTime != null) {
-                    long timeSinceLastFrame = System.currentTimeMillis() - lastSentTime.get();
-                    if (timeSinceLastFrame < OPUS_FRAME_SEND_INTERVAL_MS) {
-                        // 计算需要延迟的时间以保持间隔
-                        initialDelay = OPUS_FRAME_SEND_INTERVAL_MS - timeSinceLastFrame;
-                    }
-                }
-                
-                // 初始化播放时间和位置（延迟后再设置，避免时间计算错误）
-                final long frameInitialDelay = initialDelay;
-                
-                // 创建帧发送任务，从第一帧开始通过调度器发送
-                final int[] frameIndex = {0};
+                // 设备端保持的缓冲帧数，句首不足时突发补齐，之后按实时节奏发送
+                final long preRollNanos = (resolvePreRollFrames(session) - 1) * OPUS_FRAME_SEND_INTERVAL_MS * 1_000_000;
+                final boolean[] started = {false};
                 
                 Runnable frameTask = new Runnable() {
                     @Override
                     public void run() {
                         try {
-                            if (!finalPlayingState.get() || frameIndex[0] >= opusFrames.size() || !session.isOpen()) {
-                                // 完成非流式音频处理
-                                endTask(sessionId, sendFramesFuture);
-                                return;
-                            }
-                            
-                            // 首帧发送时初始化播放时间和位置
-                            if (frameIndex[0] == 0) {
-                                playStartTimes.put(sessionId, System.nanoTime());
+                            long now = System.nanoTime();
+                            // 首帧发送前初始化播放时间和位置：上一句还没在设备端播完时，本句接在其后播放
+                            if (!started[0]) {
+                                started[0] = true;
+                                playStartTimes.put(sessionId, Math.max(now, bufferedUntil.getOrDefault(sessionId, now)));
                                 playPositions.put(sessionId, 0L);
                             }
-                            
-                            // 更新活跃时间
-                            sessionManager.updateLastActivity(sessionId);
-                            
-                            // 发送当前帧
-                            byte[] frame = opusFrames.get(frameIndex[0]++);
-                            sendOpusFrame(session, frame);
-                            
-                            // 更新最后发送帧的时间
-                            lastFrameSentTime.computeIfAbsent(sessionId, k -> new AtomicLong())
-                                .set(System.currentTimeMillis());
-                            
-                            // 更新播放位置
-                            Long position = playPositions.get(sessionId);
-                            if (position != null) {
-                                playPositions.put(sessionId, position + OPUS_FRAME_SEND_INTERVAL_MS);
-                            }
-                            
-                            // 计算下一帧的发送时间
-                            if (frameIndex[0] < opusFrames.size()) {
-                                scheduleNextFrame(sessionId, this);
-                            } else {
-                                // 所有帧已发送完成
-                                endTask(sessionId, sendFramesFuture);
+
+                            while (true) {
+                                Long startTime = playStartTimes.get(sessionId);
+                                Long position = playPositions.get(sessionId);
+                                if (!finalPlayingState.get() || frameSource.isFinished() || !session.isOpen()
+                                        || startTime == null || position == null) {
+                                    // 完成音频处理
+                                    endTask(sessionId, sendFramesFuture);
+                                    return;
+                                }
+
+                                long playedUntil = startTime + position * 1_000_000;
+                                // 设备端缓冲已满，等到缓冲降到预发送帧数以下再发
+                                if (playedUntil - preRollNanos > now) {
+                                    framePacer.scheduleAt(sessionId, playedUntil - preRollNanos, this);
+                                    return;
+                                }
+
+                                byte[] frame = frameSource.poll();
+                                if (frame == null) {
+                                    // 流式合成的数据还没到，稍后再取；设备缓冲已经播空时播放时钟跟着顺延，数据到达后只补齐预发送的帧
+                                    if (playedUntil < now) {
+                                        playStartTimes.put(sessionId, now - position * 1_000_000);
+                                    }
+                                    framePacer.schedule(sessionId, TimeUnit.MILLISECONDS.toNanos(STREAM_POLL_INTERVAL_MS), this);
+                                    return;
+                                }
+
+                                // 更新活跃时间
+                                sessionManager.updateLastActivity(sessionId);
+
+                                // 发送当前帧
+                                sendOpusFrame(session, frame);
+
+                                // 更新播放位置和设备端缓冲的结束时间
+                                position += OPUS_FRAME_SEND_INTERVAL_MS;
+                                playPositions.put(sessionId, position);
+                                bufferedUntil.put(sessionId, startTime + position * 1_000_000);
+
+                                if (frameSource.isFinished()) {
+                                    // 所有帧已发送完成
+                                    endTask(sessionId, sendFramesFuture);
+                                    return;
+                                }
+                                now = System.nanoTime();
                             }
-                            
                         } catch (Exception e) {
                             // 发生错误，取消调度任务
-                            logger.error("非流式帧处理失败", e);
+                            logger.error("帧处理失败", e);
                             endTask(sessionId, sendFramesFuture, e);
                         }
                     }
                 };
                 
-                // 启动帧发送调度，使用计算好的初始延迟
-                if (opusFrames.size() > 0) {
-                    ScheduledFuture<?> future = scheduler.schedule(frameTask, frameInitialDelay, TimeUnit.MILLISECONDS);
-                    scheduledTasks.put(sessionId, future);
-                } else {
-                    // 没有帧需要发送
-                    endTask(sessionId, sendFramesFuture);
-                }
+                // 启动帧发送调度，发送时间由任务根据设备端缓冲计算
+                framePacer.schedule(sessionId, 0, frameTask);
                 
             } catch (Exception e) {
                 logger.error("音频帧发送初始化失败", e);
@@ -373,6 +442,11 @@ public class AudioService {
         }).whenComplete((result, error) -> {
             // 无论成功还是失败，都标记播放结束
             finalPlayingState.set(false);
+
+            // 停止接收流式合成的数据
+            if (frameSourceHolder[0] != null) {
+                frameSourceHolder[0].close();
+            }
             
             // 取消调度任务
             cancelScheduledTask(sessionId);
@@ -425,7 +499,7 @@ public class AudioService {
      * 清理会话资源
      */
     public void cleanupSession(String sessionId) {
-        lastFrameSentTime.remove(sessionId);
+        bufferedUntil.remove(sessionId);
         isPlaying.remove(sessionId);
         cleanTimers(sessionId);
         cancelScheduledTask(sessionId);
@@ -456,12 +530,14 @@ public class AudioService {
         // 清理播放时间信息
         cleanTimers(sessionId);
         
-        // 完成Future
-        if (error != null) {
-            future.completeExceptionally(error);
-        } else {
-            future.complete(null);
-        }
+        // 完成Future，后续回调（保存录音、处理下一句等）不能占用节拍线程
+        Thread.startVirtualThread(() -> {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(null);
+            }
+        });
     }
 
     /**
@@ -473,44 +549,135 @@ public class AudioService {
     }
     
     /**
-     * 计算并调度下一帧的发送时间
+     * 取消调度任务
      */
-    private void scheduleNextFrame(String sessionId, Runnable frameTask) {
-        Long startTime = playStartTimes.get(sessionId);
-        Long position = playPositions.get(sessionId);
-        
-        if (startTime == null || position == null) {
-            // 如果没有时间信息，使用固定间隔
-            ScheduledFuture<?> future = scheduler.schedule(frameTask, OPUS_FRAME_SEND_INTERVAL_MS, TimeUnit.MILLISECONDS);
-            scheduledTasks.put(sessionId, future);
-            return;
+    public void cancelScheduledTask(String sessionId) {
+        framePacer.cancel(sessionId);
+    }
+
+    /**
+     * 待发送的Opus帧来源
+     */
+    private interface FrameSource {
+        /**
+         * 取出下一帧，暂时没有可发送的帧时返回null
+         */
+        byte[] poll();
+
+        /**
+         * 所有帧都已取出且不会再有新帧
+         */
+        boolean isFinished();
+
+        void close();
+    }
+
+    /**
+     * 整句合成完成后一次性编码好的帧
+     */
+    private static class ListFrameSource implements FrameSource {
+        private final List<byte[]> frames;
+        private int index = 0;
+
+        ListFrameSource(List<byte[]> frames) {
+            this.frames = frames != null ? frames : List.of();
         }
 
-        // 计算预期发送时间（纳秒级精度）
-        long expectedTime = startTime + position * 1_000_000;
-        long currentTime = System.nanoTime();
-        long delayNanos = expectedTime - currentTime;
-        
-        ScheduledFuture<?> future;
-        if (delayNanos <= 0) {
-            // 如果当前时间已经超过预期时间，立即发送
-            future = scheduler.schedule(frameTask, 0, TimeUnit.NANOSECONDS);
-        } else {
-            // 延迟到精确时间点再发送
-            future = scheduler.schedule(frameTask, delayNanos, TimeUnit.NANOSECONDS);
+        @Override
+        public byte[] poll() {
+            return index < frames.size() ? frames.get(index++) : null;
         }
 
-        scheduledTasks.put(sessionId, future);
+        @Override
+        public boolean isFinished() {
+            return index >= frames.size();
+        }
+
+        @Override
+        public void close() {
+        }
     }
-    
+
     /**
-     * 取消调度任务
+     * 流式合成的帧，PCM数据块到达后立即编码入队
      */
-    public void cancelScheduledTask(String sessionId) {
-        ScheduledFuture<?> task = scheduledTasks.remove(sessionId);
-        if (task != null && !task.isDone()) {
-            task.cancel(false);
+    private class StreamFrameSource implements FrameSource {
+        private final String sessionId;
+        private final ConcurrentLinkedQueue<byte[]> frames = new ConcurrentLinkedQueue<>();
+        private final Disposable subscription;
+        private volatile boolean completed = false;
+        // 上一块末尾不完整的半个样本
+        private byte[] pendingByte = null;
+        // 整句编码完成后接收全部帧，为null时不保留
+        private final Consumer<List<byte[]>> encodedListener;
+        private final List<byte[]> encoded;
+
+        StreamFrameSource(String sessionId, Flux<byte[]> audioStream, Consumer<List<byte[]>> encodedListener) {
+            this.sessionId = sessionId;
+            this.encodedListener = encodedListener;
+            this.encoded = encodedListener != null ? new ArrayList<>() : null;
+            // 每句重新开始，避免上一句的残留样本混入
+            opusProcessor.removeLeftoverState(sessionId);
+            this.subscription = audioStream.subscribe(this::encode, this::onError, this::onComplete);
         }
-    }
 
-}
\ No newline at end of file
+        private void encode(byte[] pcm) {
+            if (pendingByte != null) {
+                byte[] joined = new byte[pcm.length + 1];
+                joined[0] = pendingByte[0];
+                System.arraycopy(pcm, 0, joined, 1, pcm.length);
+                pcm = joined;
+                pendingByte = null;
+            }
+            if (pcm.length % 2 != 0) {
+                pendingByte = new byte[]{pcm[pcm.length - 1]};
+            }
+            add(opusProcessor.pcmToOpus(sessionId, pcm, true));
+        }
+
+        private void add(List<byte[]> encodedFrames) {
+            frames.addAll(encodedFrames);
+            if (encoded != null) {
+                encoded.addAll(encodedFrames);
+            }
+        }
+
+        private void onError(Throwable error) {
+            logger.warn("Потоковый TTS прерван, часть аудио уже воспроизведена - SessionId: {}, ошибка: {}", sessionId, error.getMessage());
+            finish(false);
+        }
+
+        private void onComplete() {
+            finish(true);
+        }
+
+        private void finish(boolean whole) {
+            add(opusProcessor.flushLeftover(sessionId));
+            opusProcessor.removeLeftoverState(sessionId);
+            completed = true;
+            // 只有完整合成的句子才交出去，中断的半句不能缓存
+            if (whole && encodedListener != null && !encoded.isEmpty()) {
+                try {
+                    encodedListener.accept(List.copyOf(encoded));
+                } catch (Exception e) {
+                    logger.warn("Не удалось обработать закодированные аудиокадры - SessionId: {}", sessionId, e);
+                }
+            }
+        }
+
+        @Override
+        public byte[] poll() {
+            return frames.poll();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return completed && frames.isEmpty();
+        }
+
+        @Override
+        public void close() {
+            subscription.dispose();
+        }
+    }
+}
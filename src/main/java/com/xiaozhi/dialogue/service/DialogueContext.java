@@ -0,0 +1,144 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.utils.CancellationToken;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一轮对话的状态
+ * 每次开始对话时创建并挂在ChatSession上，句子序号、待播放句子、TTS任务、推测执行和录音都保存在这里，
+ * 处理句子时直接访问字段，不再按sessionId查找。
+ * 对话播放完成、被打断或会话关闭时整体退役，之后到达的句子和TTS结果直接丢弃，缓冲随之释放，
+ * 还在进行的模型请求、TTS合成和语音识别通过取消令牌停止。
+ */
+public class DialogueContext {
+
+    private static final double EWMA_ALPHA = 0.3;
+
+    // 句子序号
+    final AtomicInteger seq = new AtomicInteger();
+    // 检测到语音的时间
+    volatile long sttStartTime;
+    // 请求模型或上一句返回的时间，用于计算每句的模型响应时间
+    volatile long llmStartTime;
+    // 等待播放的句子，按序号重排
+    final SentenceReorderBuffer sentences = new SentenceReorderBuffer();
+    // 首句是否已处理完成，完成前不播放
+    final AtomicBoolean firstSentDone = new AtomicBoolean(false);
+    // 同一时刻只有一个线程取句子播放
+    final ReentrantLock playLock = new ReentrantLock();
+    // 有新的播放请求，持有playLock的线程处理完后要再检查一次
+    final AtomicBoolean playRequested = new AtomicBoolean(false);
+    // TTS任务及并发限制
+    final PriorityBlockingQueue<DialogueService.TtsTask> ttsTasks = new PriorityBlockingQueue<>();
+    final Semaphore ttsPermits;
+    // 当前这次识别的推测执行状态
+    final AtomicReference<DialogueService.SpeculativeTurn> speculativeTurn = new AtomicReference<>();
+    // 退役时取消，停止这一轮的模型请求、TTS合成和语音识别
+    final CancellationToken cancellation = new CancellationToken();
+    // 已交给TTS但还没开始播放的句子字数（去掉表情后送合成的文字），用于估计排队中的音频时长
+    final AtomicInteger queuedChars = new AtomicInteger();
+
+    // TTS首音频延迟和每个字的音频时长（毫秒），指数滑动平均，新一轮对话沿用上一轮的值
+    private double ttsLatencyMillis;
+    private double audioMillisPerChar;
+
+    // 完整文本回复
+    private final StringBuilder response = new StringBuilder();
+    // 已播放的模型回复音频，仅在开启对话录音时使用
+    private ByteArrayOutputStream recording;
+    private volatile boolean retired = false;
+
+    public DialogueContext(int maxConcurrentTts, double ttsLatencyMillis, double audioMillisPerChar) {
+        this.ttsPermits = new Semaphore(maxConcurrentTts);
+        this.llmStartTime = System.currentTimeMillis();
+        this.ttsLatencyMillis = ttsLatencyMillis;
+        this.audioMillisPerChar = audioMillisPerChar;
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * 是否还有句子在播放或等待播放
+     */
+    public boolean isActive() {
+        return !retired && (playLock.isLocked() || !sentences.isEmpty());
+    }
+
+    synchronized double getTtsLatencyMillis() {
+        return ttsLatencyMillis;
+    }
+
+    synchronized double getAudioMillisPerChar() {
+        return audioMillisPerChar;
+    }
+
+    /**
+     * 记录一次TTS合成的首音频延迟（毫秒），命中缓存的不计入
+     */
+    synchronized void recordTtsLatency(double latencyMillis) {
+        ttsLatencyMillis += (latencyMillis - ttsLatencyMillis) * EWMA_ALPHA;
+    }
+
+    /**
+     * 记录一次合成的字数和音频时长（毫秒）
+     */
+    synchronized void recordAudioLength(int chars, long audioMillis) {
+        if (chars > 0 && audioMillis > 0) {
+            audioMillisPerChar += ((double) audioMillis / chars - audioMillisPerChar) * EWMA_ALPHA;
+        }
+    }
+
+    synchronized void appendResponse(String text) {
+        if (!retired) {
+            response.append(text);
+        }
+    }
+
+    public synchronized String getResponse() {
+        return response.toString();
+    }
+
+    synchronized void appendRecording(byte[] audio) {
+        if (retired) {
+            return;
+        }
+        if (recording == null) {
+            recording = new ByteArrayOutputStream();
+        }
+        recording.writeBytes(audio);
+    }
+
+    /**
+     * 取出已播放的录音，之后重新累积
+     */
+    synchronized ByteArrayOutputStream takeRecording() {
+        ByteArrayOutputStream taken = recording;
+        recording = null;
+        return taken;
+    }
+
+    /**
+     * 退役，丢弃未播放的句子、未执行的TTS任务和录音
+     * 推测执行由DialogueService取消
+     */
+    void retire() {
+        synchronized (this) {
+            retired = true;
+            sentences.clear();
+            ttsTasks.clear();
+            response.setLength(0);
+            recording = null;
+        }
+        // 在锁外取消，取消操作可能需要等待其他线程
+        cancellation.cancel();
+    }
+}
@@ -0,0 +1,47 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.dialogue.stt.SttService;
+import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.entity.SysRole;
+
+/**
+ * 会话的对话配置快照
+ * 设备绑定时解析一次角色及其STT、TTS、模型配置，按帧、按句的处理直接读取，不再访问服务层和缓存。
+ * 角色或配置变更时整体替换，不在原对象上修改。
+ *
+ * @param role 当前角色
+ * @param sttConfig STT配置，null表示默认（Vosk）
+ * @param ttsConfig TTS配置，null表示默认（Edge）
+ * @param modelConfig 模型配置
+ * @param sttService 已初始化的STT服务
+ */
+public record DialogueProfile(
+        SysRole role,
+        SysConfig sttConfig,
+        SysConfig ttsConfig,
+        SysConfig modelConfig,
+        SttService sttService,
+        float vadSpeechThreshold,
+        float vadSilenceThreshold,
+        float vadEnergyThreshold,
+        int vadSilenceMs,
+        String voiceName,
+        Float ttsPitch,
+        Float ttsSpeed) {
+
+    public Integer roleId() {
+        return role.getRoleId();
+    }
+
+    /**
+     * 是否引用了指定配置
+     */
+    public boolean usesConfig(Integer configId) {
+        return configId != null && (matches(sttConfig, configId) || matches(ttsConfig, configId)
+                || matches(modelConfig, configId));
+    }
+
+    private static boolean matches(SysConfig config, Integer configId) {
+        return config != null && configId.equals(config.getConfigId());
+    }
+}
@@ -0,0 +1,173 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.common.cache.TwoLevelCacheManager;
+import com.xiaozhi.communication.common.ChatSession;
+import com.xiaozhi.communication.common.SessionManager;
+import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
+import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.entity.SysDevice;
+import com.xiaozhi.entity.SysRole;
+import com.xiaozhi.event.DialogueProfileChangeEvent;
+import com.xiaozhi.service.SysConfigService;
+import com.xiaozhi.service.SysRoleService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * 会话对话配置的解析与替换
+ * 角色或配置变更时，本节点直接重新解析，其他节点通过缓存失效通知得知后各自重新解析。
+ */
+@Service
+public class DialogueProfileManager {
+    private static final Logger logger = LoggerFactory.getLogger(DialogueProfileManager.class);
+
+    // 角色未设置VAD参数时的默认值
+    private static final float DEFAULT_SPEECH_THRESHOLD = 0.4f;
+    private static final float DEFAULT_SILENCE_THRESHOLD = 0.3f;
+    private static final float DEFAULT_ENERGY_THRESHOLD = 0.001f;
+    private static final int DEFAULT_SILENCE_MS = 800;
+
+    // 失效通知中对话配置使用的名称，key为role:角色ID或config:配置ID
+    private static final String INVALIDATION_NAME = "XiaoZhi:DialogueProfile";
+    private static final String ROLE_PREFIX = "role:";
+    private static final String CONFIG_PREFIX = "config:";
+
+    @Resource
+    private SysRoleService roleService;
+
+    @Resource
+    private SysConfigService configService;
+
+    @Resource
+    private SttServiceFactory sttFactory;
+
+    @Resource
+    private SessionManager sessionManager;
+
+    @Resource
+    private ObjectProvider<CacheManager> cacheManager;
+
+    // 未使用Redis两级缓存时为null，只有单个节点
+    private TwoLevelCacheManager invalidation;
+
+    @PostConstruct
+    public void init() {
+        if (cacheManager.getIfUnique() instanceof TwoLevelCacheManager manager) {
+            invalidation = manager;
+            manager.addInvalidationListener(INVALIDATION_NAME, this::onRemoteChange);
+        }
+    }
+
+    /**
+     * 获取会话的对话配置
+     * 还没有解析过，或者设备切换了角色时重新解析；设备未绑定角色时返回null
+     */
+    public DialogueProfile get(ChatSession session) {
+        SysDevice device = session.getSysDevice();
+        if (device == null || device.getRoleId() == null) {
+            return null;
+        }
+        DialogueProfile profile = session.getDialogueProfile();
+        if (profile != null && Objects.equals(profile.roleId(), device.getRoleId())) {
+            return profile;
+        }
+        return bind(session);
+    }
+
+    /**
+     * 解析并替换会话的对话配置
+     */
+    public DialogueProfile bind(ChatSession session) {
+        SysDevice device = session.getSysDevice();
+        if (device == null || device.getRoleId() == null) {
+            return null;
+        }
+        SysRole role = roleService.selectRoleById(device.getRoleId());
+        if (role == null) {
+            return null;
+        }
+        DialogueProfile profile = resolve(role);
+        session.setDialogueProfile(profile);
+        return profile;
+    }
+
+    /**
+     * 根据角色解析对话配置
+     */
+    public DialogueProfile resolve(SysRole role) {
+        SysConfig sttConfig = role.getSttId() != null ? configService.selectConfigById(role.getSttId()) : null;
+        SysConfig ttsConfig = role.getTtsId() != null ? configService.selectConfigById(role.getTtsId()) : null;
+        SysConfig modelConfig = role.getModelId() != null ? configService.selectConfigById(role.getModelId()) : null;
+        return new DialogueProfile(
+                role,
+                sttConfig,
+                ttsConfig,
+                modelConfig,
+                sttFactory.getSttService(sttConfig),
+                Optional.ofNullable(role.getVadSpeechTh()).orElse(DEFAULT_SPEECH_THRESHOLD),
+                Optional.ofNullable(role.getVadSilenceTh()).orElse(DEFAULT_SILENCE_THRESHOLD),
+                Optional.ofNullable(role.getVadEnergyTh()).orElse(DEFAULT_ENERGY_THRESHOLD),
+                Optional.ofNullable(role.getVadSilenceMs()).orElse(DEFAULT_SILENCE_MS),
+                role.getVoiceName(),
+                role.getTtsPitch(),
+                role.getTtsSpeed());
+    }
+
+    /**
+     * 角色或配置变更后，重新解析本节点引用了它们的会话，并通知其他节点
+     */
+    @EventListener
+    public void onProfileChange(DialogueProfileChangeEvent event) {
+        rebind(event.getRoleId(), event.getConfigId());
+        if (invalidation != null) {
+            invalidation.publishInvalidation(INVALIDATION_NAME, event.getRoleId() != null
+                    ? ROLE_PREFIX + event.getRoleId()
+                    : CONFIG_PREFIX + event.getConfigId());
+        }
+    }
+
+    /**
+     * 其他节点的角色或配置变更，key为null时重新解析所有会话
+     */
+    private void onRemoteChange(String key) {
+        if (key == null) {
+            rebind(null, null);
+        } else if (key.startsWith(ROLE_PREFIX)) {
+            rebind(Integer.valueOf(key.substring(ROLE_PREFIX.length())), null);
+        } else if (key.startsWith(CONFIG_PREFIX)) {
+            rebind(null, Integer.valueOf(key.substring(CONFIG_PREFIX.length())));
+        }
+    }
+
+    /**
+     * 重新解析引用了角色或配置的会话，两者都为null时重新解析全部
+     */
+    private void rebind(Integer roleId, Integer configId) {
+        boolean all = roleId == null && configId == null;
+        for (ChatSession session : sessionManager.getSessions()) {
+            DialogueProfile profile = session.getDialogueProfile();
+            if (profile == null) {
+                continue;
+            }
+            boolean affected = all || (roleId != null && roleId.equals(profile.roleId()))
+                    || profile.usesConfig(configId);
+            if (affected) {
+                try {
+                    bind(session);
+                } catch (Exception e) {
+                    // 保留旧配置，下次变更或重连时再解析
+                    logger.error("Не удалось повторно разобрать конфигурацию диалога сессии {}", session.getSessionId(), e);
+                }
+            }
+        }
+    }
+}
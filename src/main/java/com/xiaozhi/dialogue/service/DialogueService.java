@@ -3,23 +3,24 @@ package com.xiaozhi.dialogue.service;
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
 import com.xiaozhi.dialogue.llm.ChatService;
+import com.xiaozhi.dialogue.llm.SpeculativeChat;
 import com.xiaozhi.dialogue.llm.memory.Conversation;
 import com.xiaozhi.dialogue.service.VadService.VadStatus;
 import com.xiaozhi.dialogue.stt.SttService;
-import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
 import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.dialogue.tts.cache.PromptBank;
+import com.xiaozhi.dialogue.tts.cache.TtsCache;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
-import com.xiaozhi.entity.SysRole;
 import com.xiaozhi.event.ChatAbortEvent;
 import com.xiaozhi.event.ChatSessionCloseEvent;
-import com.xiaozhi.service.SysConfigService;
+import com.xiaozhi.event.ChatSessionOpenEvent;
 import com.xiaozhi.service.SysMessageService;
-import com.xiaozhi.service.SysRoleService;
 import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.EmojiUtils;
 import com.xiaozhi.utils.EmojiUtils.EmoSentence;
+import com.xiaozhi.utils.OpusProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -28,18 +29,23 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
 
-import java.nio.file.Files;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 /**
  * 对话处理服务
@@ -50,6 +56,8 @@ public class DialogueService{
     private static final Logger logger = LoggerFactory.getLogger(DialogueService.class);
     private static final DecimalFormat df = new DecimalFormat("0.000");
     private static final long TIMEOUT_MS = 5000;
+    // 比较识别文本时忽略标点和空白
+    private static final Pattern TRANSCRIPT_IGNORED = Pattern.compile("[\\p{P}\\s]");
     
     // 从配置文件读取TTS相关参数
     @Value("${tts.timeout.ms:10000}")
@@ -64,6 +72,38 @@ public class DialogueService{
     @Value("${tts.max.concurrent.per.session:3}")
     private int MAX_CONCURRENT_PER_SESSION;
 
+    // 是否保存对话录音，关闭后TTS音频全程只在内存中流转
+    @Value("${dialogue.record.enabled:true}")
+    private boolean recordEnabled;
+
+    // 流式识别时，语音结束后中间结果保持不变达到该时长就提前请求模型；推测请求不调用工具，默认关闭
+    @Value("${stt.speculative.enabled:false}")
+    private boolean speculativeEnabled;
+
+    @Value("${stt.speculative.stable.ms:300}")
+    private long speculativeStableMs;
+
+    // 每个会话音频信箱中最多排队的音频包数，按60ms一包约3秒
+    @Value("${dialogue.audio.mailbox.capacity:50}")
+    private int mailboxCapacity;
+
+    // 自适应分块：首句立即合成，之后的短句按播放余量合并后再合成
+    @Value("${dialogue.chunk.enabled:true}")
+    private boolean chunkEnabled;
+
+    @Value("${dialogue.chunk.max.length:120}")
+    private int chunkMaxLength;
+
+    @Value("${dialogue.chunk.max.wait.ms:2000}")
+    private long chunkMaxWaitMs;
+
+    // 还没有测量值时使用的TTS首音频延迟和每个字的音频时长
+    @Value("${dialogue.chunk.tts.latency.ms:800}")
+    private double initialTtsLatencyMs;
+
+    @Value("${dialogue.chunk.audio.ms.per.char:200}")
+    private double initialAudioMsPerChar;
+
     @Resource
     private ApplicationContext applicationContext;
 
@@ -77,7 +117,13 @@ public class DialogueService{
     private TtsServiceFactory ttsFactory;
 
     @Resource
-    private SttServiceFactory sttFactory;
+    private TtsCache ttsCache;
+
+    @Resource
+    private PromptBank promptBank;
+
+    @Resource
+    private OpusProcessor opusProcessor;
 
     @Resource
     private MessageService messageService;
@@ -98,39 +144,43 @@ public class DialogueService{
     private SysMessageService sysMessageService;
     
     @Resource
-    private SysConfigService configService;
-    
-    @Resource
-    private SysRoleService roleService;
+    private DialogueProfileManager profileManager;
 
-    // 会话状态管理
-    private final Map<String, AtomicInteger> seqCounters = new ConcurrentHashMap<>();
-    private final Map<String, Long> sttStartTimes = new ConcurrentHashMap<>();
-    private final Map<String, Long> llmStartTimes = new ConcurrentHashMap<>();
-    private final Map<String, CopyOnWriteArrayList<Sentence>> sentenceQueue = new ConcurrentHashMap<>();
-    private final Map<String, AtomicBoolean> firstSentDone = new ConcurrentHashMap<>();
-    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
-
-    // 存储每个对话ID的所有模型回复音频路径
-    private final Map<Long, Map<Integer, String>> dialogueAudioPaths = new ConcurrentHashMap<>();
-    // 存储每个对话ID的完整文本回复
-    private final Map<Long, StringBuilder> dialogueResponses = new ConcurrentHashMap<>();
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 每轮对话的状态保存在ChatSession的DialogueContext中
+    // 句子合成的截止时间，以及分块的定时发出
+    private final ScheduledExecutorService sentenceDeadlines = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("sentence-deadline-", 0).factory());
+    private final ScheduledExecutorService speculationScheduler = Executors.newScheduledThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            Thread.ofVirtual().name("stt-speculation-", 0).factory());
+    // 音频信箱的处理任务
+    private final ExecutorService audioExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("audio-mailbox-", 0).factory());
 
-    // 新增：并发控制相关
-    private final Map<String, Semaphore> sessionSemaphores = new ConcurrentHashMap<>();
-    private final Map<String, PriorityBlockingQueue<TtsTask>> sessionTaskQueues = new ConcurrentHashMap<>();
+    @org.springframework.context.event.EventListener
+    public void onApplicationEvent(ChatSessionOpenEvent event) {
+        ChatSession chatSession = event.getSession();
+        Counter dropped = Counter.builder("xiaozhi.audio.mailbox.dropped")
+                .description("音频信箱溢出丢弃的音频包数")
+                .register(meterRegistry);
+        chatSession.setAudioMailbox(new AudioMailbox(chatSession.getSessionId(),
+                opusData -> handleAudioData(chatSession, opusData), audioExecutor, mailboxCapacity, dropped));
+    }
 
     @org.springframework.context.event.EventListener
     public void onApplicationEvent(ChatSessionCloseEvent event) {
         ChatSession chatSession = event.getSession();
         if(chatSession != null) {
-            // clean up dialogue audio paths and responses
-            Long assistantTimeMillis = chatSession.getAssistantTimeMillis();
-            if (assistantTimeMillis!=null ) {
-                dialogueAudioPaths.remove(assistantTimeMillis);
-                dialogueResponses.remove(assistantTimeMillis);
+            AudioMailbox mailbox = chatSession.getAudioMailbox();
+            if (mailbox != null) {
+                mailbox.close();
             }
-            cleanupSession(chatSession.getSessionId());
+            // 退役当前对话，释放句子队列、TTS任务和录音
+            retireDialogue(chatSession);
+            audioService.cleanupSession(chatSession.getSessionId());
         }
     }
 
@@ -149,9 +199,16 @@ public class DialogueService{
         private final String text;
         private boolean isFirst;
         private boolean isLast;
-        private boolean ready = false;
-        private String audioPath = null;
-        private long timestamp = System.currentTimeMillis();
+        private volatile boolean ready = false;
+        private volatile byte[] audio = null;
+        private volatile Flux<byte[]> audioStream = null;
+        private volatile List<byte[]> opusFrames = null;
+        private volatile Consumer<List<byte[]>> encodedFramesListener = null;
+        // 等待合成的截止时间，到期后轮到它时不再等待
+        private volatile boolean expired = false;
+        private volatile ScheduledFuture<?> deadline = null;
+        // 送去合成的文字长度，用于估计已排队音频的播放时长
+        private int ttsChars = 0;
         private double modelResponseTime = 0.0; // 模型响应时间（秒）
         private double ttsGenerationTime = 0.0; // TTS生成时间（秒）
         private Long assistantTimeMillis = null; // 对话ID
@@ -161,9 +218,9 @@ public class DialogueService{
             this.text = text;
         }
 
-        public Sentence(String text, String audioPath) {
+        public Sentence(String text, byte[] audio) {
             this.text = text;
-            this.audioPath = audioPath;
+            this.audio = audio;
         }
 
         public Sentence(int seq, String text, boolean isFirst, boolean isLast) {
@@ -173,8 +230,8 @@ public class DialogueService{
             this.isLast = isLast;
         }
 
-        public void setAudio(String path) {
-            this.audioPath = path;
+        public void setAudio(byte[] audio) {
+            this.audio = audio;
             this.ready = true;
         }
 
@@ -182,10 +239,6 @@ public class DialogueService{
             return ready;
         }
 
-        public boolean isTimeout() {
-            return System.currentTimeMillis() - timestamp > TIMEOUT_MS;
-        }
-
         public int getSeq() {
             return seq;
         }
@@ -202,8 +255,53 @@ public class DialogueService{
             return isLast;
         }
 
-        public String getAudioPath() {
-            return audioPath;
+        /**
+         * 句子的PCM音频（16kHz单声道16位），没有音频时为null
+         * 流式合成的句子在合成全部完成后才会有值
+         */
+        public byte[] getAudio() {
+            return audio;
+        }
+
+        /**
+         * 流式合成时标记为准备就绪，播放端边合成边消费PCM数据块
+         */
+        public void setAudioStream(Flux<byte[]> audioStream) {
+            this.audioStream = audioStream;
+            this.ready = true;
+        }
+
+        /**
+         * 流式合成的PCM数据块，非流式合成时为null
+         */
+        public Flux<byte[]> getAudioStream() {
+            return audioStream;
+        }
+
+        /**
+         * 已编码好的Opus帧（命中TTS缓存，或为写入缓存已经编码过），播放时直接发送，标记为准备就绪
+         */
+        public void setOpusFrames(List<byte[]> opusFrames) {
+            this.opusFrames = opusFrames;
+            this.ready = true;
+        }
+
+        /**
+         * 已编码的Opus帧，没有时为null
+         */
+        public List<byte[]> getOpusFrames() {
+            return opusFrames;
+        }
+
+        /**
+         * 流式合成的句子由播放端边接收边编码，整句编码完成后把全部帧交给该回调，用于写入TTS缓存
+         */
+        public void setEncodedFramesListener(Consumer<List<byte[]>> encodedFramesListener) {
+            this.encodedFramesListener = encodedFramesListener;
+        }
+
+        public Consumer<List<byte[]>> getEncodedFramesListener() {
+            return encodedFramesListener;
         }
 
         public void setModelResponseTime(double time) {
@@ -242,7 +340,8 @@ public class DialogueService{
     /**
      * TTS任务封装，用于优先队列
      */
-    private static class TtsTask implements Comparable<TtsTask> {
+    static class TtsTask implements Comparable<TtsTask> {
+        private final DialogueContext context;
         private final String sessionId;
         private final Sentence sentence;
         private final EmoSentence emoSentence;
@@ -257,10 +356,11 @@ public class DialogueService{
         private int retryCount = 0;
         private boolean isRetry = false;
 
-        public TtsTask(ChatSession session, String sessionId, Sentence sentence,
+        public TtsTask(ChatSession session, DialogueContext context, String sessionId, Sentence sentence,
                 EmoSentence emoSentence, boolean isFirst, boolean isLast,
                 SysConfig ttsConfig, String voiceName, Float ttsPitch, Float ttsSpeed) {
             this.session = session;
+            this.context = context;
             this.sessionId = sessionId;
             this.sentence = sentence;
             this.emoSentence = emoSentence;
@@ -291,28 +391,43 @@ public class DialogueService{
     }
 
     /**
-     * 获取或创建session的信号量
-     */
-    private Semaphore getSessionSemaphore(String sessionId) {
-        return sessionSemaphores.computeIfAbsent(sessionId,
-                k -> new Semaphore(MAX_CONCURRENT_PER_SESSION));
-    }
-
-    /**
-     * 获取或创建session的任务队列
+     * 一次流式识别的推测执行状态，访问时以对象本身加锁
      */
-    private PriorityBlockingQueue<TtsTask> getSessionTaskQueue(String sessionId) {
-        return sessionTaskQueues.computeIfAbsent(sessionId,
-                k -> new PriorityBlockingQueue<>());
+    static class SpeculativeTurn {
+        // 所属的一轮对话
+        private final DialogueContext context;
+        // 最新的中间结果及其变化时间（System.nanoTime）
+        private String partial = "";
+        private long changedAt;
+        private boolean speechEnded;
+        private boolean finished;
+        private SpeculativeChat chat;
+        private ScheduledFuture<?> check;
+
+        SpeculativeTurn(DialogueContext context) {
+            this.context = context;
+        }
     }
 
     /**
-     * 处理音频数据
+     * 处理音频数据，投递到会话的音频信箱后立即返回
      */
     public void processAudioData(ChatSession session, byte[] opusData) {
         if (session == null || opusData == null || opusData.length == 0) {
             return;
         }
+        AudioMailbox mailbox = session.getAudioMailbox();
+        if (mailbox != null) {
+            mailbox.offer(opusData);
+        } else {
+            handleAudioData(session, opusData);
+        }
+    }
+
+    /**
+     * 处理一个音频包，同一会话的音频包由音频信箱按顺序逐个调用
+     */
+    private void handleAudioData(ChatSession session, byte[] opusData) {
         String sessionId = session.getSessionId();
         try {
             
@@ -321,13 +436,14 @@ public class DialogueService{
             if (device == null || ObjectUtils.isEmpty(device.getRoleId())) {
                 return;
             }
-            SysRole role = roleService.selectRoleById(device.getRoleId());
-            // 获取STT和TTS配置
-            SysConfig sttConfig = role.getSttId() != null ? configService.selectConfigById(role.getSttId())
-                    : null;
+            // 会话绑定时已解析好的角色和STT配置，按帧处理不再访问服务层
+            DialogueProfile profile = profileManager.get(session);
+            if (profile == null) {
+                return;
+            }
 
             // 处理VAD
-            VadService.VadResult vadResult = vadService.processAudio(sessionId, opusData);
+            VadService.VadResult vadResult = vadService.processAudio(sessionId, opusData, profile);
             if (vadResult == null || vadResult.getStatus() == VadStatus.ERROR
                     || vadResult.getProcessedData() == null) {
                 return;
@@ -339,14 +455,14 @@ public class DialogueService{
             switch (vadResult.getStatus()) {
                 case SPEECH_START:
                     // 检测到语音开始
-                    sttStartTimes.put(sessionId, System.currentTimeMillis());
-                    if(isDialog(sessionId)){
+                    if(isDialog(session)){
                         //检测到vad，触发当前语音打断事件
                         applicationContext.publishEvent(new ChatAbortEvent(session, "Обнаружен VAD"));
                     }
                     // 初始化对话状态
-                    initChat(sessionId);
-                    startStt(session, sessionId, sttConfig, device, vadResult.getProcessedData());
+                    DialogueContext context = initChat(session);
+                    context.sttStartTime = System.currentTimeMillis();
+                    startStt(session, context, sessionId, profile, device, vadResult.getProcessedData());
                     break;
 
                 case SPEECH_CONTINUE:
@@ -362,6 +478,7 @@ public class DialogueService{
                         sessionManager.completeAudioStream(sessionId);
                         sessionManager.setStreamingState(sessionId, false);
                     }
+                    onSpeechEnd(session);
                     break;
 
                 default:
@@ -377,46 +494,56 @@ public class DialogueService{
      */
     private void startStt(
             ChatSession session,
+            DialogueContext context,
             String sessionId,
-            SysConfig sttConfig,
+            DialogueProfile profile,
             SysDevice device,
             byte[] initialAudio) {
         Assert.notNull(session, "session不能为空");
+        // 在音频信箱的处理线程中切换音频数据管道，之后的音频包按顺序进入新管道
+        // 如果已经在进行流式识别，先清理旧的资源
+        sessionManager.closeAudioStream(sessionId);
+        // 创建新的音频数据接收管道
+        sessionManager.createAudioStream(sessionId);
+        sessionManager.setStreamingState(sessionId, true);
+        // 发送初始音频数据
+        if (initialAudio != null && initialAudio.length > 0) {
+            sessionManager.sendAudioData(sessionId, initialAudio);
+        }
+        // 识别会阻塞到语音结束，在单独的虚拟线程中进行
         Thread.startVirtualThread(() -> {
             try {
                 // 如果正在播放，先中断音频
                 if (audioService.isPlaying(sessionId)) {
-                    sentenceQueue.get(sessionId).clear();
                     audioService.sendStop(session);
                 }
 
-                // 如果已经在进行流式识别，先清理旧的资源
-                sessionManager.closeAudioStream(sessionId);
-
-                // 创建新的音频数据接收管道
-                sessionManager.createAudioStream(sessionId);
-                sessionManager.setStreamingState(sessionId, true);
-
                 // 获取STT服务
-                SttService sttService = sttFactory.getSttService(sttConfig);
+                SttService sttService = profile.sttService();
                 if (sttService == null) {
-                    logger.error("Не удалось получить STT сервис - Provider: {}", sttConfig != null ? sttConfig.getProvider() : "null");
+                    logger.error("Не удалось получить STT сервис - Provider: {}", profile.sttConfig() != null ? profile.sttConfig().getProvider() : "null");
                     return;
                 }
 
-                // 发送初始音频数据
-                if (initialAudio != null && initialAudio.length > 0) {
-                    sessionManager.sendAudioData(sessionId, initialAudio);
-                }
-
                 // 设置用户收到音频的时间戳作为用户消息的创建时间戳，也用于约定保存音频文件的路径。一定要在STT前获得时间戳。
                 final Long userTimeMillis =  System.currentTimeMillis();
                 session.setUserTimeMillis(userTimeMillis);
 
                 final String finalText;
+                SpeculativeTurn turn = null;
                 if (sttService.supportsStreaming()) {
                     if (sessionManager.getAudioStream(sessionId) != null) {
-                        finalText = sttService.streamRecognition(sessionManager.getAudioStream(sessionId));
+                        if (speculativeEnabled) {
+                            final SpeculativeTurn speculativeTurn = new SpeculativeTurn(context);
+                            cancelSpeculation(context.speculativeTurn.getAndSet(speculativeTurn));
+                            turn = speculativeTurn;
+                            finalText = sttService.streamRecognition(sessionManager.getAudioStream(sessionId),
+                                    partial -> onPartialTranscript(session, speculativeTurn, partial),
+                                    context.cancellation);
+                        } else {
+                            finalText = sttService.streamRecognition(sessionManager.getAudioStream(sessionId), null,
+                                    context.cancellation);
+                        }
                     } else {
                         logger.error("Аудиопоток не существует, невозможно выполнить потоковое распознавание - SessionId: {}", sessionId);
                         return;
@@ -445,7 +572,7 @@ public class DialogueService{
                         
                         try {
                             byte[] fullAudio = audioFuture.get(90, TimeUnit.SECONDS);
-                            finalText = sttService.recognition(fullAudio);
+                            finalText = sttService.recognition(fullAudio, context.cancellation);
                         } catch (Exception e) {
                             logger.error("Не удалось получить полный аудио для непоточного распознавания: {}", e.getMessage());
                             return;
@@ -456,12 +583,40 @@ public class DialogueService{
                     }
                 }
 
+                // 识别结束，取出推测执行的结果
+                SpeculativeChat speculative = finishSpeculation(context, turn);
+
+                // 识别期间对话已被打断，结果不再使用
+                if (context.isRetired()) {
+                    if (speculative != null) {
+                        speculative.cancel();
+                    }
+                    logger.debug("Диалог прерван во время распознавания - SessionId: {}", sessionId);
+                    return;
+                }
+
                 if (!StringUtils.hasText(finalText)) {
+                    if (speculative != null) {
+                        speculative.cancel();
+                    }
                     logger.warn("Результат распознавания пуст - SessionId: {}", sessionId);
                     return;
                 }
 
-                llmStartTimes.put(sessionId, System.currentTimeMillis());
+                // 推测文本与最终结果一致时直接采用已经发出的请求，否则取消后重新请求
+                final SpeculativeChat confirmed;
+                if (speculative != null && sameTranscript(speculative.getMessage(), finalText)) {
+                    confirmed = speculative;
+                    recordSpeculation("hit");
+                } else {
+                    confirmed = null;
+                    if (speculative != null && speculative.cancel()) {
+                        recordSpeculation("miss");
+                        logger.debug("Спекулятивный запрос отменён - SessionId: {}, \"{}\" -> \"{}\"",
+                                sessionId, speculative.getMessage(), finalText);
+                    }
+                    context.llmStartTime = System.currentTimeMillis();
+                }
 
                 CompletableFuture.runAsync(() -> messageService.sendSttMessage(session, finalText))
                         .thenRun(() -> audioService.sendStart(session))
@@ -469,18 +624,14 @@ public class DialogueService{
                             // 设置LLM生成消息的时间戳作为Assistant消息的创建时间戳，也用于约定保存音频文件的路径。一定要在LLM前设置时间戳。
                             final Long assistantTimeMillis =  System.currentTimeMillis();
                             session.setAssistantTimeMillis(assistantTimeMillis);
-                            // 初始化当前对话的音频路径映射和文本响应
-                            dialogueAudioPaths.put(assistantTimeMillis, new ConcurrentHashMap<>());
-                            dialogueResponses.put(assistantTimeMillis, new StringBuilder());
+                            if (confirmed != null) {
+                                // 交出推测期间缓存的句子
+                                confirmed.confirm(finalText);
+                                return;
+                            }
                             // 使用句子切分处理响应
                             chatService.chatStreamBySentence(session, finalText, true,
-                                    (sentence, isFirst, isLast) -> {
-                                        handleSentence(
-                                                session,
-                                                sentence,
-                                                isFirst,
-                                                isLast);
-                                    });
+                                    sentenceHandler(session, context), context.cancellation);
                         })
                         .exceptionally(e -> {
                             logger.error("Не удалось обработать диалог: {}", e.getMessage(), e);
@@ -492,28 +643,152 @@ public class DialogueService{
         });
     }
 
+    /**
+     * 流式识别的中间结果：推送给设备，并在语音结束后等待结果稳定再推测执行
+     */
+    private void onPartialTranscript(ChatSession session, SpeculativeTurn turn, String partial) {
+        if (!StringUtils.hasText(partial)) {
+            return;
+        }
+        SpeculativeChat stale = null;
+        synchronized (turn) {
+            if (turn.finished || partial.equals(turn.partial)) {
+                return;
+            }
+            turn.partial = partial;
+            turn.changedAt = System.nanoTime();
+            // 结果已经变了，之前按旧文本发出的请求作废
+            if (turn.chat != null && !sameTranscript(turn.chat.getMessage(), partial)) {
+                stale = turn.chat;
+                turn.chat = null;
+            }
+            if (turn.speechEnded) {
+                scheduleSpeculation(session, turn);
+            }
+        }
+        if (stale != null && stale.cancel()) {
+            recordSpeculation("miss");
+        }
+        messageService.sendSttMessage(session, partial);
+    }
+
+    /**
+     * 语音结束，开始等待中间结果稳定
+     */
+    private void onSpeechEnd(ChatSession session) {
+        DialogueContext context = session.getDialogueContext();
+        SpeculativeTurn turn = context != null ? context.speculativeTurn.get() : null;
+        if (turn == null) {
+            return;
+        }
+        synchronized (turn) {
+            if (turn.finished) {
+                return;
+            }
+            turn.speechEnded = true;
+            scheduleSpeculation(session, turn);
+        }
+    }
+
+    /**
+     * 在中间结果稳定的时间点检查一次，需持有turn的锁
+     */
+    private void scheduleSpeculation(ChatSession session, SpeculativeTurn turn) {
+        if (turn.check != null) {
+            turn.check.cancel(false);
+            turn.check = null;
+        }
+        if (turn.chat != null || turn.partial.isEmpty()) {
+            return;
+        }
+        long delay = turn.changedAt + TimeUnit.MILLISECONDS.toNanos(speculativeStableMs) - System.nanoTime();
+        turn.check = speculationScheduler.schedule(() -> startSpeculation(session, turn),
+                Math.max(0, delay), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 中间结果已稳定，用它提前请求模型，句子在确认前不会播放
+     */
+    private void startSpeculation(ChatSession session, SpeculativeTurn turn) {
+        synchronized (turn) {
+            turn.check = null;
+            if (turn.finished || turn.chat != null || turn.partial.isEmpty()) {
+                return;
+            }
+            if (System.nanoTime() - turn.changedAt < TimeUnit.MILLISECONDS.toNanos(speculativeStableMs)) {
+                scheduleSpeculation(session, turn);
+                return;
+            }
+            try {
+                turn.context.llmStartTime = System.currentTimeMillis();
+                // 工具调用在流中直接执行，推测失败时无法撤回，推测请求不启用
+                turn.chat = chatService.speculate(session, turn.partial, false,
+                        sentenceHandler(session, turn.context), turn.context.cancellation);
+                logger.debug("Спекулятивный запрос к LLM - SessionId: {}, Текст: \"{}\"",
+                        session.getSessionId(), turn.partial);
+            } catch (Exception e) {
+                logger.error("Не удалось запустить спекулятивный запрос: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 识别结束，停止推测并取出已发出的请求
+     */
+    private SpeculativeChat finishSpeculation(DialogueContext context, SpeculativeTurn turn) {
+        if (turn == null) {
+            return null;
+        }
+        if (context != null) {
+            context.speculativeTurn.compareAndSet(turn, null);
+        }
+        synchronized (turn) {
+            turn.finished = true;
+            if (turn.check != null) {
+                turn.check.cancel(false);
+                turn.check = null;
+            }
+            SpeculativeChat chat = turn.chat;
+            turn.chat = null;
+            return chat;
+        }
+    }
+
+    /**
+     * 放弃推测，取消已发出的请求
+     */
+    private void cancelSpeculation(SpeculativeTurn turn) {
+        SpeculativeChat chat = finishSpeculation(null, turn);
+        if (chat != null && chat.cancel()) {
+            recordSpeculation("cancel");
+        }
+    }
+
+    private static boolean sameTranscript(String a, String b) {
+        return TRANSCRIPT_IGNORED.matcher(a).replaceAll("")
+                .equals(TRANSCRIPT_IGNORED.matcher(b).replaceAll(""));
+    }
+
+    private void recordSpeculation(String result) {
+        Counter.builder("xiaozhi.stt.speculative")
+                .description("语音结束后用稳定的中间结果提前请求模型的次数")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
     /**
      * 保存用户音频数据
      */
     private void saveUserAudio(ChatSession session) {
         try {
             // 获取当前语音活动的PCM数据
-            List<byte[]> pcmFrames = vadService.getPcmData(session.getSessionId());
-
-            if (pcmFrames != null && !pcmFrames.isEmpty()) {
-                // 计算总大小并合并PCM帧
-                int totalSize = pcmFrames.stream().mapToInt(frame -> frame.length).sum();
-                byte[] fullPcmData = new byte[totalSize];
-                int offset = 0;
-
-                for (byte[] frame : pcmFrames) {
-                    System.arraycopy(frame, 0, fullPcmData, offset, frame.length);
-                    offset += frame.length;
-                }
+            List<ByteBuffer> pcmSlices = vadService.getPcmSlices(session.getSessionId());
 
-                // 保存为WAV文件
+            if (pcmSlices != null && !pcmSlices.isEmpty()) {
+                // 直接按切片写入WAV文件，不再合并PCM帧
                 Path path = session.getUserAudioPath();
-                AudioUtils.saveAsWav(path,fullPcmData);
+                AudioUtils.saveAsWav(path, pcmSlices);
                 logger.debug("Аудио пользователя сохранено: {}", path.toString());
                 //更新消息表路径、时长信息
                 String deviceId = session.getSysDevice().getDeviceId().replace("-", ":");
@@ -529,67 +804,119 @@ public class DialogueService{
     }
 
     /**
-     * 初始化对话状态
+     * 初始化对话状态，开始新的一轮对话，上一轮没有播放完的内容不再播放
      */
-    private void initChat(String sessionId) {
-        llmStartTimes.put(sessionId, System.currentTimeMillis());
-        seqCounters.putIfAbsent(sessionId, new AtomicInteger(0));
-        sentenceQueue.putIfAbsent(sessionId, new CopyOnWriteArrayList<>());
-        firstSentDone.put(sessionId, new AtomicBoolean(false));
-        locks.putIfAbsent(sessionId, new ReentrantLock());
+    private DialogueContext initChat(ChatSession session) {
+        DialogueContext previous = session.getDialogueContext();
+        DialogueContext context = previous != null
+                ? new DialogueContext(MAX_CONCURRENT_PER_SESSION, previous.getTtsLatencyMillis(),
+                        previous.getAudioMillisPerChar())
+                : new DialogueContext(MAX_CONCURRENT_PER_SESSION, initialTtsLatencyMs, initialAudioMsPerChar);
+        session.setDialogueContext(context);
+        if (previous != null) {
+            retire(previous);
+        }
+        return context;
     }
 
     /**
-     * 处理LLM返回的句子
-     * 使用虚拟线程处理TTS生成
+     * 退役会话当前的对话
+     */
+    private void retireDialogue(ChatSession session) {
+        DialogueContext context = session.getDialogueContext();
+        if (context != null) {
+            retire(context);
+        }
+    }
+
+    private void retire(DialogueContext context) {
+        cancelSpeculation(context.speculativeTurn.getAndSet(null));
+        context.retire();
+    }
+
+    /**
+     * 一次模型请求的句子处理器，开启分块时先经过自适应分块再合成
+     */
+    private ChatService.TriConsumer<String, Boolean, Boolean> sentenceHandler(ChatSession session,
+            DialogueContext context) {
+        ChatService.TriConsumer<String, Boolean, Boolean> handler =
+                (sentence, isFirst, isLast) -> handleSentence(session, context, sentence, isFirst, isLast);
+        if (!chunkEnabled) {
+            return handler;
+        }
+        String sessionId = session.getSessionId();
+        SentenceChunker chunker = new SentenceChunker(chunkMaxLength, chunkMaxWaitMs, new SentenceChunker.Budget() {
+            @Override
+            public long backlogMillis() {
+                // 设备端已缓冲的音频，加上排队等待合成和播放的句子按字数估计的时长
+                return audioService.getBufferedMillis(sessionId)
+                        + (long) (context.queuedChars.get() * context.getAudioMillisPerChar());
+            }
+
+            @Override
+            public long ttsLatencyMillis() {
+                return (long) context.getTtsLatencyMillis();
+            }
+        }, sentenceDeadlines, handler);
+        context.cancellation.onCancel(chunker::close);
+        return chunker::accept;
+    }
+
+    /**
+     * 处理LLM返回的句子，归入会话当前的对话
      */
     public void handleSentence(
             ChatSession session,
             String text,
             boolean isFirst,
             boolean isLast) {
+        DialogueContext context = session.getDialogueContext();
+        if (context == null || context.isRetired()) {
+            context = initChat(session);
+        }
+        handleSentence(session, context, text, isFirst, isLast);
+    }
+
+    /**
+     * 处理LLM返回的句子
+     * 使用虚拟线程处理TTS生成，所属对话已退役时丢弃
+     */
+    private void handleSentence(
+            ChatSession session,
+            DialogueContext context,
+            String text,
+            boolean isFirst,
+            boolean isLast) {
         Assert.notNull(session, "session cannot be null");
         Long assistantTimeMillis = session.getAssistantTimeMillis();
         Assert.notNull(assistantTimeMillis, "assistantTimeMillis cannot be null");
+        if (context.isRetired()) {
+            return;
+        }
+        DialogueProfile profile = profileManager.get(session);
+        if (profile == null) {
+            return;
+        }
         String sessionId = session.getSessionId();
-        seqCounters.putIfAbsent(sessionId, new AtomicInteger(0));
-        // 获取句子序列号
-        int seq = seqCounters.get(sessionId).incrementAndGet();
+        // 获取句子序列号，分配后一定要放入重排缓冲，否则后面的句子会一直等它
+        int seq = context.seq.incrementAndGet();
 
         // 耗时操作需及时更新最后活动时间，避免误判为会话终止
         sessionManager.updateLastActivity(sessionId);
 
         // 累加完整回复内容
         if (text != null && !text.isEmpty()) {
-            // 同时累加到对话ID对应的响应中
-            dialogueResponses.computeIfAbsent(assistantTimeMillis, k -> new StringBuilder()).append(text);
+            context.appendResponse(text);
         }
 
         // 计算模型响应时间
-        final long responseTime;
-        Long startTime = llmStartTimes.get(sessionId);
-        if (startTime != null) {
-            long currentTime = System.currentTimeMillis();
-            responseTime = (currentTime - startTime);
-            llmStartTimes.put(sessionId, currentTime); // 更新开始时间
-        } else {
-            responseTime = 0;
-        }
-
-        SysDevice device = session.getSysDevice();
-        SysRole role = roleService.selectRoleById(device.getRoleId());
-        if (device == null || role == null) {
-            return;
-        }
+        long currentTime = System.currentTimeMillis();
+        final long responseTime = currentTime - context.llmStartTime;
+        context.llmStartTime = currentTime; // 更新开始时间
 
         // 新增加的设备很有可能没有配置TTS，采用默认Edge需要传递null
-        final SysConfig ttsConfig;
-        if (role.getTtsId() != null) {
-            ttsConfig = configService.selectConfigById(role.getTtsId());
-        } else {
-            ttsConfig = null;
-        }
-        String voiceName = role.getVoiceName();
+        final SysConfig ttsConfig = profile.ttsConfig();
+        String voiceName = profile.voiceName();
 
         // 处理表情符号
         EmoSentence emoSentence = EmojiUtils.processSentence(text);
@@ -608,18 +935,15 @@ public class DialogueService{
             sentence.setMoods(emoSentence.getMoods());
 
             // 添加到句子队列
-            CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-            if (queue != null) {
-                queue.add(sentence);
-            }
+            enqueueSentence(session, context, sentence, 0);
 
             // 如果是首句，需要标记首句处理完成
             if (isFirst) {
-                firstSentDone.get(sessionId).set(true);
+                context.firstSentDone.set(true);
             }
 
             // 尝试处理队列
-            processQueue(session, sessionId);
+            processQueue(session);
             return;
         }
 
@@ -631,9 +955,7 @@ public class DialogueService{
         logger.info("Обработка предложения, возвращенного LLM: seq={}, text={}, isFirst={}, isLast={}, responseTime={}s", seq, text, isFirst, isLast, responseTime/1000);
 
         // 添加到句子队列
-        CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-        if (queue == null) {return;}
-        queue.add(sentence);
+        enqueueSentence(session, context, sentence, emoSentence.getTtsSentence().length());
 
         // 如果句子为空且是结束状态，直接标记为准备好（不需要生成音频）
         if ((text == null || text.isEmpty()) && isLast) {
@@ -642,17 +964,17 @@ public class DialogueService{
 
             // 如果是首句，需要标记首句处理完成
             if (isFirst) {
-                firstSentDone.get(sessionId).set(true);
+                context.firstSentDone.set(true);
             }
 
             // 尝试处理队列
-            processQueue(session, sessionId);
+            processQueue(session);
             return;
         }
 
         // 使用虚拟线程异步生成音频文件
         Thread.startVirtualThread(() -> {
-            generateAudio(session, sessionId, sentence, emoSentence, isFirst, isLast, ttsConfig, voiceName, role.getTtsPitch(), role.getTtsSpeed());
+            generateAudio(session, context, sessionId, sentence, emoSentence, isFirst, isLast, ttsConfig, voiceName, profile.ttsPitch(), profile.ttsSpeed());
         });
     }
 
@@ -661,6 +983,7 @@ public class DialogueService{
      */
     private void generateAudio(
             ChatSession session,
+            DialogueContext context,
             String sessionId,
             Sentence sentence,
             EmoSentence emoSentence,
@@ -672,7 +995,7 @@ public class DialogueService{
             Float ttsSpeed) {
 
         // 创建TTS任务
-        TtsTask task = new TtsTask(session, sessionId, sentence, emoSentence,
+        TtsTask task = new TtsTask(session, context, sessionId, sentence, emoSentence,
                 isFirst, isLast, ttsConfig, voiceName, ttsPitch, ttsSpeed);
 
         // 提交任务到队列
@@ -683,22 +1006,24 @@ public class DialogueService{
      * 提交TTS任务
      */
     private void submitTtsTask(TtsTask task) {
-        PriorityBlockingQueue<TtsTask> taskQueue = getSessionTaskQueue(task.sessionId);
-        taskQueue.offer(task);
+        if (task.context.isRetired()) {
+            return;
+        }
+        task.context.ttsTasks.offer(task);
 
         // 尝试处理队列中的任务
-        processTtsTaskQueue(task.sessionId);
+        processTtsTaskQueue(task.sessionId, task.context);
     }
 
     /**
      * 处理TTS任务队列
      */
-    private void processTtsTaskQueue(String sessionId) {
+    private void processTtsTaskQueue(String sessionId, DialogueContext context) {
         Thread.startVirtualThread(() -> {
-            PriorityBlockingQueue<TtsTask> taskQueue = getSessionTaskQueue(sessionId);
-            Semaphore semaphore = getSessionSemaphore(sessionId);
+            PriorityBlockingQueue<TtsTask> taskQueue = context.ttsTasks;
+            Semaphore semaphore = context.ttsPermits;
 
-            while (!taskQueue.isEmpty()) {
+            while (!context.isRetired() && !taskQueue.isEmpty()) {
                 // 耗时操作需及时更新最后活动时间，避免误判为会话终止
                 sessionManager.updateLastActivity(sessionId);
 
@@ -721,7 +1046,7 @@ public class DialogueService{
                     } finally {
                         semaphore.release();
                         // 任务完成后，继续处理队列
-                        processTtsTaskQueue(sessionId);
+                        processTtsTaskQueue(sessionId, context);
                     }
                 });
             }
@@ -732,16 +1057,48 @@ public class DialogueService{
      * 执行TTS任务（带超时和重试）
      */
     private void executeTtsTask(TtsTask task) {
-        CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> {
+        // 对话已被打断，不再合成
+        if (task.context.isRetired()) {
+            return;
+        }
+        TtsService ttsService;
+        try {
+            ttsService = ttsFactory.getTtsService(task.ttsConfig, task.voiceName, task.ttsPitch, task.ttsSpeed);
+        } catch (Exception e) {
+            handleTtsFailure(task, e.getMessage());
+            return;
+        }
+
+        // 先查系统提示语音库和TTS缓存，命中时不再调用提供商
+        String promptKey = ttsCache.createKey(ttsService, task.ttsConfig, task.voiceName,
+                task.ttsPitch, task.ttsSpeed, task.emoSentence.getTtsSentence());
+        String cacheKey = ttsCache.isEnabled() ? promptKey : null;
+        long lookupStartTime = System.currentTimeMillis();
+        List<byte[]> cachedFrames = promptBank.lookup(promptKey);
+        if (cachedFrames == null && cacheKey != null) {
+            cachedFrames = ttsCache.get(cacheKey);
+        }
+        if (cachedFrames != null) {
+            task.sentence.setTtsGenerationTime((System.currentTimeMillis() - lookupStartTime) / 1000.0);
+            task.sentence.setOpusFrames(cachedFrames);
+            handleTtsSuccess(task);
+            return;
+        }
+
+        if (ttsService.isSupportStreamTts()) {
+            executeStreamTtsTask(task, ttsService, cacheKey);
+            return;
+        }
+
+        CompletableFuture<byte[]> future = CompletableFuture.supplyAsync(() -> {
             try {
                 long ttsStartTime = System.currentTimeMillis();
-                String audioPath = ttsFactory.getTtsService(task.ttsConfig, task.voiceName, task.ttsPitch, task.ttsSpeed)
-                        .textToSpeech(task.emoSentence.getTtsSentence());
+                byte[] audio = ttsService.textToPcm(task.emoSentence.getTtsSentence(), task.context.cancellation);
                 long ttsDuration = System.currentTimeMillis() - ttsStartTime;
 
                 // 记录TTS生成时间
                 task.sentence.setTtsGenerationTime(ttsDuration / 1000.0);
-                return audioPath;
+                return audio;
             } catch (Exception e) {
                 throw new CompletionException(e);
             }
@@ -752,10 +1109,21 @@ public class DialogueService{
             sessionManager.updateLastActivity(task.getSessionId());
 
             // 设置超时
-            String audioPath = future.get(TTS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-
-            // 成功生成音频
-            handleTtsSuccess(task, audioPath);
+            byte[] audio = future.get(TTS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            // 成功生成音频，非流式合成的首音频延迟就是整句合成时间
+            recordFirstAudioLatency(ttsService, "full", task.sentence.getTtsGenerationTime());
+            task.context.recordTtsLatency(task.sentence.getTtsGenerationTime() * 1000);
+            task.context.recordAudioLength(task.emoSentence.getTtsSentence().length(), pcmMillis(audio));
+            byte[] pcm = audio != null && audio.length > 0 ? audio : null;
+            if (cacheKey != null && pcm != null) {
+                // 只编码一次，播放和缓存共用同一组帧
+                List<byte[]> frames = opusProcessor.pcmToStandaloneOpus(pcm);
+                task.sentence.setOpusFrames(frames);
+                ttsCache.putFrames(cacheKey, frames);
+            }
+            task.sentence.setAudio(pcm);
+            handleTtsSuccess(task);
         } catch (TimeoutException e) {
             // logger.warn("TTS生成超时 - 序号: {}, 重试次数: {}/{}, 内容: \"{}\"",
             //         task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, task.sentence.getText());
@@ -767,10 +1135,99 @@ public class DialogueService{
         }
     }
 
+    /**
+     * 执行流式TTS任务
+     * 收到第一块音频就把句子标记为准备就绪，播放端边合成边发送，不必等整句合成完成。
+     * 超时和重试只针对首块音频，首块之后合成失败时已经播放的部分无法撤回，只能提前结束该句。
+     */
+    private void executeStreamTtsTask(TtsTask task, TtsService ttsService, String cacheKey) {
+        Sinks.Many<byte[]> sink = Sinks.many().unicast().onBackpressureBuffer();
+        ByteArrayOutputStream fullAudio = new ByteArrayOutputStream();
+        CompletableFuture<Long> firstChunk = new CompletableFuture<>();
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        long ttsStartTime = System.currentTimeMillis();
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                ttsService.streamTextToSpeech(task.emoSentence.getTtsSentence(), chunk -> {
+                    // 首块超时或对话被打断后放弃本次合成，抛出异常让提供方尽快中断
+                    if (cancelled.get()) {
+                        throw new CancellationException("流式TTS已超时取消");
+                    }
+                    if (task.context.cancellation.isCancelled()) {
+                        throw new CancellationException("对话已打断，流式TTS取消");
+                    }
+                    if (chunk == null || chunk.length == 0) {
+                        return;
+                    }
+                    fullAudio.writeBytes(chunk);
+                    firstChunk.complete(System.currentTimeMillis() - ttsStartTime);
+                    sink.tryEmitNext(chunk);
+                }, task.context.cancellation);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, Thread::startVirtualThread).whenComplete((v, error) -> {
+            if (error == null) {
+                // 整句合成完成后保存完整音频，供对话录音使用
+                task.sentence.setTtsGenerationTime((System.currentTimeMillis() - ttsStartTime) / 1000.0);
+                if (!cancelled.get() && fullAudio.size() > 0) {
+                    task.sentence.setAudio(fullAudio.toByteArray());
+                    task.context.recordAudioLength(task.emoSentence.getTtsSentence().length(),
+                            pcmMillis(task.sentence.getAudio()));
+                }
+                sink.tryEmitComplete();
+                // 合成正常结束但没有任何音频
+                firstChunk.completeExceptionally(new IllegalStateException("流式TTS未返回音频"));
+            } else {
+                sink.tryEmitError(error);
+                firstChunk.completeExceptionally(error);
+            }
+        });
+
+        try {
+            // 耗时操作需及时更新最后活动时间，避免误判为会话终止
+            sessionManager.updateLastActivity(task.getSessionId());
+
+            long firstChunkLatency = firstChunk.get(TTS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            recordFirstAudioLatency(ttsService, "stream", firstChunkLatency / 1000.0);
+            task.context.recordTtsLatency(firstChunkLatency);
+
+            // 首块到达即可开始播放，此时记录的是首块延迟
+            task.sentence.setTtsGenerationTime(firstChunkLatency / 1000.0);
+            if (cacheKey != null) {
+                // 播放端编码完整句后写入缓存，不再重新编码
+                task.sentence.setEncodedFramesListener(frames -> ttsCache.putFrames(cacheKey, frames));
+            }
+            task.sentence.setAudioStream(sink.asFlux());
+            handleTtsSuccess(task);
+        } catch (TimeoutException e) {
+            cancelled.set(true);
+            handleTtsFailure(task, "超时");
+        } catch (ExecutionException e) {
+            handleTtsFailure(task, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } catch (Exception e) {
+            cancelled.set(true);
+            handleTtsFailure(task, e.getMessage());
+        }
+    }
+
+    /**
+     * 记录TTS首音频延迟（从开始合成到可以开始播放）
+     */
+    private void recordFirstAudioLatency(TtsService ttsService, String mode, double seconds) {
+        Timer.builder("xiaozhi.tts.first.audio")
+                .description("TTS从开始合成到首块音频可播放的耗时")
+                .tag("provider", ttsService.getProviderName())
+                .tag("mode", mode)
+                .register(meterRegistry)
+                .record((long) (seconds * 1000), TimeUnit.MILLISECONDS);
+    }
+
     /**
      * 处理TTS成功
      */
-    private void handleTtsSuccess(TtsTask task, String audioPath) {
+    private void handleTtsSuccess(TtsTask task) {
         // 记录心情
         task.sentence.setMoods(task.emoSentence.getMoods());
 
@@ -792,36 +1249,23 @@ public class DialogueService{
                 df.format(task.sentence.getTtsGenerationTime()),
                 task.sentence.getText());
 
-        // 标记音频准备就绪
-        task.sentence.setAudio(audioPath);
-
-        // 如果有对话ID，将音频路径添加到对应的映射中
-        if (task.sentence.getAssistantTimeMillis() != null && audioPath != null) {
-            dialogueAudioPaths.computeIfAbsent(task.sentence.getAssistantTimeMillis(), k -> new ConcurrentHashMap<>())
-                    .put(task.sentence.getSeq(), audioPath);
-        }
-
         // 如果是首句，需要标记首句处理完成
         if (task.isFirst) {
-            
-            if(firstSentDone.get(task.sessionId) != null) {
-                firstSentDone.get(task.sessionId).set(true);
-            } else {
-                logger.error("Сессия {} уже удалена, невозможно отметить завершение обработки первого предложения.", task.sessionId);
-            }
+            task.context.firstSentDone.set(true);
         }
 
         // 尝试处理队列
-        AtomicBoolean firstDone = firstSentDone.get(task.sessionId);
-        if (firstDone != null && firstDone.get()) {
-            processQueue(task.session, task.sessionId);
-        }
+        processQueue(task.session);
     }
 
     /**
      * 处理TTS失败
      */
     private void handleTtsFailure(TtsTask task, String reason) {
+        // 对话已被打断，合成失败是取消造成的，不再重试
+        if (task.context.isRetired()) {
+            return;
+        }
         task.retryCount++;
 
         // 耗时操作需及时更新最后活动时间，避免服务端误判为会话终止
@@ -833,6 +1277,7 @@ public class DialogueService{
             // 创建新的任务对象而不是重用原对象，避免数据污染
             TtsTask retryTask = new TtsTask(
                 task.session, 
+                task.context,
                 task.sessionId, 
                 task.sentence, 
                 task.emoSentence, 
@@ -869,164 +1314,169 @@ public class DialogueService{
 
             // 如果是首句，需要标记首句处理完成
             if (task.isFirst) {
-                if(firstSentDone.get(task.sessionId) != null) {
-                    firstSentDone.get(task.sessionId).set(true);
-                } else {
-                    logger.error("Сессия {} уже удалена, невозможно отметить завершение обработки первого предложения.", task.sessionId);
-                }
+                task.context.firstSentDone.set(true);
             }
 
             // 尝试处理队列
-            if(firstSentDone.get(task.sessionId) != null ) {
-                if (firstSentDone.get(task.sessionId).get()) {
-                    processQueue(task.session, task.sessionId);
-                }
-            } else {
-                logger.error("Сессия {} уже удалена, невозможно обработать очередь.", task.sessionId);
-            }
+            processQueue(task.session);
         }
     }
 
     /**
-     * 保存助手的完整响应（文本和合并音频）
+     * 保存助手的完整响应音频，只在开启对话录音时落盘
      */
-    private void saveAssistantResponse(ChatSession session) {
+    private void saveAssistantResponse(ChatSession session, DialogueContext context) {
 
         Long assistantTimeMillis = session.getAssistantTimeMillis();
         try {
-            // 获取该对话的所有音频路径
-            Map<Integer, String> audioPaths = dialogueAudioPaths.get(assistantTimeMillis);
-            if (audioPaths == null || audioPaths.isEmpty()) {
-                logger.warn("Диалог {} не имеет доступного аудио пути", assistantTimeMillis);
+            // 获取该对话已播放的全部音频
+            ByteArrayOutputStream recording = context.takeRecording();
+            if (recording == null || recording.size() == 0) {
+                logger.warn("Диалог {} не имеет доступного аудио", assistantTimeMillis);
                 return;
             }
 
             // 保存ai音频文件前保存用户音频
             saveUserAudio(session);
 
-            // 按序号排序音频路径
-            List<Integer> sortedSeqs = new ArrayList<>(audioPaths.keySet());
-            sortedSeqs.sort(Integer::compareTo);
-
-            // 准备要合并的音频文件路径
-            List<String> audioFilesToMerge = new ArrayList<>();
-            for (Integer seq : sortedSeqs) {
-                String path = audioPaths.get(seq);
-                if (path != null) {
-                    audioFilesToMerge.add(path);
-                    // 查看下文件是否存在
-                    if(!Files.exists(Paths.get(path))){
-                        logger.error("Аудиофайл не существует: {}", path);
-                    }
-                }
-            }
-            // DEBUG: dialogueAudioPaths 里的文件已经合并过了，而且片段文件已删除。这里出现了二次合并。
-            // 合并音频文件
-            if (!audioFilesToMerge.isEmpty()) {
-                Path path = session.getAssistantAudioPath();
-                // 这里可能只有一条音频，合并可能会报错，尝试输出所有合并音频的路径
-                logger.info("Количество объединяемых аудиофайлов: {}", audioFilesToMerge.size());
-                AudioUtils.mergeAudioFiles(path,audioFilesToMerge);
-                // 保存合并后的音频路径
-                logger.info("Аудио диалога {} объединено: {}", assistantTimeMillis, path);
-                // 音频合并完成，删除源文件后，dialogueAudioPaths也应一并清除。
-                dialogueAudioPaths.remove(assistantTimeMillis);
-                //合并完成，更新消息表路径、时长信息
-                String deviceId = session.getSysDevice().getDeviceId().replace("-", ":");
-                Integer roleId = session.getSysDevice().getRoleId();
-                String fileName = path.getFileName().toString();
-                String createTime = fileName.substring(0, fileName.indexOf("-" + Conversation.MESSAGE_TYPE_ASSISTANT));
-                sysMessageService.updateMessageByAudioFile(deviceId, roleId,
-                        Conversation.MESSAGE_TYPE_ASSISTANT, createTime, path.toString());
-            }
+            Path path = session.getAssistantAudioPath();
+            AudioUtils.saveAsWav(path, recording.toByteArray());
+            logger.info("Аудио диалога {} сохранено: {}", assistantTimeMillis, path);
+            //保存完成，更新消息表路径、时长信息
+            String deviceId = session.getSysDevice().getDeviceId().replace("-", ":");
+            Integer roleId = session.getSysDevice().getRoleId();
+            String fileName = path.getFileName().toString();
+            String createTime = fileName.substring(0, fileName.indexOf("-" + Conversation.MESSAGE_TYPE_ASSISTANT));
+            sysMessageService.updateMessageByAudioFile(deviceId, roleId,
+                    Conversation.MESSAGE_TYPE_ASSISTANT, createTime, path.toString());
         } catch (Exception e) {
             logger.error("Не удалось сохранить ответ помощника - ID диалога: {}, ошибка: {}", assistantTimeMillis, e.getMessage(), e);
         }
     }
 
     /**
-     * 处理音频队列
-     * 在流式处理完成后或非首句音频生成完成后调用
+     * 按播放顺序把句子音频追加到当前对话的录音缓冲
      */
-    private void processQueue(ChatSession session, String sessionId) {
-        // 获取锁，确保线程安全
-        ReentrantLock lock = locks.get(sessionId);
-        if (lock == null) {
+    private void appendRecording(DialogueContext context, Sentence sentence) {
+        if (!recordEnabled || sentence.getAssistantTimeMillis() == null) {
             return;
         }
-
-        // 尝试获取锁，避免多线程同时处理
-        if (!lock.tryLock()) {
+        byte[] audio = sentence.getAudio();
+        if (audio == null && sentence.getOpusFrames() != null) {
+            // 命中缓存的句子只有Opus帧，录音时再解码
+            try {
+                audio = opusProcessor.opusFramesToPcm(sentence.getOpusFrames());
+            } catch (Exception e) {
+                logger.warn("Не удалось декодировать кэшированное аудио для записи: {}", e.getMessage());
+            }
+        }
+        if (audio == null) {
             return;
         }
+        context.appendRecording(audio);
+    }
 
-        try {
-            // 获取句子队列
-            CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-            if (queue == null || queue.isEmpty()) {
-                return;
-            }
-
-            // 检查首句是否已经流式处理完成
-            AtomicBoolean firstDone = firstSentDone.get(sessionId);
-            if (firstDone == null || !firstDone.get()) {
-                // 首句尚未处理完成，等待
-                return;
+    /**
+     * 处理音频队列，播放会话当前对话中的句子
+     * 在句子就绪、截止时间到期或上一句播放完成后调用，队首句子就绪（或已过截止时间）就立即发送
+     */
+    private void processQueue(ChatSession session) {
+        DialogueContext context = session.getDialogueContext();
+        if (context == null || context.isRetired()) {
+            return;
+        }
+        // 先登记请求再抢锁，正在处理的线程释放锁前会再检查一次，不会漏掉
+        context.playRequested.set(true);
+        ReentrantLock lock = context.playLock;
+        while (context.playRequested.get() && lock.tryLock()) {
+            try {
+                context.playRequested.set(false);
+                playNext(session, context);
+            } finally {
+                lock.unlock();
             }
+        }
+    }
 
-            // 检查当前是否有句子正在播放
-            boolean isCurrentlyPlaying = audioService.isPlaying(sessionId);
+    /**
+     * 队首句子可以播放时发送，需持有playLock
+     */
+    private void playNext(ChatSession session, DialogueContext context) {
+        if (context.isRetired()) {
+            return;
+        }
+        // 检查首句是否已经流式处理完成
+        if (!context.firstSentDone.get()) {
+            // 首句尚未处理完成，等待
+            return;
+        }
 
-            // 如果当前正在播放，不处理下一个句子
-            if (isCurrentlyPlaying) {
-                return;
-            }
+        // 如果当前正在播放，不处理下一个句子，播放完成后会再调用
+        if (audioService.isPlaying(session.getSessionId())) {
+            return;
+        }
 
-            // 找出最小序号
-            int minSeq = queue.stream()
-                    .mapToInt(Sentence::getSeq)
-                    .min()
-                    .orElse(Integer.MAX_VALUE);
-
-            // 找出该序号的句子
-            Sentence nextSentence = queue.stream()
-                    .filter(s -> s.getSeq() == minSeq)
-                    .findFirst()
-                    .orElse(null);
-
-            if (nextSentence != null) {
-                // 检查句子是否准备好或超时
-                if (nextSentence.isReady() || nextSentence.isTimeout()) {
-                    // 如果句子超时但未准备好，标记为准备好但没有音频
-                    if (nextSentence.isTimeout() && !nextSentence.isReady()) {
-                        nextSentence.setAudio(null);
-                    }
+        // 下一个序号的句子，还没到或者未就绪时等待
+        Sentence nextSentence = context.sentences.peek();
+        if (nextSentence == null || (!nextSentence.isReady() && !nextSentence.expired)) {
+            return;
+        }
+        // 截止时间已过仍未就绪，标记为准备好但没有音频
+        if (!nextSentence.isReady()) {
+            nextSentence.setAudio(null);
+        }
+        context.sentences.poll();
+        context.queuedChars.addAndGet(-nextSentence.ttsChars);
+        ScheduledFuture<?> deadline = nextSentence.deadline;
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
 
-                    // 从队列中移除已处理的句子
-                    queue.remove(nextSentence);
-
-                    // 发送到客户端
-                    audioService.sendAudioMessage(
-                            session,
-                            nextSentence,
-                            false, // 不是开始消息
-                            nextSentence.isLast() // 如果是最后一句，则是结束消息
-                    ).thenRun(() -> {
-                        // 在播放完成后，递归调用处理下一个句子
-                        processQueue(session, sessionId);
-                    });
-                }
-                //logger.info("是否最后一个句子{}, 对话ID: {}",nextSentence.isLast, nextSentence.assistantTimeMillis);
-                // 如果是最后一个句子，合并并存储助手的完整音频
-                if (nextSentence.isLast() && nextSentence.getAssistantTimeMillis() != null) {
-                    saveAssistantResponse(session);
+        // 发送到客户端
+        audioService.sendAudioMessage(
+                session,
+                nextSentence,
+                false, // 不是开始消息
+                nextSentence.isLast() // 如果是最后一句，则是结束消息
+        ).thenRun(() -> {
+            // 流式合成的句子播放完成时音频才完整，所以在播放完成后再录音
+            appendRecording(context, nextSentence);
+            if (nextSentence.isLast()) {
+                // 如果是最后一个句子，存储助手的完整音频
+                if (recordEnabled && nextSentence.getAssistantTimeMillis() != null) {
+                    saveAssistantResponse(session, context);
                 }
+                // 本轮对话播放完成
+                retire(context);
             }
-        } finally {
-            lock.unlock();
+            // 在播放完成后，处理下一个句子
+            processQueue(session);
+        });
+    }
+
+    /**
+     * 把句子放入重排缓冲，未就绪的句子设置截止时间，到期后不再等待合成
+     */
+    private void enqueueSentence(ChatSession session, DialogueContext context, Sentence sentence, int ttsChars) {
+        // 与recordAudioLength使用同一段文字计数，每字时长才对得上
+        sentence.ttsChars = ttsChars;
+        context.queuedChars.addAndGet(ttsChars);
+        context.sentences.add(sentence);
+        if (!sentence.isReady()) {
+            sentence.deadline = sentenceDeadlines.schedule(() -> {
+                sentence.expired = true;
+                processQueue(session);
+            }, TIMEOUT_MS, TimeUnit.MILLISECONDS);
         }
     }
 
+    /**
+     * PCM音频的时长（毫秒），16kHz单声道16位
+     */
+    private static long pcmMillis(byte[] pcm) {
+        return pcm == null ? 0 : pcm.length * 1000L / (AudioUtils.SAMPLE_RATE * 2);
+    }
+
     /**
      * 处理语音唤醒
      */
@@ -1040,16 +1490,11 @@ public class DialogueService{
             }
 
             handleText(session, text, dialogueId -> {
+                // handleText中已开始新的一轮对话
+                DialogueContext context = session.getDialogueContext();
                 // 使用句子切分处理流式响应
                 chatService.chatStreamBySentence(session, text, false,
-                        (sentence, isFirst, isLast) -> {
-                            handleSentence(
-                                    session,
-                                    sentence,
-                                    isFirst,
-                                    isLast
-                            );
-                        });
+                        sentenceHandler(session, context), context.cancellation);
             });
         } catch (Exception e) {
             logger.error("Не удалось обработать пробуждающее слово: {}", e.getMessage(), e);
@@ -1067,7 +1512,7 @@ public class DialogueService{
     public void handleText(ChatSession session, String inputText, Consumer<Long> textConsumer) {
         // 初始化对话状态
         String sessionId = session.getSessionId();
-        initChat(sessionId);
+        DialogueContext context = initChat(session);
         try {
             SysDevice device = sessionManager.getDeviceConfig(sessionId);
             if (device == null) {
@@ -1093,13 +1538,7 @@ public class DialogueService{
                 logger.info("Обработка текстового ввода чата: \"{}\"", inputText);
                 // 使用句子切分处理流式响应
                 chatService.chatStreamBySentence(session, inputText, true,
-                        (sentence, isFirst, isLast) -> {
-                            handleSentence(
-                                    session,
-                                    sentence,
-                                    isFirst,
-                                    isLast);
-                        });
+                        sentenceHandler(session, context), context.cancellation);
             }
         } catch (Exception e) {
             logger.error("Не удалось обработать пробуждающее слово: {}", e.getMessage(), e);
@@ -1119,9 +1558,10 @@ public class DialogueService{
                 String sessionId = session.getSessionId();
 
                 // 初始化对话处理状态
-                initChat(sessionId);
+                DialogueContext context = initChat(session);
 
                 // 随机选择一条告别语
+                List<String> goodbyeMessages = PromptBank.GOODBYE_MESSAGES;
                 String goodbyeMessage = goodbyeMessages.get(new Random().nextInt(goodbyeMessages.size()));
 
                 // 设置会话在完成后关闭
@@ -1136,6 +1576,7 @@ public class DialogueService{
                 // 直接处理告别语，不通过LLM
                 handleSentence(
                         session,
+                        context,
                         goodbyeMessage,
                         true, // 作为第一句
                         true // 同时也是最后一句
@@ -1163,38 +1604,21 @@ public class DialogueService{
             // 关闭音频流
             sessionManager.closeAudioStream(sessionId);
             sessionManager.setStreamingState(sessionId, false);
+            DialogueContext context = session.getDialogueContext();
+            if (context != null) {
+                cancelSpeculation(context.speculativeTurn.getAndSet(null));
+            }
 
             if (sessionManager.isMusicPlaying(sessionId)) {
                 musicService.stopMusic(sessionId);
                 huiBenService.stopHuiBen(sessionId);
                 return;
             }
-            // 清空句子队列
-            CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-            if (queue != null) {
-                queue.clear();
-            }
-
-            // 重置首句处理状态
-            AtomicBoolean firstDone = firstSentDone.get(sessionId);
-            if (firstDone != null) {
-                firstDone.set(false);
-            }
-
-            // 清理TTS任务队列和信号量
-            PriorityBlockingQueue<TtsTask> taskQueue = sessionTaskQueues.get(sessionId);
-            if (taskQueue != null) {
-                taskQueue.clear();
+            // 退役当前对话：清空句子队列和TTS任务队列，进行中的TTS结果不再播放
+            if (context != null) {
+                retire(context);
                 logger.info("Очередь задач TTS очищена - SessionId: {}", sessionId);
             }
-            
-            // 释放所有信号量许可，确保正在进行的TTS任务能够完成
-            Semaphore semaphore = sessionSemaphores.get(sessionId);
-            if (semaphore != null) {
-                // 释放所有可能的许可，让正在进行的任务能够完成
-                semaphore.release(MAX_CONCURRENT_PER_SESSION);
-                logger.info("Разрешения семафора TTS освобождены - SessionId: {}", sessionId);
-            }
 
             // 终止语音发送
             audioService.sendStop(session);
@@ -1207,18 +1631,9 @@ public class DialogueService{
      * 清理会话资源
      */
     public void cleanupSession(String sessionId) {
-        seqCounters.remove(sessionId);
-        sttStartTimes.remove(sessionId);
-        llmStartTimes.remove(sessionId);
-        sentenceQueue.remove(sessionId);
-        firstSentDone.remove(sessionId);
-        locks.remove(sessionId);
-
-        // 新增：清理并发控制相关资源
-        sessionSemaphores.remove(sessionId);
-        PriorityBlockingQueue<TtsTask> taskQueue = sessionTaskQueues.remove(sessionId);
-        if (taskQueue != null) {
-            taskQueue.clear();
+        ChatSession session = sessionManager.getSession(sessionId);
+        if (session != null) {
+            retireDialogue(session);
         }
 
         // 清理AudioService中的资源
@@ -1227,30 +1642,11 @@ public class DialogueService{
 
     /**
      * 是否正在对话中
-     * @param sessionId
+     * @param session
      * @return
      */
-    public boolean isDialog(String sessionId) {
-        ReentrantLock dialogLock = locks.get(sessionId);
-        return (dialogLock != null && dialogLock.isLocked())
-                || (sentenceQueue.get(sessionId) != null && !sentenceQueue.get(sessionId).isEmpty());
+    public boolean isDialog(ChatSession session) {
+        DialogueContext context = session.getDialogueContext();
+        return context != null && context.isActive();
     }
-
-    // 添加告别语列表
-    private static final List<String> goodbyeMessages = Arrays.asList(
-            "Похоже, я вам сейчас не нужен, я немного отдохну. Если понадоблюсь - позовите меня.",
-            "Вы, кажется, заняты другим делом, я отойду. Если понадоблюсь - позовите меня.",
-            "Тогда я не буду вам мешать. Если возникнут вопросы - зовите меня. Пока!",
-            "Похоже, у вас есть другие дела. Я уйду, если понадоблюсь - позовите меня.",
-            "Я заметил, что вы давно не говорили. Я пойду подзаряжусь, если понадоблюсь - позовите меня.",
-            "Вы, кажется, заняты. Я не буду вам мешать. Если понадоблюсь - позовите меня. Пока!",
-            "Тогда я не буду вам мешать. Если понадоблюсь - можете разбудить меня. Пока!",
-            "Я пойду немного отдохну. Если что-то понадобится - позовите меня. Пока!",
-            "Похоже, вы заняты другим делом. Я не буду вам мешать. Если понадоблюсь - позовите меня.",
-            "Тогда я отойду. Если понадоблюсь - позовите меня. Пока!",
-            "Я уйду ненадолго. Если понадоблюсь - позовите меня. Пока!",
-            "Я пойду немного отдохну. Если понадоблюсь - позовите меня. Пока!",
-            "Тогда я не буду вам мешать. Если понадоблюсь - позовите меня. Пока!",
-            "Похоже, у вас есть другие дела. Я уйду, если понадоблюсь - позовите меня.",
-            "Я заметил, что вы давно не говорили. Я пойду подзаряжусь, если понадоблюсь - разбудите меня.");
 }
\ No newline at end of file
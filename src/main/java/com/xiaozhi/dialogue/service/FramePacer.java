@@ -0,0 +1,248 @@
+package com.xiaozhi.dialogue.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 音频帧发送节拍器
+ * 会话按ID哈希分配到固定的几条节拍线（默认每个CPU一条），每条节拍线是一个哈希时间轮加一个节拍线程，
+ * 每个tick扫描一次到期的槽位，在节拍线程上直接执行到期会话的发帧任务，
+ * 取代每个会话每60ms向线程池重新提交一次ScheduledFuture的做法。
+ * 节拍线上没有待执行的任务时节拍线程挂起，有任务加入时再唤醒，空闲时不占用CPU。
+ * 发帧任务必须很快返回（只发送一帧），同一节拍线上的会话共享节拍线程。
+ * 每个会话只保留一个游标（下一次发送的截止时间和上一次的实际发送时间），用于计算发送偏差和抖动指标。
+ */
+@Component
+public class FramePacer {
+    private static final Logger logger = LoggerFactory.getLogger(FramePacer.class);
+
+    // 时间轮槽位数，必须是2的幂
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final long tickNanos;
+    private final MeterRegistry meterRegistry;
+    private final Lane[] lanes;
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+    private volatile boolean running = false;
+
+    private DistributionSummary drift;
+    private DistributionSummary jitter;
+
+    public FramePacer(MeterRegistry meterRegistry,
+                      @Value("${audio.pacer.tick.ms:1}") long tickMs,
+                      @Value("${audio.pacer.lanes:0}") int laneCount) {
+        this.meterRegistry = meterRegistry;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        int count = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        this.lanes = new Lane[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        drift = DistributionSummary.builder("xiaozhi.audio.pacer.drift")
+                .description("音频帧实际发送时间相对计划时间的延后")
+                .baseUnit("milliseconds")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        jitter = DistributionSummary.builder("xiaozhi.audio.pacer.jitter")
+                .description("同一会话相邻两帧的实际间隔与计划间隔之差")
+                .baseUnit("milliseconds")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("xiaozhi.audio.pacer.streams", cursors, Map::size)
+                .description("正在发送音频的会话数")
+                .register(meterRegistry);
+
+        running = true;
+        for (int i = 0; i < lanes.length; i++) {
+            Thread.ofPlatform().daemon().name("audio-pacer-" + i).start(lanes[i]::run);
+        }
+        logger.info("Планировщик отправки аудиокадров запущен, потоков: {}, tick: {}ms", lanes.length, TimeUnit.NANOSECONDS.toMillis(tickNanos));
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Lane lane : lanes) {
+            if (lane.thread != null) {
+                LockSupport.unpark(lane.thread);
+            }
+        }
+    }
+
+    /**
+     * 安排会话在指定延迟后执行一次发帧任务，会替换该会话尚未执行的任务
+     */
+    public void schedule(String key, long delayNanos, Runnable task) {
+        scheduleAt(key, System.nanoTime() + Math.max(0, delayNanos), task);
+    }
+
+    /**
+     * 安排会话在指定的绝对时间（System.nanoTime）执行一次发帧任务
+     */
+    public void scheduleAt(String key, long deadlineNanos, Runnable task) {
+        Cursor cursor = cursors.compute(key, (k, previous) -> {
+            Cursor next = new Cursor(k, deadlineNanos, task);
+            if (previous != null) {
+                previous.cancelled = true;
+                // 继承上一帧的发送时间，用于计算抖动
+                next.lastFireNanos = previous.firedNanos;
+                next.lastDeadlineNanos = previous.deadlineNanos;
+            }
+            return next;
+        });
+        // 同一会话总是落在同一条节拍线上，保证帧的先后顺序
+        lanes[Math.floorMod(key.hashCode(), lanes.length)].add(cursor);
+    }
+
+    /**
+     * 取消会话尚未执行的发帧任务，并清除游标
+     */
+    public void cancel(String key) {
+        Cursor cursor = cursors.remove(key);
+        if (cursor != null) {
+            cursor.cancelled = true;
+        }
+    }
+
+    private long tickOf(long nanos) {
+        return Math.max(0, (nanos - startNanos) / tickNanos);
+    }
+
+    private void fire(Cursor cursor, long now) {
+        cursor.firedNanos = now;
+        drift.record((now - cursor.deadlineNanos) / 1_000_000.0);
+        if (cursor.lastFireNanos > 0) {
+            long actual = now - cursor.lastFireNanos;
+            long planned = cursor.deadlineNanos - cursor.lastDeadlineNanos;
+            jitter.record(Math.abs(actual - planned) / 1_000_000.0);
+        }
+        try {
+            cursor.task.run();
+        } catch (Exception e) {
+            logger.error("Не удалось выполнить задачу отправки аудиокадров - SessionId: {}", cursor.key, e);
+        }
+    }
+
+    /**
+     * 一条节拍线：一个时间轮和一个节拍线程
+     */
+    private class Lane {
+        @SuppressWarnings("unchecked")
+        private final Queue<Cursor>[] wheel = new Queue[WHEEL_SIZE];
+        // 截止时间落在下一个tick之内（或已经过期）的任务，每个tick都会处理
+        private final Queue<Cursor> dueSoon = new ConcurrentLinkedQueue<>();
+        // 时间轮和dueSoon中还没取出的任务数（含已取消的），为0时节拍线程挂起
+        private final AtomicInteger pending = new AtomicInteger();
+        private long processedTick = 0;
+        private volatile Thread thread;
+
+        Lane() {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new ConcurrentLinkedQueue<>();
+            }
+        }
+
+        void add(Cursor cursor) {
+            // 向上取整，保证扫描到该槽位时任务已经到期
+            long tick = Math.max(0, (cursor.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+            // 先计数再入队，计数不会因为任务先被取走而变成负数
+            boolean idle = pending.getAndIncrement() == 0;
+            if (tick <= tickOf(System.nanoTime()) + 1) {
+                // 放进时间轮可能落到节拍线程正在扫描或已经扫过的槽位，直接交给下一个tick处理
+                dueSoon.offer(cursor);
+            } else {
+                wheel[(int) (tick & WHEEL_MASK)].offer(cursor);
+            }
+            if (idle) {
+                Thread laneThread = thread;
+                if (laneThread != null) {
+                    LockSupport.unpark(laneThread);
+                }
+            }
+        }
+
+        void run() {
+            // 在节拍线程里登记自己，线程启动前加入的任务在下面的计数检查中不会漏掉
+            thread = Thread.currentThread();
+            while (running) {
+                if (pending.get() == 0) {
+                    // 没有会话在发送，挂起到add唤醒；先unpark再park时park会立即返回，不会错过唤醒
+                    LockSupport.park(this);
+                    continue;
+                }
+                long now = System.nanoTime();
+                long currentTick = tickOf(now);
+                processSlot(dueSoon, now);
+                // 节拍线程偶尔被延后时补扫错过的槽位，最多扫一整圈
+                long from = Math.max(processedTick + 1, currentTick - WHEEL_MASK);
+                for (long tick = from; tick <= currentTick; tick++) {
+                    processSlot(wheel[(int) (tick & WHEEL_MASK)], now);
+                }
+                processedTick = currentTick;
+
+                long nextTickAt = startNanos + (currentTick + 1) * tickNanos;
+                LockSupport.parkNanos(nextTickAt - System.nanoTime());
+            }
+        }
+
+        private void processSlot(Queue<Cursor> slot, long now) {
+            // 只处理本轮开始时已在槽里的任务，未到期的放回去等下一圈
+            for (int i = slot.size(); i > 0; i--) {
+                Cursor cursor = slot.poll();
+                if (cursor == null) {
+                    return;
+                }
+                if (cursor.cancelled) {
+                    pending.decrementAndGet();
+                    continue;
+                }
+                if (cursor.deadlineNanos > now) {
+                    slot.offer(cursor);
+                    continue;
+                }
+                pending.decrementAndGet();
+                fire(cursor, now);
+            }
+        }
+    }
+
+    /**
+     * 会话的发帧游标
+     */
+    private static class Cursor {
+        private final String key;
+        private final long deadlineNanos;
+        private final Runnable task;
+        private volatile boolean cancelled = false;
+        private volatile long firedNanos = 0;
+        private long lastFireNanos = 0;
+        private long lastDeadlineNanos = 0;
+
+        Cursor(String key, long deadlineNanos, Runnable task) {
+            this.key = key;
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+    }
+}
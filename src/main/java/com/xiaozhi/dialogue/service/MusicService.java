@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
 import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.HttpUtil;
 import com.xiaozhi.utils.OpusProcessor;
 import okhttp3.*;
 import org.slf4j.Logger;
@@ -32,12 +33,8 @@ public class MusicService {
     private static final long OPUS_FRAME_INTERVAL_MS = AudioUtils.OPUS_FRAME_DURATION_MS;
     private static final String API_BASE_URL = ""; // 服务已停用
 
-    // 使用OkHttp3替代JDK HttpClient
-    private static final OkHttpClient okHttpClient = new OkHttpClient.Builder()
-            .connectTimeout(10, TimeUnit.SECONDS)
-            .readTimeout(30, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .build();
+    // 使用OkHttp3替代JDK HttpClient，与其他服务共用连接池
+    private static final OkHttpClient okHttpClient = HttpUtil.client(10, 30);
 
     @Autowired
     private ObjectMapper objectMapper;
@@ -0,0 +1,205 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.dialogue.llm.ChatService;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应分块
+ * 断句器切出的短句直接送TTS会产生大量小请求，每次请求都有固定开销，句间停顿也不自然。
+ * 第一句照常立即发出，保证首音频延迟；之后的短句先合并，只有当已排队的音频快要播完、再不合成就会断音时，
+ * 或者合并的长度、等待时间超出上限时才发出。
+ * 每次模型请求一个实例，线程安全。下游在锁外调用，同一时刻只有一个线程按顺序交付合并后的句子。
+ */
+class SentenceChunker {
+
+    /**
+     * 当前的播放余量
+     */
+    interface Budget {
+        /**
+         * 已排队的音频还能播放多久（毫秒）
+         */
+        long backlogMillis();
+
+        /**
+         * 合成一块音频预计需要多久（毫秒）
+         */
+        long ttsLatencyMillis();
+    }
+
+    private final int maxLength;
+    private final long maxWaitMillis;
+    private final Budget budget;
+    private final ScheduledExecutorService scheduler;
+    private final ChatService.TriConsumer<String, Boolean, Boolean> downstream;
+
+    private final StringBuilder pending = new StringBuilder();
+    // 第一句是否已发出
+    private boolean emitted = false;
+    private boolean closed = false;
+    // 开始合并的时间（纳秒）
+    private long pendingSince;
+    private ScheduledFuture<?> flushTask;
+    // 每次安排或取消定时发出时递增，已经开始执行的旧任务据此放弃
+    private int flushGeneration = 0;
+    // 已发出、等待交付给下游的句子
+    private final Queue<Chunk> ready = new ArrayDeque<>();
+    // 是否有线程正在交付
+    private boolean delivering = false;
+
+    /**
+     * @param maxLength     合并后的最大长度（字符数）
+     * @param maxWaitMillis 合并的句子最长等待时间
+     * @param downstream    接收合并后的句子
+     */
+    SentenceChunker(int maxLength, long maxWaitMillis, Budget budget, ScheduledExecutorService scheduler,
+            ChatService.TriConsumer<String, Boolean, Boolean> downstream) {
+        this.maxLength = maxLength;
+        this.maxWaitMillis = maxWaitMillis;
+        this.budget = budget;
+        this.scheduler = scheduler;
+        this.downstream = downstream;
+    }
+
+    /**
+     * 接收断句器输出的句子
+     */
+    void accept(String text, Boolean isFirst, Boolean isLast) {
+        merge(text, isLast);
+        deliver();
+    }
+
+    private synchronized void merge(String text, Boolean isLast) {
+        if (closed) {
+            return;
+        }
+        if (!emitted && pending.isEmpty()) {
+            // 第一句不等待
+            emit(text, isLast);
+            return;
+        }
+        append(text);
+        if (isLast) {
+            emit(takePending(), true);
+            return;
+        }
+        long slack = budget.backlogMillis() - budget.ttsLatencyMillis();
+        if (pending.length() >= maxLength || slack <= 0) {
+            emit(takePending(), false);
+            return;
+        }
+        // 在余量耗尽前或等待超时时发出，以先到者为准
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pendingSince);
+        scheduleFlush(Math.max(0, Math.min(slack, maxWaitMillis - waited)));
+    }
+
+    /**
+     * 丢弃未发出的内容，之后到达的句子也不再处理
+     */
+    synchronized void close() {
+        closed = true;
+        pending.setLength(0);
+        ready.clear();
+        cancelFlush();
+    }
+
+    private void append(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            pendingSince = System.nanoTime();
+        } else if (needsSpace(pending.charAt(pending.length() - 1), text.charAt(0))) {
+            // 断句器会去掉首尾空白，英文等语言合并时补回单词间的空格
+            pending.append(' ');
+        }
+        pending.append(text);
+    }
+
+    private String takePending() {
+        String text = pending.toString();
+        pending.setLength(0);
+        return text;
+    }
+
+    private void emit(String text, boolean isLast) {
+        cancelFlush();
+        boolean first = !emitted;
+        emitted = true;
+        ready.add(new Chunk(text, first, isLast));
+    }
+
+    /**
+     * 在锁外把已发出的句子按顺序交给下游，已有线程在交付时由它继续交付
+     */
+    private void deliver() {
+        synchronized (this) {
+            if (delivering) {
+                return;
+            }
+            delivering = true;
+        }
+        try {
+            Chunk chunk;
+            while ((chunk = nextChunk()) != null) {
+                downstream.accept(chunk.text(), chunk.isFirst(), chunk.isLast());
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                delivering = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 取下一个待交付的句子，没有时结束本次交付
+     */
+    private synchronized Chunk nextChunk() {
+        Chunk chunk = ready.poll();
+        if (chunk == null) {
+            delivering = false;
+        }
+        return chunk;
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        cancelFlush();
+        int generation = flushGeneration;
+        flushTask = scheduler.schedule(() -> flush(generation), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(int generation) {
+        synchronized (this) {
+            if (generation != flushGeneration) {
+                return;
+            }
+            flushTask = null;
+            if (!closed && !pending.isEmpty()) {
+                emit(takePending(), false);
+            }
+        }
+        deliver();
+    }
+
+    private void cancelFlush() {
+        flushGeneration++;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+    }
+
+    private record Chunk(String text, boolean isFirst, boolean isLast) {
+    }
+
+    private static boolean needsSpace(char before, char after) {
+        return !Character.isWhitespace(before) && !Character.isWhitespace(after)
+                && !Character.isIdeographic(before) && !Character.isIdeographic(after);
+    }
+}
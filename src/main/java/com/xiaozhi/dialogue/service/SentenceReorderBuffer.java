@@ -0,0 +1,89 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.dialogue.service.DialogueService.Sentence;
+
+import java.util.Arrays;
+
+/**
+ * 按句子序号排列的重排缓冲
+ * 句子按序号放进环形数组的对应槽位，队首是下一个要播放的序号，取队首、放入、取出都是O(1)，不需要扫描和复制。
+ * 序号从1开始连续分配，队首的句子还没放入时peek返回null，后面的句子就绪了也要等它。
+ */
+class SentenceReorderBuffer {
+
+    private Sentence[] slots = new Sentence[16];
+    // 下一个要取出的序号
+    private int next = 1;
+    private int size = 0;
+
+    /**
+     * 按序号放入句子，序号已经取出过的句子忽略
+     */
+    synchronized void add(Sentence sentence) {
+        int seq = sentence.getSeq();
+        if (seq < next) {
+            return;
+        }
+        ensureCapacity(seq - next + 1);
+        int index = seq & (slots.length - 1);
+        if (slots[index] == null) {
+            size++;
+        }
+        slots[index] = sentence;
+    }
+
+    /**
+     * 下一个要播放的句子，还没放入时返回null
+     */
+    synchronized Sentence peek() {
+        return size == 0 ? null : slots[next & (slots.length - 1)];
+    }
+
+    /**
+     * 取出队首句子并前移到下一个序号
+     */
+    synchronized Sentence poll() {
+        int index = next & (slots.length - 1);
+        Sentence sentence = slots[index];
+        if (sentence != null) {
+            slots[index] = null;
+            next++;
+            size--;
+        }
+        return sentence;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(slots, null);
+        size = 0;
+    }
+
+    /**
+     * 保证[next, next + span)内的序号都有各自的槽位，容量保持为2的幂
+     */
+    private void ensureCapacity(int span) {
+        if (span <= slots.length) {
+            return;
+        }
+        int capacity = slots.length;
+        while (capacity < span) {
+            capacity <<= 1;
+        }
+        Sentence[] grown = new Sentence[capacity];
+        for (int seq = next; seq < next + slots.length; seq++) {
+            Sentence sentence = slots[seq & (slots.length - 1)];
+            if (sentence != null) {
+                grown[seq & (capacity - 1)] = sentence;
+            }
+        }
+        slots = grown;
+    }
+}
@@ -1,27 +1,31 @@
 package com.xiaozhi.dialogue.service;
 
+import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
-import com.xiaozhi.dialogue.vad.VadModel.InferenceResult;
+import com.xiaozhi.dialogue.vad.AudioChunkStore;
+import com.xiaozhi.dialogue.vad.ByteRingBuffer;
+import com.xiaozhi.dialogue.vad.FloatRingBuffer;
 import com.xiaozhi.dialogue.vad.impl.SileroVadModel;
-import com.xiaozhi.entity.SysDevice;
-import com.xiaozhi.entity.SysRole;
-import com.xiaozhi.service.SysRoleService;
+import com.xiaozhi.dialogue.vad.impl.VadBatchEngine;
 import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.AudioEnhancer;
 import com.xiaozhi.utils.OpusProcessor;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 语音活动检测服务
@@ -30,10 +34,8 @@ import java.util.concurrent.ConcurrentHashMap;
 public class VadService {
     private static final Logger logger = LoggerFactory.getLogger(VadService.class);
     
-    // 会话状态
+    // 会话状态，音频处理由会话的音频信箱串行执行；processAudio每个音频包都会获取状态的ReentrantLock，与重置、关闭和其他线程的读取互斥
     private final ConcurrentHashMap<String, VadState> states = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, AudioEnhancer> audioEnhancers = new ConcurrentHashMap<>();
     
     @Value("${vad.prebuffer.ms:500}")
     private int preBufferMs;
@@ -42,6 +44,10 @@ public class VadService {
     @Value("${vad.tail.keep.ms:300}")
     private int tailKeepMs;
 
+    // 单句语音最长保存时长，超过后不再保存，限制每个会话的内存占用
+    @Value("${vad.speech.max.ms:60000}")
+    private int speechMaxMs;
+
     // 音频增强配置
     @Value("${vad.audio.enhancement.enabled:true}")
     private boolean audioEnhancementEnabled;
@@ -57,31 +63,61 @@ public class VadService {
     
     // VAD模型的样本大小 (16kHz, 512 samples)
     private static final int VAD_SAMPLE_SIZE = AudioUtils.BUFFER_SIZE;
+
+    // 保留的最近概率个数
+    private static final int PROB_HISTORY_SIZE = 10;
+
+    // PCM按1秒一块存储
+    private static final int PCM_CHUNK_SIZE = 32000;
+
+    // Opus数据按块存储，码率按不超过32kbps估算容量
+    private static final int OPUS_CHUNK_SIZE = 4096;
+    private static final int OPUS_BYTES_PER_MS = 4;
     
     @Autowired
     private OpusProcessor opusProcessor;
 
+    // 所有会话的VAD窗口合并推理
     @Autowired
-    private SileroVadModel vadModel;
-    
-    @Autowired
-    private SysRoleService roleService;
+    private VadBatchEngine vadBatchEngine;
     
     @Autowired
     private SessionManager sessionManager;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("xiaozhi.vad.memory.bytes", states, this::totalMemoryBytes)
+                .description("所有会话VAD状态占用的内存")
+                .register(meterRegistry);
+        Gauge.builder("xiaozhi.vad.sessions", states, Map::size)
+                .description("VAD会话数")
+                .register(meterRegistry);
+    }
+
+    private double totalMemoryBytes(Map<String, VadState> states) {
+        long total = 0;
+        for (VadState state : states.values()) {
+            total += state.memoryBytes();
+        }
+        return total;
+    }
+
     @PreDestroy
     public void cleanup() {
         logger.info("VAD服务资源已释放");
         states.clear();
-        locks.clear();
-        audioEnhancers.clear();
     }
 
     /**
      * 简化的会话状态类
      */
     private class VadState {
+        // 保护会话状态；VAD推理会在批处理引擎中挂起等待，用ReentrantLock而不是synchronized，避免虚拟线程固定载体线程
+        private final ReentrantLock lock = new ReentrantLock();
+
         // 语音状态
         private boolean speaking = false;
         private long speechTime = 0;
@@ -100,35 +136,50 @@ public class VadService {
 
         // 音频分析
         private float avgEnergy = 0;
-        private final List<Float> probs = new ArrayList<>();
+        private final FloatRingBuffer probs = new FloatRingBuffer(PROB_HISTORY_SIZE);
         
         // 原始VAD概率列表
-        private final List<Float> originalProbs = new ArrayList<>();
+        private final FloatRingBuffer originalProbs = new FloatRingBuffer(PROB_HISTORY_SIZE);
         
         // 帧计数器（用于每10帧输出一次）
         private int frameCounter = 0;
 
-        // 每会话 Silero 隐状态 [2][1][128]
-        private float[][][] sileroState = new float[2][1][128];
+        // 每会话 Silero 推理槽位，输入窗口和隐状态原地复用
+        private final VadBatchEngine.Slot sileroState = vadBatchEngine.newSlot();
 
-        // 预缓冲
-        private final LinkedList<byte[]> preBuffer = new LinkedList<>();
-        private int preBufferSize = 0;
-        private final int maxPreBufferSize;
+        // 音频增强器
+        private final AudioEnhancer enhancer = new AudioEnhancer();
 
-        // 音频数据
-        private final List<byte[]> pcmData = new ArrayList<>();
-        private final List<byte[]> opusData = new ArrayList<>();
+        // 预缓冲，16kHz, 16bit, mono = 32 bytes/ms
+        private final ByteRingBuffer preBuffer = new ByteRingBuffer(preBufferMs * 32);
 
-        // 短帧累积
-        private final ByteArrayOutputStream pcmAccumulator = new ByteArrayOutputStream();
+        // 音频数据，按语音最长时长限制总量
+        private final AudioChunkStore pcmData = new AudioChunkStore(PCM_CHUNK_SIZE, speechMaxMs * 32);
+        private final AudioChunkStore opusData = new AudioChunkStore(OPUS_CHUNK_SIZE, speechMaxMs * OPUS_BYTES_PER_MS);
+        // 任一存储满了之后两边都不再追加，保持PCM和Opus的段一一对应，尾部按段移除静音时才能对齐
+        private boolean audioFull = false;
+        // 当前音频包的Opus已经追加，同一包的PCM存不下时一并撤回
+        private boolean opusAppended = false;
+
+        // 短帧累积，单帧小于MIN_PCM_LENGTH，攒够或超时就取出，两倍容量足够
+        private final byte[] pcmAccumulator = new byte[MIN_PCM_LENGTH * 2];
+        private int accumSize = 0;
         private long lastAccumTime = 0;
 
         public VadState() {
-            this.maxPreBufferSize = preBufferMs * 32; // 16kHz, 16bit, mono = 32 bytes/ms
             this.lastAccumTime = System.currentTimeMillis();
         }
 
+        /**
+         * 会话VAD状态占用的内存字节数
+         */
+        public long memoryBytes() {
+            return preBuffer.capacity() + pcmAccumulator.length
+                    + (long) (probs.capacity() + originalProbs.capacity()) * Float.BYTES
+                    + pcmData.retainedBytes() + opusData.retainedBytes()
+                    + sileroState.samples.length * Float.BYTES + 2L * SileroVadModel.STATE_SIZE * Float.BYTES;
+        }
+
         public boolean isSpeaking() {
             return speaking;
         }
@@ -211,31 +262,25 @@ public class VadService {
 
         public void addProb(float prob) {
             probs.add(prob);
-            if (probs.size() > 10) {
-                probs.remove(0);
-            }
         }
         
         // 添加原始VAD概率
         public void addOriginalProb(float prob) {
             originalProbs.add(prob);
-            if (originalProbs.size() > 10) {
-                originalProbs.remove(0);
-            }
             
             // 增加帧计数器
             frameCounter++;
         }
         
         public float getLastOriginalProb() {
-            return originalProbs.isEmpty() ? 0.0f : originalProbs.get(originalProbs.size() - 1);
+            return originalProbs.last();
         }
 
         public float getLastProb() {
-            return probs.isEmpty() ? 0.0f : probs.get(probs.size() - 1);
+            return probs.last();
         }
 
-        public List<Float> getProbs() {
+        public FloatRingBuffer getProbs() {
             return probs;
         }
         
@@ -249,53 +294,34 @@ public class VadService {
                 return;
             }
 
-            preBuffer.add(data.clone());
-            preBufferSize += data.length;
-
-            while (preBufferSize > maxPreBufferSize && !preBuffer.isEmpty()) {
-                byte[] removed = preBuffer.removeFirst();
-                preBufferSize -= removed.length;
-            }
+            preBuffer.write(data);
         }
 
         public byte[] drainPreBuffer() {
-            if (preBuffer.isEmpty()) {
-                return new byte[0];
-            }
-
-            byte[] result = new byte[preBufferSize];
-            int offset = 0;
-
-            for (byte[] chunk : preBuffer) {
-                System.arraycopy(chunk, 0, result, offset, chunk.length);
-                offset += chunk.length;
-            }
-
-            preBuffer.clear();
-            preBufferSize = 0;
-            return result;
+            return preBuffer.drain();
         }
 
         // 累积缓冲区管理
         public void accumulate(byte[] pcm) {
             if (pcm != null && pcm.length > 0) {
-                try {
-                    pcmAccumulator.write(pcm);
-                    lastAccumTime = System.currentTimeMillis();
-                } catch (Exception e) {
-                    logger.error("累积PCM数据失败", e);
+                int length = Math.min(pcm.length, pcmAccumulator.length - accumSize);
+                if (length < pcm.length) {
+                    logger.warn("Буфер накопления коротких кадров заполнен, отброшено {} байт", pcm.length - length);
                 }
+                System.arraycopy(pcm, 0, pcmAccumulator, accumSize, length);
+                accumSize += length;
+                lastAccumTime = System.currentTimeMillis();
             }
         }
 
         public byte[] drainAccumulator() {
-            byte[] result = pcmAccumulator.toByteArray();
-            pcmAccumulator.reset();
+            byte[] result = Arrays.copyOf(pcmAccumulator, accumSize);
+            accumSize = 0;
             return result;
         }
 
         public int getAccumSize() {
-            return pcmAccumulator.size();
+            return accumSize;
         }
 
         public boolean isAccumTimedOut() {
@@ -304,23 +330,49 @@ public class VadService {
 
         // 音频数据管理
         public void addPcm(byte[] pcm) {
-            if (pcm != null && pcm.length > 0) {
-                pcmData.add(pcm.clone());
+            boolean appended = opusAppended;
+            opusAppended = false;
+            if (audioFull) {
+                return;
+            }
+            if (!pcmData.append(pcm)) {
+                audioFull = true;
+                if (appended) {
+                    opusData.removeLastSegments(1);
+                }
+                logger.debug("Речь превысила максимальную длительность {}ms, дальнейшее аудио не сохраняется", speechMaxMs);
             }
         }
 
         public void addOpus(byte[] opus) {
-            if (opus != null && opus.length > 0) {
-                opusData.add(opus.clone());
+            opusAppended = false;
+            if (audioFull) {
+                return;
+            }
+            if (opusData.append(opus)) {
+                opusAppended = true;
+            } else {
+                audioFull = true;
+                logger.debug("Речь превысила максимальную длительность {}ms, дальнейшее аудио не сохраняется", speechMaxMs);
             }
         }
 
-        public List<byte[]> getPcmData() {
-            return new ArrayList<>(pcmData);
+        /**
+         * 清空已保存的PCM和Opus音频
+         */
+        public void clearAudio() {
+            pcmData.clear();
+            opusData.clear();
+            audioFull = false;
+            opusAppended = false;
+        }
+
+        public List<ByteBuffer> getPcmSlices() {
+            return pcmData.slices();
         }
 
         public List<byte[]> getOpusData() {
-            return new ArrayList<>(opusData);
+            return opusData.segments();
         }
 
         public void reset() {
@@ -336,12 +388,10 @@ public class VadService {
             probs.clear();
             originalProbs.clear(); // 重置原始概率列表
             frameCounter = 0;      // 重置帧计数器
-            sileroState = new float[2][1][128];
+            sileroState.resetState();
             preBuffer.clear();
-            preBufferSize = 0;
-            pcmData.clear();
-            opusData.clear();
-            pcmAccumulator.reset();
+            clearAudio();
+            accumSize = 0;
             lastAccumTime = System.currentTimeMillis();
         }
     }
@@ -350,298 +400,274 @@ public class VadService {
      * 初始化会话
      */
     public void initSession(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            if (state == null) {
-                state = new VadState();
-                states.put(sessionId, state);
-            } else {
+        VadState state = states.putIfAbsent(sessionId, new VadState());
+        if (state != null) {
+            state.lock.lock();
+            try {
                 state.reset();
+            } finally {
+                state.lock.unlock();
             }
-            
-            logger.info("VAD会话已初始化: {}", sessionId);
         }
+        logger.info("VAD会话已初始化: {}", sessionId);
     }
 
     /**
      * 检查会话是否已初始化
      */
     public boolean isSessionInitialized(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            return states.containsKey(sessionId);
-        }
-    }
-
-    /**
-     * 获取会话锁
-     */
-    private Object getLock(String sessionId) {
-        return locks.computeIfAbsent(sessionId, k -> new Object());
+        return states.containsKey(sessionId);
     }
 
     /**
-     * 获取音频增强器
+     * 处理音频数据，VAD参数取会话已解析的对话配置
      */
-    private AudioEnhancer getAudioEnhancer(String sessionId) {
-        return audioEnhancers.computeIfAbsent(sessionId, k -> new AudioEnhancer());
+    public VadResult processAudio(String sessionId, byte[] opusData) {
+        ChatSession session = sessionManager.getSession(sessionId);
+        return processAudio(sessionId, opusData, session != null ? session.getDialogueProfile() : null);
     }
 
     /**
      * 处理音频数据
+     *
+     * @param profile 会话的对话配置，为null时使用默认VAD参数
      */
-    public VadResult processAudio(String sessionId, byte[] opusData) {
+    public VadResult processAudio(String sessionId, byte[] opusData, DialogueProfile profile) {
 
-        if (!isSessionInitialized(sessionId)) {
+        VadState state = states.get(sessionId);
+        if (state == null) {
             return null;
         }
 
-        Object lock = getLock(sessionId);
-
-        // 获取设备配置
-        SysDevice device = sessionManager.getDeviceConfig(sessionId);
         // 添加空值检查，使用默认值
         float speechThreshold = 0.4f;
         float silenceThreshold = 0.3f;
         float energyThreshold = 0.001f;
         int silenceTimeoutMs = 800;
 
-        if (device != null && device.getRoleId() != null) {
-            SysRole role = roleService.selectRoleById(device.getRoleId());
-            speechThreshold = Optional.ofNullable(role.getVadSpeechTh()).orElse(speechThreshold);
-            silenceThreshold = Optional.ofNullable(role.getVadSilenceTh()).orElse(silenceThreshold);
-            energyThreshold = Optional.ofNullable(role.getVadEnergyTh()).orElse(energyThreshold);
-            silenceTimeoutMs = Optional.ofNullable(role.getVadSilenceMs()).orElse(silenceTimeoutMs);
+        if (profile != null) {
+            speechThreshold = profile.vadSpeechThreshold();
+            silenceThreshold = profile.vadSilenceThreshold();
+            energyThreshold = profile.vadEnergyThreshold();
+            silenceTimeoutMs = profile.vadSilenceMs();
         }
 
-        synchronized (lock) {
-            try {
-                // 获取会话状态
-                VadState state = states.computeIfAbsent(sessionId, k -> new VadState());
-
-                // 保存原始Opus数据
-                state.addOpus(opusData);
-
-                // 解码Opus数据
-                byte[] pcmData;
-                try {
-                    pcmData = opusProcessor.opusToPcm(sessionId, opusData);
-                    if (pcmData == null || pcmData.length == 0) {
-                        return new VadResult(VadStatus.NO_SPEECH, null);
-                    }
-                } catch (Exception e) {
-                    logger.error("Opus解码失败: {}", e.getMessage());
-                    return new VadResult(VadStatus.ERROR, null);
-                }
+        state.lock.lock();
+        try {
+            // 保存原始Opus数据
+            state.addOpus(opusData);
 
-                // 分析音频
-                float[] samples = bytesToFloats(pcmData);
-                // 应用智能音频增强（降噪+人声增强+音量归一化）
-                byte[] enhancedPcmData = pcmData; // 默认使用原始数据
-                if (audioEnhancementEnabled) {
-                    AudioEnhancer enhancer = getAudioEnhancer(sessionId);
-                    samples = enhancer.process(samples);
-                    // 将增强后的信号转换回PCM数据
-                    enhancedPcmData = floatsToBytes(samples);
+            // 解码Opus数据
+            byte[] pcmData;
+            try {
+                pcmData = opusProcessor.opusToPcm(sessionId, opusData);
+                if (pcmData == null || pcmData.length == 0) {
+                    return new VadResult(VadStatus.NO_SPEECH, null);
                 }
+            } catch (Exception e) {
+                logger.error("Opus解码失败: {}", e.getMessage());
+                return new VadResult(VadStatus.ERROR, null);
+            }
 
-                float energy = calcEnergy(samples);
+            // 分析音频
+            float[] samples = bytesToFloats(pcmData);
+            // 应用智能音频增强（降噪+人声增强+音量归一化）
+            byte[] enhancedPcmData = pcmData; // 默认使用原始数据
+            if (audioEnhancementEnabled) {
+                samples = state.enhancer.process(samples);
+                // 将增强后的信号转换回PCM数据
+                enhancedPcmData = floatsToBytes(samples);
+            }
 
-                // 获取VAD概率
-                float speechProb = detectSpeech(state, samples);
+            float energy = calcEnergy(samples);
 
-                // 限制概率范围在[0,1]
-                speechProb = Math.min(1.0f, speechProb);
+            // 获取VAD概率
+            float speechProb = detectSpeech(state, samples);
 
-                // 添加到原始概率列表
-                state.addOriginalProb(speechProb);
+            // 限制概率范围在[0,1]
+            speechProb = Math.min(1.0f, speechProb);
 
-                // 添加到预缓冲区
-                state.addToPreBuffer(enhancedPcmData);
+            // 添加到原始概率列表
+            state.addOriginalProb(speechProb);
 
-                // 处理短帧数据
-                if (enhancedPcmData.length < MIN_PCM_LENGTH && !state.isSpeaking()) {
-                    state.accumulate(enhancedPcmData);
+            // 添加到预缓冲区
+            state.addToPreBuffer(enhancedPcmData);
 
-                    // 检查是否需要继续累积
-                    if (state.getAccumSize() < MIN_PCM_LENGTH && !state.isAccumTimedOut()) {
-                        return new VadResult(VadStatus.NO_SPEECH, null);
-                    }
+            // 处理短帧数据
+            if (enhancedPcmData.length < MIN_PCM_LENGTH && !state.isSpeaking()) {
+                state.accumulate(enhancedPcmData);
 
-                    // 处理累积的数据
-                    enhancedPcmData = state.drainAccumulator();
-                    if (enhancedPcmData.length == 0) {
-                        return new VadResult(VadStatus.NO_SPEECH, null);
-                    }
+                // 检查是否需要继续累积
+                if (state.getAccumSize() < MIN_PCM_LENGTH && !state.isAccumTimedOut()) {
+                    return new VadResult(VadStatus.NO_SPEECH, null);
+                }
 
-                    // 重新分析累积后的音频
-                    samples = bytesToFloats(enhancedPcmData);
+                // 处理累积的数据
+                enhancedPcmData = state.drainAccumulator();
+                if (enhancedPcmData.length == 0) {
+                    return new VadResult(VadStatus.NO_SPEECH, null);
+                }
 
-                    // 应用音频增强（累积帧也需要增强）
-                    if (audioEnhancementEnabled) {
-                        AudioEnhancer enhancer = getAudioEnhancer(sessionId);
-                        samples = enhancer.process(samples);
-                        // 再次转换回PCM数据
-                        enhancedPcmData = floatsToBytes(samples);
-                    }
+                // 重新分析累积后的音频
+                samples = bytesToFloats(enhancedPcmData);
 
-                    energy = calcEnergy(samples);
-                    speechProb = detectSpeech(state, samples);
-                    speechProb = Math.min(1.0f, speechProb);
+                // 应用音频增强（累积帧也需要增强）
+                if (audioEnhancementEnabled) {
+                    samples = state.enhancer.process(samples);
+                    // 再次转换回PCM数据
+                    enhancedPcmData = floatsToBytes(samples);
                 }
 
-                // 计算当前帧的音频时长（16kHz, 16bit, mono = 32 bytes/ms）
-                int frameDurationMs = pcmData.length / 32;
-                
-                // 判断语音状态
-                // 连接初期使用更宽松的阈值
-                boolean isInitialConnection = state.getFrameCounter() < 10;
-                
-                boolean hasEnergy;
-                boolean isSpeech;
+                energy = calcEnergy(samples);
+                speechProb = detectSpeech(state, samples);
+                speechProb = Math.min(1.0f, speechProb);
+            }
+
+            // 计算当前帧的音频时长（16kHz, 16bit, mono = 32 bytes/ms）
+            int frameDurationMs = pcmData.length / 32;
+            
+            // 判断语音状态
+            // 连接初期使用更宽松的阈值
+            boolean isInitialConnection = state.getFrameCounter() < 10;
+            
+            boolean hasEnergy;
+            boolean isSpeech;
+            
+            if (isInitialConnection) {
+                // 连接初期：使用更宽松的能量和概率要求
+                hasEnergy = energy > energyThreshold * 0.3f; // 大幅降低能量要求
+                isSpeech = speechProb > speechThreshold * 0.6f && hasEnergy; // 降低概率要求
+            } else {
+                // 正常情况：使用标准要求
+                // 只要能量超过阈值就认为有能量，不再依赖平均能量的倍数
+                // 因为平均能量在静音初期还很高，会导致误判
+                hasEnergy = energy > energyThreshold;
+                isSpeech = speechProb > speechThreshold && hasEnergy;
+            }
+            
+            // 静音判定：概率很低直接判定为静音，或者概率中等但没有能量
+            // 但如果概率很高（>speechThreshold），即使能量低也不应该判定为静音
+            // 当能量极低时(<energyThreshold)，也应判定为静音，即使概率偏高
+            boolean isVeryLowEnergy = energy < energyThreshold;
+            boolean isSilence = speechProb < silenceThreshold || (speechProb < speechThreshold && !hasEnergy) || isVeryLowEnergy;
+            
+            // 更新能量（在判定静音后更新，这样可以根据静音状态调整平滑因子）
+            state.updateEnergy(energy, isSilence);
+            
+            // 更新静音状态
+            state.updateSilence(isSilence, frameDurationMs);
+            
+            // 每N帧输出一次VAD状态（在updateSilence之后，显示当前帧的状态）
+            // if (state.getFrameCounter() % LOG_FRAME_INTERVAL == 0) {
+            //      // 预先格式化浮点数
+            //      String probStr = String.format("%.4f", speechProb);
+            //      String energyStr = String.format("%.6f", energy);
+            //      String thresholdStr = String.format("%.4f", speechThreshold);
+            //      String avgEnergyStr = String.format("%.6f", state.getAvgEnergy());
+
+            //     logger.info("VAD状态 - SessionId: {}, 帧: {}, 概率: {}, 能量: {}, 平均能量: {}, 阈值: {}, 静音: {}ms (连续{}帧), isSilent: {}, hasEnergy: {}",
+            //             sessionId, state.getFrameCounter(), probStr, energyStr, avgEnergyStr, 
+            //             thresholdStr, state.getSilenceDuration(), state.getConsecutiveSilenceFrames(), isSilence, hasEnergy);
+            // }
+
+            // 处理状态转换
+            if (!state.isSpeaking() && isSpeech) {
+                // 语音开始
+                state.clearAudio();
+                state.setSpeaking(true);
+                state.resetSilenceFrameCount();  // 重置静音帧计数
                 
-                if (isInitialConnection) {
-                    // 连接初期：使用更宽松的能量和概率要求
-                    hasEnergy = energy > energyThreshold * 0.3f; // 大幅降低能量要求
-                    isSpeech = speechProb > speechThreshold * 0.6f && hasEnergy; // 降低概率要求
+                // 预先格式化浮点数
+                String probStr = String.format("%.4f", speechProb);
+                String energyStr = String.format("%.6f", energy);
+                String thresholdStr = String.format("%.4f", speechThreshold);
+
+                logger.debug("检测到语音开始 - SessionId: {}, 概率: {}, 能量: {}, 阈值: {}", 
+                        sessionId, probStr, energyStr, thresholdStr);
+
+                // 获取预缓冲数据
+                byte[] preBufferData = state.drainPreBuffer();
+                byte[] result;
+
+                if (preBufferData.length > 0) {
+                    // 预缓冲数据已经包含当前帧，直接使用
+                    result = preBufferData;
+                    state.addPcm(result);
                 } else {
-                    // 正常情况：使用标准要求
-                    // 只要能量超过阈值就认为有能量，不再依赖平均能量的倍数
-                    // 因为平均能量在静音初期还很高，会导致误判
-                    hasEnergy = energy > energyThreshold;
-                    isSpeech = speechProb > speechThreshold && hasEnergy;
+                    // 没有预缓冲数据，使用当前帧
+                    result = enhancedPcmData;
+                    state.addPcm(enhancedPcmData);
                 }
-                
-                // 静音判定：概率很低直接判定为静音，或者概率中等但没有能量
-                // 但如果概率很高（>speechThreshold），即使能量低也不应该判定为静音
-                // 当能量极低时(<energyThreshold)，也应判定为静音，即使概率偏高
-                boolean isVeryLowEnergy = energy < energyThreshold;
-                boolean isSilence = speechProb < silenceThreshold || (speechProb < speechThreshold && !hasEnergy) || isVeryLowEnergy;
-                
-                // 更新能量（在判定静音后更新，这样可以根据静音状态调整平滑因子）
-                state.updateEnergy(energy, isSilence);
-                
-                // 更新静音状态
-                state.updateSilence(isSilence, frameDurationMs);
-                
-                // 每N帧输出一次VAD状态（在updateSilence之后，显示当前帧的状态）
-                // if (state.getFrameCounter() % LOG_FRAME_INTERVAL == 0) {
-                //      // 预先格式化浮点数
-                //      String probStr = String.format("%.4f", speechProb);
-                //      String energyStr = String.format("%.6f", energy);
-                //      String thresholdStr = String.format("%.4f", speechThreshold);
-                //      String avgEnergyStr = String.format("%.6f", state.getAvgEnergy());
-
-                //     logger.info("VAD状态 - SessionId: {}, 帧: {}, 概率: {}, 能量: {}, 平均能量: {}, 阈值: {}, 静音: {}ms (连续{}帧), isSilent: {}, hasEnergy: {}",
-                //             sessionId, state.getFrameCounter(), probStr, energyStr, avgEnergyStr, 
-                //             thresholdStr, state.getSilenceDuration(), state.getConsecutiveSilenceFrames(), isSilence, hasEnergy);
-                // }
-
-                // 处理状态转换
-                if (!state.isSpeaking() && isSpeech) {
-                    // 语音开始
-                    state.pcmData.clear();
-                    state.setSpeaking(true);
-                    state.resetSilenceFrameCount();  // 重置静音帧计数
-                    
-                    // 预先格式化浮点数
-                    String probStr = String.format("%.4f", speechProb);
-                    String energyStr = String.format("%.6f", energy);
-                    String thresholdStr = String.format("%.4f", speechThreshold);
-
-                    logger.debug("检测到语音开始 - SessionId: {}, 概率: {}, 能量: {}, 阈值: {}", 
-                            sessionId, probStr, energyStr, thresholdStr);
-
-                    // 获取预缓冲数据
-                    byte[] preBufferData = state.drainPreBuffer();
-                    byte[] result;
-
-                    if (preBufferData.length > 0) {
-                        // 预缓冲数据已经包含当前帧，直接使用
-                        result = preBufferData;
-                        state.addPcm(result);
-                    } else {
-                        // 没有预缓冲数据，使用当前帧
-                        result = enhancedPcmData;
-                        state.addPcm(enhancedPcmData);
-                    }
 
-                    return new VadResult(VadStatus.SPEECH_START, result);
-                } else if (state.isSpeaking() && isSilence) {
-                    // 检查静音时长
-                    int silenceDuration = state.getSilenceDuration();
-                    if (silenceDuration > silenceTimeoutMs) {
-                        // 语音结束 - 移除多余的静音帧，但保留部分尾音
-                        state.setSpeaking(false);
-                        
-                        // 计算需要移除的静音时长（保留tailKeepMs的尾音）
-                        int silenceToRemoveMs = silenceDuration - tailKeepMs;
+                return new VadResult(VadStatus.SPEECH_START, result);
+            } else if (state.isSpeaking() && isSilence) {
+                // 检查静音时长
+                int silenceDuration = state.getSilenceDuration();
+                if (silenceDuration > silenceTimeoutMs) {
+                    // 语音结束 - 移除多余的静音帧，但保留部分尾音
+                    state.setSpeaking(false);
+                    
+                    // 计算需要移除的静音时长（保留tailKeepMs的尾音）
+                    int silenceToRemoveMs = silenceDuration - tailKeepMs;
+                    
+                    if (silenceToRemoveMs > 0) {
+                        // 基于实际静音帧数按比例计算要移除的帧数
+                        // 避免因为网络抖动导致时间计算不准确
+                        int totalSilenceFrames = state.getSilenceFrameCount();
+                        int framesToRemove = 0;
                         
-                        if (silenceToRemoveMs > 0) {
-                            // 基于实际静音帧数按比例计算要移除的帧数
-                            // 避免因为网络抖动导致时间计算不准确
-                            int totalSilenceFrames = state.getSilenceFrameCount();
-                            int framesToRemove = 0;
-                            
-                            if (totalSilenceFrames > 0 && silenceDuration > 0) {
-                                // 按比例计算: 要移除的帧数 = 总帧数 * (要移除的时长 / 总静音时长)
-                                framesToRemove = Math.min(
-                                    (int) Math.ceil((double) totalSilenceFrames * silenceToRemoveMs / silenceDuration),
-                                    totalSilenceFrames
-                                );
-                            }
-                            
-                            if (framesToRemove > 0) {
-                                // 移除PCM数据中的静音帧
-                                for (int i = 0; i < framesToRemove && !state.pcmData.isEmpty(); i++) {
-                                    state.pcmData.remove(state.pcmData.size() - 1);
-                                }
-                                // 移除Opus数据中的静音帧
-                                for (int i = 0; i < framesToRemove && !state.opusData.isEmpty(); i++) {
-                                    state.opusData.remove(state.opusData.size() - 1);
-                                }
-                                logger.debug("语音结束: {}, 静音: {}ms, 移除{}ms静音({}帧), 保留{}ms尾音", 
-                                        sessionId, silenceDuration, silenceToRemoveMs, framesToRemove, tailKeepMs);
-                            } else {
-                                logger.debug("语音结束: {}, 静音: {}ms, 保留全部尾音", sessionId, silenceDuration);
-                            }
-                        } else {
-                            logger.debug("语音结束: {}, 静音: {}ms, 静音较短，保留全部", sessionId, silenceDuration);
+                        if (totalSilenceFrames > 0 && silenceDuration > 0) {
+                            // 按比例计算: 要移除的帧数 = 总帧数 * (要移除的时长 / 总静音时长)
+                            framesToRemove = Math.min(
+                                (int) Math.ceil((double) totalSilenceFrames * silenceToRemoveMs / silenceDuration),
+                                totalSilenceFrames
+                            );
                         }
                         
-                        state.resetSilenceFrameCount();  // 重置静音帧计数
-                        
-                        // 重置音频增强器状态（为下一句话准备）
-                        AudioEnhancer enhancer = audioEnhancers.get(sessionId);
-                        if (enhancer != null) {
-                            enhancer.reset();
+                        if (framesToRemove > 0) {
+                            // 移除PCM数据中的静音帧
+                            state.pcmData.removeLastSegments(framesToRemove);
+                            // 移除Opus数据中的静音帧
+                            state.opusData.removeLastSegments(framesToRemove);
+                            logger.debug("语音结束: {}, 静音: {}ms, 移除{}ms静音({}帧), 保留{}ms尾音", 
+                                    sessionId, silenceDuration, silenceToRemoveMs, framesToRemove, tailKeepMs);
+                        } else {
+                            logger.debug("语音结束: {}, 静音: {}ms, 保留全部尾音", sessionId, silenceDuration);
                         }
-                        
-                        // 重置VAD模型状态（为下一句话准备）
-                        // 清空sileroState，让下一句话从干净状态开始
-                        state.sileroState = new float[2][1][128];
-                        
-                        return new VadResult(VadStatus.SPEECH_END, enhancedPcmData);
                     } else {
-                        // 静音未超时，继续收集（但这是静音帧）
-                        state.addPcm(enhancedPcmData);
-                        state.incrementSilenceFrameCount();  // 记录这是一个静音帧
-                        return new VadResult(VadStatus.SPEECH_CONTINUE, enhancedPcmData);
+                        logger.debug("语音结束: {}, 静音: {}ms, 静音较短，保留全部", sessionId, silenceDuration);
                     }
-                } else if (state.isSpeaking()) {
-                    // 语音继续（非静音）
+                    
+                    state.resetSilenceFrameCount();  // 重置静音帧计数
+                    
+                    // 重置音频增强器状态（为下一句话准备）
+                    state.enhancer.reset();
+                    
+                    // 重置VAD模型状态（为下一句话准备）
+                    // 清空sileroState，让下一句话从干净状态开始
+                    state.sileroState.resetState();
+                    
+                    return new VadResult(VadStatus.SPEECH_END, enhancedPcmData);
+                } else {
+                    // 静音未超时，继续收集（但这是静音帧）
                     state.addPcm(enhancedPcmData);
-                    state.resetSilenceFrameCount();  // 重置静音帧计数，因为又开始说话了
+                    state.incrementSilenceFrameCount();  // 记录这是一个静音帧
                     return new VadResult(VadStatus.SPEECH_CONTINUE, enhancedPcmData);
-                } else {
-                    // 无语音
-                    return new VadResult(VadStatus.NO_SPEECH, null);
                 }
-            } catch (Exception e) {
-                logger.error("处理音频失败: {}, 错误: {}", sessionId, e.getMessage(), e);
-                return new VadResult(VadStatus.ERROR, null);
+            } else if (state.isSpeaking()) {
+                // 语音继续（非静音）
+                state.addPcm(enhancedPcmData);
+                state.resetSilenceFrameCount();  // 重置静音帧计数，因为又开始说话了
+                return new VadResult(VadStatus.SPEECH_CONTINUE, enhancedPcmData);
+            } else {
+                // 无语音
+                return new VadResult(VadStatus.NO_SPEECH, null);
             }
+        } catch (Exception e) {
+            logger.error("处理音频失败: {}, 错误: {}", sessionId, e.getMessage(), e);
+            return new VadResult(VadStatus.ERROR, null);
+        } finally {
+            state.lock.unlock();
         }
     }
 
@@ -649,36 +675,32 @@ public class VadService {
      * 执行语音检测
      */
     private float detectSpeech(VadState state, float[] samples) {
-        if (vadModel == null || samples == null || samples.length == 0) {
+        if (vadBatchEngine == null || samples == null || samples.length == 0) {
             logger.warn("VAD模型为空或样本为空");
             return 0.0f;
         }
 
         try {
+            float[] window = state.sileroState.samples;
+
             // 处理样本大小
             if (samples.length == VAD_SAMPLE_SIZE) {
-                InferenceResult r = vadModel.infer(samples, state.sileroState);
-                state.sileroState = r.state;
-                return r.probability;
+                System.arraycopy(samples, 0, window, 0, VAD_SAMPLE_SIZE);
+                return vadBatchEngine.infer(state.sileroState);
             }
 
             // 样本不足，需要填充
             if (samples.length < VAD_SAMPLE_SIZE) {
-                float[] padded = new float[VAD_SAMPLE_SIZE];
-                System.arraycopy(samples, 0, padded, 0, samples.length);
-                InferenceResult r = vadModel.infer(padded, state.sileroState);
-                state.sileroState = r.state;
-                return r.probability;
+                System.arraycopy(samples, 0, window, 0, samples.length);
+                Arrays.fill(window, samples.length, VAD_SAMPLE_SIZE, 0.0f);
+                return vadBatchEngine.infer(state.sileroState);
             }
 
             // 样本过长，分段处理
             float maxProb = 0.0f;
             for (int offset = 0; offset <= samples.length - VAD_SAMPLE_SIZE; offset += VAD_SAMPLE_SIZE / 2) {
-                float[] chunk = new float[VAD_SAMPLE_SIZE];
-                System.arraycopy(samples, offset, chunk, 0, VAD_SAMPLE_SIZE);
-                InferenceResult r = vadModel.infer(chunk, state.sileroState);
-                state.sileroState = r.state;
-                float prob = r.probability;
+                System.arraycopy(samples, offset, window, 0, VAD_SAMPLE_SIZE);
+                float prob = vadBatchEngine.infer(state.sileroState);
                 maxProb = Math.max(maxProb, prob);
             }
             return maxProb;
@@ -737,34 +759,33 @@ public class VadService {
      * 重置会话
      */
     public void resetSession(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            if (state != null) {
+        VadState state = states.remove(sessionId);
+        if (state != null) {
+            state.lock.lock();
+            try {
                 state.reset();
+                // 重置音频增强器
+                state.enhancer.reset();
+            } finally {
+                state.lock.unlock();
             }
-            states.remove(sessionId);
-            locks.remove(sessionId);
-
-            // 重置音频增强器
-            AudioEnhancer enhancer = audioEnhancers.get(sessionId);
-            if (enhancer != null) {
-                enhancer.reset();
-            }
-            audioEnhancers.remove(sessionId);
-
-            logger.info("VAD会话已重置: {}", sessionId);
         }
+        logger.info("VAD会话已重置: {}", sessionId);
     }
 
     /**
      * 检查是否正在说话
      */
     public boolean isSpeaking(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null && state.isSpeaking();
+        VadState state = states.get(sessionId);
+        if (state == null) {
+            return false;
+        }
+        state.lock.lock();
+        try {
+            return state.isSpeaking();
+        } finally {
+            state.lock.unlock();
         }
     }
 
@@ -772,32 +793,55 @@ public class VadService {
      * 获取当前语音概率
      */
     public float getSpeechProbability(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null ? state.getLastOriginalProb() : 0.0f;
+        VadState state = states.get(sessionId);
+        if (state == null) {
+            return 0.0f;
+        }
+        state.lock.lock();
+        try {
+            return state.getLastOriginalProb();
+        } finally {
+            state.lock.unlock();
         }
     }
 
     /**
-     * 获取音频数据
+     * 获取当前语音的PCM数据，按存储块返回只读切片，不做拼接
      */
-    public List<byte[]> getPcmData(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null ? state.getPcmData() : new ArrayList<>();
+    public List<ByteBuffer> getPcmSlices(String sessionId) {
+        VadState state = states.get(sessionId);
+        if (state == null) {
+            return new ArrayList<>();
+        }
+        state.lock.lock();
+        try {
+            return state.getPcmSlices();
+        } finally {
+            state.lock.unlock();
         }
     }
 
+    /**
+     * 获取会话VAD状态占用的内存字节数
+     */
+    public long getMemoryBytes(String sessionId) {
+        VadState state = states.get(sessionId);
+        return state != null ? state.memoryBytes() : 0;
+    }
+
     /**
      * 获取Opus数据
      */
     public List<byte[]> getOpusData(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null ? state.getOpusData() : new ArrayList<>();
+        VadState state = states.get(sessionId);
+        if (state == null) {
+            return new ArrayList<>();
+        }
+        state.lock.lock();
+        try {
+            return state.getOpusData();
+        } finally {
+            state.lock.unlock();
         }
     }
 
@@ -805,10 +849,15 @@ public class VadService {
      * 获取当前帧计数
      */
     public int getFrameCounter(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null ? state.getFrameCounter() : 0;
+        VadState state = states.get(sessionId);
+        if (state == null) {
+            return 0;
+        }
+        state.lock.lock();
+        try {
+            return state.getFrameCounter();
+        } finally {
+            state.lock.unlock();
         }
     }
 
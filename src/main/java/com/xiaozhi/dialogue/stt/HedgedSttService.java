@@ -0,0 +1,234 @@
+package com.xiaozhi.dialogue.stt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Sinks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 带对冲和熔断的STT服务
+ * 主服务照常识别，同时缓存整段语音；语音结束后主服务在等待预算（最近出结果耗时的分位数）内没有给出结果，
+ * 或者主服务出错时，把缓存的语音交给备用服务识别，取先返回的非空结果。
+ * 主服务失败率过高时熔断，熔断期间直接使用备用服务。
+ */
+public class HedgedSttService implements SttService {
+    private static final Logger logger = LoggerFactory.getLogger(HedgedSttService.class);
+
+    // 识别超时时间（90秒），与各服务的实现保持一致
+    private static final long RECOGNITION_TIMEOUT_MS = 90000;
+
+    private final SttService primary;
+    private final SttService secondary;
+    private final SttProviderHealth health;
+    private final double budgetQuantile;
+    private final long minBudgetMs;
+    private final long maxBudgetMs;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * @param budgetQuantile 等待预算取主服务出结果耗时的分位数
+     * @param minBudgetMs 等待预算下限，耗时样本不足时也用它
+     * @param maxBudgetMs 等待预算上限
+     */
+    public HedgedSttService(SttService primary, SttService secondary, SttProviderHealth health,
+            double budgetQuantile, long minBudgetMs, long maxBudgetMs, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.health = health;
+        this.budgetQuantile = budgetQuantile;
+        this.minBudgetMs = minBudgetMs;
+        this.maxBudgetMs = Math.max(minBudgetMs, maxBudgetMs);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public String getProviderName() {
+        return primary.getProviderName();
+    }
+
+    @Override
+    public boolean supportsStreaming() {
+        return primary.supportsStreaming();
+    }
+
+    @Override
+    public String recognition(byte[] audioData) {
+        Attempt attempt = new Attempt();
+        attempt.onAudioEnd(audioData);
+        if (health.allowRequest()) {
+            attempt.startPrimary(() -> primary.recognition(audioData));
+        }
+        return attempt.await();
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink) {
+        return streamRecognition(audioSink, null);
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener) {
+        Attempt attempt = new Attempt();
+        // 原始音频流只订阅一次：转发给主服务，同时缓存一份留给备用服务
+        Sinks.Many<byte[]> primarySink = Sinks.many().unicast().onBackpressureBuffer();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        audioSink.asFlux().subscribe(
+                chunk -> {
+                    synchronized (buffer) {
+                        buffer.write(chunk, 0, chunk.length);
+                    }
+                    primarySink.tryEmitNext(chunk);
+                },
+                error -> {
+                    primarySink.tryEmitError(error);
+                    attempt.onAudioEnd(snapshot(buffer));
+                },
+                () -> {
+                    primarySink.tryEmitComplete();
+                    attempt.onAudioEnd(snapshot(buffer));
+                });
+
+        if (health.allowRequest()) {
+            attempt.startPrimary(() -> primary.streamRecognition(primarySink, partialListener));
+        }
+        return attempt.await();
+    }
+
+    private static byte[] snapshot(ByteArrayOutputStream buffer) {
+        synchronized (buffer) {
+            return buffer.toByteArray();
+        }
+    }
+
+    /**
+     * 一次识别请求
+     */
+    private class Attempt {
+        private final CompletableFuture<byte[]> audio = new CompletableFuture<>();
+        // 主服务的结果，出错时为null
+        private final CompletableFuture<String> primaryResult = new CompletableFuture<>();
+        private volatile long audioEndedAt = -1;
+        private boolean primaryStarted = false;
+
+        void onAudioEnd(byte[] data) {
+            audioEndedAt = System.nanoTime();
+            audio.complete(data);
+        }
+
+        void startPrimary(Supplier<String> call) {
+            primaryStarted = true;
+            Thread.startVirtualThread(() -> {
+                String text = null;
+                try {
+                    text = call.get();
+                } catch (Exception e) {
+                    logger.warn("Ошибка основного сервиса распознавания {}: {}", primary.getProviderName(), e.getMessage());
+                }
+                if (text == null) {
+                    health.onFailure();
+                } else {
+                    // 落选的请求也记录耗时，否则等待预算会被越压越短
+                    long endedAt = audioEndedAt;
+                    health.onSuccess(endedAt < 0 ? -1
+                            : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - endedAt));
+                }
+                primaryResult.complete(text);
+            });
+        }
+
+        String await() {
+            try {
+                byte[] data = audio.get(RECOGNITION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                String reason;
+                if (!primaryStarted) {
+                    reason = "breaker-open";
+                } else {
+                    long budget = budgetMs();
+                    try {
+                        String text = primaryResult.get(budget, TimeUnit.MILLISECONDS);
+                        if (text != null) {
+                            record("primary");
+                            return text;
+                        }
+                        reason = "failover";
+                    } catch (TimeoutException e) {
+                        logger.debug("Основной сервис распознавания {} не вернул результат за {}ms, параллельно запрашивается резервный сервис {}",
+                                primary.getProviderName(), budget, secondary.getProviderName());
+                        reason = "hedged";
+                    }
+                }
+                record(reason);
+                return race(data);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return primaryResult.getNow(null);
+            } catch (Exception e) {
+                logger.error("Не удалось дождаться результата распознавания: {}", e.getMessage());
+                return primaryResult.getNow(null);
+            }
+        }
+
+        /**
+         * 发出备用请求，取主备之间先返回的非空结果；都没有文本时返回主服务的结果
+         * 落选的请求无法中途取消，结果直接丢弃
+         */
+        private String race(byte[] data) throws Exception {
+            CompletableFuture<String> secondaryResult = new CompletableFuture<>();
+            Thread.startVirtualThread(() -> {
+                String text = null;
+                try {
+                    text = secondary.recognition(data);
+                } catch (Exception e) {
+                    logger.warn("Ошибка резервного сервиса распознавания {}: {}", secondary.getProviderName(), e.getMessage());
+                }
+                secondaryResult.complete(text);
+            });
+
+            CompletableFuture<String> winner = new CompletableFuture<>();
+            if (primaryStarted) {
+                primaryResult.thenAccept(text -> {
+                    if (StringUtils.hasText(text) && winner.complete(text)) {
+                        record("primary-won");
+                    }
+                });
+            }
+            secondaryResult.thenAccept(text -> {
+                if (StringUtils.hasText(text) && winner.complete(text)) {
+                    record("secondary-won");
+                }
+            });
+            CompletableFuture<?> all = primaryStarted
+                    ? CompletableFuture.allOf(primaryResult, secondaryResult)
+                    : secondaryResult;
+            all.thenRun(() -> {
+                String text = primaryResult.getNow(null);
+                winner.complete(text != null ? text : secondaryResult.getNow(""));
+            });
+            return winner.get(RECOGNITION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private long budgetMs() {
+            long quantile = health.latencyQuantile(budgetQuantile);
+            return Math.min(maxBudgetMs, Math.max(minBudgetMs, quantile));
+        }
+    }
+
+    private void record(String result) {
+        Counter.builder("xiaozhi.stt.hedge")
+                .description("对冲识别的结果：primary为预算内主服务返回，hedged/failover/breaker-open为请求了备用服务的原因，"
+                        + "primary-won/secondary-won为请求备用服务后胜出的一方")
+                .tag("provider", primary.getProviderName())
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,75 @@
+package com.xiaozhi.dialogue.stt;
+
+import com.xiaozhi.utils.AudioUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 识别音频的调试转储
+ * 默认关闭，开启后把送去识别的PCM放进有界队列，由后台线程写成WAV文件，不阻塞识别；队列满时直接丢弃。
+ */
+@Component
+public class SttAudioDump {
+    private static final Logger logger = LoggerFactory.getLogger(SttAudioDump.class);
+
+    private static final int QUEUE_CAPACITY = 64;
+
+    @Value("${stt.audio.dump.enabled:false}")
+    private boolean enabled;
+
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private Thread writer;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        writer = Thread.ofVirtual().name("stt-audio-dump").start(this::run);
+        logger.info("Отладочный дамп аудио распознавания включён, каталог: {}", AudioUtils.AUDIO_PATH);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 提交一段PCM，未开启时什么也不做
+     */
+    public void dump(byte[] pcm) {
+        if (!enabled || pcm == null || pcm.length == 0) {
+            return;
+        }
+        if (!queue.offer(pcm)) {
+            logger.debug("Очередь дампа аудио распознавания заполнена, отброшено {} байт", pcm.length);
+        }
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                byte[] pcm = queue.take();
+                String fileName = AudioUtils.saveAsWav(pcm);
+                logger.debug("Аудио распознавания сохранено в дамп: {}", fileName);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.warn("Не удалось сохранить дамп аудио распознавания: {}", e.getMessage());
+            }
+        }
+    }
+}
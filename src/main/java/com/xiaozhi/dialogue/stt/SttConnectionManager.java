@@ -0,0 +1,80 @@
+package com.xiaozhi.dialogue.stt;
+
+import com.xiaozhi.entity.SysConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式识别连接管理
+ * 按STT配置（provider:configId）维护预热连接池，定时清理过期连接并补足，配置更新时关闭旧池。
+ */
+@Component
+public class SttConnectionManager {
+
+    // 每个配置保持的预热连接数，0表示关闭预热
+    @Value("${stt.connection.pool.size:1}")
+    private int poolSize;
+
+    // 空闲连接的最长保留时间，需小于服务端的空闲断开时间
+    @Value("${stt.connection.max-idle-ms:8000}")
+    private long maxIdleMs;
+
+    // 最近一次识别后保持预热的时长
+    @Value("${stt.connection.warm-window-ms:300000}")
+    private long warmWindowMs;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, SttConnectionPool<?>> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("stt-connection-sweeper").factory());
+
+    @PostConstruct
+    public void init() {
+        long period = Math.max(500, maxIdleMs / 4);
+        scheduler.scheduleAtFixedRate(() -> pools.values().forEach(SttConnectionPool::sweep),
+                period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+        pools.values().forEach(SttConnectionPool::close);
+        pools.clear();
+    }
+
+    /**
+     * 获取配置对应的连接池，不存在时创建
+     */
+    @SuppressWarnings("unchecked")
+    public <C> SttConnectionPool<C> pool(SysConfig config, SttConnectionPool.Connector<C> connector) {
+        return (SttConnectionPool<C>) pools.computeIfAbsent(key(config),
+                k -> new SttConnectionPool<>(config.getProvider(), connector, poolSize, maxIdleMs, warmWindowMs,
+                        meterRegistry));
+    }
+
+    /**
+     * 配置更新或删除时关闭对应的连接池
+     */
+    public void remove(SysConfig config) {
+        SttConnectionPool<?> pool = pools.remove(key(config));
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private static String key(SysConfig config) {
+        return config.getProvider() + ":" + config.getConfigId();
+    }
+}
@@ -0,0 +1,184 @@
+package com.xiaozhi.dialogue.stt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式识别的预热连接池
+ * 每个STT配置一个池，后台提前建立好并完成鉴权的连接，识别开始时直接取用，握手和鉴权不再占用语音开始后的时间。
+ * 连接只用一次，取走后立即在后台补充；空闲超过上限的连接会被关闭并重新建立，避免被服务端断开。
+ * 最近一段时间内没有识别时不再补充，空闲的配置不会一直占用连接。
+ */
+public class SttConnectionPool<C> implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SttConnectionPool.class);
+
+    /**
+     * 连接的建立、检查与关闭
+     */
+    public interface Connector<C> {
+        /**
+         * 建立连接并完成鉴权，阻塞到连接可用为止
+         */
+        C connect() throws Exception;
+
+        /**
+         * 空闲期间连接是否仍然可用
+         */
+        default boolean isUsable(C connection) {
+            return true;
+        }
+
+        void close(C connection);
+    }
+
+    private record Idle<C>(C connection, long openedAt) {
+    }
+
+    private final String provider;
+    private final Connector<C> connector;
+    private final int size;
+    private final long maxIdleNanos;
+    private final long warmWindowNanos;
+    private final ConcurrentLinkedDeque<Idle<C>> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger opening = new AtomicInteger();
+    private final Timer setupTimer;
+    private final Counter pooledCounter;
+    private final Counter directCounter;
+    private volatile long lastAcquireAt;
+    private volatile boolean acquired = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param size 保持的空闲连接数，0表示不预热
+     * @param maxIdleMillis 空闲连接的最长保留时间
+     * @param warmWindowMillis 最近一次取用后保持预热的时长
+     */
+    public SttConnectionPool(String provider, Connector<C> connector, int size, long maxIdleMillis,
+            long warmWindowMillis, MeterRegistry meterRegistry) {
+        this.provider = provider;
+        this.connector = connector;
+        this.size = Math.max(0, size);
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+        this.warmWindowNanos = TimeUnit.MILLISECONDS.toNanos(warmWindowMillis);
+        this.setupTimer = Timer.builder("xiaozhi.stt.connection.setup")
+                .description("流式识别建立连接（含握手和鉴权）的耗时")
+                .tag("provider", provider)
+                .register(meterRegistry);
+        this.pooledCounter = Counter.builder("xiaozhi.stt.connection.acquire")
+                .description("识别取用连接的次数，pooled为预热连接，direct为现场建立")
+                .tag("provider", provider)
+                .tag("source", "pooled")
+                .register(meterRegistry);
+        this.directCounter = Counter.builder("xiaozhi.stt.connection.acquire")
+                .description("识别取用连接的次数，pooled为预热连接，direct为现场建立")
+                .tag("provider", provider)
+                .tag("source", "direct")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 取一个可用连接，没有预热好的连接时现场建立
+     */
+    public C acquire() throws Exception {
+        lastAcquireAt = System.nanoTime();
+        acquired = true;
+        Idle<C> entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (isFresh(entry) && connector.isUsable(entry.connection())) {
+                pooledCounter.increment();
+                refill();
+                return entry.connection();
+            }
+            discard(entry.connection());
+        }
+        directCounter.increment();
+        C connection = open();
+        refill();
+        return connection;
+    }
+
+    /**
+     * 清理过期或已断开的空闲连接并补足，由定时任务调用
+     */
+    void sweep() {
+        Iterator<Idle<C>> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            Idle<C> entry = iterator.next();
+            if (!isFresh(entry) || !connector.isUsable(entry.connection())) {
+                iterator.remove();
+                discard(entry.connection());
+            }
+        }
+        refill();
+    }
+
+    /**
+     * 在后台补足空闲连接
+     */
+    private void refill() {
+        if (closed || size == 0 || !acquired || System.nanoTime() - lastAcquireAt > warmWindowNanos) {
+            return;
+        }
+        while (true) {
+            int count = opening.get();
+            if (idle.size() + count >= size) {
+                return;
+            }
+            if (opening.compareAndSet(count, count + 1)) {
+                Thread.startVirtualThread(this::openIdle);
+            }
+        }
+    }
+
+    private void openIdle() {
+        try {
+            C connection = open();
+            Idle<C> entry = new Idle<>(connection, System.nanoTime());
+            idle.offerLast(entry);
+            // 放入后再检查一次：close() 可能在放入前已经清空了池，这时由这里关闭，已被 close() 取走的不重复关闭
+            if (closed && idle.removeFirstOccurrence(entry)) {
+                discard(connection);
+            }
+        } catch (Exception e) {
+            logger.warn("Не удалось заранее открыть соединение распознавания {}: {}", provider, e.getMessage());
+        } finally {
+            opening.decrementAndGet();
+        }
+    }
+
+    private C open() throws Exception {
+        long start = System.nanoTime();
+        C connection = connector.connect();
+        setupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return connection;
+    }
+
+    private boolean isFresh(Idle<C> entry) {
+        return System.nanoTime() - entry.openedAt() < maxIdleNanos;
+    }
+
+    private void discard(C connection) {
+        try {
+            connector.close(connection);
+        } catch (Exception e) {
+            logger.debug("Не удалось закрыть соединение распознавания {}: {}", provider, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Idle<C> entry;
+        while ((entry = idle.pollFirst()) != null) {
+            discard(entry.connection());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.xiaozhi.dialogue.stt;
+
+import java.util.Arrays;
+
+/**
+ * STT服务的健康状态：熔断器和最近的出结果耗时
+ * 熔断器按最近若干次请求的失败率打开，打开一段时间后放行一次试探请求，成功则关闭；
+ * 耗时记录语音结束到拿到最终结果的时间，用于计算对冲请求的等待预算。
+ */
+public class SttProviderHealth {
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+
+    // 最近的请求结果，true为失败
+    private final boolean[] outcomes;
+    private int outcomeCount = 0;
+    private int outcomeHead = 0;
+    private int failures = 0;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight = false;
+
+    // 最近的出结果耗时（毫秒）
+    private final long[] latencies;
+    private int latencyCount = 0;
+    private int latencyHead = 0;
+
+    /**
+     * @param windowSize 统计失败率的请求数
+     * @param minCalls 至少有这么多次请求才判断失败率
+     * @param failureRateThreshold 失败率达到该值时打开熔断
+     * @param openMillis 熔断打开的时长
+     * @param latencySamples 保留的耗时样本数
+     */
+    public SttProviderHealth(int windowSize, int minCalls, double failureRateThreshold, long openMillis,
+            int latencySamples) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minCalls = Math.max(1, Math.min(minCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openMillis * 1_000_000L;
+        this.outcomes = new boolean[this.windowSize];
+        this.latencies = new long[Math.max(1, latencySamples)];
+    }
+
+    /**
+     * 是否允许发出请求，熔断打开期间返回false，到期后只放行一次试探
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess(long latencyMillis) {
+        if (latencyMillis >= 0) {
+            latencies[latencyHead] = latencyMillis;
+            latencyHead = (latencyHead + 1) % latencies.length;
+            latencyCount = Math.min(latencies.length, latencyCount + 1);
+        }
+        if (state == State.HALF_OPEN) {
+            // 试探成功，关闭熔断并重新统计
+            state = State.CLOSED;
+            trialInFlight = false;
+            outcomeCount = 0;
+            outcomeHead = 0;
+            failures = 0;
+            return;
+        }
+        recordOutcome(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        recordOutcome(true);
+        if (state == State.CLOSED && outcomeCount >= minCalls
+                && failures >= failureRateThreshold * outcomeCount) {
+            open();
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * 最近出结果耗时的分位数，样本不足时返回-1
+     *
+     * @param quantile 0到1之间，如0.9
+     */
+    public synchronized long latencyQuantile(double quantile) {
+        if (latencyCount < 5) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(quantile * latencyCount) - 1;
+        return sorted[Math.max(0, Math.min(latencyCount - 1, index))];
+    }
+
+    private void recordOutcome(boolean failed) {
+        if (outcomeCount == outcomes.length && outcomes[outcomeHead]) {
+            failures--;
+        }
+        outcomes[outcomeHead] = failed;
+        if (failed) {
+            failures++;
+        }
+        outcomeHead = (outcomeHead + 1) % outcomes.length;
+        outcomeCount = Math.min(outcomes.length, outcomeCount + 1);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        trialInFlight = false;
+    }
+}
@@ -1,7 +1,11 @@
 package com.xiaozhi.dialogue.stt;
 
+import com.xiaozhi.utils.CancellationToken;
 import reactor.core.publisher.Sinks;
 
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
 /**
  * STT服务接口
  */
@@ -28,6 +32,57 @@ public interface SttService {
    */
   String streamRecognition(Sinks.Many<byte[]> audioSink);
 
+  /**
+   * 流式处理音频数据，识别过程中回调中间结果
+   * 不产生中间结果的实现直接忽略回调
+   *
+   * @param audioSink 音频数据流
+   * @param partialListener 中间结果回调，参数为到目前为止识别出的完整文本
+   * @return 识别的文本结果
+   */
+  default String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener) {
+    return streamRecognition(audioSink);
+  }
+
+  /**
+   * 可取消的非流式识别，取消时中断识别线程
+   *
+   * @param token 对话的取消令牌
+   * @return 识别的文本结果，已取消时返回null
+   */
+  default String recognition(byte[] audioData, CancellationToken token) {
+    try {
+      return token.interruptOnCancel(() -> recognition(audioData));
+    } catch (CancellationException e) {
+      return null;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * 可取消的流式识别，取消时结束音频流并中断识别线程，不再等待识别结果
+   *
+   * @param audioSink 音频数据流
+   * @param partialListener 中间结果回调，可为null
+   * @param token 对话的取消令牌
+   * @return 识别的文本结果，已取消时返回null
+   */
+  default String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener,
+      CancellationToken token) {
+    try (CancellationToken.Registration closing = token.onCancel(audioSink::tryEmitComplete)) {
+      return token.interruptOnCancel(() -> streamRecognition(audioSink, partialListener));
+    } catch (CancellationException e) {
+      return null;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   /**
    * 检查服务是否支持流式处理
    * 
@@ -1,15 +1,25 @@
 package com.xiaozhi.dialogue.stt.factory;
 
+import com.xiaozhi.dialogue.stt.HedgedSttService;
+import com.xiaozhi.dialogue.stt.SttAudioDump;
+import com.xiaozhi.dialogue.stt.SttConnectionManager;
+import com.xiaozhi.dialogue.stt.SttProviderHealth;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.dialogue.stt.providers.*;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.service.SysConfigService;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.Nonnull;
+import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -22,6 +32,9 @@ public class SttServiceFactory {
     // 缓存已初始化的服务：key format: "provider:configId"
     private final Map<String, SttService> serviceCache = new ConcurrentHashMap<>();
 
+    // 各配置主服务的健康状态，key同serviceCache；配置更新后保留，熔断和耗时统计不因重建服务而丢失
+    private final Map<String, SttProviderHealth> healthCache = new ConcurrentHashMap<>();
+
     // 默认服务提供商名称
     private static final String DEFAULT_PROVIDER = "vosk";
 
@@ -31,6 +44,55 @@ public class SttServiceFactory {
     // 备选默认提供商（当Vosk初始化失败时使用）
     private String fallbackProvider = null;
 
+    @Resource
+    private SttAudioDump audioDump;
+
+    @Resource
+    private SttConnectionManager connectionManager;
+
+    // Vosk保留的空闲识别器数，0表示按CPU核数
+    @Value("${stt.vosk.pool.size:0}")
+    private int voskPoolSize;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 与SysConfigServiceImpl互相依赖，延迟注入
+    @Resource
+    @Lazy
+    private SysConfigService configService;
+
+    // 是否对云端识别启用对冲请求
+    @Value("${stt.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    // 备用识别服务的配置ID，0表示本地Vosk
+    @Value("${stt.hedge.secondary.config-id:0}")
+    private int hedgeSecondaryConfigId;
+
+    // 等待预算：主服务出结果耗时的分位数，限制在上下限之间
+    @Value("${stt.hedge.budget.quantile:0.9}")
+    private double hedgeBudgetQuantile;
+
+    @Value("${stt.hedge.budget.min-ms:800}")
+    private long hedgeBudgetMinMs;
+
+    @Value("${stt.hedge.budget.max-ms:3000}")
+    private long hedgeBudgetMaxMs;
+
+    // 熔断：最近window次请求中至少min-calls次、失败率达到failure-rate时打开open-ms
+    @Value("${stt.breaker.window:20}")
+    private int breakerWindow;
+
+    @Value("${stt.breaker.min-calls:5}")
+    private int breakerMinCalls;
+
+    @Value("${stt.breaker.failure-rate:0.5}")
+    private double breakerFailureRate;
+
+    @Value("${stt.breaker.open-ms:30000}")
+    private long breakerOpenMs;
+
     /**
      * 应用启动时自动初始化Vosk服务
      */
@@ -45,6 +107,16 @@ public class SttServiceFactory {
         }
     }
 
+    /**
+     * Vosk服务不是Spring Bean，随工厂一起释放识别器池和模型
+     */
+    @PreDestroy
+    public void destroy() {
+        if (serviceCache.get(DEFAULT_PROVIDER) instanceof VoskSttService voskService) {
+            voskService.destroy();
+        }
+    }
+
     /**
      * 初始化Vosk服务
      */
@@ -54,7 +126,7 @@ public class SttServiceFactory {
         }
 
         try {
-            var voskService = new VoskSttService();
+            var voskService = new VoskSttService(audioDump, voskPoolSize);
             voskService.initialize();
             
             // 检查模型是否真正加载成功
@@ -96,7 +168,7 @@ public class SttServiceFactory {
         }
 
         // 创建新的API服务实例
-        var service = createApiService(config);
+        var service = hedge(config, cacheKey, createApiService(config));
         serviceCache.put(cacheKey, service);
 
         // 如果没有备选默认服务，将此服务设为备选
@@ -112,10 +184,10 @@ public class SttServiceFactory {
      */
     private SttService createApiService(@Nonnull SysConfig config) {
         return switch (config.getProvider()) {
-            case "tencent" -> new TencentSttService(config);
+            case "tencent" -> new TencentSttService(config, connectionManager);
             case "aliyun" -> new AliyunSttService(config);
-            case "funasr" -> new FunASRSttService(config);
-            case "xfyun" -> new XfyunSttService(config);
+            case "funasr" -> new FunASRSttService(config, connectionManager);
+            case "xfyun" -> new XfyunSttService(config, connectionManager);
             case "openai" -> new OpenAiSttService(config);
             case "google" -> new GoogleSttService(config);
             default -> {
@@ -132,11 +204,45 @@ public class SttServiceFactory {
         };
     }
 
+    /**
+     * 启用对冲时为云端识别服务包装备用服务，本地Vosk和备用服务自身不包装
+     */
+    private SttService hedge(SysConfig config, String cacheKey, SttService service) {
+        if (!hedgeEnabled || DEFAULT_PROVIDER.equals(service.getProviderName())
+                || Integer.valueOf(hedgeSecondaryConfigId).equals(config.getConfigId())) {
+            return service;
+        }
+        SttService secondary = secondarySttService();
+        if (secondary == null || secondary == service) {
+            return service;
+        }
+        SttProviderHealth health = healthCache.computeIfAbsent(cacheKey,
+                k -> new SttProviderHealth(breakerWindow, breakerMinCalls, breakerFailureRate, breakerOpenMs, 100));
+        return new HedgedSttService(service, secondary, health, hedgeBudgetQuantile, hedgeBudgetMinMs,
+                hedgeBudgetMaxMs, meterRegistry);
+    }
+
+    private SttService secondarySttService() {
+        if (hedgeSecondaryConfigId <= 0) {
+            return initializeVosk();
+        }
+        SysConfig config = configService.selectConfigById(hedgeSecondaryConfigId);
+        if (config == null) {
+            logger.warn("Резервная конфигурация распознавания речи {} не существует, хеджирование запросов не включается", hedgeSecondaryConfigId);
+            return null;
+        }
+        var cacheKey = config.getProvider() + ":" + config.getConfigId();
+        // 备用服务不再包装，避免互为备用
+        return serviceCache.computeIfAbsent(cacheKey, k -> createApiService(config));
+    }
+
     public void removeCache(SysConfig config) {
         // 对于API服务，使用"provider:configId"作为缓存键，确保每个配置使用独立的服务实例
         Integer configId = config.getConfigId();
         String provider = config.getProvider();
         String cacheKey = provider + ":" + (configId != null ? configId : "default");
         serviceCache.remove(cacheKey);
+        // 旧配置的预热连接一并关闭
+        connectionManager.remove(config);
     }
 }
\ No newline at end of file
@@ -2,6 +2,8 @@ package com.xiaozhi.dialogue.stt.providers;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.xiaozhi.dialogue.stt.SttConnectionManager;
+import com.xiaozhi.dialogue.stt.SttConnectionPool;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.entity.SysConfig;
 
@@ -12,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Sinks;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
@@ -38,11 +41,91 @@ public class FunASRSttService implements SttService {
     private static final String SPEAKING_END = "{\"is_speaking\": false}";
     private static final int QUEUE_TIMEOUT_MS = 100; // 队列等待超时时间
     private static final long RECOGNITION_TIMEOUT_MS = 90000; // 识别超时时间（90秒）
+    private static final long CONNECT_TIMEOUT_MS = 5000; // 建立连接超时时间
 
     private final String apiUrl;
+    private final SttConnectionPool<FunASRConnection> connectionPool;
 
-    public FunASRSttService(SysConfig config) {
+    public FunASRSttService(SysConfig config, SttConnectionManager connectionManager) {
         this.apiUrl = config.getApiUrl();
+        this.connectionPool = connectionManager.pool(config, new SttConnectionPool.Connector<>() {
+            @Override
+            public FunASRConnection connect() throws Exception {
+                FunASRConnection connection = new FunASRConnection(URI.create(apiUrl));
+                if (!connection.connectBlocking(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    connection.close();
+                    throw new IOException("连接FunASR服务超时: " + apiUrl);
+                }
+                return connection;
+            }
+
+            @Override
+            public boolean isUsable(FunASRConnection connection) {
+                return connection.isOpen();
+            }
+
+            @Override
+            public void close(FunASRConnection connection) {
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * 识别过程中的回调
+     */
+    private interface RecognitionHandler {
+        void onMessage(String message);
+
+        void onClose(int code, String reason, boolean remote);
+
+        void onError(Exception ex);
+    }
+
+    /**
+     * 预先建立的FunASR连接，交给识别后把回调转发给当前识别
+     */
+    private static class FunASRConnection extends WebSocketClient {
+        private volatile RecognitionHandler handler;
+
+        FunASRConnection(URI serverUri) {
+            super(serverUri);
+        }
+
+        void attach(RecognitionHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            logger.debug("FunASR WebSocket连接已打开");
+        }
+
+        @Override
+        public void onMessage(String message) {
+            RecognitionHandler current = handler;
+            if (current != null) {
+                current.onMessage(message);
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            RecognitionHandler current = handler;
+            if (current != null) {
+                current.onClose(code, reason, remote);
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            RecognitionHandler current = handler;
+            if (current != null) {
+                current.onError(ex);
+            } else {
+                logger.debug("Ошибка простаивающего соединения FunASR: {}", ex.getMessage());
+            }
+        }
     }
 
     @Override
@@ -79,41 +162,16 @@ public class FunASRSttService implements SttService {
             () -> isCompleted.set(true)
         );
         
-        // 创建WebSocket客户端
-        WebSocketClient webSocketClient = new WebSocketClient(URI.create(apiUrl)) {
-            @Override
-            public void onOpen(ServerHandshake handshake) {
-                logger.debug("FunASR WebSocket连接已打开");
-                send(SPEAKING_START);
-                
-                // 启动虚拟线程发送音频数据
-                Thread.startVirtualThread(() -> {
-                    try {
-                        while (!isCompleted.get() || !audioQueue.isEmpty()) {
-                            byte[] audioChunk = null;
-                            try {
-                                audioChunk = audioQueue.poll(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                            } catch (InterruptedException e) {
-                                logger.warn("音频数据队列等待被中断", e);
-                                Thread.currentThread().interrupt(); // 重新设置中断标志
-                                break;
-                            }
-                            
-                            if (audioChunk != null && isOpen()) {
-                                send(audioChunk);
-                            }
-                        }
-                        
-                        // 发送结束信号
-                        if (isOpen()) {
-                            send(SPEAKING_END);
-                        }
-                    } catch (Exception e) {
-                        logger.error("发送音频数据时发生错误", e);
-                    }
-                });
-            }
+        // 取用预热好的连接，没有时现场建立
+        FunASRConnection connection;
+        try {
+            connection = connectionPool.acquire();
+        } catch (Exception e) {
+            logger.error("Не удалось подключиться к сервису FunASR", e);
+            return finalResult.get();
+        }
 
+        connection.attach(new RecognitionHandler() {
             @Override
             public void onMessage(String message) {
                 try {
@@ -141,12 +199,42 @@ public class FunASRSttService implements SttService {
                 // 确保锁被释放
                 recognitionLatch.countDown();
             }
-        };
+        });
 
         try {
-            // 连接WebSocket
-            webSocketClient.connect();
-            
+            if (!connection.isOpen()) {
+                logger.warn("Соединение с FunASR разорвано");
+                return finalResult.get();
+            }
+            connection.send(SPEAKING_START);
+
+            // 启动虚拟线程发送音频数据
+            Thread.startVirtualThread(() -> {
+                try {
+                    while (!isCompleted.get() || !audioQueue.isEmpty()) {
+                        byte[] audioChunk = null;
+                        try {
+                            audioChunk = audioQueue.poll(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            logger.warn("音频数据队列等待被中断", e);
+                            Thread.currentThread().interrupt(); // 重新设置中断标志
+                            break;
+                        }
+
+                        if (audioChunk != null && connection.isOpen()) {
+                            connection.send(audioChunk);
+                        }
+                    }
+
+                    // 发送结束信号
+                    if (connection.isOpen()) {
+                        connection.send(SPEAKING_END);
+                    }
+                } catch (Exception e) {
+                    logger.error("发送音频数据时发生错误", e);
+                }
+            });
+
             // 等待识别完成或超时
             boolean recognized = recognitionLatch.await(RECOGNITION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
             
@@ -157,8 +245,8 @@ public class FunASRSttService implements SttService {
             logger.error("FunASR识别过程中发生错误", e);
         } finally {
             // 关闭WebSocket连接
-            if (webSocketClient.isOpen()) {
-                webSocketClient.close();
+            if (connection.isOpen()) {
+                connection.close();
             }
         }
         
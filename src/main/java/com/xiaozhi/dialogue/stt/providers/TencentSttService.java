@@ -9,9 +9,10 @@ import com.tencent.asrv2.SpeechRecognizerRequest;
 import com.tencent.asrv2.SpeechRecognizerResponse;
 import com.tencent.core.ws.Credential;
 import com.tencent.core.ws.SpeechClient;
+import com.xiaozhi.dialogue.stt.SttConnectionManager;
+import com.xiaozhi.dialogue.stt.SttConnectionPool;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.entity.SysConfig;
-import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.HttpUtil;
 
 import okhttp3.*;
@@ -39,6 +40,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class TencentSttService implements SttService {
     private static final Logger logger = LoggerFactory.getLogger(TencentSttService.class);
@@ -79,14 +81,139 @@ public class TencentSttService implements SttService {
         });
     }
 
-    public TencentSttService(SysConfig config) {
+    private SttConnectionPool<TencentConnection> connectionPool;
+
+    public TencentSttService(SysConfig config, SttConnectionManager connectionManager) {
         if (config != null) {
             this.secretId = config.getApiKey();
             this.secretKey = config.getApiSecret();
             this.appId = config.getAppId();
+            this.connectionPool = connectionManager.pool(config, new SttConnectionPool.Connector<>() {
+                @Override
+                public TencentConnection connect() throws Exception {
+                    return openConnection();
+                }
+
+                @Override
+                public boolean isUsable(TencentConnection connection) {
+                    return !connection.broken;
+                }
+
+                @Override
+                public void close(TencentConnection connection) {
+                    try {
+                        connection.recognizer.stop();
+                        connection.recognizer.close();
+                    } catch (Exception e) {
+                        logger.debug("Не удалось закрыть простаивающий распознаватель - VoiceId: {}", connection.voiceId, e);
+                    }
+                }
+            });
         }
     }
 
+    /**
+     * 预先启动的识别器
+     * SDK的start()会建立连接并等待服务端确认，这一步提前在后台完成；
+     * 交给识别后，回调转发给本次识别的监听器。
+     */
+    private static class TencentConnection {
+        private final String voiceId = UUID.randomUUID().toString();
+        private volatile SpeechRecognizerListener target;
+        private volatile boolean broken = false;
+        private SpeechRecognizer recognizer;
+
+        void attach(SpeechRecognizerListener listener) {
+            target = listener;
+        }
+
+        SpeechRecognizerListener forwarder() {
+            return new SpeechRecognizerListener() {
+                @Override
+                public void onRecognitionStart(SpeechRecognizerResponse response) {
+                    SpeechRecognizerListener listener = target;
+                    if (listener != null) {
+                        listener.onRecognitionStart(response);
+                    }
+                }
+
+                @Override
+                public void onSentenceBegin(SpeechRecognizerResponse response) {
+                    SpeechRecognizerListener listener = target;
+                    if (listener != null) {
+                        listener.onSentenceBegin(response);
+                    }
+                }
+
+                @Override
+                public void onRecognitionResultChange(SpeechRecognizerResponse response) {
+                    SpeechRecognizerListener listener = target;
+                    if (listener != null) {
+                        listener.onRecognitionResultChange(response);
+                    }
+                }
+
+                @Override
+                public void onSentenceEnd(SpeechRecognizerResponse response) {
+                    SpeechRecognizerListener listener = target;
+                    if (listener != null) {
+                        listener.onSentenceEnd(response);
+                    }
+                }
+
+                @Override
+                public void onRecognitionComplete(SpeechRecognizerResponse response) {
+                    broken = true;
+                    SpeechRecognizerListener listener = target;
+                    if (listener != null) {
+                        listener.onRecognitionComplete(response);
+                    }
+                }
+
+                @Override
+                public void onFail(SpeechRecognizerResponse response) {
+                    broken = true;
+                    SpeechRecognizerListener listener = target;
+                    if (listener != null) {
+                        listener.onFail(response);
+                    }
+                }
+
+                @Override
+                public void onMessage(SpeechRecognizerResponse response) {
+                    SpeechRecognizerListener listener = target;
+                    if (listener != null) {
+                        listener.onMessage(response);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * 创建并启动识别器
+     */
+    private TencentConnection openConnection() throws Exception {
+        // 创建腾讯云凭证
+        Credential credential = new Credential(appId, secretId, secretKey);
+
+        TencentConnection connection = new TencentConnection();
+        // 创建识别请求
+        SpeechRecognizerRequest request = SpeechRecognizerRequest.init();
+        request.setEngineModelType("16k_zh"); // 16k采样率中文模型
+        request.setVoiceFormat(1); // PCM格式
+        request.setVoiceId(connection.voiceId);
+
+        connection.recognizer = new SpeechRecognizer(speechClient, credential, request, connection.forwarder());
+        try {
+            connection.recognizer.start();
+        } catch (Exception e) {
+            connection.recognizer.close();
+            throw e;
+        }
+        return connection;
+    }
+
     @Override
     public String getProviderName() {
         return PROVIDER_NAME;
@@ -104,9 +231,6 @@ public class TencentSttService implements SttService {
             return null;
         }
 
-        // 将原始音频数据转换为MP3格式并保存（用于调试）
-        String fileName = AudioUtils.saveAsWav(audioData);
-
         try {
             // 检查配置是否已设置
             if (secretId == null || secretKey == null) {
@@ -135,6 +259,11 @@ public class TencentSttService implements SttService {
 
     @Override
     public String streamRecognition(Sinks.Many<byte[]> audioSink) {
+        return streamRecognition(audioSink, null);
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener) {
         // 检查配置是否已设置
         if (secretId == null || secretKey == null || appId == null) {
             logger.error("腾讯云语音识别配置未设置，无法进行识别");
@@ -157,18 +286,11 @@ public class TencentSttService implements SttService {
             () -> isCompleted.set(true)
         );
 
-        // 生成唯一的语音ID
-        String voiceId = UUID.randomUUID().toString();
-
         try {
-            // 创建腾讯云凭证
-            Credential credential = new Credential(appId, secretId, secretKey);
-
-            // 创建识别请求
-            SpeechRecognizerRequest request = SpeechRecognizerRequest.init();
-            request.setEngineModelType("16k_zh"); // 16k采样率中文模型
-            request.setVoiceFormat(1); // PCM格式
-            request.setVoiceId(voiceId);
+            // 取用预热好的识别器（已完成握手和鉴权），没有时现场建立
+            TencentConnection connection = connectionPool.acquire();
+            String voiceId = connection.voiceId;
+            SpeechRecognizer recognizer = connection.recognizer;
 
             // 创建识别监听器
             SpeechRecognizerListener listener = new SpeechRecognizerListener() {
@@ -195,6 +317,9 @@ public class TencentSttService implements SttService {
                                 textBuilder.setLength(0);
                                 textBuilder.append(text);
                             }
+                            if (partialListener != null) {
+                                partialListener.accept(text);
+                            }
                         }
                     }
                 }
@@ -211,6 +336,9 @@ public class TencentSttService implements SttService {
                                 textBuilder.append(text);
                             }
                             finalResult.set(text);
+                            if (partialListener != null) {
+                                partialListener.accept(text);
+                            }
                         }
                     }
                 }
@@ -257,14 +385,11 @@ public class TencentSttService implements SttService {
                 }
             };
 
-            // 创建识别器
-            SpeechRecognizer recognizer = new SpeechRecognizer(speechClient, credential, request, listener);
-
             // 存储到活跃识别器映射中
             activeRecognizers.put(voiceId, recognizer);
 
-            // 启动识别器
-            recognizer.start();
+            // 之后的识别回调转给本次识别
+            connection.attach(listener);
 
             // 标记是否已经发送了停止信号
             AtomicBoolean stopSent = new AtomicBoolean(false);
@@ -306,7 +431,25 @@ public class TencentSttService implements SttService {
             });
 
             // 等待识别完成或超时
-            boolean recognized = recognitionLatch.await(RECOGNITION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            boolean recognized;
+            try {
+                recognized = recognitionLatch.await(RECOGNITION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // 对话被打断，停止发送并关闭识别器，返回已有的结果
+                logger.debug("Распознавание речи прервано - VoiceId: {}", voiceId);
+                isCompleted.set(true);
+                audioQueue.clear();
+                if (activeRecognizers.remove(voiceId) != null) {
+                    try {
+                        recognizer.stop();
+                        recognizer.close();
+                    } catch (Exception ex) {
+                        logger.warn("Ошибка при закрытии прерванного распознавателя - VoiceId: {}", voiceId, ex);
+                    }
+                }
+                Thread.currentThread().interrupt();
+                return finalResult.get();
+            }
             
             if (!recognized) {
                 // 超时后清理资源
@@ -321,6 +464,9 @@ public class TencentSttService implements SttService {
                 }
             }
 
+        } catch (InterruptedException e) {
+            // 建立连接时被打断
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             logger.error("创建语音识别会话时发生错误", e);
         }
@@ -0,0 +1,97 @@
+package com.xiaozhi.dialogue.stt.providers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vosk.Model;
+import org.vosk.Recognizer;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Vosk识别器池
+ * 每个已加载的模型一个池，识别器按需创建、用完重置后放回。
+ * 创建Recognizer需要分配解码图等本地资源，短句识别时这部分开销比识别本身还大。
+ * 只限制空闲识别器的数量，并发识别超出时照常新建，归还时多出的直接释放，不会让请求排队或丢弃。
+ */
+public class VoskRecognizerPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(VoskRecognizerPool.class);
+
+    private final Model model;
+    private final float sampleRate;
+    private final int maxIdle;
+    private final BlockingQueue<Recognizer> idle;
+    // 已借出的识别器数
+    private final AtomicInteger leased = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public VoskRecognizerPool(Model model, float sampleRate, int maxIdle) {
+        this.model = model;
+        this.sampleRate = sampleRate;
+        this.maxIdle = Math.max(1, maxIdle);
+        this.idle = new ArrayBlockingQueue<>(this.maxIdle);
+    }
+
+    /**
+     * 借出一个识别器，没有空闲的时新建
+     */
+    public Recognizer lease() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("识别器池已关闭");
+        }
+        Recognizer recognizer = idle.poll();
+        if (recognizer == null) {
+            recognizer = new Recognizer(model, sampleRate);
+        }
+        int count = leased.incrementAndGet();
+        if (count > maxIdle) {
+            logger.debug("Число параллельных распознаваний {} превышает размер пула распознавателей {}, лишние распознаватели будут освобождены при возврате", count, maxIdle);
+        }
+        return recognizer;
+    }
+
+    /**
+     * 归还识别器，重置后放回池中，空闲数已满时释放
+     *
+     * @param broken 使用过程中出错时传true，直接释放不再复用
+     */
+    public void release(Recognizer recognizer, boolean broken) {
+        if (recognizer == null) {
+            return;
+        }
+        leased.decrementAndGet();
+        if (!broken && !closed) {
+            try {
+                recognizer.reset();
+                if (idle.offer(recognizer)) {
+                    // 与close并发时可能在清空之后放回，这里再取出释放
+                    if (closed && idle.remove(recognizer)) {
+                        recognizer.close();
+                    }
+                    return;
+                }
+            } catch (Exception e) {
+                logger.warn("Не удалось сбросить распознаватель Vosk, он отброшен: {}", e.getMessage());
+            }
+        }
+        recognizer.close();
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * 释放空闲的识别器，借出中的识别器归还时释放
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Recognizer recognizer;
+        while ((recognizer = idle.poll()) != null) {
+            recognizer.close();
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.xiaozhi.dialogue.stt.providers;
 
+import com.xiaozhi.dialogue.stt.SttAudioDump;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.utils.AudioUtils;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +23,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Vosk STT服务实现
@@ -30,13 +33,26 @@ public class VoskSttService implements SttService {
 
     private static final Logger logger = LoggerFactory.getLogger(VoskSttService.class);
     private static final String PROVIDER_NAME = "vosk";
-    private static final int QUEUE_TIMEOUT_MS = 5000; // 队列等待超时时间
 
     // Vosk模型相关对象
     private Model model;
     private String voskModelPath;
     private boolean modelLoaded = false;
 
+    // 识别器池，按句借用，用完重置后归还
+    private VoskRecognizerPool recognizerPool;
+    private final int poolSize;
+    private final SttAudioDump audioDump;
+
+    /**
+     * @param audioDump 调试转储，未开启时不写文件
+     * @param poolSize 保留的空闲识别器数，小于等于0时按CPU核数；并发识别超出时临时新建
+     */
+    public VoskSttService(SttAudioDump audioDump, int poolSize) {
+        this.audioDump = audioDump;
+        this.poolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+    }
+
     /**
      * 初始化Vosk模型
      *
@@ -63,8 +79,9 @@ public class VoskSttService implements SttService {
             // 加载模型，路径为配置的模型目录
             voskModelPath = System.getProperty("user.dir") + File.separator + Paths.get("models", "vosk-model");
             model = new Model(voskModelPath);
+            recognizerPool = new VoskRecognizerPool(model, AudioUtils.SAMPLE_RATE, poolSize);
             modelLoaded = true;
-            logger.info("Vosk 模型加载成功！路径: {}", voskModelPath);
+            logger.info("Модель Vosk успешно загружена! Путь: {}, максимум простаивающих распознавателей: {}", voskModelPath, poolSize);
         } catch (Exception e) {
             modelLoaded = false;
             logger.warn("Vosk 模型加载失败！将使用其他STT服务: {}", e.getMessage());
@@ -72,6 +89,20 @@ public class VoskSttService implements SttService {
         }
     }
 
+    /**
+     * 释放识别器池和模型的本地资源
+     */
+    @PreDestroy
+    public void destroy() {
+        modelLoaded = false;
+        if (recognizerPool != null) {
+            recognizerPool.close();
+        }
+        if (model != null) {
+            model.close();
+        }
+    }
+
     /**
      * 检查模型是否成功加载
      *
@@ -98,10 +129,13 @@ public class VoskSttService implements SttService {
             return null;
         }
 
-        // 将原始音频数据转换为WAV格式并保存
-        String fileName = AudioUtils.saveAsWav(audioData);
+        // 调试转储（默认关闭，异步写入）
+        audioDump.dump(audioData);
 
-        try (Recognizer recognizer = new Recognizer(model, AudioUtils.SAMPLE_RATE)) {
+        Recognizer recognizer = null;
+        boolean broken = false;
+        try {
+            recognizer = recognizerPool.lease();
             ByteArrayInputStream audioStream = new ByteArrayInputStream(audioData);
 
             byte[] buffer = new byte[4096];
@@ -122,8 +156,11 @@ public class VoskSttService implements SttService {
             return jsonFinal.getString("text").replaceAll("\\s+", "");
 
         } catch (Exception e) {
+            broken = true;
             logger.error("处理音频时发生错误！", e);
             return null;
+        } finally {
+            recognizerPool.release(recognizer, broken);
         }
     }
 
@@ -134,6 +171,11 @@ public class VoskSttService implements SttService {
 
     @Override
     public String streamRecognition(Sinks.Many<byte[]> audioSink) {
+        return streamRecognition(audioSink, null);
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener) {
         if (!isModelLoaded()) {
             logger.error("Vosk模型未加载，无法进行流式识别！");
             return null;
@@ -158,7 +200,11 @@ public class VoskSttService implements SttService {
         // 使用虚拟线程处理音频识别
         try {
             Thread virtualThread = Thread.startVirtualThread(() -> {
-                try (Recognizer recognizer = new Recognizer(model, AudioUtils.SAMPLE_RATE)) {
+                Recognizer recognizer = null;
+                boolean broken = false;
+                try {
+                    recognizer = recognizerPool.lease();
+                    String lastPartial = "";
                     while (!isCompleted.get() || !audioQueue.isEmpty()) {
                         try {
                             byte[] audioChunk = audioQueue.poll(100, TimeUnit.MILLISECONDS);
@@ -173,6 +219,15 @@ public class VoskSttService implements SttService {
                                         recognizedText.add(text);
                                         logger.debug("Vosk识别中间结果: {}", text);
                                     }
+                                } else if (partialListener != null) {
+                                    // 未断句时取当前的部分结果，拼上已确定的句子回调出去
+                                    String partial = new JSONObject(recognizer.getPartialResult())
+                                            .optString("partial").replaceAll("\\s+", "");
+                                    String current = String.join("", recognizedText) + partial;
+                                    if (!current.isEmpty() && !current.equals(lastPartial)) {
+                                        lastPartial = current;
+                                        partialListener.accept(current);
+                                    }
                                 }
                             }
 
@@ -202,7 +257,10 @@ public class VoskSttService implements SttService {
                     }
 
                 } catch (Exception e) {
+                    broken = true;
                     logger.error("Vosk流式识别过程中发生错误", e);
+                } finally {
+                    recognizerPool.release(recognizer, broken);
                 }
             });
             
@@ -6,9 +6,12 @@ import cn.xfyun.model.response.iat.IatResult;
 import cn.xfyun.model.response.iat.Text;
 import cn.xfyun.service.iat.AbstractIatWebSocketListener;
 import com.google.gson.JsonObject;
+import com.xiaozhi.dialogue.stt.SttConnectionManager;
+import com.xiaozhi.dialogue.stt.SttConnectionPool;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.HttpUtil;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -24,6 +27,7 @@ import reactor.core.scheduler.Schedulers;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -48,20 +52,112 @@ public class XfyunSttService implements SttService {
     // 识别超时时间（90秒）
     private static final long RECOGNITION_TIMEOUT_MS = 90000;
 
+    // 建立连接的超时时间
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+
     private static final String hostUrl = "https://iat-api.xfyun.cn/v2/iat";
 
+    // 所有识别共用一个OkHttpClient，复用其连接和线程资源
+    private static final OkHttpClient client = HttpUtil.client;
+
     private String secretId;
     private String secretKey;
     private String appId;
 
-    public XfyunSttService(SysConfig config) {
+    private SttConnectionPool<XfyunConnection> connectionPool;
+
+    public XfyunSttService(SysConfig config, SttConnectionManager connectionManager) {
         if (config != null) {
             this.secretId = config.getApiKey();
             this.secretKey = config.getApiSecret();
             this.appId = config.getAppId();
+            this.connectionPool = connectionManager.pool(config, new SttConnectionPool.Connector<>() {
+                @Override
+                public XfyunConnection connect() throws Exception {
+                    return openConnection();
+                }
+
+                @Override
+                public boolean isUsable(XfyunConnection connection) {
+                    return !connection.broken;
+                }
+
+                @Override
+                public void close(XfyunConnection connection) {
+                    connection.webSocket.close(1000, "idle");
+                }
+            });
+        }
+    }
+
+    /**
+     * 预先建立的识别连接
+     * 握手完成后才交给识别使用，之后的回调转发给当前识别的监听器
+     */
+    private static class XfyunConnection extends WebSocketListener {
+        private final CompletableFuture<Void> opened = new CompletableFuture<>();
+        private volatile WebSocketListener target;
+        private volatile boolean broken = false;
+        private WebSocket webSocket;
+
+        void attach(WebSocketListener listener) {
+            target = listener;
+            if (broken) {
+                listener.onFailure(webSocket, new IOException("连接已断开"), null);
+            }
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            opened.complete(null);
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            WebSocketListener listener = target;
+            if (listener != null) {
+                listener.onMessage(webSocket, text);
+            }
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            broken = true;
+            opened.completeExceptionally(t);
+            WebSocketListener listener = target;
+            if (listener != null) {
+                listener.onFailure(webSocket, t, response);
+            }
+        }
+
+        @Override
+        public void onClosed(WebSocket webSocket, int code, String reason) {
+            broken = true;
+            opened.completeExceptionally(new IOException("连接已关闭: " + reason));
+            WebSocketListener listener = target;
+            if (listener != null) {
+                listener.onClosed(webSocket, code, reason);
+            }
         }
     }
 
+    /**
+     * 建立并完成鉴权的识别连接
+     */
+    private XfyunConnection openConnection() throws Exception {
+        String wsUrl = getAuthUrl(secretId, secretKey).replace("http://", "ws://")
+                .replace("https://", "wss://");
+        XfyunConnection connection = new XfyunConnection();
+        connection.webSocket = client.newWebSocket(new Request.Builder().url(wsUrl).build(), connection);
+        try {
+            connection.opened.get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            connection.webSocket.cancel();
+            throw e;
+        }
+        return connection;
+    }
+
     @Override
     public String getProviderName() {
         return PROVIDER_NAME;
@@ -216,19 +312,16 @@ public class XfyunSttService implements SttService {
             return null;
         }
 
-        // 构建鉴权URL
-        String authUrl;
+        // 取用预热好的连接，没有时现场建立
+        XfyunConnection connection;
         try {
-            authUrl = getAuthUrl(secretId, secretKey);
+            connection = connectionPool.acquire();
         } catch (Exception e) {
-            logger.error("构建鉴权URL时发生错误！", e);
+            logger.error("Ошибка при установлении соединения распознавания iFlytek!", e);
             return null;
         }
 
-        String wsUrl = authUrl.replace("http://", "ws://")
-                .replace("https://", "wss://");
-        OkHttpClient client = new OkHttpClient.Builder().build();
-        Request request = new Request.Builder().url(wsUrl).build();
+        WebSocket webSocket = connection.webSocket;
         AtomicInteger status = new AtomicInteger(StatusFirstFrame);
         AtomicReference<WebSocket> webSocketRef = new AtomicReference<>();
         BlockingQueue<JsonObject> frameQueue = new LinkedBlockingQueue<>();
@@ -237,49 +330,8 @@ public class XfyunSttService implements SttService {
         CountDownLatch recognitionLatch = new CountDownLatch(1);
         List<Text> resultSegments = new ArrayList<>();
 
-        WebSocket webSocket = client.newWebSocket(request, new WebSocketListener() {
-            @Override
-            public void onOpen(WebSocket webSocket, Response response) {
-                webSocketRef.set(webSocket);
-                isClosed.set(false);
-                Thread.startVirtualThread(() -> {
-                    // 使用 Flux 订阅音频流
-                    audioSink.asFlux()
-                            .subscribeOn(Schedulers.single())  // 保证顺序执行
-                            .subscribe(
-                                    chunk -> {
-                                        if (isClosed.get()) return;
-                                        try {
-                                            if (chunk == null || chunk.length == 0) {
-                                                logger.debug("audioSink 数据为空，主动结束流");
-                                                frameQueue.offer(buildContinueFrame(chunk, chunk.length));
-                                                return;
-                                            }
-                                            if ((status.compareAndSet(StatusFirstFrame, StatusContinueFrame))) {
-                                                logger.debug("xfyun开始发送音频首帧");
-                                                frameQueue.offer(buildFirstFrame(chunk, chunk.length));
-                                            } else {
-                                                // logger.debug("xfyun继续发送音频帧");
-                                                frameQueue.offer(buildContinueFrame(chunk, chunk.length));
-                                            }
-                                        } catch (Exception e) {
-                                            logger.error("发送音频帧失败", e);
-                                        }
-                                    },
-                                    error -> {
-                                        logger.error("音频流错误", error);
-                                    },
-                                    () -> {
-                                        if (isClosed.get()) return;
-                                        // 流结束，发送最后一帧
-                                        logger.debug("audioSink结束发送结束通知");
-                                        JsonObject frame = buildLastFrame();
-                                        webSocket.send(frame.toString());
-                                    }
-                            );
-                });
-            }
-
+        webSocketRef.set(webSocket);
+        connection.attach(new WebSocketListener() {
             @Override
             public void onMessage(WebSocket webSocket, String text) {
                 if (isClosed.get()) return;
@@ -324,6 +376,44 @@ public class XfyunSttService implements SttService {
             }
         });
 
+        // 连接已就绪，订阅音频流开始发送
+        Thread.startVirtualThread(() -> {
+            // 使用 Flux 订阅音频流
+            audioSink.asFlux()
+                    .subscribeOn(Schedulers.single())  // 保证顺序执行
+                    .subscribe(
+                            chunk -> {
+                                if (isClosed.get()) return;
+                                try {
+                                    if (chunk == null || chunk.length == 0) {
+                                        logger.debug("audioSink 数据为空，主动结束流");
+                                        frameQueue.offer(buildContinueFrame(chunk, chunk.length));
+                                        return;
+                                    }
+                                    if ((status.compareAndSet(StatusFirstFrame, StatusContinueFrame))) {
+                                        logger.debug("xfyun开始发送音频首帧");
+                                        frameQueue.offer(buildFirstFrame(chunk, chunk.length));
+                                    } else {
+                                        // logger.debug("xfyun继续发送音频帧");
+                                        frameQueue.offer(buildContinueFrame(chunk, chunk.length));
+                                    }
+                                } catch (Exception e) {
+                                    logger.error("发送音频帧失败", e);
+                                }
+                            },
+                            error -> {
+                                logger.error("音频流错误", error);
+                            },
+                            () -> {
+                                if (isClosed.get()) return;
+                                // 流结束，发送最后一帧
+                                logger.debug("audioSink结束发送结束通知");
+                                JsonObject frame = buildLastFrame();
+                                webSocket.send(frame.toString());
+                            }
+                    );
+        });
+
         // 发送帧线程
         Thread sendThread = new Thread(() -> {
             while (!isClosed.get()) {
@@ -1,5 +1,8 @@
 package com.xiaozhi.dialogue.tts;
 
+import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.CancellationToken;
+
 import java.util.UUID;
 import java.util.function.Consumer;
 
@@ -30,29 +33,68 @@ public interface TtsService {
   }
 
   /**
-   * 
+   * 是否支持流式合成，支持时可以通过 streamTextToSpeech 边合成边播放
    */
   default boolean isSupportStreamTts() {
     return false;
   }
 
   /**
-   * 将文本转换为语音（带自定义语音）
+   * 将文本转换为语音，结果只保存在内存中，不落盘
+   *
+   * @param text 要转换为语音的文本
+   * @return 16kHz单声道16位PCM数据
+   */
+  byte[] textToPcm(String text) throws Exception;
+
+  /**
+   * 可取消的合成，取消时中断合成线程，阻塞中的HTTP/WebSocket请求随之关闭
+   * 提供方可以覆盖此方法，直接取消自己的请求
+   *
+   * @param token 对话的取消令牌
+   * @throws java.util.concurrent.CancellationException 合成前或合成过程中已取消
+   */
+  default byte[] textToPcm(String text, CancellationToken token) throws Exception {
+    return token.interruptOnCancel(() -> textToPcm(text));
+  }
+
+  /**
+   * 将文本转换为语音并保存为WAV文件，用于需要文件的场景（试听、验证码提示音等）
    * 
    * @param text 要转换为语音的文本
    * @return 生成的音频文件路径
    */
-  String textToSpeech(String text) throws Exception;
+  default String textToSpeech(String text) throws Exception {
+    byte[] pcm = textToPcm(text);
+    if (pcm == null || pcm.length == 0) {
+      return null;
+    }
+    return AudioUtils.AUDIO_PATH + AudioUtils.saveAsWav(pcm);
+  }
 
   /**
-   * 流式将文本转换为语音
+   * 流式将文本转换为语音，阻塞直到合成结束
    * 
    * @param text              要转换为语音的文本
-   * @param audioDataConsumer 音频数据消费者，接收PCM格式的音频数据块
+   * @param audioDataConsumer 音频数据消费者，按顺序接收16kHz单声道16位PCM数据块
    * @throws Exception 转换过程中可能发生的异常
    */
   default void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
     throw new UnsupportedOperationException("Unimplemented method 'streamTextToSpeech'");
   }
 
+  /**
+   * 可取消的流式合成，取消时中断合成线程，已经收到的音频块不受影响
+   *
+   * @param token 对话的取消令牌
+   * @throws java.util.concurrent.CancellationException 合成前或合成过程中已取消
+   */
+  default void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer, CancellationToken token)
+      throws Exception {
+    token.interruptOnCancel(() -> {
+      streamTextToSpeech(text, audioDataConsumer);
+      return null;
+    });
+  }
+
 }
@@ -0,0 +1,190 @@
+package com.xiaozhi.dialogue.tts.cache;
+
+import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
+import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.entity.SysRole;
+import com.xiaozhi.service.SysConfigService;
+import com.xiaozhi.utils.OpusProcessor;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 系统提示语音库
+ * 告别语、激活验证码播报等固定或模板化的语句，按角色音色预先合成并编码为可直接发送的Opus帧，
+ * 保存角色时预热，或者首次使用时懒加载。验证码按数字逐个合成后拼接，任意验证码都不需要再调用TTS。
+ * 内存中的提示语独立于TtsCache的LRU，总大小超出上限时淘汰最久未用的音色提示语，再用到时从TtsCache或重新合成恢复；
+ * 同时写入TtsCache以便重启后从磁盘恢复。
+ */
+@Component
+public class PromptBank {
+    private static final Logger logger = LoggerFactory.getLogger(PromptBank.class);
+
+    public static final List<String> GOODBYE_MESSAGES = List.of(
+            "Похоже, я вам сейчас не нужен, я немного отдохну. Если понадоблюсь - позовите меня.",
+            "Вы, кажется, заняты другим делом, я отойду. Если понадоблюсь - позовите меня.",
+            "Тогда я не буду вам мешать. Если возникнут вопросы - зовите меня. Пока!",
+            "Похоже, у вас есть другие дела. Я уйду, если понадоблюсь - позовите меня.",
+            "Я заметил, что вы давно не говорили. Я пойду подзаряжусь, если понадоблюсь - позовите меня.",
+            "Вы, кажется, заняты. Я не буду вам мешать. Если понадоблюсь - позовите меня. Пока!",
+            "Тогда я не буду вам мешать. Если понадоблюсь - можете разбудить меня. Пока!",
+            "Я пойду немного отдохну. Если что-то понадобится - позовите меня. Пока!",
+            "Похоже, вы заняты другим делом. Я не буду вам мешать. Если понадоблюсь - позовите меня.",
+            "Тогда я отойду. Если понадоблюсь - позовите меня. Пока!",
+            "Я уйду ненадолго. Если понадоблюсь - позовите меня. Пока!",
+            "Я пойду немного отдохну. Если понадоблюсь - позовите меня. Пока!",
+            "Тогда я не буду вам мешать. Если понадоблюсь - позовите меня. Пока!",
+            "Похоже, у вас есть другие дела. Я уйду, если понадоблюсь - позовите меня.",
+            "Я заметил, что вы давно не говорили. Я пойду подзаряжусь, если понадоблюсь - разбудите меня.");
+
+    public static final String ACTIVATION_PREFIX = "请到设备管理页面添加设备，输入验证码";
+
+    public static final String NO_ROLE_MESSAGE = "设备未配置角色，请到角色配置页面完成配置后开始对话";
+
+    private static final String[] DIGITS = {"零", "一", "二", "三", "四", "五", "六", "七", "八", "九"};
+
+    // 默认TTS服务的音色由工厂决定，这里只用于区分缓存键
+    private static final String DEFAULT_VOICE_KEY = "default";
+
+    @Resource
+    private TtsServiceFactory ttsFactory;
+
+    @Resource
+    private TtsCache ttsCache;
+
+    @Resource
+    private OpusProcessor opusProcessor;
+
+    @Resource
+    private SysConfigService configService;
+
+    @Value("${tts.prompt.memory.max-bytes:16777216}")
+    private long memoryMaxBytes;
+
+    // 按访问顺序排列，超出上限时从最久未用的开始淘汰
+    private final LinkedHashMap<String, List<byte[]>> prompts = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes = 0;
+
+    // 已预热或正在预热的音色，true表示告别语都已渲染；发生淘汰后已预热的标记清除，下次连接时重新检查
+    private final Map<String, Boolean> preloadedVoices = new ConcurrentHashMap<>();
+
+    /**
+     * 只查询已经渲染好的提示语，不触发合成
+     *
+     * @param key TtsCache生成的缓存键
+     */
+    public List<byte[]> lookup(String key) {
+        synchronized (prompts) {
+            return prompts.get(key);
+        }
+    }
+
+    /**
+     * 获取指定音色下的提示语Opus帧，未渲染时同步合成
+     */
+    public List<byte[]> getFrames(SysConfig ttsConfig, String voiceName, Float pitch, Float speed, String text)
+            throws Exception {
+        TtsService ttsService = ttsFactory.getTtsService(ttsConfig, voiceName, pitch, speed);
+        return render(ttsService, ttsCache.createKey(ttsService, ttsConfig, voiceName, pitch, speed, text), text);
+    }
+
+    /**
+     * 使用默认TTS服务获取提示语Opus帧
+     */
+    public List<byte[]> getDefaultFrames(String text) throws Exception {
+        TtsService ttsService = ttsFactory.getDefaultTtsService();
+        return render(ttsService, ttsCache.createKey(ttsService, null, DEFAULT_VOICE_KEY, 1.0f, 1.0f, text), text);
+    }
+
+    /**
+     * 激活验证码播报：固定前缀加逐位数字拼接
+     */
+    public List<byte[]> getActivationCodeFrames(String code) throws Exception {
+        List<byte[]> frames = new ArrayList<>(getDefaultFrames(ACTIVATION_PREFIX));
+        for (char c : code.toCharArray()) {
+            if (c >= '0' && c <= '9') {
+                frames.addAll(getDefaultFrames(DIGITS[c - '0']));
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 异步预热角色音色下的告别语，在保存角色和设备连接时调用，同一音色已预热或正在预热时跳过
+     */
+    public void preload(SysRole role) {
+        if (role == null) {
+            return;
+        }
+        String voice = role.getTtsId() + ":" + role.getVoiceName() + ":" + role.getTtsPitch() + ":" + role.getTtsSpeed();
+        if (preloadedVoices.putIfAbsent(voice, false) != null) {
+            return;
+        }
+        Thread.startVirtualThread(() -> {
+            try {
+                SysConfig ttsConfig = role.getTtsId() != null ? configService.selectConfigById(role.getTtsId()) : null;
+                for (String message : GOODBYE_MESSAGES) {
+                    getFrames(ttsConfig, role.getVoiceName(), role.getTtsPitch(), role.getTtsSpeed(), message);
+                }
+                preloadedVoices.put(voice, true);
+                logger.info("Предварительный синтез системных фраз роли {} завершён", role.getRoleId());
+            } catch (Exception e) {
+                preloadedVoices.remove(voice);
+                logger.warn("Не удалось выполнить предварительный синтез системных фраз роли {}: {}", role.getRoleId(), e.getMessage());
+            }
+        });
+    }
+
+    private List<byte[]> render(TtsService ttsService, String key, String text) throws Exception {
+        List<byte[]> frames = lookup(key);
+        if (frames != null) {
+            return frames;
+        }
+        frames = ttsCache.get(key);
+        if (frames == null) {
+            byte[] pcm = ttsService.textToPcm(text);
+            if (pcm == null || pcm.length == 0) {
+                throw new IllegalStateException("提示语合成失败: " + text);
+            }
+            frames = List.copyOf(opusProcessor.pcmToStandaloneOpus(pcm));
+            ttsCache.putFrames(key, frames);
+        }
+        return store(key, frames);
+    }
+
+    /**
+     * 放入内存，同一个键已有时返回已有的；总大小超出上限时淘汰最久未用的提示语
+     */
+    private List<byte[]> store(String key, List<byte[]> frames) {
+        boolean evicted = false;
+        synchronized (prompts) {
+            List<byte[]> previous = prompts.get(key);
+            if (previous != null) {
+                return previous;
+            }
+            prompts.put(key, frames);
+            memoryBytes += TtsCache.sizeOf(frames);
+            Iterator<Map.Entry<String, List<byte[]>>> it = prompts.entrySet().iterator();
+            // 至少保留刚放入的这一条
+            while (memoryBytes > memoryMaxBytes && prompts.size() > 1 && it.hasNext()) {
+                memoryBytes -= TtsCache.sizeOf(it.next().getValue());
+                it.remove();
+                evicted = true;
+            }
+        }
+        if (evicted) {
+            preloadedVoices.values().removeIf(Boolean::booleanValue);
+        }
+        return frames;
+    }
+}
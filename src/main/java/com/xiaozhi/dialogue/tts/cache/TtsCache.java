@@ -0,0 +1,301 @@
+package com.xiaozhi.dialogue.tts.cache;
+
+import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 句子级TTS结果缓存
+ * 按提供商、配置ID、音色、音调、语速和规范化后的文本做内容寻址，缓存编码好的Opus帧。
+ * 内存中是按字节数限制的LRU，磁盘上按总大小限制、按最后访问时间淘汰，重启后仍然有效。
+ */
+@Component
+public class TtsCache {
+    private static final Logger logger = LoggerFactory.getLogger(TtsCache.class);
+
+    private static final String FILE_SUFFIX = ".opus";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // 每帧在内存中的额外开销估算（数组头+引用）
+    private static final int FRAME_OVERHEAD = 24;
+
+    @Value("${tts.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tts.cache.memory.max-bytes:33554432}")
+    private long memoryMaxBytes;
+
+    @Value("${tts.cache.disk.max-bytes:536870912}")
+    private long diskMaxBytes;
+
+    @Value("${tts.cache.disk.path:" + AudioUtils.AUDIO_PATH + "tts-cache/}")
+    private String diskPath;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // accessOrder=true，按访问顺序排列，头部是最久未使用的
+    private final LinkedHashMap<String, List<byte[]>> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes = 0;
+    private final AtomicLong diskBytes = new AtomicLong();
+    // 正在写入磁盘的键，同一个键同时只有一个写入
+    private final Set<String> writing = ConcurrentHashMap.newKeySet();
+
+    private Path cacheDir;
+    private Counter memoryHits;
+    private Counter diskHits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        memoryHits = counter("memory_hit");
+        diskHits = counter("disk_hit");
+        misses = counter("miss");
+        Gauge.builder("xiaozhi.tts.cache.memory.bytes", this, c -> c.memoryBytes)
+                .description("TTS缓存内存占用").register(meterRegistry);
+        Gauge.builder("xiaozhi.tts.cache.disk.bytes", diskBytes, AtomicLong::get)
+                .description("TTS缓存磁盘占用").register(meterRegistry);
+
+        if (!enabled) {
+            return;
+        }
+        cacheDir = Paths.get(diskPath);
+        try {
+            Files.createDirectories(cacheDir);
+            // 上次退出时没写完的临时文件
+            try (Stream<Path> files = Files.list(cacheDir)) {
+                files.filter(p -> p.toString().endsWith(TEMP_SUFFIX)).forEach(this::deleteFile);
+            }
+            try (Stream<Path> files = Files.list(cacheDir)) {
+                diskBytes.set(files.filter(p -> p.toString().endsWith(FILE_SUFFIX))
+                        .mapToLong(p -> p.toFile().length())
+                        .sum());
+            }
+            logger.info("Кэш TTS включён, дисковый кэш: {}, занято {} байт", cacheDir.toAbsolutePath(), diskBytes.get());
+        } catch (IOException e) {
+            logger.warn("Каталог дискового кэша TTS недоступен, используется только кэш в памяти: {}", e.getMessage());
+            cacheDir = null;
+        }
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder("xiaozhi.tts.cache.requests")
+                .description("TTS缓存查询次数")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 生成缓存键
+     */
+    public String createKey(TtsService ttsService, SysConfig config, String voiceName, Float pitch, Float speed, String text) {
+        Integer configId = config != null && config.getConfigId() != null ? config.getConfigId() : -1;
+        String raw = ttsService.getProviderName() + ":" + configId + ":" + voiceName + ":" + pitch + ":" + speed
+                + ":" + normalize(text);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(raw.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 文本规范化：全角半角统一，合并空白
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).strip().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * 查询缓存，未命中返回null
+     */
+    public List<byte[]> get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (memory) {
+            List<byte[]> frames = memory.get(key);
+            if (frames != null) {
+                memoryHits.increment();
+                return frames;
+            }
+        }
+
+        List<byte[]> frames = readFromDisk(key);
+        if (frames != null) {
+            diskHits.increment();
+            putMemory(key, frames);
+            return frames;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 放入已编码好的Opus帧，调用方复用播放时编码的帧，不在这里重新编码
+     */
+    public void putFrames(String key, List<byte[]> frames) {
+        if (!enabled || frames == null || frames.isEmpty()) {
+            return;
+        }
+        List<byte[]> copy = List.copyOf(frames);
+        putMemory(key, copy);
+        Thread.startVirtualThread(() -> writeToDisk(key, copy));
+    }
+
+    private void putMemory(String key, List<byte[]> frames) {
+        long size = sizeOf(frames);
+        if (size > memoryMaxBytes) {
+            return;
+        }
+        synchronized (memory) {
+            List<byte[]> previous = memory.put(key, frames);
+            if (previous != null) {
+                memoryBytes -= sizeOf(previous);
+            }
+            memoryBytes += size;
+            Iterator<Map.Entry<String, List<byte[]>>> it = memory.entrySet().iterator();
+            while (memoryBytes > memoryMaxBytes && it.hasNext()) {
+                memoryBytes -= sizeOf(it.next().getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 一组Opus帧的内存占用估计，包含每个数组的对象头
+     */
+    static long sizeOf(List<byte[]> frames) {
+        long size = 0;
+        for (byte[] frame : frames) {
+            size += frame.length + FRAME_OVERHEAD;
+        }
+        return size;
+    }
+
+    private List<byte[]> readFromDisk(String key) {
+        if (cacheDir == null) {
+            return null;
+        }
+        Path file = cacheDir.resolve(key + FILE_SUFFIX);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            List<byte[]> frames = new ArrayList<>();
+            while (in.available() > 0) {
+                byte[] frame = new byte[in.readUnsignedShort()];
+                in.readFully(frame);
+                frames.add(frame);
+            }
+            // 更新访问时间，磁盘淘汰按最后访问时间进行
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return List.copyOf(frames);
+        } catch (IOException e) {
+            logger.warn("Не удалось прочитать файл кэша TTS, файл удалён: {}", file, e);
+            deleteFile(file);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, List<byte[]> frames) {
+        if (cacheDir == null) {
+            return;
+        }
+        Path file = cacheDir.resolve(key + FILE_SUFFIX);
+        if (!writing.add(key)) {
+            return;
+        }
+        Path tmp = null;
+        try {
+            if (Files.exists(file)) {
+                return;
+            }
+            // 每次写入使用独立的临时文件，先写临时文件再改名，避免读到写了一半的文件
+            tmp = Files.createTempFile(cacheDir, key + ".", TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                for (byte[] frame : frames) {
+                    out.writeShort(frame.length);
+                    out.write(frame);
+                }
+            }
+            long size = Files.size(tmp);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            // 改名成功后才计入占用
+            if (diskBytes.addAndGet(size) > diskMaxBytes) {
+                evictDisk();
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось записать файл кэша TTS: {}", file, e);
+        } finally {
+            if (tmp != null) {
+                deleteFile(tmp);
+            }
+            writing.remove(key);
+        }
+    }
+
+    /**
+     * 磁盘超过上限时，按最后访问时间删除最旧的文件，直到降到上限的90%
+     */
+    private synchronized void evictDisk() {
+        if (diskBytes.get() <= diskMaxBytes) {
+            return;
+        }
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            List<Path> files = stream.filter(p -> p.toString().endsWith(FILE_SUFFIX))
+                    .sorted(Comparator.comparingLong(p -> p.toFile().lastModified()))
+                    .toList();
+            long target = diskMaxBytes * 9 / 10;
+            for (Path file : files) {
+                if (diskBytes.get() <= target) {
+                    break;
+                }
+                deleteFile(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось очистить дисковый кэш TTS: {}", e.getMessage());
+        }
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            long size = Files.exists(file) ? Files.size(file) : 0;
+            if (Files.deleteIfExists(file) && file.toString().endsWith(FILE_SUFFIX)) {
+                diskBytes.addAndGet(-size);
+            }
+        } catch (IOException e) {
+            logger.debug("Не удалось удалить файл кэша TTS: {}", file, e);
+        }
+    }
+}
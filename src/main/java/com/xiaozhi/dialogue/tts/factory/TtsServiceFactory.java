@@ -21,7 +21,7 @@ public class TtsServiceFactory {
     // 缓存已初始化的服务：键为"provider:configId:voiceName"格式，确保音色变化时创建新实例
     private final Map<String, TtsService> serviceCache = new ConcurrentHashMap<>();
 
-    // 语音生成文件保存地址
+    // 语音生成临时文件保存地址
     private static final String OUTPUT_PATH = "audio/";
 
     // 默认服务提供商名称
@@ -73,17 +73,17 @@ public class TtsServiceFactory {
      * 根据配置创建API类型的TTS服务（带pitch和speed参数）
      */
     private TtsService createApiService(SysConfig config, String voiceName, Float pitch, Float speed) {
-        // Make sure output dir exists
+        // Edge TTS仍需要临时目录，其余服务的合成结果只保存在内存中
         String outputPath = OUTPUT_PATH;
         ensureOutputPath(outputPath);
 
         return switch (config.getProvider()) {
-            case "aliyun" -> new AliyunTtsService(config, voiceName, pitch, speed, outputPath);
-            case "volcengine" -> new VolcengineTtsService(config, voiceName, pitch, speed, outputPath);
-            case "xfyun" -> new XfyunTtsService(config, voiceName, pitch, speed, outputPath);
-            case "minimax" -> new MiniMaxTtsService(config, voiceName, pitch, speed, outputPath);
-            case "openai" -> new OpenAiTtsService(config, voiceName, speed, outputPath);
-            case "google" -> new GoogleTtsService(config, voiceName, pitch, speed, outputPath);
+            case "aliyun" -> new AliyunTtsService(config, voiceName, pitch, speed);
+            case "volcengine" -> new VolcengineTtsService(config, voiceName, pitch, speed);
+            case "xfyun" -> new XfyunTtsService(config, voiceName, pitch, speed);
+            case "minimax" -> new MiniMaxTtsService(config, voiceName, pitch, speed);
+            case "openai" -> new OpenAiTtsService(config, voiceName, speed);
+            case "google" -> new GoogleTtsService(config, voiceName, pitch, speed);
             default -> new EdgeTtsService(voiceName, pitch, speed, outputPath);
         };
     }
@@ -7,26 +7,29 @@ import com.alibaba.dashscope.aigc.multimodalconversation.MultiModalConversationR
 import com.alibaba.dashscope.audio.tts.SpeechSynthesisAudioFormat;
 import com.alibaba.dashscope.audio.tts.SpeechSynthesisParam;
 import com.alibaba.dashscope.audio.tts.SpeechSynthesizer;
+import com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisResult;
+import com.alibaba.dashscope.common.ResultCallback;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioCodec;
 import com.xiaozhi.utils.AudioUtils;
 
-import cn.hutool.core.util.StrUtil;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public class AliyunTtsService implements TtsService {
     private static final Logger logger = LoggerFactory.getLogger(AliyunTtsService.class);
@@ -38,6 +41,8 @@ public class AliyunTtsService implements TtsService {
     private static final long RETRY_DELAY_MS = 1000;
     // 添加TTS操作超时时间（秒）
     private static final long TTS_TIMEOUT_SECONDS = 5;
+    // 流式合成整体超时时间（秒）
+    private static final long STREAM_TIMEOUT_SECONDS = 60;
     
     // 使用共享的线程池，避免频繁创建和销毁
     private static final ExecutorService sharedExecutor = Executors.newCachedThreadPool();
@@ -45,19 +50,17 @@ public class AliyunTtsService implements TtsService {
     // 阿里云配置
     private final String apiKey;
     private final String voiceName;
-    private final String outputPath;
     
     // 语音参数
     private final Float pitch;
     private final Float speed;
 
     public AliyunTtsService(SysConfig config,
-            String voiceName, Float pitch, Float speed, String outputPath) {
+            String voiceName, Float pitch, Float speed) {
         this.apiKey = config.getApiKey();
         this.voiceName = voiceName;
         this.pitch = pitch;
         this.speed = speed;
-        this.outputPath = outputPath;
     }
 
     @Override
@@ -66,22 +69,87 @@ public class AliyunTtsService implements TtsService {
     }
 
     @Override
-    public String textToSpeech(String text) throws Exception {
+    public byte[] textToPcm(String text) throws Exception {
         try {
+            byte[] audio;
             if (voiceName.contains("sambert")) {
-                return ttsSambert(text);
+                audio = ttsSambert(text);
             } else if (getVoiceByName(voiceName) != null) {
-                return ttsQwen(text);
+                audio = ttsQwen(text);
             } else {
-                return ttsCosyvoice(text);
+                audio = ttsCosyvoice(text);
             }
+            return AudioCodec.decodeToPcm(audio);
         } catch (Exception e) {
             logger.error("语音合成aliyun -使用{}模型语音合成失败：", voiceName, e);
             throw new Exception("语音合成失败");
         }
     }
 
-    private String ttsQwen(String text) {
+    /**
+     * cosyvoice支持流式输出，sambert和qwen-tts仍使用整句合成
+     */
+    @Override
+    public boolean isSupportStreamTts() {
+        return !voiceName.contains("sambert") && getVoiceByName(voiceName) == null;
+    }
+
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam param =
+                com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam.builder()
+                        .apiKey(apiKey)
+                        .model("cosyvoice-v2")
+                        .voice(voiceName)
+                        .speechRate(speed)
+                        .pitchRate(pitch)
+                        .format(com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisAudioFormat.PCM_16000HZ_MONO_16BIT)
+                        .build();
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer synthesizer =
+                new com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer(param, new ResultCallback<SpeechSynthesisResult>() {
+                    @Override
+                    public void onEvent(SpeechSynthesisResult result) {
+                        ByteBuffer frame = result.getAudioFrame();
+                        if (frame != null && frame.hasRemaining()) {
+                            byte[] pcm = new byte[frame.remaining()];
+                            frame.get(pcm);
+                            audioDataConsumer.accept(pcm);
+                        }
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        done.complete(null);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        done.completeExceptionally(e);
+                    }
+                });
+        try {
+            // 传入回调时call不阻塞，音频通过onEvent逐块返回
+            synthesizer.call(text);
+            done.get(STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            // 对话被打断，finally中关闭连接，不再接收音频
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("流式语音合成已中断");
+        } catch (ExecutionException e) {
+            logger.error("Синтез речи aliyun - не удалось выполнить потоковый синтез моделью {}:", voiceName, e.getCause());
+            throw new Exception("语音合成失败", e.getCause());
+        } finally {
+            try {
+                synthesizer.getDuplexApi().close(1000, "bye");
+            } catch (Exception e) {
+                logger.debug("Не удалось закрыть соединение потокового синтеза: {}", e.getMessage());
+            }
+        }
+    }
+
+    private byte[] ttsQwen(String text) {
         int attempts = 0;
         while (attempts < MAX_RETRY_ATTEMPTS) {
             try {
@@ -109,7 +177,7 @@ public class AliyunTtsService implements TtsService {
                     attempts++;
                     if (attempts >= MAX_RETRY_ATTEMPTS) {
                         logger.error("语音合成aliyun - 使用{}模型多次超时，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                     // 等待一段时间后重试
                     TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
@@ -125,7 +193,7 @@ public class AliyunTtsService implements TtsService {
                     attempts++;
                     if (attempts >= MAX_RETRY_ATTEMPTS) {
                         logger.error("语音合成aliyun - 使用{}模型多次返回无效结果，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                     // 等待一段时间后重试
                     TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
@@ -133,27 +201,20 @@ public class AliyunTtsService implements TtsService {
                 }
                 
                 String audioUrl = result.getOutput().getAudio().getUrl();
-                String outPath = outputPath + getAudioFileName();
-                File file = new File(outPath);
                 
-                // 下载音频文件到本地，也使用共享线程池
-                Future<Boolean> downloadFuture = sharedExecutor.submit(() -> {
-                    try (InputStream in = new URL(audioUrl).openStream();
-                            FileOutputStream out = new FileOutputStream(file)) {
-                        byte[] buffer = new byte[1024];
-                        int bytesRead;
-                        while ((bytesRead = in.read(buffer)) != -1) {
-                            out.write(buffer, 0, bytesRead);
-                        }
-                        return true;
+                // 下载音频到内存，也使用共享线程池
+                Future<byte[]> downloadFuture = sharedExecutor.submit(() -> {
+                    try (InputStream in = new URL(audioUrl).openStream()) {
+                        return in.readAllBytes();
                     } catch (Exception e) {
-                        return false;
+                        return null;
                     }
                 });
                 
+                byte[] audioData;
                 try {
-                    Boolean downloadSuccess = downloadFuture.get(TTS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-                    if (!downloadSuccess) {
+                    audioData = downloadFuture.get(TTS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    if (audioData == null) {
                         throw new IOException("下载音频文件失败");
                     }
                 } catch (TimeoutException e) {
@@ -162,14 +223,14 @@ public class AliyunTtsService implements TtsService {
                     attempts++;
                     if (attempts >= MAX_RETRY_ATTEMPTS) {
                         logger.error("语音合成aliyun - 使用{}模型多次下载超时，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                     // 等待一段时间后重试
                     TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
                     continue;
                 }
                 
-                return outPath;
+                return audioData;
             } catch (Exception e) {
                 attempts++;
                 if (attempts < MAX_RETRY_ATTEMPTS) {
@@ -180,15 +241,15 @@ public class AliyunTtsService implements TtsService {
                     } catch (InterruptedException ie) {
                         Thread.currentThread().interrupt();
                         logger.error("重试等待被中断", ie);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                 } else {
                     logger.error("语音合成aliyun - 使用{}模型语音合成失败，已达到最大重试次数：", voiceName, e);
-                    return StrUtil.EMPTY;
+                    return null;
                 }
             }
         }
-        return StrUtil.EMPTY;
+        return null;
     }
 
     private AudioParameters.Voice getVoiceByName(String voiceName) {
@@ -207,7 +268,7 @@ public class AliyunTtsService implements TtsService {
     }
 
     // cosyvoice默认并发只有3个，所以需要增加一个重试机制
-    private String ttsCosyvoice(String text) {
+    private byte[] ttsCosyvoice(String text) {
         int attempts = 0;
         while (attempts < MAX_RETRY_ATTEMPTS) {
             try {
@@ -238,7 +299,7 @@ public class AliyunTtsService implements TtsService {
                     attempts++;
                     if (attempts >= MAX_RETRY_ATTEMPTS) {
                         logger.error("语音合成aliyun - 使用{}模型多次超时，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                     // 等待一段时间后重试
                     TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
@@ -255,19 +316,11 @@ public class AliyunTtsService implements TtsService {
                         continue;
                     } else {
                         logger.error("语音合成aliyun - 使用{}模型多次返回null，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                 }
                 
-                String outPath = outputPath + getAudioFileName();
-                File file = new File(outPath);
-                try (FileOutputStream fos = new FileOutputStream(file)) {
-                    fos.write(audio.array());
-                } catch (IOException e) {
-                    logger.error("语音合成aliyun -使用{}模型语音合成失败：", voiceName, e);
-                    return StrUtil.EMPTY;
-                }
-                return outPath;
+                return audio.array();
             } catch (Exception e) {
                 attempts++;
                 if (attempts < MAX_RETRY_ATTEMPTS) {
@@ -278,18 +331,18 @@ public class AliyunTtsService implements TtsService {
                     } catch (InterruptedException ie) {
                         Thread.currentThread().interrupt();
                         logger.error("重试等待被中断", ie);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                 } else {
                     logger.error("语音合成aliyun -使用{}模型语音合成失败，已达到最大重试次数：", voiceName, e);
-                    return StrUtil.EMPTY;
+                    return null;
                 }
             }
         }
-        return StrUtil.EMPTY;
+        return null;
     }
 
-    public String ttsSambert(String text) {
+    public byte[] ttsSambert(String text) {
         int attempts = 0;
         while (attempts < MAX_RETRY_ATTEMPTS) {
             try {
@@ -319,7 +372,7 @@ public class AliyunTtsService implements TtsService {
                     attempts++;
                     if (attempts >= MAX_RETRY_ATTEMPTS) {
                         logger.error("语音合成aliyun - 使用{}模型多次超时，放弃重试，文本：{}", voiceName, text);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                     // 等待一段时间后重试
                     TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
@@ -336,19 +389,11 @@ public class AliyunTtsService implements TtsService {
                         continue;
                     } else {
                         logger.error("语音合成aliyun - 使用{}模型多次返回null，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                 }
                 
-                String outPath = outputPath + getAudioFileName();
-                File file = new File(outPath);
-                try (FileOutputStream fos = new FileOutputStream(file)) {
-                    fos.write(audio.array());
-                } catch (IOException e) {
-                    logger.error("语音合成aliyun - 使用{}模型失败：", voiceName, e);
-                    return StrUtil.EMPTY;
-                }
-                return outPath;
+                return audio.array();
             } catch (Exception e) {
                 attempts++;
                 if (attempts < MAX_RETRY_ATTEMPTS) {
@@ -359,15 +404,15 @@ public class AliyunTtsService implements TtsService {
                     } catch (InterruptedException ie) {
                         Thread.currentThread().interrupt();
                         logger.error("重试等待被中断", ie);
-                        return StrUtil.EMPTY;
+                        return null;
                     }
                 } else {
                     logger.error("语音合成aliyun - 使用{}模型失败，已达到最大重试次数：", voiceName, e);
-                    return StrUtil.EMPTY;
+                    return null;
                 }
             }
         }
-        return StrUtil.EMPTY;
+        return null;
     }
 
 }
\ No newline at end of file
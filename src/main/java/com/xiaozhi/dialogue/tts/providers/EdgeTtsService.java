@@ -5,6 +5,7 @@ import io.github.whitemagic2014.tts.TTSVoice;
 import io.github.whitemagic2014.tts.bean.Voice;
 
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.stream.Collectors;
 
@@ -12,7 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xiaozhi.dialogue.tts.TtsService;
-import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.AudioCodec;
 
 public class EdgeTtsService implements TtsService {
     private static final Logger logger = LoggerFactory.getLogger(EdgeTtsService.class);
@@ -49,7 +50,7 @@ public class EdgeTtsService implements TtsService {
     }
 
     @Override
-    public String textToSpeech(String text) throws Exception {
+    public byte[] textToPcm(String text) throws Exception {
         // 获取中文语音
         Voice voiceObj = TTSVoice.provides().stream()
                 .filter(v -> v.getShortName().equals(voiceName))
@@ -76,19 +77,13 @@ public class EdgeTtsService implements TtsService {
                 .formatMp3()
                 .trans();
 
-        String fullPath = outputPath + audioFilePath;
-
-        // 1. 将MP3转换为PCM (已经设置为16kHz采样率和单声道)
-        byte[] pcmData = AudioUtils.mp3ToPcm(fullPath);
-
-        // 2. 将PCM转换回WAV (使用AudioUtils中的设置：16kHz, 单声道, 160kbps)
-        String resampledFileName = AudioUtils.saveAsWav(pcmData);
-
-        // 3. 删除原始文件
-        Files.deleteIfExists(Paths.get(fullPath));
-
-        // 4. 返回重采样后的文件路径
-        return AudioUtils.AUDIO_PATH + resampledFileName;
+        // Edge TTS库只支持输出到文件，读回内存后立即删除
+        Path fullPath = Paths.get(outputPath, audioFilePath);
+        try {
+            return AudioCodec.decodeToPcm(fullPath);
+        } finally {
+            Files.deleteIfExists(fullPath);
+        }
     }
 
-}
\ No newline at end of file
+}
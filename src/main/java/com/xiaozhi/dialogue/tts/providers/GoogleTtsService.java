@@ -2,6 +2,7 @@ package com.xiaozhi.dialogue.tts.providers;
 
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioCodec;
 import com.xiaozhi.utils.HttpUtil;
 import com.xiaozhi.utils.JsonUtil;
 import lombok.AllArgsConstructor;
@@ -15,8 +16,6 @@ import okhttp3.RequestBody;
 import org.springframework.util.StringUtils;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.Base64;
 
 @Slf4j
@@ -28,20 +27,18 @@ public class GoogleTtsService implements TtsService {
     private final String apiKey;
     private final String apiUrl;
     private final String voiceName;
-    private final String outputPath;
     private final Float pitch;
     private final Float speed;
 
     private final OkHttpClient client = HttpUtil.client;
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
-    public GoogleTtsService(SysConfig config, String voiceName, Float pitch, Float speed, String outputPath) {
+    public GoogleTtsService(SysConfig config, String voiceName, Float pitch, Float speed) {
         this.apiKey = config.getApiKey();
         this.apiUrl = (StringUtils.hasText(config.getApiUrl()) ? config.getApiUrl() : DEFAULT_API_URL) + "?key=" + apiKey;
         this.voiceName = StringUtils.hasText(voiceName) ? voiceName : "ru-RU-Wavenet-A";
         this.pitch = pitch != null ? pitch : 1.0f;
         this.speed = speed != null ? speed : 1.0f;
-        this.outputPath = outputPath;
     }
 
     @Override
@@ -55,13 +52,11 @@ public class GoogleTtsService implements TtsService {
     }
 
     @Override
-    public String textToSpeech(String text) throws Exception {
-        var output = Paths.get(outputPath, getAudioFileName()).toString();
-        sendRequest(text, output);
-        return output;
+    public byte[] textToPcm(String text) throws Exception {
+        return AudioCodec.decodeToPcm(sendRequest(text));
     }
 
-    private void sendRequest(String text, String filepath) {
+    private byte[] sendRequest(String text) {
         var params = new GoogleTtsParams();
         params.setInput(new GoogleTtsParams.Input(text));
         
@@ -100,8 +95,7 @@ public class GoogleTtsService implements TtsService {
                 String responseBody = resp.body().string();
                 GoogleTtsResp googleTtsResp = JsonUtil.fromJson(responseBody, GoogleTtsResp.class);
                 if (googleTtsResp != null && googleTtsResp.getAudioContent() != null) {
-                    byte[] audioBytes = Base64.getDecoder().decode(googleTtsResp.getAudioContent());
-                    Files.write(Paths.get(filepath), audioBytes);
+                    return Base64.getDecoder().decode(googleTtsResp.getAudioContent());
                 } else {
                     log.error("Google TTS response error: {}", responseBody);
                     throw new RuntimeException("Google TTS response error");
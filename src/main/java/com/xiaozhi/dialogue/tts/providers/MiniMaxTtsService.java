@@ -5,6 +5,8 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioCodec;
+import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.HttpUtil;
 import com.xiaozhi.utils.JsonUtil;
 import lombok.Data;
@@ -14,11 +16,12 @@ import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okio.BufferedSource;
+import org.springframework.util.StringUtils;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.HexFormat;
+import java.util.function.Consumer;
 
 @Slf4j
 public class MiniMaxTtsService implements TtsService {
@@ -28,7 +31,6 @@ public class MiniMaxTtsService implements TtsService {
     private final String groupId;
     private final String apiKey;
 
-    private final String outputPath;
     private final String voiceName;
     
     // 语音参数
@@ -38,13 +40,12 @@ public class MiniMaxTtsService implements TtsService {
     private final OkHttpClient client = HttpUtil.client;
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
-    public MiniMaxTtsService(SysConfig config, String voiceName, Float pitch, Float speed, String outputPath) {
+    public MiniMaxTtsService(SysConfig config, String voiceName, Float pitch, Float speed) {
         this.groupId = config.getAppId();
         this.apiKey = config.getApiKey();
         this.voiceName = voiceName;
         this.pitch = pitch;
         this.speed = speed;
-        this.outputPath = outputPath;
     }
 
     @Override
@@ -58,13 +59,54 @@ public class MiniMaxTtsService implements TtsService {
     }
 
     @Override
-    public String textToSpeech(String text) throws Exception {
-        var output = Paths.get(outputPath, getAudioFileName()).toString();
-        sendRequest(text, output);
-        return output;
+    public byte[] textToPcm(String text) throws Exception {
+        return AudioCodec.decodeToPcm(sendRequest(text));
     }
 
-    private void sendRequest(String text, String filepath) {
+    @Override
+    public boolean isSupportStreamTts() {
+        return true;
+    }
+
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        var params = buildParams(text);
+        // 流式输出16kHz裸PCM，通过SSE逐块返回
+        params.setStream(true);
+        params.audioSetting.setFormat("pcm");
+        params.audioSetting.setSampleRate(AudioUtils.SAMPLE_RATE);
+
+        try (var resp = client.newCall(buildRequest(params)).execute()) {
+            if (!resp.isSuccessful() || resp.body() == null) {
+                String errorMsg = resp.body() != null ? resp.body().string() : "Empty response";
+                log.error("TTS请求失败 {}", errorMsg);
+                throw new IOException("TTS请求失败: " + errorMsg);
+            }
+            BufferedSource source = resp.body().source();
+            while (!source.exhausted()) {
+                String line = source.readUtf8Line();
+                if (line == null) {
+                    break;
+                }
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                var chunk = JsonUtil.fromJson(line.substring(5).trim(), Text2AudioResp.class);
+                if (chunk == null) {
+                    continue;
+                }
+                if (chunk.baseResp != null && chunk.baseResp.statusCode != 0) {
+                    throw new IOException("TTS失败 %d:%s".formatted(chunk.baseResp.statusCode, chunk.baseResp.statusMsg));
+                }
+                // status=2 的最后一条消息携带的是完整音频，前面的分块已经播放过，跳过
+                if (chunk.data != null && chunk.data.status() == 1 && StringUtils.hasText(chunk.data.audio())) {
+                    audioDataConsumer.accept(HexFormat.of().parseHex(chunk.data.audio()));
+                }
+            }
+        }
+    }
+
+    private Text2AudioParams buildParams(String text) {
         // 创建请求参数
         var params = new Text2AudioParams(voiceName, text);
         
@@ -77,26 +119,33 @@ public class MiniMaxTtsService implements TtsService {
         // 确保值在有效范围内
         minimaxPitch = Math.max(-12, Math.min(12, minimaxPitch));
         params.voiceSetting.setPitch(minimaxPitch);
-        
-        var request = new Request.Builder()
+        return params;
+    }
+
+    private Request buildRequest(Text2AudioParams params) {
+        return new Request.Builder()
                 .url("https://api.minimaxi.com/v1/t2a_v2?Groupid=%s".formatted(groupId))
                 .addHeader("Content-Type", "application/json")
                 .addHeader("Authorization", "Bearer %s".formatted(apiKey)) // 添加Authorization头
                 .post(RequestBody.create(JsonUtil.toJson(params), JSON))
                 .build();
+    }
+
+    private byte[] sendRequest(String text) {
+        var params = buildParams(text);
 
-        try (var resp = client.newCall(request).execute()) {
+        try (var resp = client.newCall(buildRequest(params)).execute()) {
             if (resp.isSuccessful()) {
                 var respBody = JsonUtil.fromJson(resp.body().string(), Text2AudioResp.class);
                 if (respBody.baseResp.statusCode == 0) {
-                    var bytes = HexFormat.of().parseHex(respBody.data.audio);
-                    Files.write(Paths.get(filepath), bytes);
+                    return HexFormat.of().parseHex(respBody.data.audio);
                 } else {
                     log.error("TTS失败 {}:{}", respBody.baseResp.statusCode, respBody.baseResp.statusMsg);
                 }
             } else {
                 log.error("TTS请求失败 {}", resp.body().string());
             }
+            return null;
         } catch (IOException e) {
             log.error("发送TTS请求时发生错误", e);
             throw new RuntimeException("发送TTS请求失败", e);
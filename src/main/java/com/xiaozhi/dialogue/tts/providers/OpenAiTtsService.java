@@ -2,8 +2,11 @@ package com.xiaozhi.dialogue.tts.providers;
 
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioCodec;
+import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.HttpUtil;
 import com.xiaozhi.utils.JsonUtil;
+import com.xiaozhi.utils.PcmResampler;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.MediaType;
@@ -13,8 +16,8 @@ import okhttp3.RequestBody;
 import org.springframework.util.StringUtils;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.util.function.Consumer;
 
 @Slf4j
 public class OpenAiTtsService implements TtsService {
@@ -26,19 +29,21 @@ public class OpenAiTtsService implements TtsService {
     private final String apiUrl;
     private final String model;
     private final String voice;
-    private final String outputPath;
     private final Float speed;
 
     private final OkHttpClient client = HttpUtil.client;
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    // 流式pcm输出的采样率
+    private static final int STREAM_SAMPLE_RATE = 24000;
+    // 流式读取缓冲区，约100ms的24kHz音频
+    private static final int STREAM_BUFFER_SIZE = 4800;
 
-    public OpenAiTtsService(SysConfig config, String voice, Float speed, String outputPath) {
+    public OpenAiTtsService(SysConfig config, String voice, Float speed) {
         this.apiKey = config.getApiKey();
         this.apiUrl = StringUtils.hasText(config.getApiUrl()) ? config.getApiUrl() : DEFAULT_API_URL;
         this.model = StringUtils.hasText(config.getAppId()) ? config.getAppId() : "tts-1"; // Using appId as model name if provided
         this.voice = StringUtils.hasText(voice) ? voice : "alloy";
         this.speed = speed != null ? speed : 1.0f;
-        this.outputPath = outputPath;
     }
 
     @Override
@@ -52,25 +57,47 @@ public class OpenAiTtsService implements TtsService {
     }
 
     @Override
-    public String textToSpeech(String text) throws Exception {
-        var output = Paths.get(outputPath, getAudioFileName()).toString();
-        sendRequest(text, output);
-        return output;
+    public boolean isSupportStreamTts() {
+        return true;
     }
 
-    private void sendRequest(String text, String filepath) {
+    @Override
+    public byte[] textToPcm(String text) throws Exception {
+        return AudioCodec.decodeToPcm(sendRequest(text));
+    }
+
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
         var params = new OpenAiTtsParams(model, text, voice, speed);
-        
-        var request = new Request.Builder()
-                .url(apiUrl)
-                .addHeader("Content-Type", "application/json")
-                .addHeader("Authorization", "Bearer %s".formatted(apiKey))
-                .post(RequestBody.create(JsonUtil.toJson(params), JSON))
-                .build();
+        // pcm格式是24kHz单声道16位裸数据，分块传输，可以边收边播
+        params.setResponse_format("pcm");
 
-        try (var resp = client.newCall(request).execute()) {
+        try (var resp = client.newCall(buildRequest(params)).execute()) {
+            if (!resp.isSuccessful() || resp.body() == null) {
+                String errorMsg = resp.body() != null ? resp.body().string() : "Empty response";
+                log.error("OpenAI TTS failed: {}", errorMsg);
+                throw new IOException("OpenAI TTS failed: " + errorMsg);
+            }
+            var resampler = new PcmResampler(STREAM_SAMPLE_RATE, AudioUtils.SAMPLE_RATE);
+            try (InputStream in = resp.body().byteStream()) {
+                byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    byte[] pcm = resampler.process(buffer, 0, bytesRead);
+                    if (pcm.length > 0) {
+                        audioDataConsumer.accept(pcm);
+                    }
+                }
+            }
+        }
+    }
+
+    private byte[] sendRequest(String text) {
+        var params = new OpenAiTtsParams(model, text, voice, speed);
+
+        try (var resp = client.newCall(buildRequest(params)).execute()) {
             if (resp.isSuccessful() && resp.body() != null) {
-                Files.write(Paths.get(filepath), resp.body().bytes());
+                return resp.body().bytes();
             } else {
                 String errorMsg = resp.body() != null ? resp.body().string() : "Empty response";
                 log.error("OpenAI TTS failed: {}", errorMsg);
@@ -82,6 +109,15 @@ public class OpenAiTtsService implements TtsService {
         }
     }
 
+    private Request buildRequest(OpenAiTtsParams params) {
+        return new Request.Builder()
+                .url(apiUrl)
+                .addHeader("Content-Type", "application/json")
+                .addHeader("Authorization", "Bearer %s".formatted(apiKey))
+                .post(RequestBody.create(JsonUtil.toJson(params), JSON))
+                .build();
+    }
+
     @Data
     public static class OpenAiTtsParams {
         private String model;
@@ -4,31 +4,49 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioCodec;
 import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.HttpUtil;
 
 import okhttp3.*;
+import okio.ByteString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class VolcengineTtsService implements TtsService {
     private static final Logger logger = LoggerFactory.getLogger(VolcengineTtsService.class);
 
     private static final String PROVIDER_NAME = "volcengine";
     private static final String API_URL = "https://openspeech.bytedance.com/api/v1/tts";
+    private static final String WS_API_URL = "wss://openspeech.bytedance.com/api/v1/tts/ws_binary";
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
+    // 二进制协议头：版本1、头长度4字节、完整客户端请求、JSON序列化、gzip压缩
+    private static final byte[] WS_REQUEST_HEADER = {0x11, 0x10, 0x11, 0x00};
+    private static final int MESSAGE_TYPE_AUDIO_ONLY_RESPONSE = 0b1011;
+    private static final int MESSAGE_TYPE_ERROR = 0b1111;
+    // 流式合成整体超时时间（秒）
+    private static final long STREAM_TIMEOUT_SECONDS = 60;
+
     // 音频名称
     private String voiceName;
 
-    // 音频输出路径
-    private String outputPath;
-
     // API相关
     private String appId;
     private String accessToken; // 对应 apiKey
@@ -39,11 +57,10 @@ public class VolcengineTtsService implements TtsService {
 
     private final OkHttpClient client = HttpUtil.client;
 
-    public VolcengineTtsService(SysConfig config, String voiceName, Float pitch, Float speed, String outputPath) {
+    public VolcengineTtsService(SysConfig config, String voiceName, Float pitch, Float speed) {
         this.voiceName = voiceName;
         this.pitch = pitch;
         this.speed = speed;
-        this.outputPath = outputPath;
         this.appId = config.getAppId();
         this.accessToken = config.getApiKey();
     }
@@ -54,22 +71,18 @@ public class VolcengineTtsService implements TtsService {
     }
 
     @Override
-    public String textToSpeech(String text) throws Exception {
+    public byte[] textToPcm(String text) throws Exception {
         if (text == null || text.isEmpty()) {
             logger.warn("文本内容为空！");
             return null;
         }
 
         try {
-            // 生成音频文件名
-            String audioFileName = getAudioFileName();
-            String audioFilePath = outputPath + audioFileName;
-
             // 发送POST请求
-            boolean success = sendRequest(text, audioFilePath);
+            byte[] audioData = sendRequest(text);
 
-            if (success) {
-                return audioFilePath;
+            if (audioData != null) {
+                return AudioCodec.decodeToPcm(audioData);
             } else {
                 throw new Exception("语音合成失败");
             }
@@ -79,45 +92,170 @@ public class VolcengineTtsService implements TtsService {
         }
     }
 
+    @Override
+    public boolean isSupportStreamTts() {
+        return true;
+    }
+
+    /**
+     * 通过WebSocket二进制协议流式合成，服务端逐块返回PCM
+     */
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        byte[] payload = gzip(buildRequestJson(text, "pcm", "submit").toString().getBytes(StandardCharsets.UTF_8));
+        ByteBuffer frame = ByteBuffer.allocate(WS_REQUEST_HEADER.length + 4 + payload.length);
+        frame.put(WS_REQUEST_HEADER).putInt(payload.length).put(payload);
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Request request = new Request.Builder()
+                .url(WS_API_URL)
+                .addHeader("Authorization", "Bearer; " + accessToken)
+                .build();
+        WebSocket webSocket = client.newWebSocket(request, new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.send(ByteString.of(frame.array()));
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, ByteString bytes) {
+                try {
+                    if (handleServerFrame(bytes.toByteArray(), audioDataConsumer)) {
+                        done.complete(null);
+                        webSocket.close(1000, null);
+                    }
+                } catch (Exception e) {
+                    done.completeExceptionally(e);
+                    webSocket.cancel();
+                }
+            }
+
+            @Override
+            public void onClosed(WebSocket webSocket, int code, String reason) {
+                done.complete(null);
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                done.completeExceptionally(t);
+            }
+        });
+
+        try {
+            done.get(STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            webSocket.cancel();
+            throw new IOException("流式语音合成超时", e);
+        } catch (InterruptedException e) {
+            // 对话被打断，立即断开连接，不再接收音频
+            webSocket.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("流式语音合成已中断");
+        } catch (ExecutionException e) {
+            logger.error("Не удалось выполнить потоковый синтез речи: {}", e.getCause().getMessage());
+            throw new IOException("流式语音合成失败", e.getCause());
+        }
+    }
+
+    /**
+     * 解析服务端二进制帧
+     *
+     * @return 是否是最后一帧
+     */
+    private boolean handleServerFrame(byte[] data, Consumer<byte[]> audioDataConsumer) throws IOException {
+        int headerSize = (data[0] & 0x0f) * 4;
+        int messageType = (data[1] & 0xff) >> 4;
+        int flags = data[1] & 0x0f;
+        int compression = data[2] & 0x0f;
+        ByteBuffer buffer = ByteBuffer.wrap(data, headerSize, data.length - headerSize);
+
+        if (messageType == MESSAGE_TYPE_AUDIO_ONLY_RESPONSE) {
+            if (flags == 0) {
+                // 无序号的确认帧，不含音频
+                return false;
+            }
+            int sequence = buffer.getInt();
+            int size = buffer.getInt();
+            if (size > 0) {
+                byte[] audio = new byte[size];
+                buffer.get(audio);
+                audioDataConsumer.accept(audio);
+            }
+            // 序号为负表示最后一帧
+            return sequence < 0;
+        } else if (messageType == MESSAGE_TYPE_ERROR) {
+            int code = buffer.getInt();
+            byte[] message = new byte[buffer.getInt()];
+            buffer.get(message);
+            if (compression == 1) {
+                message = gunzip(message);
+            }
+            throw new IOException("TTS请求返回错误: code=" + code + ", message=" + new String(message, StandardCharsets.UTF_8));
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    /**
+     * 构建请求参数
+     */
+    private JsonObject buildRequestJson(String text, String encoding, String operation) {
+        JsonObject requestJson = new JsonObject();
+
+        // app部分
+        JsonObject app = new JsonObject();
+        app.addProperty("appid", appId);
+        app.addProperty("token", accessToken);
+        app.addProperty("cluster", "volcano_tts");
+        requestJson.add("app", app);
+
+        // user部分
+        JsonObject user = new JsonObject();
+        user.addProperty("uid", UUID.randomUUID().toString());
+        requestJson.add("user", user);
+
+        // audio部分
+        JsonObject audio = new JsonObject();
+        audio.addProperty("voice_type", voiceName);
+        audio.addProperty("encoding", encoding);
+        audio.addProperty("speed_ratio", speed);
+        audio.addProperty("volume_ratio", 1.0);
+        audio.addProperty("pitch_ratio", pitch);
+        audio.addProperty("rate", AudioUtils.SAMPLE_RATE);
+        requestJson.add("audio", audio);
+
+        // request部分
+        JsonObject request_JsonObject = new JsonObject();
+        request_JsonObject.addProperty("reqid", UUID.randomUUID().toString());
+        request_JsonObject.addProperty("text", text);
+        request_JsonObject.addProperty("text_type", "plain");
+        request_JsonObject.addProperty("operation", operation);
+        request_JsonObject.addProperty("with_frontend", 1);
+        request_JsonObject.addProperty("frontend_type", "unitTson");
+        requestJson.add("request", request_JsonObject);
+        return requestJson;
+    }
+
     /**
      * 发送POST请求到火山引擎API，获取语音合成结果
      */
-    private boolean sendRequest(String text, String audioFilePath) throws Exception {
+    private byte[] sendRequest(String text) throws Exception {
         try {
             // 构建请求参数
-            JsonObject requestJson = new JsonObject();
-
-            // app部分
-            JsonObject app = new JsonObject();
-            app.addProperty("appid", appId);
-            app.addProperty("token", accessToken);
-            app.addProperty("cluster", "volcano_tts");
-            requestJson.add("app", app);
-
-            // user部分
-            JsonObject user = new JsonObject();
-            user.addProperty("uid", UUID.randomUUID().toString());
-            requestJson.add("user", user);
-
-            // audio部分
-            JsonObject audio = new JsonObject();
-            audio.addProperty("voice_type", voiceName);
-            audio.addProperty("encoding", "wav");
-            audio.addProperty("speed_ratio", speed);
-            audio.addProperty("volume_ratio", 1.0);
-            audio.addProperty("pitch_ratio", pitch);
-            audio.addProperty("rate", AudioUtils.SAMPLE_RATE);
-            requestJson.add("audio", audio);
-
-            // request部分
-            JsonObject request_JsonObject = new JsonObject();
-            request_JsonObject.addProperty("reqid", UUID.randomUUID().toString());
-            request_JsonObject.addProperty("text", text);
-            request_JsonObject.addProperty("text_type", "plain");
-            request_JsonObject.addProperty("operation", "query");
-            request_JsonObject.addProperty("with_frontend", 1);
-            request_JsonObject.addProperty("frontend_type", "unitTson");
-            requestJson.add("request", request_JsonObject);
+            JsonObject requestJson = buildRequestJson(text, "wav", "query");
 
             // 使用Bearer Token鉴权方式
             String bearerToken = "Bearer; " + accessToken; // 注意分号是火山引擎的特殊格式
@@ -136,7 +274,7 @@ public class VolcengineTtsService implements TtsService {
                 if (!response.isSuccessful()) {
                     String errorBody = response.body() != null ? response.body().string() : "无响应体";
                     logger.error("TTS请求失败: {} {}, 错误信息: {}, 原始内容: {}", response.code(), response.message(), errorBody, text);
-                    return false;
+                    return null;
                 }
 
                 // 解析响应
@@ -149,28 +287,20 @@ public class VolcengineTtsService implements TtsService {
                         logger.error("TTS请求返回错误: code={}, message={}",
                                 jsonResponse.get("code").getAsInt(),
                                 jsonResponse.get("message").getAsString());
-                        return false;
+                        return null;
                     }
 
                     // 获取音频数据
                     if (jsonResponse.has("data")) {
                         String base64Audio = jsonResponse.get("data").getAsString();
-                        byte[] audioData = Base64.getDecoder().decode(base64Audio);
-
-                        // 保存音频文件
-                        File audioFile = new File(audioFilePath);
-                        try (FileOutputStream fout = new FileOutputStream(audioFile)) {
-                            fout.write(audioData);
-                        }
-
-                        return true;
+                        return Base64.getDecoder().decode(base64Audio);
                     } else {
                         logger.error("TTS响应中未找到音频数据: {}", responseBody);
-                        return false;
+                        return null;
                     }
                 } else {
                     logger.error("TTS响应体为空");
-                    return false;
+                    return null;
                 }
             }
         } catch (Exception e) {
@@ -5,16 +5,15 @@ import cn.xfyun.model.response.TtsResponse;
 import cn.xfyun.service.tts.AbstractTtsWebSocketListener;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioCodec;
 import okhttp3.Response;
 import okhttp3.WebSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class XfyunTtsService implements TtsService {
     private static final Logger logger = LoggerFactory.getLogger(XfyunTtsService.class);
@@ -26,9 +25,6 @@ public class XfyunTtsService implements TtsService {
     // 音频名称
     private String voiceName;
 
-    // 音频输出路径
-    private String outputPath;
-
     // appid,apiKey,apiSecret是在开放平台控制台(https://console.xfyun.cn/)获得
     private String appId;
     private String apiKey;
@@ -38,11 +34,10 @@ public class XfyunTtsService implements TtsService {
     private Float pitch;
     private Float speed;
 
-    public XfyunTtsService(SysConfig config, String voiceName, Float pitch, Float speed, String outputPath) {
+    public XfyunTtsService(SysConfig config, String voiceName, Float pitch, Float speed) {
         this.voiceName = voiceName;
         this.pitch = pitch;
         this.speed = speed;
-        this.outputPath = outputPath;
         this.appId = config.getAppId();
         this.apiKey = config.getApiKey();
         this.apiSecret = config.getApiSecret();
@@ -59,22 +54,18 @@ public class XfyunTtsService implements TtsService {
     }
 
     @Override
-    public String textToSpeech(String text) throws Exception {
+    public byte[] textToPcm(String text) throws Exception {
         if (text == null || text.isEmpty()) {
             logger.warn("文本内容为空！");
             return null;
         }
 
         try {
-            // 生成音频文件名
-            String audioFileName = getAudioFileName();
-            String audioFilePath = outputPath + audioFileName;
-            File file = new File(audioFilePath);
             // 发送POST请求
-            boolean success = sendRequest(text, file);
+            byte[] audioData = sendRequest(text);
 
-            if (success) {
-                return audioFilePath;
+            if (audioData != null) {
+                return AudioCodec.decodeToPcm(audioData);
             } else {
                 throw new Exception("Синтез речи не удался");
             }
@@ -87,8 +78,9 @@ public class XfyunTtsService implements TtsService {
     /**
      * 发送POST请求到，获取语音合成结果
      */
-    private boolean sendRequest(String text, File file) throws Exception {
+    private byte[] sendRequest(String text) throws Exception {
         CountDownLatch recognitionLatch = new CountDownLatch(1);
+        AtomicReference<byte[]> result = new AtomicReference<>();
         try {
             // 将我们的参数（0.5-2.0）映射到讯飞的参数（0-100）
             // 讯飞规则：0对应0.5倍，100对应2倍
@@ -112,13 +104,7 @@ public class XfyunTtsService implements TtsService {
                 //返回格式为音频文件的二进制数组bytes
                 @Override
                 public void onSuccess(byte[] bytes) {
-                    try {
-                        FileOutputStream outputStream = new FileOutputStream(file);
-                        outputStream.write(bytes);
-                        outputStream.flush();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
+                    result.set(bytes);
                     recognitionLatch.countDown();
                 }
 
@@ -146,7 +132,7 @@ public class XfyunTtsService implements TtsService {
         if (!recognized) {
             logger.warn("讯飞云识别超时");
         }
-        return true;
+        return result.get();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.xiaozhi.dialogue.vad;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分块的音频存储，按固定大小的块追加数据，总量有上限
+ * 每次追加的数据记为一段（一帧），支持从尾部按段移除；
+ * 读取时直接返回各块的只读切片，不再拼接成一个大数组。
+ * clear后会换用新的块，之前取出的切片在之后的追加中保持不变。
+ */
+public class AudioChunkStore {
+    private final int chunkSize;
+    private final int capacity;
+    private List<byte[]> chunks = new ArrayList<>();
+    private int size = 0;
+    // 每段结束时的累计字节数
+    private int[] segmentEnds = new int[64];
+    private int segmentCount = 0;
+
+    /**
+     * @param chunkSize 每块字节数
+     * @param capacity 最多保存的字节数，超出后新数据被丢弃
+     */
+    public AudioChunkStore(int chunkSize, int capacity) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * 追加一段数据
+     *
+     * @return 超过容量没有保存时返回false
+     */
+    public boolean append(byte[] data) {
+        if (data == null || data.length == 0) {
+            return true;
+        }
+        if (size + data.length > capacity) {
+            return false;
+        }
+        int offset = 0;
+        while (offset < data.length) {
+            int chunkIndex = size / chunkSize;
+            int chunkOffset = size % chunkSize;
+            if (chunkIndex == chunks.size()) {
+                chunks.add(new byte[chunkSize]);
+            }
+            int length = Math.min(data.length - offset, chunkSize - chunkOffset);
+            System.arraycopy(data, offset, chunks.get(chunkIndex), chunkOffset, length);
+            offset += length;
+            size += length;
+        }
+        if (segmentCount == segmentEnds.length) {
+            segmentEnds = Arrays.copyOf(segmentEnds, segmentEnds.length * 2);
+        }
+        segmentEnds[segmentCount++] = size;
+        return true;
+    }
+
+    /**
+     * 从尾部移除若干段
+     */
+    public void removeLastSegments(int count) {
+        segmentCount = Math.max(0, segmentCount - count);
+        size = segmentCount == 0 ? 0 : segmentEnds[segmentCount - 1];
+    }
+
+    /**
+     * 按顺序返回所有数据的只读切片
+     */
+    public List<ByteBuffer> slices() {
+        List<ByteBuffer> slices = new ArrayList<>(chunks.size());
+        int remaining = size;
+        for (byte[] chunk : chunks) {
+            if (remaining <= 0) {
+                break;
+            }
+            int length = Math.min(remaining, chunkSize);
+            slices.add(ByteBuffer.wrap(chunk, 0, length).slice().asReadOnlyBuffer());
+            remaining -= length;
+        }
+        return slices;
+    }
+
+    /**
+     * 按段复制出数据，每段一个数组
+     */
+    public List<byte[]> segments() {
+        List<byte[]> segments = new ArrayList<>(segmentCount);
+        int start = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            byte[] segment = new byte[segmentEnds[i] - start];
+            int offset = 0;
+            while (offset < segment.length) {
+                int position = start + offset;
+                int length = Math.min(segment.length - offset, chunkSize - position % chunkSize);
+                System.arraycopy(chunks.get(position / chunkSize), position % chunkSize, segment, offset, length);
+                offset += length;
+            }
+            segments.add(segment);
+            start = segmentEnds[i];
+        }
+        return segments;
+    }
+
+    public void clear() {
+        // 换用新的块，已经交出去的切片不会被后续写入覆盖
+        chunks = new ArrayList<>();
+        size = 0;
+        segmentCount = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int segmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * 实际占用的内存字节数
+     */
+    public long retainedBytes() {
+        return (long) chunks.size() * chunkSize + (long) segmentEnds.length * Integer.BYTES;
+    }
+}
@@ -0,0 +1,63 @@
+package com.xiaozhi.dialogue.vad;
+
+/**
+ * 固定容量的字节环形缓冲区，写满后覆盖最旧的数据
+ * 用于保存语音开始前的预缓冲PCM，内存占用固定为容量大小。
+ */
+public class ByteRingBuffer {
+    private final byte[] buffer;
+    // 下一次写入的位置
+    private int head = 0;
+    private int size = 0;
+
+    public ByteRingBuffer(int capacity) {
+        this.buffer = new byte[Math.max(1, capacity)];
+    }
+
+    /**
+     * 写入数据，超过容量时只保留最新的部分
+     */
+    public void write(byte[] data, int offset, int length) {
+        if (length >= buffer.length) {
+            System.arraycopy(data, offset + length - buffer.length, buffer, 0, buffer.length);
+            head = 0;
+            size = buffer.length;
+            return;
+        }
+        int first = Math.min(length, buffer.length - head);
+        System.arraycopy(data, offset, buffer, head, first);
+        System.arraycopy(data, offset + first, buffer, 0, length - first);
+        head = (head + length) % buffer.length;
+        size = Math.min(buffer.length, size + length);
+    }
+
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * 按写入顺序取出全部数据并清空
+     */
+    public byte[] drain() {
+        byte[] result = new byte[size];
+        int start = (head - size + buffer.length) % buffer.length;
+        int first = Math.min(size, buffer.length - start);
+        System.arraycopy(buffer, start, result, 0, first);
+        System.arraycopy(buffer, 0, result, first, size - first);
+        clear();
+        return result;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,51 @@
+package com.xiaozhi.dialogue.vad;
+
+/**
+ * 固定容量的float环形缓冲区，只保留最近写入的若干个值
+ * 用于保存最近的VAD概率，避免List&lt;Float&gt;的装箱和移除头部元素的拷贝。
+ */
+public class FloatRingBuffer {
+    private final float[] values;
+    private int head = 0;
+    private int size = 0;
+
+    public FloatRingBuffer(int capacity) {
+        this.values = new float[Math.max(1, capacity)];
+    }
+
+    public void add(float value) {
+        values[head] = value;
+        head = (head + 1) % values.length;
+        size = Math.min(values.length, size + 1);
+    }
+
+    /**
+     * 最近写入的值，为空时返回0
+     */
+    public float last() {
+        return size == 0 ? 0.0f : values[(head - 1 + values.length) % values.length];
+    }
+
+    /**
+     * 第i个值，0为最旧的
+     */
+    public float get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        return values[(head - size + i + values.length) % values.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
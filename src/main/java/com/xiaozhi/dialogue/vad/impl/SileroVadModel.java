@@ -15,7 +15,11 @@ import com.xiaozhi.utils.AudioUtils;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -28,10 +32,27 @@ public class SileroVadModel implements VadModel {
     @Value("${vad.model.path:models/silero_vad.onnx}")
     private String modelPath;
 
+    // 批量推理时单次计算量变大，允许使用多个线程
+    @Value("${vad.model.threads:1}")
+    private int intraOpThreads = 1;
+
+    // 隐状态每层的大小，状态形状为 [2][batch][128]
+    public static final int STATE_SIZE = 128;
+
     private OrtEnvironment env;
     private OrtSession session;
-    private float[][][] state;
-    private float[][] context;
+    // 采样率输入是常量，创建一次后所有推理复用
+    private OnnxTensor srTensor;
+    private String outputName;
+    private String stateOutputName;
+    // 单窗口推理也走预分配的批量缓冲区，批大小为1，以下字段都由当前对象的监视器保护
+    private Batch single;
+    private final float[][] singleSamples = new float[1][];
+    private final float[][] singleStates = new float[1][];
+    // getSpeechProbability 使用的隐状态，长度 2*128
+    private final float[] state = new float[2 * STATE_SIZE];
+    // infer 时传入隐状态的展平副本
+    private final float[] inferState = new float[2 * STATE_SIZE];
     private final int windowSize = AudioUtils.BUFFER_SIZE; // 16kHz的窗口大小
 
     @PostConstruct
@@ -43,11 +64,15 @@ public class SileroVadModel implements VadModel {
             OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
             opts.setSessionLogLevel(OrtLoggingLevel.ORT_LOGGING_LEVEL_ERROR);
             opts.setInterOpNumThreads(1);
-            opts.setIntraOpNumThreads(1);
+            opts.setIntraOpNumThreads(Math.max(1, intraOpThreads));
             opts.addCPU(true);
 
             // 创建会话
             session = env.createSession(modelPath, opts);
+            srTensor = OnnxTensor.createTensor(env, new long[] { AudioUtils.SAMPLE_RATE });
+            Iterator<String> outputNames = session.getOutputNames().iterator();
+            outputName = outputNames.next();
+            stateOutputName = outputNames.next();
 
             // 初始化状态
             reset();
@@ -65,100 +90,81 @@ public class SileroVadModel implements VadModel {
 
     @Override
     public float getSpeechProbability(float[] samples) {
-        try {
-            if (samples.length != windowSize) {
-                throw new IllegalArgumentException("样本数量必须是" + windowSize);
-            }
-
-            // 准备输入数据
-            float[][] x = new float[][] { samples };
-
-            // 创建输入张量
-            OnnxTensor inputTensor = OnnxTensor.createTensor(env, x);
-            OnnxTensor stateTensor = OnnxTensor.createTensor(env, state);
-            OnnxTensor srTensor = OnnxTensor.createTensor(env, new long[] { AudioUtils.SAMPLE_RATE });
-
-            // 准备输入映射
-            Map<String, OnnxTensor> inputs = new HashMap<>();
-            inputs.put("input", inputTensor);
-            inputs.put("sr", srTensor);
-            inputs.put("state", stateTensor);
-
-            try {
-                // 运行模型
-                OrtSession.Result result = session.run(inputs);
-
-                // 获取输出
-                float[][] output = (float[][]) result.get(0).getValue();
-                state = (float[][][]) result.get(1).getValue();
-
-                // 更新上下文
-                context = x;
-
-                // 返回语音概率
-                return output[0][0];
-            } finally {
-                // 释放资源
-                inputTensor.close();
-                stateTensor.close();
-                srTensor.close();
-            }
-        } catch (OrtException e) {
-            logger.error("VAD模型推理失败", e);
-            return 0.0f;
+        synchronized (this) {
+            return runSingle(samples, state, 0.0f);
         }
     }
 
+    /**
+     * prevState 非空时原地更新并作为结果的隐状态返回
+     */
     @Override
     public InferenceResult infer(float[] samples, float[][][] prevState) {
-        try {
-            if (samples.length != windowSize) {
-                throw new IllegalArgumentException("样本数量必须是" + windowSize);
-            }
-
-            float[][] x = new float[][] { samples };
-
-            float[][][] localState = prevState;
-            if (localState == null) {
-                localState = new float[2][1][128];
+        float[][][] nextState = prevState != null ? prevState : new float[2][1][STATE_SIZE];
+        synchronized (this) {
+            System.arraycopy(nextState[0][0], 0, inferState, 0, STATE_SIZE);
+            System.arraycopy(nextState[1][0], 0, inferState, STATE_SIZE, STATE_SIZE);
+            float probability = runSingle(samples, inferState, Float.NaN);
+            if (Float.isNaN(probability)) {
+                return new InferenceResult(0.0f, prevState);
             }
+            System.arraycopy(inferState, 0, nextState[0][0], 0, STATE_SIZE);
+            System.arraycopy(inferState, STATE_SIZE, nextState[1][0], 0, STATE_SIZE);
+            return new InferenceResult(probability, nextState);
+        }
+    }
 
-            OnnxTensor inputTensor = OnnxTensor.createTensor(env, x);
-            OnnxTensor stateTensor = OnnxTensor.createTensor(env, localState);
-            OnnxTensor srTensor = OnnxTensor.createTensor(env, new long[] { AudioUtils.SAMPLE_RATE });
-
-            try {
-                OrtSession.Result result = session.run(Map.of(
-                        "input", inputTensor,
-                        "sr", srTensor,
-                        "state", stateTensor
-                ));
-
-                float[][] output = (float[][]) result.get(0).getValue();
-                float[][][] nextState = (float[][][]) result.get(1).getValue();
-
-                return new InferenceResult(output[0][0], nextState);
-            } finally {
-                inputTensor.close();
-                stateTensor.close();
-                srTensor.close();
-            }
+    /**
+     * 用批大小为1的预分配缓冲区推理一个窗口，隐状态原地更新，失败时返回 fallback 且状态不变。
+     * 调用方需持有当前对象的监视器
+     */
+    private float runSingle(float[] samples, float[] flatState, float fallback) {
+        if (samples.length != windowSize) {
+            throw new IllegalArgumentException("样本数量必须是" + windowSize);
+        }
+        if (single == null) {
+            single = new Batch(1);
+        }
+        singleSamples[0] = samples;
+        singleStates[0] = flatState;
+        try {
+            return single.run(singleSamples, singleStates, 1)[0];
         } catch (OrtException e) {
             logger.error("VAD模型推理失败", e);
-            return new InferenceResult(0.0f, prevState);
+            return fallback;
+        } finally {
+            singleSamples[0] = null;
+            singleStates[0] = null;
         }
     }
 
+    /**
+     * 创建批量推理的预分配缓冲区
+     *
+     * @param maxBatch 最大批大小
+     */
+    public Batch newBatch(int maxBatch) {
+        return new Batch(maxBatch);
+    }
+
     @Override
-    public void reset() {
-        state = new float[2][1][128];
-        context = new float[0][];
+    public synchronized void reset() {
+        Arrays.fill(state, 0.0f);
     }
 
     @PreDestroy
     @Override
     public void close() {
         try {
+            synchronized (this) {
+                if (single != null) {
+                    single.close();
+                    single = null;
+                }
+            }
+            if (srTensor != null) {
+                srTensor.close();
+            }
             if (session != null) {
                 session.close();
             }
@@ -167,4 +173,101 @@ public class SileroVadModel implements VadModel {
             logger.error("关闭VAD模型失败", e);
         }
     }
+
+    /**
+     * 批量推理的预分配缓冲区
+     * 输入、隐状态和输出都放在直接内存里，各批大小的张量首次用到时创建，之后一直复用，
+     * 输出通过固定输出张量直接写回缓冲区，推理过程中不再分配数组和张量。
+     * 非线程安全，同一时间只能由一个线程使用。
+     */
+    public class Batch implements AutoCloseable {
+        private final int maxBatch;
+        private final FloatBuffer input;
+        private final FloatBuffer state;
+        private final FloatBuffer output;
+        private final FloatBuffer stateOut;
+        private final float[] probabilities;
+        // 按批大小缓存的张量和输入输出映射，下标为批大小
+        private final OnnxTensor[][] tensors;
+        private final Map<String, OnnxTensor>[] inputs;
+        private final Map<String, OnnxTensor>[] outputs;
+
+        @SuppressWarnings("unchecked")
+        private Batch(int maxBatch) {
+            this.maxBatch = maxBatch;
+            this.input = allocate(maxBatch * windowSize);
+            this.state = allocate(2 * maxBatch * STATE_SIZE);
+            this.output = allocate(maxBatch);
+            this.stateOut = allocate(2 * maxBatch * STATE_SIZE);
+            this.probabilities = new float[maxBatch];
+            this.tensors = new OnnxTensor[maxBatch + 1][];
+            this.inputs = new Map[maxBatch + 1];
+            this.outputs = new Map[maxBatch + 1];
+        }
+
+        private FloatBuffer allocate(int floats) {
+            return ByteBuffer.allocateDirect(floats * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+
+        private FloatBuffer view(FloatBuffer buffer, int length) {
+            return buffer.duplicate().position(0).limit(length).slice();
+        }
+
+        private void prepare(int batch) throws OrtException {
+            if (tensors[batch] != null) {
+                return;
+            }
+            OnnxTensor inputTensor = OnnxTensor.createTensor(env, view(input, batch * windowSize),
+                    new long[] { batch, windowSize });
+            OnnxTensor stateTensor = OnnxTensor.createTensor(env, view(state, 2 * batch * STATE_SIZE),
+                    new long[] { 2, batch, STATE_SIZE });
+            OnnxTensor outputTensor = OnnxTensor.createTensor(env, view(output, batch),
+                    new long[] { batch, 1 });
+            OnnxTensor stateOutTensor = OnnxTensor.createTensor(env, view(stateOut, 2 * batch * STATE_SIZE),
+                    new long[] { 2, batch, STATE_SIZE });
+            inputs[batch] = Map.of("input", inputTensor, "sr", srTensor, "state", stateTensor);
+            outputs[batch] = Map.of(outputName, outputTensor, stateOutputName, stateOutTensor);
+            tensors[batch] = new OnnxTensor[] { inputTensor, stateTensor, outputTensor, stateOutTensor };
+        }
+
+        /**
+         * 对前 count 个窗口做一次推理，隐状态原地更新
+         *
+         * @param samples 每个窗口 512 个采样点
+         * @param states 每个会话的隐状态，长度 2*128，依次为两层的状态，推理成功后原地写入新状态
+         * @param count 本批窗口数
+         * @return 语音概率，数组会被下一次推理覆盖
+         */
+        public float[] run(float[][] samples, float[][] states, int count) throws OrtException {
+            if (count < 1 || count > maxBatch) {
+                throw new IllegalArgumentException("批大小必须在1到" + maxBatch + "之间");
+            }
+            prepare(count);
+            // 状态形状 [2][count][128]：第一层所有会话在前，第二层紧随其后
+            for (int b = 0; b < count; b++) {
+                input.put(b * windowSize, samples[b], 0, windowSize);
+                state.put(b * STATE_SIZE, states[b], 0, STATE_SIZE);
+                state.put((count + b) * STATE_SIZE, states[b], STATE_SIZE, STATE_SIZE);
+            }
+            try (OrtSession.Result ignored = session.run(inputs[count], outputs[count])) {
+                for (int b = 0; b < count; b++) {
+                    probabilities[b] = output.get(b);
+                    stateOut.get(b * STATE_SIZE, states[b], 0, STATE_SIZE);
+                    stateOut.get((count + b) * STATE_SIZE, states[b], STATE_SIZE, STATE_SIZE);
+                }
+            }
+            return probabilities;
+        }
+
+        @Override
+        public void close() {
+            for (OnnxTensor[] group : tensors) {
+                if (group != null) {
+                    for (OnnxTensor tensor : group) {
+                        tensor.close();
+                    }
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
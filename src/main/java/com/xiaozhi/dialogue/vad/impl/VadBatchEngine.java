@@ -0,0 +1,249 @@
+package com.xiaozhi.dialogue.vad.impl;
+
+import com.xiaozhi.utils.AudioUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 跨会话的VAD批量推理引擎
+ * 各会话提交的512采样窗口先进入队列，推理线程每攒够一批或等待超过最大等待时间，
+ * 就把所有待处理窗口（连同各自的Silero隐状态）合并为一个批量张量做一次推理，再把概率和新状态分发回调用方。
+ * 同一会话在VadService中串行处理，队列里每个会话最多只有一个窗口，批内各窗口互不影响。
+ * 每个会话持有一个可复用的槽位，输入窗口和隐状态都在槽位里原地更新，推理缓冲区由引擎预分配，
+ * 稳定运行时每个窗口几乎不产生内存分配。
+ */
+@Component
+public class VadBatchEngine {
+    private static final Logger logger = LoggerFactory.getLogger(VadBatchEngine.class);
+
+    // 等待推理的窗口队列容量，满了以后在调用方线程直接推理
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private final SileroVadModel vadModel;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<Slot> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean running = false;
+    private Thread worker;
+
+    // 推理缓冲区，同一时间只允许一个线程使用
+    private SileroVadModel.Batch batch;
+    // 推理线程攒批用
+    private final Slot[] pending;
+    // 队列满或未启用批量时在调用方线程推理用
+    private final Slot[] inline = new Slot[1];
+    private final float[][] samples;
+    private final float[][] states;
+
+    private DistributionSummary batchSizes;
+
+    public VadBatchEngine(SileroVadModel vadModel,
+                          MeterRegistry meterRegistry,
+                          @Value("${vad.batch.enabled:true}") boolean enabled,
+                          @Value("${vad.batch.size:32}") int maxBatchSize,
+                          @Value("${vad.batch.max-wait-ms:2}") long maxWaitMs) {
+        this.vadModel = vadModel;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.pending = new Slot[this.maxBatchSize];
+        this.samples = new float[this.maxBatchSize][];
+        this.states = new float[this.maxBatchSize][];
+    }
+
+    @PostConstruct
+    public void start() {
+        batchSizes = DistributionSummary.builder("xiaozhi.vad.batch.size")
+                .description("每次VAD推理合并的窗口数")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        batch = vadModel.newBatch(maxBatchSize);
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        worker = Thread.ofPlatform().daemon().name("vad-batch").start(this::run);
+        logger.info("Пакетный вывод VAD включён, размер пакета: {}, максимальное ожидание: {}ms", maxBatchSize,
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // 唤醒还在等待的调用方
+        Slot slot;
+        while ((slot = queue.poll()) != null) {
+            slot.complete(0.0f);
+        }
+        synchronized (this) {
+            if (batch != null) {
+                batch.close();
+                batch = null;
+            }
+        }
+    }
+
+    /**
+     * 为会话创建推理槽位
+     */
+    public Slot newSlot() {
+        return new Slot();
+    }
+
+    /**
+     * 推理槽位中的窗口，阻塞直到所在批次完成，槽位的隐状态原地更新
+     *
+     * @param slot 已经填好 512 个采样点的槽位
+     * @return 语音概率
+     */
+    public float infer(Slot slot) {
+        slot.done = false;
+        slot.waiter = Thread.currentThread();
+        slot.enqueuedNanos = System.nanoTime();
+        if (!running || !queue.offer(slot)) {
+            inferInline(slot);
+            return slot.probability;
+        }
+        boolean interrupted = false;
+        // 槽位已经交给推理线程，必须等它写回，否则隐状态可能被并发修改
+        while (!slot.done) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return slot.probability;
+    }
+
+    private synchronized void inferInline(Slot slot) {
+        inline[0] = slot;
+        process(inline, 1);
+    }
+
+    private void run() {
+        while (running) {
+            int count = 0;
+            try {
+                Slot first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                pending[count++] = first;
+                // 从第一个窗口入队开始计时，攒够一批或超时就推理
+                long deadline = first.enqueuedNanos + maxWaitNanos;
+                while (count < maxBatchSize) {
+                    Slot next = queue.poll();
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                    }
+                    pending[count++] = next;
+                }
+                synchronized (this) {
+                    process(pending, count);
+                }
+            } catch (InterruptedException e) {
+                for (int i = 0; i < count; i++) {
+                    pending[i].complete(0.0f);
+                }
+                if (!running) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 推理前 count 个槽位并唤醒调用方，调用方需持有引擎锁
+     */
+    private void process(Slot[] slots, int count) {
+        if (batch == null) {
+            for (int i = 0; i < count; i++) {
+                slots[i].complete(0.0f);
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            samples[i] = slots[i].samples;
+            states[i] = slots[i].state;
+        }
+        try {
+            float[] probabilities = batch.run(samples, states, count);
+            batchSizes.record(count);
+            for (int i = 0; i < count; i++) {
+                slots[i].complete(probabilities[i]);
+            }
+        } catch (Exception e) {
+            logger.error("Не удалось выполнить пакетный вывод VAD", e);
+            for (int i = 0; i < count; i++) {
+                slots[i].complete(0.0f);
+            }
+        } finally {
+            Arrays.fill(slots, 0, count, null);
+        }
+    }
+
+    /**
+     * 会话的推理槽位：输入窗口和Silero隐状态，整个会话期间复用
+     * 非线程安全，由VadService的会话锁保证同一时间只有一次推理
+     */
+    public static class Slot {
+        // 调用方写入的512个采样点
+        public final float[] samples = new float[AudioUtils.BUFFER_SIZE];
+        // 两层隐状态依次排列，推理后原地更新
+        private final float[] state = new float[2 * SileroVadModel.STATE_SIZE];
+        private volatile boolean done;
+        private volatile float probability;
+        private volatile Thread waiter;
+        private long enqueuedNanos;
+
+        private Slot() {
+        }
+
+        /**
+         * 清空隐状态，下一句话从零状态开始
+         */
+        public void resetState() {
+            Arrays.fill(state, 0.0f);
+        }
+
+        private void complete(float probability) {
+            this.probability = probability;
+            this.done = true;
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.xiaozhi.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 角色或配置变更的事件，引用了它们的会话需要重新解析对话配置
+ */
+public class DialogueProfileChangeEvent extends ApplicationEvent {
+    private final Integer roleId;
+    private final Integer configId;
+
+    private DialogueProfileChangeEvent(Object source, Integer roleId, Integer configId) {
+        super(source);
+        this.roleId = roleId;
+        this.configId = configId;
+    }
+
+    /**
+     * 角色变更
+     */
+    public static DialogueProfileChangeEvent role(Object source, Integer roleId) {
+        return new DialogueProfileChangeEvent(source, roleId, null);
+    }
+
+    /**
+     * 配置（STT、TTS、模型）变更
+     */
+    public static DialogueProfileChangeEvent config(Object source, Integer configId) {
+        return new DialogueProfileChangeEvent(source, null, configId);
+    }
+
+    public Integer getRoleId() {
+        return roleId;
+    }
+
+    public Integer getConfigId() {
+        return configId;
+    }
+}
@@ -8,6 +8,7 @@ import com.xiaozhi.entity.SysAgent;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.service.SysAgentService;
+import com.xiaozhi.utils.HttpUtil;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,7 +22,6 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -41,9 +41,8 @@ public class SysAgentServiceImpl implements SysAgentService {
     @Resource
     private TokenServiceFactory tokenService;
 
-    private final HttpClient httpClient = HttpClient.newBuilder()
-            .connectTimeout(Duration.ofSeconds(10))
-            .build();
+    // 共享的JDK HttpClient（默认协议，https下协商HTTP/2）
+    private final HttpClient httpClient = HttpUtil.jdkClient(HttpClient.Version.HTTP_2);
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     /**
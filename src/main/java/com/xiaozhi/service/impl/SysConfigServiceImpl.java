@@ -3,6 +3,8 @@ package com.xiaozhi.service.impl;
 import com.github.pagehelper.PageHelper;
 import com.xiaozhi.common.web.PageFilter;
 import com.xiaozhi.dao.ConfigMapper;
+import com.xiaozhi.dialogue.llm.LlmCapabilityRegistry;
+import com.xiaozhi.dialogue.llm.factory.ChatModelFactory;
 import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
 import com.xiaozhi.dialogue.token.factory.TokenServiceFactory;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
@@ -12,6 +14,7 @@ import jakarta.annotation.Resource;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cache.annotation.Caching;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -43,6 +46,14 @@ public class SysConfigServiceImpl extends BaseServiceImpl implements SysConfigSe
     @Resource
     private TtsServiceFactory ttsServiceFactory;
 
+    // ChatModelFactory依赖本服务查询配置，延迟注入
+    @Resource
+    @Lazy
+    private ChatModelFactory chatModelFactory;
+
+    @Resource
+    private LlmCapabilityRegistry capabilityRegistry;
+
     /**
      * 添加配置
      * 
@@ -80,10 +91,14 @@ public class SysConfigServiceImpl extends BaseServiceImpl implements SysConfigSe
         if (rows > 0) {
             sttServiceFactory.removeCache(config);
             ttsServiceFactory.removeCache(config);
+            chatModelFactory.removeCache(config);
+            capabilityRegistry.evict(config.getConfigId());
             List<SysConfig> configs = configMapper.query(config);
             // 这里可能为 null，
             if (configs.size() > 0) {
                 tokenService.removeCache(configs.getFirst());
+                // 更新请求里可能没有类型和平台，按完整配置再移除一次
+                chatModelFactory.removeCache(configs.getFirst());
             }
         }
         return rows;
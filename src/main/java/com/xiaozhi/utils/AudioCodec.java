@@ -0,0 +1,336 @@
+package com.xiaozhi.utils;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.xiaozhi.utils.AudioUtils.AUDIO_PATH;
+import static com.xiaozhi.utils.AudioUtils.BITRATE;
+import static com.xiaozhi.utils.AudioUtils.CHANNELS;
+import static com.xiaozhi.utils.AudioUtils.SAMPLE_FORMAT;
+import static com.xiaozhi.utils.AudioUtils.SAMPLE_RATE;
+
+/**
+ * 进程内音频编解码
+ * 基于javacv的FFmpeg绑定，在内存中把MP3/WAV/Ogg等格式解码为16kHz单声道16位PCM，
+ * 避免每句话都fork一个ffmpeg进程并读写临时文件。
+ * FFmpegFrameGrabber在创建时绑定输入流，不能换一个输入重新使用，每次解码都新建；
+ * 池里复用的只是解码输出缓冲区和样本转换缓冲区，池大小同时限制了并发的原生解码数量。
+ * 如果运行环境中没有FFmpeg原生库，会退回到调用ffmpeg命令行的旧实现。
+ */
+public final class AudioCodec {
+    private static final Logger logger = LoggerFactory.getLogger(AudioCodec.class);
+
+    /**
+     * 解码缓冲区池大小，可以通过 -Daudio.codec.pool.size 调整
+     */
+    private static final int POOL_SIZE = Integer.getInteger("audio.codec.pool.size",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static final BlockingQueue<DecodeBuffers> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final boolean NATIVE_AVAILABLE = loadNative();
+
+    static {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            POOL.offer(new DecodeBuffers());
+        }
+    }
+
+    private AudioCodec() {
+    }
+
+    private static boolean loadNative() {
+        try {
+            Loader.load(avcodec.class);
+            avutil.av_log_set_level(avutil.AV_LOG_ERROR);
+            return true;
+        } catch (Throwable e) {
+            logger.warn("Нативные библиотеки FFmpeg недоступны, для декодирования аудио будет использоваться командная строка ffmpeg: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 是否可以使用进程内解码
+     */
+    public static boolean isNativeAvailable() {
+        return NATIVE_AVAILABLE;
+    }
+
+    /**
+     * 将任意格式的音频字节解码为16kHz单声道16位PCM
+     * 已经是16kHz单声道16位的WAV只去掉文件头，不经过解码器
+     *
+     * @param data 音频文件内容（MP3、WAV、Ogg等）
+     * @return PCM数据
+     */
+    public static byte[] decodeToPcm(byte[] data) throws IOException {
+        if (data == null || data.length == 0) {
+            return new byte[0];
+        }
+        if (isTargetWav(data)) {
+            return AudioUtils.wavBytesToPcm(data);
+        }
+        if (!NATIVE_AVAILABLE) {
+            return decodeWithProcess(data);
+        }
+        return decodeNative(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * 将音频文件解码为16kHz单声道16位PCM
+     *
+     * @param path 音频文件路径
+     * @return PCM数据
+     */
+    public static byte[] decodeToPcm(Path path) throws IOException {
+        return decodeToPcm(Files.readAllBytes(path));
+    }
+
+    /**
+     * 将16kHz单声道16位PCM编码为MP3文件
+     *
+     * @param pcm  PCM数据
+     * @param path 输出文件路径
+     */
+    public static void encodeMp3(byte[] pcm, Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        if (!NATIVE_AVAILABLE) {
+            encodeMp3WithProcess(pcm, path);
+            return;
+        }
+        short[] samples = new short[pcm.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((pcm[i * 2] & 0xFF) | (pcm[i * 2 + 1] << 8));
+        }
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(path.toFile(), CHANNELS)) {
+            recorder.setFormat("mp3");
+            recorder.setAudioCodec(avcodec.AV_CODEC_ID_MP3);
+            recorder.setSampleRate(SAMPLE_RATE);
+            recorder.setAudioBitrate(BITRATE);
+            recorder.setAudioQuality(0);
+            recorder.start();
+            recorder.recordSamples(SAMPLE_RATE, CHANNELS, ShortBuffer.wrap(samples));
+            recorder.stop();
+        }
+    }
+
+    /**
+     * 获取音频文件时长
+     *
+     * @param path 音频文件路径
+     * @return 时长（秒），失败返回-1
+     */
+    public static double getDuration(Path path) {
+        if (!NATIVE_AVAILABLE) {
+            return getDurationWithProcess(path);
+        }
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(path.toFile())) {
+            grabber.start();
+            long lengthInTime = grabber.getLengthInTime();
+            grabber.stop();
+            return lengthInTime > 0 ? lengthInTime / 1_000_000.0 : -1;
+        } catch (Exception e) {
+            logger.debug("Не удалось получить длительность аудио: {}", path, e);
+            return -1;
+        }
+    }
+
+    private static byte[] decodeNative(InputStream in) throws IOException {
+        DecodeBuffers buffers;
+        try {
+            buffers = POOL.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ожидание декодера было прервано", e);
+        }
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(in, 0)) {
+            buffers.reset();
+            grabber.setSampleRate(SAMPLE_RATE);
+            grabber.setAudioChannels(CHANNELS);
+            grabber.setSampleFormat(SAMPLE_FORMAT);
+            grabber.start();
+            Frame frame;
+            while ((frame = grabber.grabSamples()) != null) {
+                if (frame.samples == null || frame.samples.length == 0) {
+                    continue;
+                }
+                buffers.write((ShortBuffer) frame.samples[0]);
+            }
+            grabber.stop();
+            return buffers.toByteArray();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Не удалось декодировать аудио: " + e.getMessage(), e);
+        } finally {
+            POOL.offer(buffers);
+        }
+    }
+
+    /**
+     * 判断是否是可以直接使用的16kHz单声道16位WAV
+     */
+    private static boolean isTargetWav(byte[] data) {
+        if (data.length < 44
+                || data[0] != 'R' || data[1] != 'I' || data[2] != 'F' || data[3] != 'F'
+                || data[8] != 'W' || data[9] != 'A' || data[10] != 'V' || data[11] != 'E') {
+            return false;
+        }
+        // 标准44字节头中的fmt字段
+        int format = readShortLE(data, 20);
+        int channels = readShortLE(data, 22);
+        int sampleRate = readIntLE(data, 24);
+        int bitsPerSample = readShortLE(data, 34);
+        return format == 1 && channels == CHANNELS && sampleRate == SAMPLE_RATE && bitsPerSample == 16;
+    }
+
+    private static int readShortLE(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+    }
+
+    /**
+     * 使用ffmpeg命令行解码，原生库不可用时的兜底实现，也用于基准对比
+     */
+    static byte[] decodeWithProcess(byte[] data) throws IOException {
+        String uuid = UUID.randomUUID().toString().replace("-", "");
+        Path input = Path.of(AUDIO_PATH, uuid + ".src");
+        Path output = Path.of(AUDIO_PATH, uuid + ".pcm");
+        try {
+            Files.createDirectories(input.getParent());
+            Files.write(input, data);
+            runProcess(new String[]{
+                    "ffmpeg",
+                    "-i", input.toString(),
+                    "-ar", String.valueOf(SAMPLE_RATE),
+                    "-ac", String.valueOf(CHANNELS),
+                    "-f", "s16le", // 16位有符号小端序PCM
+                    output.toString()
+            });
+            return Files.readAllBytes(output);
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static void encodeMp3WithProcess(byte[] pcm, Path path) throws IOException {
+        Path input = Path.of(AUDIO_PATH, UUID.randomUUID().toString().replace("-", "") + ".pcm");
+        try {
+            Files.createDirectories(input.getParent());
+            Files.write(input, pcm);
+            runProcess(new String[]{
+                    "ffmpeg",
+                    "-f", "s16le", // 输入格式：16位有符号小端序PCM
+                    "-ar", String.valueOf(SAMPLE_RATE),
+                    "-ac", String.valueOf(CHANNELS),
+                    "-i", input.toString(),
+                    "-b:a", String.valueOf(BITRATE),
+                    "-f", "mp3",
+                    "-q:a", "0",
+                    path.toString()
+            });
+        } finally {
+            Files.deleteIfExists(input);
+        }
+    }
+
+    private static double getDurationWithProcess(Path path) {
+        try {
+            Process process = new ProcessBuilder(
+                    "ffprobe",
+                    "-v", "error",
+                    "-show_entries", "format=duration",
+                    "-of", "default=noprint_wrappers=1:nokey=1",
+                    path.toFile().getAbsolutePath())
+                    .redirectErrorStream(true)
+                    .start();
+            String line = new String(process.getInputStream().readAllBytes()).trim();
+            process.waitFor();
+            return line.isEmpty() ? -1 : Double.parseDouble(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.debug("Не удалось получить длительность аудио: {}", path, e);
+        }
+        return -1;
+    }
+
+    private static void runProcess(String[] command) throws IOException {
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            // 必须读完输出，否则缓冲区写满后进程会阻塞
+            byte[] output = process.getInputStream().readAllBytes();
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("Преобразование ffmpeg не удалось, код выхода: " + exitCode
+                        + "，информация об ошибке: " + new String(output));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Обработка ffmpeg была прервана", e);
+        }
+    }
+
+    /**
+     * 可复用的解码缓冲区，不包含FFmpeg的解码器状态
+     */
+    private static class DecodeBuffers {
+        private static final int INITIAL_SIZE = 64 * 1024;
+        private static final int MAX_RETAINED_SIZE = 4 * 1024 * 1024;
+
+        private ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_SIZE);
+        private byte[] scratch = new byte[8192];
+
+        void reset() {
+            out.reset();
+        }
+
+        void write(ShortBuffer samples) {
+            int count = samples.remaining();
+            int bytes = count * 2;
+            if (scratch.length < bytes) {
+                scratch = new byte[bytes];
+            }
+            for (int i = 0; i < count; i++) {
+                short s = samples.get(samples.position() + i);
+                scratch[i * 2] = (byte) s;
+                scratch[i * 2 + 1] = (byte) (s >> 8);
+            }
+            out.write(scratch, 0, bytes);
+        }
+
+        byte[] toByteArray() {
+            byte[] result = out.toByteArray();
+            // 避免偶尔的超长音频让池里的缓冲区一直占着大块内存
+            if (result.length > MAX_RETAINED_SIZE) {
+                out = new ByteArrayOutputStream(INITIAL_SIZE);
+            }
+            return result;
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.xiaozhi.utils;
 
 import org.bytedeco.ffmpeg.global.avutil;
-import org.bytedeco.javacv.FrameRecorder;
 import org.slf4j.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -30,75 +34,13 @@ public class AudioUtils {
      * @return 文件名
      */
     public static String saveAsMp3(byte[] audio) {
-        String uuid = UUID.randomUUID().toString().replace("-", "");
-        String fileName = uuid + ".mp3";
-        String filePath = AUDIO_PATH + fileName;
-
-        // 创建临时PCM文件
-        String tempPcmPath = AUDIO_PATH + uuid + ".pcm";
-
+        String fileName = UUID.randomUUID().toString().replace("-", "") + ".mp3";
         try {
-            // 确保音频目录存在
-            Files.createDirectories(Paths.get(AUDIO_PATH));
-
-            // 先将PCM数据写入临时文件
-            try (FileOutputStream fos = new FileOutputStream(tempPcmPath)) {
-                fos.write(audio);
-            }
-
-            // 构建ffmpeg命令：将PCM转换为MP3
-            String[] command = {
-                    "ffmpeg",
-                    "-f", "s16le", // 输入格式：16位有符号小端序PCM
-                    "-ar", String.valueOf(SAMPLE_RATE), // 采样率
-                    "-ac", String.valueOf(CHANNELS), // 声道数
-                    "-i", tempPcmPath, // 输入文件
-                    "-b:a", String.valueOf(BITRATE), // 比特率
-                    "-f", "mp3", // 输出格式
-                    "-q:a", "0", // 最高质量
-                    filePath // 输出文件
-            };
-
-            // 执行命令
-            Process process = Runtime.getRuntime().exec(command);
-
-            // 读取错误输出以便调试
-            StringBuilder errorOutput = new StringBuilder();
-            try (InputStream errorStream = process.getErrorStream()) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = errorStream.read(buffer)) != -1) {
-                    errorOutput.append(new String(buffer, 0, bytesRead));
-                }
-            }
-
-            // 等待进程完成
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                logger.error("Преобразование ffmpeg не удалось, код выхода: {}，информация об ошибке: {}", exitCode, errorOutput.toString());
-                return null;
-            }
-
-            // 检查输出文件是否存在
-            if (!Files.exists(Paths.get(filePath))) {
-                logger.error("MP3 файл после преобразования ffmpeg не существует");
-                return null;
-            }
-
+            AudioCodec.encodeMp3(audio, Path.of(AUDIO_PATH, fileName));
             return fileName;
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             logger.error("Ошибка при сохранении MP3 файла", e);
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
             return null;
-        } finally {
-            // 删除临时PCM文件
-            try {
-                Files.deleteIfExists(Paths.get(tempPcmPath));
-            } catch (IOException e) {
-                logger.warn("Не удалось удалить временный PCM файл", e);
-            }
         }
     }
 
@@ -155,47 +97,70 @@ public class AudioUtils {
      * @return 文件名
      */
     public static void saveAsWav(Path path, byte[] audioData) {
+        saveAsWav(path, List.of(ByteBuffer.wrap(audioData)));
+    }
+
+    /**
+     * 将分段的PCM数据直接写为WAV文件，不需要先拼接成一个数组
+     *
+     * @param path 文件路径
+     * @param slices 按顺序排列的PCM切片
+     */
+    public static void saveAsWav(Path path, List<ByteBuffer> slices) {
 
         // WAV文件参数
         int bitsPerSample = 16; // 16位采样
+        int dataLength = 0;
+        for (ByteBuffer slice : slices) {
+            dataLength += slice.remaining();
+        }
 
         try {
             // 确保音频目录存在
             Files.createDirectories(path.getParent());
 
-            try (FileOutputStream fos = new FileOutputStream(path.toFile());
-                 DataOutputStream dos = new DataOutputStream(fos)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
 
                 // 写入WAV文件头
+                ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
                 // RIFF头
-                dos.writeBytes("RIFF");
-                dos.writeInt(Integer.reverseBytes(36 + audioData.length)); // 文件长度
-                dos.writeBytes("WAVE");
+                header.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+                header.putInt(36 + dataLength); // 文件长度
+                header.put("WAVE".getBytes(StandardCharsets.US_ASCII));
 
                 // fmt子块
-                dos.writeBytes("fmt ");
-                dos.writeInt(Integer.reverseBytes(16)); // 子块大小
-                dos.writeShort(Short.reverseBytes((short) 1)); // 音频格式 (1 = PCM)
-                dos.writeShort(Short.reverseBytes((short) CHANNELS)); // 通道数
-                dos.writeInt(Integer.reverseBytes(SAMPLE_RATE)); // 采样率
-                dos.writeInt(Integer.reverseBytes(SAMPLE_RATE * CHANNELS * bitsPerSample / 8)); // 字节率
-                dos.writeShort(Short.reverseBytes((short) (CHANNELS * bitsPerSample / 8))); // 块对齐
-                dos.writeShort(Short.reverseBytes((short) bitsPerSample)); // 每个样本的位数
+                header.put("fmt ".getBytes(StandardCharsets.US_ASCII));
+                header.putInt(16); // 子块大小
+                header.putShort((short) 1); // 音频格式 (1 = PCM)
+                header.putShort((short) CHANNELS); // 通道数
+                header.putInt(SAMPLE_RATE); // 采样率
+                header.putInt(SAMPLE_RATE * CHANNELS * bitsPerSample / 8); // 字节率
+                header.putShort((short) (CHANNELS * bitsPerSample / 8)); // 块对齐
+                header.putShort((short) bitsPerSample); // 每个样本的位数
 
                 // data子块
-                dos.writeBytes("data");
-                dos.writeInt(Integer.reverseBytes(audioData.length)); // 数据大小
-
-                // 写入音频数据
-                dos.write(audioData);
+                header.put("data".getBytes(StandardCharsets.US_ASCII));
+                header.putInt(dataLength); // 数据大小
+                header.flip();
+                writeFully(channel, header);
+
+                // 写入音频数据，使用副本避免改动调用方切片的位置
+                for (ByteBuffer slice : slices) {
+                    writeFully(channel, slice.duplicate());
+                }
             }
-        } catch (FrameRecorder.Exception e) {
-            logger.error("Ошибка при кодировании WAV", e);
         } catch (IOException e) {
             logger.error("Ошибка при записи WAV файла", e);
         }
     }
 
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
     /**
      * 合并多个音频文件为一个WAV文件
      * 支持合并的格式： wav, mp3, pcm
@@ -326,13 +291,13 @@ public class AudioUtils {
      * @return PCM数据字节数组
      */
     public static byte[] readAsPcm(String filePath) throws IOException {
-        if (filePath.toLowerCase().endsWith(".wav")) {
-            return wavToPcm(filePath);
-        } else if (filePath.toLowerCase().endsWith(".mp3")) {
-            return mp3ToPcm(filePath);
-        } else if (filePath.toLowerCase().endsWith(".pcm")) {
+        String lowerPath = filePath.toLowerCase();
+        if (lowerPath.endsWith(".pcm")) {
             // 直接读取PCM文件
             return Files.readAllBytes(Paths.get(filePath));
+        } else if (lowerPath.endsWith(".wav") || lowerPath.endsWith(".mp3")
+                || lowerPath.endsWith(".ogg") || lowerPath.endsWith(".opus")) {
+            return AudioCodec.decodeToPcm(Paths.get(filePath));
         } else {
             throw new IOException("Неподдерживаемый аудио формат: " + filePath);
         }
@@ -345,52 +310,7 @@ public class AudioUtils {
      * @return PCM数据字节数组
      */
     public static byte[] mp3ToPcm(String mp3Path) throws IOException {
-        try {
-            // 创建临时PCM文件
-            String tempPcmPath = AUDIO_PATH + UUID.randomUUID().toString().replace("-", "") + ".pcm";
-
-            // 构建ffmpeg命令：将MP3转换为16kHz, 单声道, 16位PCM
-            String[] command = {
-                    "ffmpeg",
-                    "-i", mp3Path,
-                    "-ar", String.valueOf(SAMPLE_RATE),
-                    "-ac", String.valueOf(CHANNELS),
-                    "-f", "s16le", // 16位有符号小端序PCM
-                    tempPcmPath
-            };
-
-            // 执行命令
-            Process process = Runtime.getRuntime().exec(command);
-
-            // 读取错误输出以便调试
-            try (InputStream errorStream = process.getErrorStream()) {
-                byte[] buffer = new byte[1024];
-                while (errorStream.read(buffer) != -1) {
-                    // 可以选择记录错误输出
-                    // logger.debug(new String(buffer));
-                }
-            }
-
-            // 等待进程完成
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                throw new IOException("Преобразование ffmpeg не удалось, код выхода: " + exitCode);
-            }
-
-            // 读取生成的PCM文件
-            byte[] pcmData = Files.readAllBytes(Paths.get(tempPcmPath));
-
-            // 删除临时文件
-            Files.delete(Paths.get(tempPcmPath));
-
-            return pcmData;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("Обработка ffmpeg была прервана", e);
-        } catch (Exception e) {
-            logger.error("Не удалось преобразовать MP3 с помощью ffmpeg", e);
-            throw new IOException("Не удалось преобразовать MP3 с помощью ffmpeg: " + e.getMessage(), e);
-        }
+        return AudioCodec.decodeToPcm(Paths.get(mp3Path));
     }
 
     /**
@@ -415,35 +335,11 @@ public class AudioUtils {
 
     /**
      * 获取音频文件的时长
-     * 使用ffprobe
-     * 
+     *
      * @param path 音频文件路径
      * @return 时长（秒），失败返回-1
      */
     public static double getAudioDuration(Path path) {
-        String pathStr = path.toString();
-        
-        try {
-
-            // 使用ffprobe获取时长
-            String[] command = {
-                    "ffprobe",
-                    "-v", "error",
-                    "-show_entries", "format=duration",
-                    "-of", "default=noprint_wrappers=1:nokey=1",
-                    path.toFile().getAbsolutePath()
-            };
-            Process process = Runtime.getRuntime().exec(command);
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line = reader.readLine();
-                if (line != null) {
-                    return Double.parseDouble(line.trim());
-                }
-            }
-            process.waitFor();
-        } catch (Exception e) {
-            logger.debug("Не удалось получить длительность аудио: {}", pathStr, e);
-        }
-        return -1;
+        return AudioCodec.getDuration(path);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package com.xiaozhi.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 取消令牌
+ * 一轮对话持有一个令牌，对话被打断时取消，登记在令牌上的模型请求、TTS合成和语音识别随之停止。
+ * 取消只发生一次，之后登记的操作立即执行。
+ */
+public class CancellationToken {
+    private static final Logger logger = LoggerFactory.getLogger(CancellationToken.class);
+
+    /**
+     * 永远不会取消的令牌，用于不属于某轮对话的调用
+     */
+    public static final CancellationToken NONE = new CancellationToken() {
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public Registration onCancel(Runnable action) {
+            // 不会执行，也不需要保留
+            return new Registration(action);
+        }
+    };
+
+    private final Set<Registration> registrations = new LinkedHashSet<>();
+    private volatile boolean cancelled = false;
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 取消，按登记顺序执行所有取消操作
+     */
+    public void cancel() {
+        List<Registration> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(registrations);
+            registrations.clear();
+        }
+        for (Registration registration : toRun) {
+            registration.fire();
+        }
+    }
+
+    /**
+     * 登记取消时执行的操作，已经取消时立即执行
+     *
+     * @return 不再需要时关闭，关闭返回后操作不会再开始执行
+     */
+    public Registration onCancel(Runnable action) {
+        Registration registration = new Registration(action);
+        synchronized (this) {
+            if (!cancelled) {
+                registrations.add(registration);
+                return registration;
+            }
+        }
+        registration.fire();
+        return registration;
+    }
+
+    /**
+     * 在当前线程执行阻塞调用，取消时中断该线程
+     * 虚拟线程阻塞在网络读写上时，中断会关闭连接，提供方的HTTP/WebSocket请求随之结束。
+     *
+     * @throws CancellationException 调用前或调用过程中已取消
+     */
+    public <T> T interruptOnCancel(Callable<T> task) throws Exception {
+        if (cancelled) {
+            throw new CancellationException("已取消");
+        }
+        Thread thread = Thread.currentThread();
+        Registration registration = onCancel(thread::interrupt);
+        try {
+            return task.call();
+        } catch (Exception e) {
+            if (cancelled) {
+                throw new CancellationException("已取消");
+            }
+            throw e;
+        } finally {
+            registration.close();
+            // 调用已经结束，清除取消时留下的中断标记，避免影响线程之后的阻塞操作
+            if (cancelled) {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * 一次登记
+     */
+    public class Registration implements AutoCloseable {
+        private final Runnable action;
+        private boolean active = true;
+
+        private Registration(Runnable action) {
+            this.action = action;
+        }
+
+        private synchronized void fire() {
+            if (!active) {
+                return;
+            }
+            active = false;
+            try {
+                action.run();
+            } catch (Exception e) {
+                logger.warn("Не удалось выполнить действие отмены: {}", e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                active = false;
+            }
+            synchronized (CancellationToken.this) {
+                registrations.remove(this);
+            }
+        }
+    }
+}
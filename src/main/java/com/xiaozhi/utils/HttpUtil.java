@@ -1,24 +1,153 @@
 package com.xiaozhi.utils;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Http工具类
- * 用于创建OkHttpClient实例
+ * 统一管理出站HTTP客户端：
+ * 所有OkHttp客户端由同一个基础客户端派生，共用连接池（按主机复用长连接，https下自动协商HTTP/2）和调度器；
+ * JDK HttpClient按协议版本各保留一个实例，不再每次创建新的选择器线程和连接池。
+ * 每个请求按目标主机记录耗时和结果（xiaozhi.http.client.requests）。
  */
 public class HttpUtil {
+    // 调度器的并发上限（只影响异步请求和WebSocket握手）
+    private static final int MAX_REQUESTS = 256;
+    private static final int MAX_REQUESTS_PER_HOST = 64;
+    // 连接池保留的空闲连接数及保活时间
+    private static final int MAX_IDLE_CONNECTIONS = 64;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final Duration JDK_CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
     /**
      * OkHttpClient实例
      */
     public static final OkHttpClient client;
 
+    // 按超时派生的客户端，key为"连接超时:读取超时"（秒）
+    private static final Map<String, OkHttpClient> derivedClients = new ConcurrentHashMap<>();
+    private static final Map<HttpClient.Version, HttpClient> jdkClients = new ConcurrentHashMap<>();
+
     static{
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
         client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .addInterceptor(HttpUtil::meter)
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(60, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
                 .build();
     }
+
+    /**
+     * 获取指定超时的OkHttpClient，与基础客户端共用连接池、调度器和指标
+     *
+     * @param connectTimeoutSeconds 连接超时（秒）
+     * @param readTimeoutSeconds 读取超时（秒）
+     */
+    public static OkHttpClient client(long connectTimeoutSeconds, long readTimeoutSeconds) {
+        return derivedClients.computeIfAbsent(connectTimeoutSeconds + ":" + readTimeoutSeconds,
+                key -> client.newBuilder()
+                        .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                        .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                        .build());
+    }
+
+    /**
+     * 获取指定协议版本的共享JDK HttpClient，请求在虚拟线程上执行
+     */
+    public static HttpClient jdkClient(HttpClient.Version version) {
+        return jdkClients.computeIfAbsent(version, v -> HttpClient.newBuilder()
+                .version(v)
+                .connectTimeout(JDK_CONNECT_TIMEOUT)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build());
+    }
+
+    /**
+     * 按端点选择共享的JDK HttpClient
+     * https端点使用HTTP/2，由ALPN协商，服务端不支持时自动回落到HTTP/1.1；
+     * 明文http端点只用HTTP/1.1，避免h2c升级请求（LM Studio等本地服务不支持）。
+     */
+    public static HttpClient jdkClientFor(String endpoint) {
+        boolean https = endpoint != null && endpoint.regionMatches(true, 0, "https://", 0, 8);
+        return jdkClient(https ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+    }
+
+    /**
+     * 记录一次完成的请求
+     *
+     * @param startNanos 请求开始时的System.nanoTime()
+     */
+    public static void recordRequest(String host, int status, long startNanos) {
+        record(host, outcome(status), startNanos);
+    }
+
+    /**
+     * 记录一次没有拿到响应的请求（连接失败、超时等）
+     */
+    public static void recordFailure(String host, long startNanos) {
+        record(host, "IO_ERROR", startNanos);
+    }
+
+    /**
+     * 取URI的主机名，用作指标标签
+     */
+    public static String host(URI uri) {
+        return uri == null || uri.getHost() == null ? "unknown" : uri.getHost();
+    }
+
+    private static Response meter(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        String host = request.url().host();
+        long start = System.nanoTime();
+        try {
+            Response response = chain.proceed(request);
+            recordRequest(host, response.code(), start);
+            return response;
+        } catch (IOException e) {
+            recordFailure(host, start);
+            throw e;
+        }
+    }
+
+    private static void record(String host, String outcome, long startNanos) {
+        Timer.builder("xiaozhi.http.client.requests")
+                .description("出站HTTP请求耗时（到收到响应头为止）")
+                .tag("host", host)
+                .tag("outcome", outcome)
+                .register(Metrics.globalRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static String outcome(int status) {
+        if (status < 200) {
+            return "INFORMATIONAL";
+        } else if (status < 300) {
+            return "SUCCESS";
+        } else if (status < 400) {
+            return "REDIRECTION";
+        } else if (status < 500) {
+            return "CLIENT_ERROR";
+        }
+        return "SERVER_ERROR";
+    }
 }
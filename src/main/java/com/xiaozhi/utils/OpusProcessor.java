@@ -13,6 +13,7 @@ import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Component
@@ -133,6 +134,35 @@ public class OpusProcessor {
         }
     }
 
+    /**
+     * 使用临时编码器把一段完整PCM编码为Opus帧，不影响会话的编码状态，编码结果可以缓存后在任意会话中发送
+     */
+    public List<byte[]> pcmToStandaloneOpus(byte[] pcm) {
+        String sid = "standalone-" + UUID.randomUUID();
+        try {
+            return pcmToOpus(sid, pcm, false);
+        } finally {
+            cleanup(sid);
+        }
+    }
+
+    /**
+     * 把一组独立编码的Opus帧解码为PCM，使用临时解码器，不影响会话的解码状态
+     */
+    public byte[] opusFramesToPcm(List<byte[]> frames) throws OpusException {
+        OpusDecoder decoder = new OpusDecoder(SAMPLE_RATE, CHANNELS);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frames.size() * FRAME_SIZE * 2);
+        short[] buf = new short[FRAME_SIZE * 12];
+        for (byte[] frame : frames) {
+            int samples = decoder.decode(frame, 0, frame.length, buf, 0, buf.length, false);
+            for (int i = 0; i < samples; i++) {
+                out.write(buf[i]);
+                out.write(buf[i] >> 8);
+            }
+        }
+        return out.toByteArray();
+    }
+
     /**
      * 平滑连接多个PCM片段
      */
@@ -549,6 +579,7 @@ public class OpusProcessor {
         leftoverStates.remove(sid); // 清理残留数据状态
 
         // 清理编码器
+        encoders.remove(sid);
         List<String> toRemove = new ArrayList<>();
         for (String key : encoders.keySet()) {
             if (key.startsWith(sid + "_")) {
@@ -0,0 +1,81 @@
+package com.xiaozhi.utils;
+
+import java.util.Arrays;
+
+/**
+ * 流式PCM重采样（16位小端单声道，线性插值）
+ * 用于把流式TTS返回的其他采样率PCM数据块转换为16kHz，跨数据块保留插值状态和不完整的半个样本。
+ * 非线程安全，每个合成流使用独立实例。
+ */
+public class PcmResampler {
+
+    // 每个输出样本对应的输入样本步长
+    private final double step;
+
+    // 下一个输出样本在输入中的位置（以上一块保留的最后一个样本为0点）
+    private double position = 0;
+
+    private short previous;
+    private boolean hasPrevious = false;
+
+    // 上一块末尾不完整的半个样本
+    private int pendingByte = -1;
+
+    public PcmResampler(int inputRate, int outputRate) {
+        this.step = (double) inputRate / outputRate;
+    }
+
+    /**
+     * 处理一块PCM数据
+     *
+     * @return 重采样后的PCM数据，可能为空数组
+     */
+    public byte[] process(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return new byte[0];
+        }
+
+        int totalBytes = length + (pendingByte >= 0 ? 1 : 0);
+        int sampleCount = totalBytes / 2;
+        int base = hasPrevious ? 1 : 0;
+        short[] samples = new short[base + sampleCount];
+        if (hasPrevious) {
+            samples[0] = previous;
+        }
+
+        int idx = offset;
+        for (int i = 0; i < sampleCount; i++) {
+            int lo;
+            if (i == 0 && pendingByte >= 0) {
+                lo = pendingByte;
+            } else {
+                lo = data[idx++] & 0xFF;
+            }
+            int hi = data[idx++] & 0xFF;
+            samples[base + i] = (short) (lo | (hi << 8));
+        }
+        pendingByte = totalBytes % 2 == 1 ? data[offset + length - 1] & 0xFF : -1;
+
+        if (samples.length == 0) {
+            return new byte[0];
+        }
+
+        int last = samples.length - 1;
+        byte[] out = new byte[((int) ((last - position) / step) + 2) * 2];
+        int n = 0;
+        while (position < last) {
+            int i = (int) position;
+            double frac = position - i;
+            int value = (int) Math.round(samples[i] + (samples[i + 1] - samples[i]) * frac);
+            out[n++] = (byte) value;
+            out[n++] = (byte) (value >> 8);
+            position += step;
+        }
+
+        // 保留最后一个样本用于下一块的插值
+        position -= last;
+        previous = samples[last];
+        hasPrevious = true;
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,170 @@
+package com.xiaozhi.dialogue.llm.segment;
+
+import com.sun.management.ThreadMXBean;
+import com.xiaozhi.utils.EmojiUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 原先逐字符正则断句与增量断句器的结果一致性和耗时、内存分配对比
+ * 句子越长，原先的颜文字检测每个字符都要重新扫描整句，耗时按平方增长
+ *
+ * 运行: mvn test -Dtest=SentenceSegmenterBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class SentenceSegmenterBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(SentenceSegmenterBenchmarkTest.class);
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+
+    // 原先ChatService中的断句模式
+    private static final Pattern SENTENCE_END_PATTERN = Pattern.compile("[。！？!?]");
+    private static final Pattern PAUSE_PATTERN = Pattern.compile("[，、；,;]");
+    private static final Pattern SPECIAL_PATTERN = Pattern.compile("[：:\"]");
+    private static final Pattern NEWLINE_PATTERN = Pattern.compile("[\n\r]");
+    private static final int MIN_SENTENCE_LENGTH = 5;
+
+    @Test
+    void sameSentencesAsRegex() {
+        String alphabet = "你好ab(（)）<>＜＞:;-_=\\/o*¯D。！？!?，、；,;：\" \n12.😀☀x";
+        int[] codePoints = alphabet.codePoints().toArray();
+        Random random = new Random(1);
+        for (int n = 0; n < 100000; n++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(60);
+            for (int i = 0; i < length; i++) {
+                text.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+            }
+            List<String> tokens = tokenize(text.toString(), random);
+            assertEquals(regex(tokens), segmenter(tokens), "断句结果不一致: " + text);
+        }
+    }
+
+    @Test
+    void decimalsAndEllipsis() {
+        List<String> sentences = new ArrayList<>();
+        SentenceSegmenter segmenter = new SentenceSegmenter(SegmenterRules.LATIN, sentences::add);
+        segmenter.accept("It costs 3.14 dollars. Wait... really? Yes");
+        assertEquals(List.of("It costs 3.14 dollars.", "Wait...", "really?"), sentences);
+        assertEquals("Yes", segmenter.drain());
+    }
+
+    @Test
+    void compareLongSentences() {
+        Random random = new Random(7);
+        for (int sentenceLength : new int[] { 20, 200, 2000 }) {
+            // 一段没有标点的长句，模拟模型输出的长段落，按2-4个字符一个token切分
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < sentenceLength; i++) {
+                text.append((char) ('一' + random.nextInt(2000)));
+            }
+            text.append("。");
+            List<String> tokens = tokenize(text.toString().repeat(5), random);
+            int chars = text.length() * 5;
+
+            for (int i = 0; i < WARMUP; i++) {
+                regex(tokens);
+                segmenter(tokens);
+            }
+            long regexNanos = time(() -> regex(tokens));
+            long segmenterNanos = time(() -> segmenter(tokens));
+            long regexBytes = allocatedBytes(() -> regex(tokens)) / chars;
+            long segmenterBytes = allocatedBytes(() -> segmenter(tokens)) / chars;
+
+            logger.info("句长{} - 正则: {} ns/字符, {} 字节/字符；断句器: {} ns/字符, {} 字节/字符",
+                    sentenceLength, String.format("%.1f", (double) regexNanos / ITERATIONS / chars), regexBytes,
+                    String.format("%.1f", (double) segmenterNanos / ITERATIONS / chars), segmenterBytes);
+            assertTrue(segmenterNanos < regexNanos, "断句器没有更快");
+        }
+    }
+
+    private static List<String> tokenize(String text, Random random) {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < text.length();) {
+            int end = Math.min(text.length(), i + 1 + random.nextInt(4));
+            if (end < text.length() && Character.isLowSurrogate(text.charAt(end))) {
+                end++;
+            }
+            tokens.add(text.substring(i, end));
+            i = end;
+        }
+        return tokens;
+    }
+
+    /**
+     * 原先TokenStreamResponseListener.onToken的断句逻辑，最后剩余内容以"|"开头
+     */
+    private static List<String> regex(List<String> tokens) {
+        List<String> sentences = new ArrayList<>();
+        StringBuilder currentSentence = new StringBuilder();
+        for (String token : tokens) {
+            for (int i = 0; i < token.length();) {
+                int codePoint = token.codePointAt(i);
+                String charStr = new String(Character.toChars(codePoint));
+                currentSentence.append(charStr);
+                boolean isEndMark = SENTENCE_END_PATTERN.matcher(charStr).find();
+                boolean isPauseMark = PAUSE_PATTERN.matcher(charStr).find();
+                boolean isSpecialMark = SPECIAL_PATTERN.matcher(charStr).find();
+                boolean isNewline = NEWLINE_PATTERN.matcher(charStr).find();
+                boolean isEmoji = EmojiUtils.isEmoji(codePoint);
+                boolean containsKaomoji = currentSentence.length() >= 3
+                        && EmojiUtils.containsKaomoji(currentSentence.toString());
+                boolean shouldSendSentence = isEndMark || isNewline
+                        || ((isPauseMark || isSpecialMark || isEmoji || containsKaomoji)
+                                && currentSentence.length() >= MIN_SENTENCE_LENGTH);
+                if (shouldSendSentence && currentSentence.length() >= MIN_SENTENCE_LENGTH) {
+                    String sentence = EmojiUtils.filterKaomoji(currentSentence.toString().trim());
+                    if (sentence.trim().length() >= MIN_SENTENCE_LENGTH
+                            && sentence.replaceAll("[\\p{P}\\s]", "").length() >= 2) {
+                        sentences.add(sentence);
+                        currentSentence.setLength(0);
+                    }
+                }
+                i += Character.charCount(codePoint);
+            }
+        }
+        if (currentSentence.length() > 0) {
+            sentences.add("|" + currentSentence.toString().trim());
+        }
+        return sentences;
+    }
+
+    private static List<String> segmenter(List<String> tokens) {
+        List<String> sentences = new ArrayList<>();
+        SentenceSegmenter segmenter = new SentenceSegmenter(SegmenterRules.CHINESE, sentences::add);
+        for (String token : tokens) {
+            segmenter.accept(token);
+        }
+        if (!segmenter.isEmpty()) {
+            sentences.add("|" + segmenter.drain());
+        }
+        return sentences;
+    }
+
+    private static long time(Runnable task) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long allocatedBytes(Runnable task) {
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        task.run();
+        return bean.getThreadAllocatedBytes(threadId) - before;
+    }
+}
@@ -0,0 +1,122 @@
+package com.xiaozhi.dialogue.llm.segment;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式断句器：断句位置、最小长度、token切分方式、小数点和省略号、颜文字和表情
+ */
+public class SentenceSegmenterTest {
+
+    @Test
+    void splitsOnSentenceEnd() {
+        assertEquals(List.of("你好啊，今天天气不错。", "我们出去玩吧！"),
+                segment(SegmenterRules.CHINESE, "你好啊，今天天气不错。我们出去玩吧！"));
+    }
+
+    @Test
+    void pauseSplitsOnlyLongEnoughSentences() {
+        assertEquals(List.of("首先打开冰箱，", "然后把大象放进去，"),
+                segment(SegmenterRules.CHINESE, "首先打开冰箱，然后把大象放进去，"));
+    }
+
+    @Test
+    void shortSentencesAreMerged() {
+        assertEquals(List.of("好。对。这样可以。"), segment(SegmenterRules.CHINESE, "好。对。这样可以。"));
+    }
+
+    @Test
+    void newlineBreaks() {
+        assertEquals(List.of("第一行内容", "第二行内容"), segment(SegmenterRules.CHINESE, "第一行内容\n第二行内容\n"));
+    }
+
+    @Test
+    void tokenBoundariesDoNotMatter() {
+        String text = "It costs 3.14 dollars. Wait... really? Yes, of course: see (^_^) ok.\n第二段，继续说话。";
+        List<String> whole = segment(SegmenterRules.LATIN, text);
+        List<String> sentences = new ArrayList<>();
+        SentenceSegmenter segmenter = new SentenceSegmenter(SegmenterRules.LATIN, sentences::add);
+        text.codePoints().forEach(cp -> segmenter.accept(new String(Character.toChars(cp))));
+        assertEquals(whole, sentences);
+    }
+
+    @Test
+    void decimalSplitAcrossTokens() {
+        List<String> sentences = new ArrayList<>();
+        SentenceSegmenter segmenter = new SentenceSegmenter(SegmenterRules.LATIN, sentences::add);
+        segmenter.accept("It costs 3");
+        segmenter.accept(".");
+        segmenter.accept("14 dollars");
+        assertEquals(List.of(), sentences, "小数点不应断句");
+        segmenter.accept(". Next");
+        assertEquals(List.of("It costs 3.14 dollars."), sentences);
+        assertEquals("Next", segmenter.drain());
+    }
+
+    @Test
+    void ellipsisStaysInOneSentence() {
+        assertEquals(List.of("Wait...", "really?"), segment(SegmenterRules.LATIN, "Wait... really?"));
+    }
+
+    @Test
+    void chineseRulesIgnoreDot() {
+        assertEquals(List.of("Version 2.0 is out today!"), segment(SegmenterRules.CHINESE, "Version 2.0 is out today!"));
+    }
+
+    @Test
+    void punctuationOnlyIsNotSent() {
+        List<String> sentences = new ArrayList<>();
+        SentenceSegmenter segmenter = new SentenceSegmenter(SegmenterRules.CHINESE, sentences::add);
+        segmenter.accept("……！！！。。");
+        assertEquals(List.of(), sentences);
+        assertFalse(segmenter.isEmpty());
+        assertEquals("……！！！。。", segmenter.drain());
+        assertTrue(segmenter.isEmpty());
+    }
+
+    @Test
+    void kaomojiIsRemoved() {
+        List<String> sentences = new ArrayList<>();
+        SentenceSegmenter segmenter = new SentenceSegmenter(SegmenterRules.CHINESE, sentences::add);
+        segmenter.accept("今天很开心(^_^)好的");
+        assertEquals(List.of("今天很开心"), sentences);
+        assertEquals("好的", segmenter.drain());
+    }
+
+    @Test
+    void emojiBreaks() {
+        assertEquals(List.of("我很高兴😀", "继续说下去。"), segment(SegmenterRules.CHINESE, "我很高兴😀继续说下去。"));
+    }
+
+    @Test
+    void drainResetsState() {
+        List<String> sentences = new ArrayList<>();
+        SentenceSegmenter segmenter = new SentenceSegmenter(SegmenterRules.LATIN, sentences::add);
+        segmenter.accept("  half a sentence 3");
+        assertEquals("half a sentence 3", segmenter.drain());
+        assertTrue(segmenter.isEmpty());
+        // 上一句末尾的数字不影响下一句的句点
+        segmenter.accept(".5 is a number. ");
+        assertEquals(List.of(".5 is a number."), sentences);
+    }
+
+    @Test
+    void rulesForLanguage() {
+        assertSame(SegmenterRules.LATIN, SegmenterRules.forLanguage("EN"));
+        assertSame(SegmenterRules.LATIN, SegmenterRules.forLanguage("ru"));
+        assertSame(SegmenterRules.CHINESE, SegmenterRules.forLanguage("zh"));
+        assertSame(SegmenterRules.CHINESE, SegmenterRules.forLanguage(null));
+        assertEquals(3, SegmenterRules.builder().minSentenceLength(3).build().getMinSentenceLength());
+    }
+
+    private static List<String> segment(SegmenterRules rules, String text) {
+        List<String> sentences = new ArrayList<>();
+        SentenceSegmenter segmenter = new SentenceSegmenter(rules, sentences::add);
+        segmenter.accept(text);
+        return sentences;
+    }
+}
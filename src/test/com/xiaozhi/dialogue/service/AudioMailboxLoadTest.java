@@ -0,0 +1,116 @@
+package com.xiaozhi.dialogue.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 音频信箱压力测试：2000个会话各自的接收线程同时投递音频包，检查每个会话按顺序处理、没有并发进入，
+ * 以及处理跟不上时丢弃最旧的音频包
+ *
+ * 运行: mvn test -Dtest=AudioMailboxLoadTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class AudioMailboxLoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(AudioMailboxLoadTest.class);
+
+    private static final int SESSIONS = 2000;
+    private static final int PACKETS_PER_SESSION = 500;
+
+    private SimpleMeterRegistry registry;
+    private Counter dropped;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        dropped = registry.counter("xiaozhi.audio.mailbox.dropped");
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void orderedWithoutOverlap() throws Exception {
+        CountDownLatch done = new CountDownLatch(SESSIONS);
+        AtomicInteger errors = new AtomicInteger();
+        AudioMailbox[] mailboxes = new AudioMailbox[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            int[] expected = {0};
+            AtomicInteger inside = new AtomicInteger();
+            mailboxes[i] = new AudioMailbox("session-" + i, packet -> {
+                if (inside.incrementAndGet() != 1 || ByteBuffer.wrap(packet).getInt() != expected[0]++) {
+                    errors.incrementAndGet();
+                }
+                inside.decrementAndGet();
+                if (expected[0] == PACKETS_PER_SESSION) {
+                    done.countDown();
+                }
+            }, executor, PACKETS_PER_SESSION, dropped);
+        }
+
+        long start = System.nanoTime();
+        for (AudioMailbox mailbox : mailboxes) {
+            Thread.startVirtualThread(() -> {
+                for (int seq = 0; seq < PACKETS_PER_SESSION; seq++) {
+                    mailbox.offer(ByteBuffer.allocate(Integer.BYTES).putInt(seq).array());
+                }
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS), "音频包没有处理完");
+        long elapsed = System.nanoTime() - start;
+
+        logger.info("{}个会话共{}个音频包，耗时{}ms，{} ns/包", SESSIONS, SESSIONS * PACKETS_PER_SESSION,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), elapsed / SESSIONS / PACKETS_PER_SESSION);
+        assertEquals(0, errors.get(), "出现乱序或并发处理");
+        assertEquals(0, dropped.count());
+    }
+
+    @Test
+    void dropsOldestWhenFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StringBuilder processed = new StringBuilder();
+        CountDownLatch finished = new CountDownLatch(4);
+        AudioMailbox mailbox = new AudioMailbox("session", packet -> {
+            if (packet[0] == 0) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            processed.append(packet[0]);
+            finished.countDown();
+        }, executor, 3, dropped);
+
+        mailbox.offer(new byte[] { 0 });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        // 处理第一个包时再投递5个，容量3，最旧的1、2被丢弃
+        for (byte seq = 1; seq <= 5; seq++) {
+            mailbox.offer(new byte[] { seq });
+        }
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals("0345", processed.toString());
+        assertEquals(2, dropped.count());
+    }
+}
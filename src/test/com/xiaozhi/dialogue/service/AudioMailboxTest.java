@@ -0,0 +1,175 @@
+package com.xiaozhi.dialogue.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 音频信箱：按顺序处理、同一时刻只有一个处理任务、溢出丢弃最旧的音频包、关闭后丢弃
+ */
+public class AudioMailboxTest {
+
+    private Counter dropped;
+    // 手动执行的任务队列，便于控制处理时机
+    private Queue<Runnable> tasks;
+
+    @BeforeEach
+    void setUp() {
+        dropped = new SimpleMeterRegistry().counter("xiaozhi.audio.mailbox.dropped");
+        tasks = new ArrayDeque<>();
+    }
+
+    @Test
+    void processesInOrderWithSingleTask() {
+        List<Byte> processed = new ArrayList<>();
+        AudioMailbox mailbox = new AudioMailbox("s", packet -> processed.add(packet[0]), tasks::add, 10, dropped);
+        mailbox.offer(new byte[] { 1 });
+        mailbox.offer(new byte[] { 2 });
+        mailbox.offer(new byte[] { 3 });
+        assertEquals(1, tasks.size(), "处理任务只应提交一次");
+        assertEquals(3, mailbox.size());
+
+        runTasks();
+        assertEquals(List.of((byte) 1, (byte) 2, (byte) 3), processed);
+        assertEquals(0, mailbox.size());
+
+        mailbox.offer(new byte[] { 4 });
+        assertEquals(1, tasks.size(), "处理完后再投递要重新提交");
+        runTasks();
+        assertEquals(4, processed.size());
+    }
+
+    @Test
+    void yieldsAfterBatch() {
+        List<Byte> processed = new ArrayList<>();
+        AudioMailbox mailbox = new AudioMailbox("s", packet -> processed.add(packet[0]), tasks::add, 100, dropped);
+        for (int i = 0; i < 40; i++) {
+            mailbox.offer(new byte[] { (byte) i });
+        }
+        tasks.poll().run();
+        assertEquals(32, processed.size(), "每次调度最多处理一批");
+        assertEquals(1, tasks.size(), "剩余的音频包要重新提交");
+        runTasks();
+        assertEquals(40, processed.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(Byte.valueOf((byte) i), processed.get(i));
+        }
+    }
+
+    @Test
+    void dropsOldestOnOverflow() {
+        List<Byte> processed = new ArrayList<>();
+        AudioMailbox mailbox = new AudioMailbox("s", packet -> processed.add(packet[0]), tasks::add, 3, dropped);
+        for (byte i = 1; i <= 5; i++) {
+            mailbox.offer(new byte[] { i });
+        }
+        assertEquals(3, mailbox.size());
+        assertEquals(2.0, dropped.count());
+        runTasks();
+        assertEquals(List.of((byte) 3, (byte) 4, (byte) 5), processed);
+    }
+
+    @Test
+    void closeDiscardsPending() {
+        List<Byte> processed = new ArrayList<>();
+        AudioMailbox mailbox = new AudioMailbox("s", packet -> processed.add(packet[0]), tasks::add, 10, dropped);
+        mailbox.offer(new byte[] { 1 });
+        mailbox.offer(new byte[] { 2 });
+        mailbox.close();
+        assertEquals(0, mailbox.size());
+        mailbox.offer(new byte[] { 3 });
+        assertEquals(0, mailbox.size(), "关闭后不再接收");
+        runTasks();
+        assertEquals(List.of(), processed);
+    }
+
+    @Test
+    void handlerFailureDoesNotStopMailbox() {
+        List<Byte> processed = new ArrayList<>();
+        AudioMailbox mailbox = new AudioMailbox("s", packet -> {
+            if (packet[0] == 2) {
+                throw new IllegalStateException("bad packet");
+            }
+            processed.add(packet[0]);
+        }, tasks::add, 10, dropped);
+        for (byte i = 1; i <= 3; i++) {
+            mailbox.offer(new byte[] { i });
+        }
+        runTasks();
+        assertEquals(List.of((byte) 1, (byte) 3), processed);
+    }
+
+    @Test
+    void rejectedSubmissionIsRetried() {
+        List<Byte> processed = new ArrayList<>();
+        boolean[] reject = { true };
+        AudioMailbox mailbox = new AudioMailbox("s", packet -> processed.add(packet[0]), task -> {
+            if (reject[0]) {
+                throw new RejectedExecutionException("busy");
+            }
+            tasks.add(task);
+        }, 10, dropped);
+        mailbox.offer(new byte[] { 1 });
+        assertTrue(tasks.isEmpty());
+        reject[0] = false;
+        mailbox.offer(new byte[] { 2 });
+        runTasks();
+        assertEquals(List.of((byte) 1, (byte) 2), processed);
+    }
+
+    @Test
+    void concurrentSessionsStayOrdered() throws Exception {
+        int sessions = 50;
+        int packets = 200;
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            CountDownLatch done = new CountDownLatch(sessions);
+            AtomicInteger errors = new AtomicInteger();
+            for (int i = 0; i < sessions; i++) {
+                int[] expected = { 0 };
+                AtomicInteger inside = new AtomicInteger();
+                AudioMailbox mailbox = new AudioMailbox("s" + i, packet -> {
+                    if (inside.incrementAndGet() != 1 || ByteBuffer.wrap(packet).getInt() != expected[0]++) {
+                        errors.incrementAndGet();
+                    }
+                    inside.decrementAndGet();
+                    if (expected[0] == packets) {
+                        done.countDown();
+                    }
+                }, executor, packets, dropped);
+                Thread.startVirtualThread(() -> {
+                    for (int seq = 0; seq < packets; seq++) {
+                        mailbox.offer(ByteBuffer.allocate(Integer.BYTES).putInt(seq).array());
+                    }
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS), "音频包没有处理完");
+            assertEquals(0, errors.get(), "出现乱序或并发处理");
+            assertEquals(0.0, dropped.count());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.xiaozhi.dialogue.service;
+
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 帧发送节拍器压力测试：模拟5000个会话同时按60ms节奏发帧，检查节奏是否稳定
+ *
+ * 运行: mvn test -Dtest=FramePacerLoadTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class FramePacerLoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(FramePacerLoadTest.class);
+
+    private static final int STREAMS = 5000;
+    private static final int FRAMES_PER_STREAM = 50; // 3秒
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(60);
+
+    private SimpleMeterRegistry registry;
+    private FramePacer pacer;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        pacer = new FramePacer(registry, 1, 0);
+        pacer.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pacer.stop();
+    }
+
+    @Test
+    void stableCadence() throws Exception {
+        CountDownLatch done = new CountDownLatch(STREAMS);
+        AtomicInteger sent = new AtomicInteger();
+
+        // 留出注册5000个会话的时间，避免首帧一开始就过期
+        long base = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        for (int i = 0; i < STREAMS; i++) {
+            String key = "session-" + i;
+            // 起始时间在一帧内错开，接近真实会话分布
+            long start = base + (i % 60) * 1_000_000L;
+            int[] position = {0};
+            Runnable frameTask = new Runnable() {
+                @Override
+                public void run() {
+                    sent.incrementAndGet();
+                    if (++position[0] >= FRAMES_PER_STREAM) {
+                        pacer.cancel(key);
+                        done.countDown();
+                        return;
+                    }
+                    pacer.scheduleAt(key, start + position[0] * FRAME_INTERVAL_NANOS, this);
+                }
+            };
+            pacer.scheduleAt(key, start, frameTask);
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS), "部分会话未在时限内发完");
+        assertEquals(STREAMS * FRAMES_PER_STREAM, sent.get());
+
+        double driftP99 = percentile("xiaozhi.audio.pacer.drift", 0.99);
+        double jitterP99 = percentile("xiaozhi.audio.pacer.jitter", 0.99);
+        logger.info("drift p99: {} ms, jitter p99: {} ms", String.format("%.2f", driftP99), String.format("%.2f", jitterP99));
+        // 设备端有缓冲，偏差保持在半帧以内即可保证连续播放
+        assertTrue(driftP99 < 30, "发送延后过大: " + driftP99);
+        assertTrue(jitterP99 < 30, "发送抖动过大: " + jitterP99);
+    }
+
+    private double percentile(String name, double percentile) {
+        HistogramSnapshot snapshot = registry.get(name).summary().takeSnapshot();
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            if (value.percentile() == percentile) {
+                return value.value();
+            }
+        }
+        fail("没有找到百分位: " + percentile);
+        return 0;
+    }
+}
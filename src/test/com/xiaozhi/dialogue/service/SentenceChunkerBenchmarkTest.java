@@ -0,0 +1,181 @@
+package com.xiaozhi.dialogue.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 自适应分块的TTS请求数对比
+ * 模拟模型按固定速度输出短句、设备按字数播放，统计不分块与分块时一次回复的TTS请求数，
+ * 并检查首句不等待、内容和顺序不变、合并的句子不会让播放断档
+ *
+ * 运行: mvn test -Dtest=SentenceChunkerBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class SentenceChunkerBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(SentenceChunkerBenchmarkTest.class);
+
+    private static final int CLAUSES = 60;
+    // 模型每输出一个短句的间隔
+    private static final long CLAUSE_INTERVAL_MS = 40;
+    private static final double AUDIO_MS_PER_CHAR = 200;
+    private static final long TTS_LATENCY_MS = 300;
+    // 定时器调度误差，断档短于该时长不计
+    private static final long UNDERRUN_TOLERANCE_MS = 50;
+
+    private ScheduledExecutorService scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void fewerRequestsPerReply() throws Exception {
+        List<String> clauses = new ArrayList<>();
+        for (int i = 0; i < CLAUSES; i++) {
+            clauses.add("第" + i + "个短句，");
+        }
+        PlaybackModel playback = new PlaybackModel();
+        List<String[]> chunks = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        SentenceChunker chunker = new SentenceChunker(120, 2000, playback, scheduler, (text, isFirst, isLast) -> {
+            synchronized (chunks) {
+                chunks.add(new String[] { text, String.valueOf(isFirst), String.valueOf(isLast) });
+            }
+            playback.onChunk(text);
+            if (isLast) {
+                done.countDown();
+            }
+        });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < CLAUSES; i++) {
+            chunker.accept(clauses.get(i), i == 0, i == CLAUSES - 1);
+            if (i == 0) {
+                synchronized (chunks) {
+                    assertEquals(1, chunks.size(), "首句没有立即发出");
+                }
+            }
+            Thread.sleep(CLAUSE_INTERVAL_MS);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        StringBuilder merged = new StringBuilder();
+        for (int i = 0; i < chunks.size(); i++) {
+            merged.append(chunks.get(i)[0]);
+            assertEquals(i == 0, Boolean.parseBoolean(chunks.get(i)[1]));
+            assertEquals(i == chunks.size() - 1, Boolean.parseBoolean(chunks.get(i)[2]));
+        }
+        assertEquals(String.join("", clauses), merged.toString());
+
+        logger.info("{}个短句，耗时{}ms - 不分块: {}次TTS请求；分块: {}次，播放断档{}次",
+                CLAUSES, elapsed, CLAUSES, chunks.size(), playback.underruns);
+        assertTrue(chunks.size() * 3 <= CLAUSES, "TTS请求数没有明显减少");
+        assertEquals(0, playback.underruns, "合并导致播放断档");
+    }
+
+    @Test
+    void flushesBeforeBacklogRunsOut() throws Exception {
+        CountDownLatch second = new CountDownLatch(1);
+        SentenceChunker chunker = new SentenceChunker(120, 2000, new SentenceChunker.Budget() {
+            @Override
+            public long backlogMillis() {
+                return 500;
+            }
+
+            @Override
+            public long ttsLatencyMillis() {
+                return TTS_LATENCY_MS;
+            }
+        }, scheduler, (text, isFirst, isLast) -> {
+            if (!isFirst) {
+                second.countDown();
+            }
+        });
+        chunker.accept("第一句，", true, false);
+        long start = System.nanoTime();
+        // 模型停顿，合并中的句子要在余量耗尽前发出
+        chunker.accept("第二句，", false, false);
+        assertTrue(second.await(1, TimeUnit.SECONDS));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waited < 500 - TTS_LATENCY_MS + 100, "等待了" + waited + "ms");
+    }
+
+    @Test
+    void closeDropsPending() throws Exception {
+        List<String> emitted = new ArrayList<>();
+        SentenceChunker chunker = new SentenceChunker(120, 100, new SentenceChunker.Budget() {
+            @Override
+            public long backlogMillis() {
+                return 10_000;
+            }
+
+            @Override
+            public long ttsLatencyMillis() {
+                return TTS_LATENCY_MS;
+            }
+        }, scheduler, (text, isFirst, isLast) -> {
+            synchronized (emitted) {
+                emitted.add(text);
+            }
+        });
+        chunker.accept("第一句，", true, false);
+        chunker.accept("第二句，", false, false);
+        chunker.close();
+        chunker.accept("第三句。", false, true);
+        Thread.sleep(300);
+        synchronized (emitted) {
+            assertEquals(List.of("第一句，"), emitted);
+        }
+    }
+
+    /**
+     * 按字数估计的播放进度：每块合成TTS_LATENCY_MS后接在已排队的音频后面播放
+     */
+    private static class PlaybackModel implements SentenceChunker.Budget {
+        // 已排队音频播放完的时间（纳秒）
+        private long playedUntil = 0;
+        int underruns = 0;
+
+        synchronized void onChunk(String text) {
+            long now = System.nanoTime();
+            long ready = now + TimeUnit.MILLISECONDS.toNanos(TTS_LATENCY_MS);
+            if (playedUntil == 0) {
+                playedUntil = ready;
+            } else if (ready - playedUntil > TimeUnit.MILLISECONDS.toNanos(UNDERRUN_TOLERANCE_MS)) {
+                underruns++;
+                playedUntil = ready;
+            }
+            playedUntil += (long) (text.length() * AUDIO_MS_PER_CHAR * 1_000_000);
+        }
+
+        @Override
+        public synchronized long backlogMillis() {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(playedUntil - System.nanoTime()));
+        }
+
+        @Override
+        public long ttsLatencyMillis() {
+            return TTS_LATENCY_MS;
+        }
+    }
+}
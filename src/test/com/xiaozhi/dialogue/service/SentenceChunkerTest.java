@@ -0,0 +1,169 @@
+package com.xiaozhi.dialogue.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 自适应分块：首句立即发出、按余量合并、长度和等待上限、最后一句、关闭、英文补空格、锁外交付
+ */
+public class SentenceChunkerTest {
+
+    private ScheduledExecutorService scheduler;
+    private FixedBudget budget;
+    private final List<String> emitted = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        budget = new FixedBudget();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void firstSentenceIsImmediate() {
+        SentenceChunker chunker = chunker(120, 10_000);
+        chunker.accept("第一句，", true, false);
+        assertEquals(List.of("第一句，|first"), emitted());
+    }
+
+    @Test
+    void mergesWhileBacklogLasts() {
+        SentenceChunker chunker = chunker(120, 10_000);
+        chunker.accept("第一句，", true, false);
+        chunker.accept("第二句，", false, false);
+        chunker.accept("第三句，", false, false);
+        assertEquals(1, emitted().size(), "余量充足时应继续合并");
+        chunker.accept("第四句。", false, true);
+        assertEquals(List.of("第一句，|first", "第二句，第三句，第四句。|last"), emitted());
+    }
+
+    @Test
+    void emitsWhenBacklogRunsOut() {
+        SentenceChunker chunker = chunker(120, 10_000);
+        chunker.accept("第一句，", true, false);
+        budget.backlogMillis = 100;
+        chunker.accept("第二句，", false, false);
+        assertEquals(List.of("第一句，|first", "第二句，"), emitted());
+    }
+
+    @Test
+    void emitsAtMaxLength() {
+        SentenceChunker chunker = chunker(8, 10_000);
+        chunker.accept("第一句，", true, false);
+        chunker.accept("第二句，", false, false);
+        chunker.accept("第三句，", false, false);
+        assertEquals(List.of("第一句，|first", "第二句，第三句，"), emitted());
+    }
+
+    @Test
+    void emitsAfterMaxWait() throws Exception {
+        CountDownLatch flushed = new CountDownLatch(1);
+        SentenceChunker chunker = new SentenceChunker(120, 50, budget, scheduler, (text, isFirst, isLast) -> {
+            record(text, isFirst, isLast);
+            if (!isFirst) {
+                flushed.countDown();
+            }
+        });
+        chunker.accept("第一句，", true, false);
+        chunker.accept("第二句，", false, false);
+        assertTrue(flushed.await(2, TimeUnit.SECONDS), "等待超时后没有发出");
+        assertEquals(List.of("第一句，|first", "第二句，"), emitted());
+    }
+
+    @Test
+    void lastSentenceAloneIsFirstAndLast() {
+        SentenceChunker chunker = chunker(120, 10_000);
+        chunker.accept("只有一句。", true, true);
+        assertEquals(List.of("只有一句。|first|last"), emitted());
+    }
+
+    @Test
+    void closeDropsPendingAndLaterSentences() throws Exception {
+        SentenceChunker chunker = chunker(120, 50);
+        chunker.accept("第一句，", true, false);
+        chunker.accept("第二句，", false, false);
+        chunker.close();
+        chunker.accept("第三句。", false, true);
+        Thread.sleep(150);
+        assertEquals(List.of("第一句，|first"), emitted());
+    }
+
+    @Test
+    void addsSpaceBetweenLatinWords() {
+        SentenceChunker chunker = chunker(120, 10_000);
+        chunker.accept("Hi.", true, false);
+        chunker.accept("How are you?", false, false);
+        chunker.accept("Fine, thanks.", false, true);
+        assertEquals(List.of("Hi.|first", "How are you? Fine, thanks.|last"), emitted());
+    }
+
+    @Test
+    void downstreamRunsOutsideLock() {
+        SentenceChunker[] holder = new SentenceChunker[1];
+        List<Boolean> locked = new ArrayList<>();
+        holder[0] = new SentenceChunker(120, 10_000, budget, scheduler,
+                (text, isFirst, isLast) -> locked.add(Thread.holdsLock(holder[0])));
+        holder[0].accept("第一句，", true, false);
+        holder[0].accept("第二句。", false, true);
+        assertEquals(List.of(false, false), locked);
+    }
+
+    @Test
+    void sentencesFromDownstreamKeepOrder() {
+        SentenceChunker[] holder = new SentenceChunker[1];
+        holder[0] = new SentenceChunker(120, 10_000, budget, scheduler, (text, isFirst, isLast) -> {
+            record(text, isFirst, isLast);
+            if (isFirst) {
+                // 交付过程中再到达的句子排在后面，由正在交付的线程继续交付
+                holder[0].accept("第二句。", false, true);
+                assertEquals(1, emitted().size());
+            }
+        });
+        holder[0].accept("第一句，", true, false);
+        assertEquals(List.of("第一句，|first", "第二句。|last"), emitted());
+    }
+
+    private SentenceChunker chunker(int maxLength, long maxWaitMillis) {
+        return new SentenceChunker(maxLength, maxWaitMillis, budget, scheduler, this::record);
+    }
+
+    private void record(String text, Boolean isFirst, Boolean isLast) {
+        synchronized (emitted) {
+            emitted.add(text + (isFirst ? "|first" : "") + (isLast ? "|last" : ""));
+        }
+    }
+
+    private List<String> emitted() {
+        synchronized (emitted) {
+            return List.copyOf(emitted);
+        }
+    }
+
+    private static class FixedBudget implements SentenceChunker.Budget {
+        volatile long backlogMillis = 10_000;
+
+        @Override
+        public long backlogMillis() {
+            return backlogMillis;
+        }
+
+        @Override
+        public long ttsLatencyMillis() {
+            return 300;
+        }
+    }
+}
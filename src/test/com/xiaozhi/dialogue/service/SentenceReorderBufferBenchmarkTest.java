@@ -0,0 +1,137 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.dialogue.service.DialogueService.Sentence;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 原先CopyOnWriteArrayList按最小序号扫描取句与按序号重排缓冲的结果一致性和耗时对比
+ * 句子乱序到达（TTS并发合成），每到达一句尝试按顺序取出已就绪的句子
+ *
+ * 运行: mvn test -Dtest=SentenceReorderBufferBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class SentenceReorderBufferBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(SentenceReorderBufferBenchmarkTest.class);
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+    // 同时合成的句子数，到达顺序只在这个窗口内打乱
+    private static final int WINDOW = 3;
+
+    @Test
+    void releasesInOrder() {
+        Random random = new Random(1);
+        for (int sentences : new int[] { 1, 5, 40, 300 }) {
+            List<Sentence> arrivals = arrivals(sentences, random);
+            List<Integer> expected = new ArrayList<>();
+            for (int seq = 1; seq <= sentences; seq++) {
+                expected.add(seq);
+            }
+            assertEquals(expected, scan(arrivals));
+            assertEquals(expected, reorder(arrivals));
+        }
+    }
+
+    @Test
+    void headMissingBlocksLaterSentences() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer();
+        buffer.add(new Sentence(2, "b", false, false));
+        buffer.add(new Sentence(40, "c", false, true));
+        assertNull(buffer.peek(), "队首还没到时不能取出后面的句子");
+        buffer.add(new Sentence(1, "a", true, false));
+        assertEquals(1, buffer.poll().getSeq());
+        assertEquals(2, buffer.poll().getSeq());
+        assertNull(buffer.peek());
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    void compareLongTurns() {
+        Random random = new Random(7);
+        for (int sentences : new int[] { 10, 100, 1000 }) {
+            List<Sentence> arrivals = arrivals(sentences, random);
+            for (int i = 0; i < WARMUP; i++) {
+                scan(arrivals);
+                reorder(arrivals);
+            }
+            long scanNanos = time(() -> scan(arrivals));
+            long reorderNanos = time(() -> reorder(arrivals));
+            logger.info("{}句 - 扫描: {} ns/句；重排缓冲: {} ns/句", sentences,
+                    scanNanos / ITERATIONS / sentences, reorderNanos / ITERATIONS / sentences);
+            if (sentences >= 100) {
+                assertTrue(reorderNanos < scanNanos, "重排缓冲没有更快");
+            }
+        }
+    }
+
+    /**
+     * 序号1..n的句子，在WINDOW大小的窗口内乱序到达
+     */
+    private static List<Sentence> arrivals(int n, Random random) {
+        List<Sentence> arrivals = new ArrayList<>();
+        for (int start = 1; start <= n; start += WINDOW) {
+            List<Sentence> window = new ArrayList<>();
+            for (int seq = start; seq < Math.min(n + 1, start + WINDOW); seq++) {
+                window.add(new Sentence(seq, "句子" + seq, seq == 1, seq == n));
+            }
+            Collections.shuffle(window, random);
+            arrivals.addAll(window);
+        }
+        return arrivals;
+    }
+
+    /**
+     * 原先processQueue的取句方式：每次就绪都扫描两遍找最小序号，再按值删除
+     */
+    private static List<Integer> scan(List<Sentence> arrivals) {
+        CopyOnWriteArrayList<Sentence> queue = new CopyOnWriteArrayList<>();
+        List<Integer> played = new ArrayList<>();
+        int next = 1;
+        for (Sentence sentence : arrivals) {
+            queue.add(sentence);
+            while (!queue.isEmpty()) {
+                int minSeq = queue.stream().mapToInt(Sentence::getSeq).min().orElse(Integer.MAX_VALUE);
+                Sentence head = queue.stream().filter(s -> s.getSeq() == minSeq).findFirst().orElse(null);
+                // 就绪的判断以序号连续代替
+                if (head == null || head.getSeq() != next) {
+                    break;
+                }
+                queue.remove(head);
+                played.add(head.getSeq());
+                next++;
+            }
+        }
+        return played;
+    }
+
+    private static List<Integer> reorder(List<Sentence> arrivals) {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer();
+        List<Integer> played = new ArrayList<>();
+        for (Sentence sentence : arrivals) {
+            buffer.add(sentence);
+            while (buffer.peek() != null) {
+                played.add(buffer.poll().getSeq());
+            }
+        }
+        return played;
+    }
+
+    private static long time(Runnable task) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,120 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.dialogue.service.DialogueService.Sentence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 句子重排缓冲：按序号取出、队首缺失时等待、乱序到达、扩容和清空
+ */
+public class SentenceReorderBufferTest {
+
+    @Test
+    void releasesInSequence() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer();
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.peek());
+        assertNull(buffer.poll());
+
+        buffer.add(sentence(1));
+        buffer.add(sentence(2));
+        assertEquals(2, buffer.size());
+        assertEquals(1, buffer.peek().getSeq());
+        assertEquals(1, buffer.poll().getSeq());
+        assertEquals(2, buffer.poll().getSeq());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void missingHeadBlocksLaterSentences() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer();
+        buffer.add(sentence(3));
+        buffer.add(sentence(2));
+        assertNull(buffer.peek(), "队首还没到时不能取出后面的句子");
+        assertNull(buffer.poll());
+        assertEquals(2, buffer.size());
+
+        buffer.add(sentence(1));
+        assertEquals(List.of(1, 2, 3), drain(buffer));
+    }
+
+    @Test
+    void outOfOrderArrivalsAcrossGrowth() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer();
+        List<Integer> played = new ArrayList<>();
+        // 先到达远超初始容量的序号，再倒序补齐
+        for (int seq = 100; seq >= 1; seq--) {
+            buffer.add(sentence(seq));
+            played.addAll(drain(buffer));
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int seq = 1; seq <= 100; seq++) {
+            expected.add(seq);
+        }
+        assertEquals(expected, played);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void wrapsAroundSlots() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer();
+        List<Integer> played = new ArrayList<>();
+        // 窗口内两两交换，序号多次绕过环形数组
+        for (int seq = 1; seq <= 200; seq += 2) {
+            buffer.add(sentence(seq + 1));
+            buffer.add(sentence(seq));
+            played.addAll(drain(buffer));
+        }
+        assertEquals(200, played.size());
+        for (int i = 0; i < played.size(); i++) {
+            assertEquals(i + 1, (int) played.get(i));
+        }
+    }
+
+    @Test
+    void ignoresAlreadyReleasedAndReplacesDuplicate() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer();
+        buffer.add(sentence(1));
+        buffer.poll();
+        buffer.add(sentence(1));
+        assertTrue(buffer.isEmpty(), "已取出的序号应被忽略");
+
+        Sentence first = sentence(2);
+        Sentence second = sentence(2);
+        buffer.add(first);
+        buffer.add(second);
+        assertEquals(1, buffer.size());
+        assertSame(second, buffer.poll());
+    }
+
+    @Test
+    void clearKeepsPosition() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer();
+        buffer.add(sentence(1));
+        buffer.poll();
+        buffer.add(sentence(3));
+        buffer.add(sentence(4));
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.peek());
+
+        buffer.add(sentence(2));
+        assertEquals(List.of(2), drain(buffer));
+    }
+
+    private static Sentence sentence(int seq) {
+        return new Sentence(seq, "句子" + seq, seq == 1, false);
+    }
+
+    private static List<Integer> drain(SentenceReorderBuffer buffer) {
+        List<Integer> played = new ArrayList<>();
+        while (buffer.peek() != null) {
+            played.add(buffer.poll().getSeq());
+        }
+        return played;
+    }
+}
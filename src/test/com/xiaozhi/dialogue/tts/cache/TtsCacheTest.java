@@ -0,0 +1,196 @@
+package com.xiaozhi.dialogue.tts.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TTS缓存：内存LRU、磁盘持久化、同一个键并发写入和磁盘淘汰
+ */
+public class TtsCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void memoryHitReturnsFrames() {
+        TtsCache cache = newCache(1 << 20, 1 << 20);
+        assertNull(cache.get("a"));
+        List<byte[]> frames = frames(3, 10);
+        cache.putFrames("a", frames);
+        List<byte[]> hit = cache.get("a");
+        assertNotNull(hit);
+        assertEquals(3, hit.size());
+        assertArrayEquals(frames.get(2), hit.get(2));
+        assertEquals(1.0, count("memory_hit"));
+        assertEquals(1.0, count("miss"));
+    }
+
+    @Test
+    void memoryEvictsLeastRecentlyUsed() throws Exception {
+        // 每组帧约 2*(100+24) 字节，内存只放得下两组
+        TtsCache cache = newCache(600, 1 << 20);
+        cache.putFrames("a", frames(2, 100));
+        cache.putFrames("b", frames(2, 100));
+        cache.get("a");
+        cache.putFrames("c", frames(2, 100));
+        awaitWritten(cache, "a", "b", "c");
+        Files.delete(dir.resolve("b.opus"));
+        Files.delete(dir.resolve("a.opus"));
+
+        assertNotNull(cache.get("a"), "最近访问过的不应被淘汰");
+        assertNull(cache.get("b"), "最久未使用的应被淘汰");
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    void survivesRestart() throws Exception {
+        TtsCache cache = newCache(1 << 20, 1 << 20);
+        List<byte[]> frames = frames(5, 40);
+        cache.putFrames("a", frames);
+        awaitWritten(cache, "a");
+
+        TtsCache restarted = newCache(1 << 20, 1 << 20);
+        assertEquals(Files.size(dir.resolve("a.opus")), diskBytes());
+        List<byte[]> hit = restarted.get("a");
+        assertNotNull(hit);
+        assertEquals(frames.size(), hit.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertArrayEquals(frames.get(i), hit.get(i));
+        }
+        assertEquals(1.0, count("disk_hit"));
+    }
+
+    @Test
+    void concurrentWritesOfSameKeyCountedOnce() throws Exception {
+        TtsCache cache = newCache(1 << 20, 1 << 20);
+        int writers = 32;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            threads.add(Thread.startVirtualThread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cache.putFrames("a", frames(20, 50));
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        awaitWritten(cache, "a");
+
+        assertEquals(List.of(dir.resolve("a.opus")), files());
+        assertEquals(Files.size(dir.resolve("a.opus")), diskBytes());
+    }
+
+    @Test
+    void diskEvictsOldestFiles() throws Exception {
+        // 每个文件 4*(2+100) 字节
+        long fileSize = 4 * 102;
+        TtsCache cache = newCache(1 << 20, fileSize * 3);
+        for (int i = 0; i < 5; i++) {
+            cache.putFrames("k" + i, frames(4, 100));
+            awaitWritten(cache, "k" + i);
+            Files.setLastModifiedTime(dir.resolve("k" + i + ".opus"),
+                    FileTime.fromMillis(1_000_000L * (i + 1)));
+        }
+        assertTrue(diskBytes() <= fileSize * 3);
+        assertEquals(diskBytes(), files().size() * fileSize);
+        assertTrue(Files.exists(dir.resolve("k4.opus")), "最新的文件不应被淘汰");
+        assertFalse(Files.exists(dir.resolve("k0.opus")), "最旧的文件应被淘汰");
+    }
+
+    @Test
+    void leftoverTempFilesRemovedOnStart() throws Exception {
+        Files.write(dir.resolve("a.123.tmp"), new byte[100]);
+        newCache(1 << 20, 1 << 20);
+        assertEquals(List.of(), files());
+        assertEquals(0, diskBytes());
+    }
+
+    @Test
+    void normalizeUnifiesWidthAndWhitespace() {
+        assertEquals("你好, world!", TtsCache.normalize("  你好,　 world！ "));
+        assertEquals("", TtsCache.normalize(null));
+    }
+
+    private TtsCache newCache(long memoryMaxBytes, long diskMaxBytes) {
+        registry = new SimpleMeterRegistry();
+        TtsCache cache = new TtsCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "memoryMaxBytes", memoryMaxBytes);
+        ReflectionTestUtils.setField(cache, "diskMaxBytes", diskMaxBytes);
+        ReflectionTestUtils.setField(cache, "diskPath", dir.toString());
+        ReflectionTestUtils.setField(cache, "meterRegistry", registry);
+        cache.init();
+        return cache;
+    }
+
+    private static List<byte[]> frames(int count, int size) {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[size];
+            frame[0] = (byte) i;
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    /**
+     * 磁盘写入在虚拟线程中异步进行，等到文件写完且没有进行中的写入
+     */
+    private void awaitWritten(TtsCache cache, String... keys) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            Set<?> writing = (Set<?>) ReflectionTestUtils.getField(cache, "writing");
+            boolean written = writing.isEmpty();
+            for (String key : keys) {
+                written &= Files.exists(dir.resolve(key + ".opus"));
+            }
+            if (written) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        fail("缓存文件没有写入");
+    }
+
+    private List<Path> files() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.toList();
+        }
+    }
+
+    private long diskBytes() {
+        return (long) registry.get("xiaozhi.tts.cache.disk.bytes").gauge().value();
+    }
+
+    private double count(String result) {
+        return registry.get("xiaozhi.tts.cache.requests").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,115 @@
+package com.xiaozhi.dialogue.vad;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分块音频存储：跨块追加、容量上限、按段移除和clear后已取出切片不变
+ */
+public class AudioChunkStoreTest {
+
+    @Test
+    void appendsAcrossChunks() {
+        AudioChunkStore store = new AudioChunkStore(4, 100);
+        assertTrue(store.append(bytes(0, 3)));
+        assertTrue(store.append(bytes(3, 6)));
+        assertTrue(store.append(bytes(9, 1)));
+        assertEquals(10, store.size());
+        assertEquals(3, store.segmentCount());
+        assertArrayEquals(bytes(0, 10), concat(store.slices()));
+
+        List<byte[]> segments = store.segments();
+        assertEquals(3, segments.size());
+        assertArrayEquals(bytes(0, 3), segments.get(0));
+        assertArrayEquals(bytes(3, 6), segments.get(1));
+        assertArrayEquals(bytes(9, 1), segments.get(2));
+    }
+
+    @Test
+    void rejectsDataOverCapacity() {
+        AudioChunkStore store = new AudioChunkStore(4, 10);
+        assertTrue(store.append(bytes(0, 8)));
+        assertFalse(store.append(bytes(8, 3)), "超出容量的数据不应保存");
+        assertEquals(8, store.size());
+        assertEquals(1, store.segmentCount());
+        assertTrue(store.append(bytes(8, 2)));
+        assertEquals(10, store.size());
+        assertTrue(store.append(new byte[0]));
+        assertTrue(store.append(null));
+        assertEquals(2, store.segmentCount());
+    }
+
+    @Test
+    void removesTrailingSegments() {
+        AudioChunkStore store = new AudioChunkStore(4, 100);
+        store.append(bytes(0, 5));
+        store.append(bytes(5, 2));
+        store.append(bytes(7, 3));
+        store.removeLastSegments(2);
+        assertEquals(5, store.size());
+        assertEquals(1, store.segmentCount());
+        assertArrayEquals(bytes(0, 5), concat(store.slices()));
+
+        // 移除后继续追加，覆盖被移除的部分
+        store.append(bytes(50, 2));
+        assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 50, 51 }, concat(store.slices()));
+
+        store.removeLastSegments(10);
+        assertEquals(0, store.size());
+        assertEquals(0, store.segmentCount());
+        assertEquals(List.of(), store.slices());
+    }
+
+    @Test
+    void slicesAreReadOnlyAndSurviveClear() {
+        AudioChunkStore store = new AudioChunkStore(4, 100);
+        store.append(bytes(0, 6));
+        List<ByteBuffer> slices = store.slices();
+        assertTrue(slices.get(0).isReadOnly());
+
+        store.clear();
+        assertEquals(0, store.size());
+        store.append(bytes(100, 6));
+        assertArrayEquals(bytes(0, 6), concat(slices), "clear之前取出的切片被覆盖");
+        assertArrayEquals(bytes(100, 6), concat(store.slices()));
+    }
+
+    @Test
+    void segmentOffsetsGrowBeyondInitialSize() {
+        AudioChunkStore store = new AudioChunkStore(16, 10_000);
+        for (int i = 0; i < 200; i++) {
+            store.append(bytes(i, 3));
+        }
+        assertEquals(200, store.segmentCount());
+        List<byte[]> segments = store.segments();
+        assertArrayEquals(bytes(199, 3), segments.get(199));
+        assertTrue(store.retainedBytes() >= store.size());
+    }
+
+    private static byte[] bytes(int start, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (start + i);
+        }
+        return data;
+    }
+
+    private static byte[] concat(List<ByteBuffer> slices) {
+        int total = 0;
+        for (ByteBuffer slice : slices) {
+            total += slice.remaining();
+        }
+        byte[] result = new byte[total];
+        int offset = 0;
+        for (ByteBuffer slice : slices) {
+            int length = slice.remaining();
+            slice.duplicate().get(result, offset, length);
+            offset += length;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package com.xiaozhi.dialogue.vad;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 字节环形缓冲区：写入顺序、绕回和写满后覆盖最旧的数据
+ */
+public class ByteRingBufferTest {
+
+    @Test
+    void drainsInWriteOrder() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+        buffer.write(new byte[] { 1, 2, 3 });
+        buffer.write(new byte[] { 4, 5 });
+        assertEquals(5, buffer.size());
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, buffer.drain());
+        assertEquals(0, buffer.size());
+        assertArrayEquals(new byte[0], buffer.drain());
+    }
+
+    @Test
+    void wrapsAroundAndKeepsNewest() {
+        ByteRingBuffer buffer = new ByteRingBuffer(5);
+        buffer.write(new byte[] { 1, 2, 3 });
+        buffer.write(new byte[] { 4, 5, 6, 7 });
+        assertEquals(5, buffer.size());
+        assertArrayEquals(new byte[] { 3, 4, 5, 6, 7 }, buffer.drain());
+    }
+
+    @Test
+    void oversizedWriteKeepsTail() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        buffer.write(new byte[] { 9 });
+        buffer.write(new byte[] { 0, 1, 2, 3, 4, 5, 6 }, 1, 6);
+        assertArrayEquals(new byte[] { 3, 4, 5, 6 }, buffer.drain());
+    }
+
+    @Test
+    void manySmallWritesMatchTail() {
+        ByteRingBuffer buffer = new ByteRingBuffer(7);
+        byte[] all = new byte[100];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        for (int i = 0; i < all.length; i += 3) {
+            buffer.write(all, i, Math.min(3, all.length - i));
+        }
+        assertArrayEquals(new byte[] { 93, 94, 95, 96, 97, 98, 99 }, buffer.drain());
+    }
+
+    @Test
+    void clearAndReuse() {
+        ByteRingBuffer buffer = new ByteRingBuffer(3);
+        buffer.write(new byte[] { 1, 2, 3, 4 });
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        buffer.write(new byte[] { 5 });
+        assertArrayEquals(new byte[] { 5 }, buffer.drain());
+        assertEquals(3, buffer.capacity());
+    }
+}
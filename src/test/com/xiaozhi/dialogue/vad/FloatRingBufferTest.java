@@ -0,0 +1,57 @@
+package com.xiaozhi.dialogue.vad;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * float环形缓冲区：按写入顺序读取、写满后只保留最近的值
+ */
+public class FloatRingBufferTest {
+
+    @Test
+    void emptyBuffer() {
+        FloatRingBuffer buffer = new FloatRingBuffer(3);
+        assertEquals(0, buffer.size());
+        assertEquals(0.0f, buffer.last());
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.get(0));
+    }
+
+    @Test
+    void keepsMostRecentValues() {
+        FloatRingBuffer buffer = new FloatRingBuffer(3);
+        for (int i = 1; i <= 7; i++) {
+            buffer.add(i);
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(5.0f, buffer.get(0));
+        assertEquals(6.0f, buffer.get(1));
+        assertEquals(7.0f, buffer.get(2));
+        assertEquals(7.0f, buffer.last());
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.get(3));
+    }
+
+    @Test
+    void partiallyFilled() {
+        FloatRingBuffer buffer = new FloatRingBuffer(4);
+        buffer.add(0.5f);
+        buffer.add(0.25f);
+        assertEquals(2, buffer.size());
+        assertEquals(0.5f, buffer.get(0));
+        assertEquals(0.25f, buffer.last());
+    }
+
+    @Test
+    void clearAndReuse() {
+        FloatRingBuffer buffer = new FloatRingBuffer(2);
+        buffer.add(1);
+        buffer.add(2);
+        buffer.add(3);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        buffer.add(4);
+        assertEquals(4.0f, buffer.get(0));
+        assertEquals(4.0f, buffer.last());
+        assertEquals(2, buffer.capacity());
+    }
+}
@@ -0,0 +1,198 @@
+package com.xiaozhi.dialogue.vad;
+
+import com.sun.management.ThreadMXBean;
+import com.xiaozhi.dialogue.vad.VadModel.InferenceResult;
+import com.xiaozhi.dialogue.vad.impl.SileroVadModel;
+import com.xiaozhi.dialogue.vad.impl.VadBatchEngine;
+import com.xiaozhi.utils.AudioUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 逐窗口推理与跨会话批量推理的吞吐和内存分配对比
+ * 需要 models/silero_vad.onnx
+ *
+ * 运行: mvn test -Dtest=VadBatchEngineBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class VadBatchEngineBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(VadBatchEngineBenchmarkTest.class);
+
+    private static final int SESSIONS = 200;
+    private static final int WINDOWS_PER_SESSION = 100;
+
+    private SileroVadModel model;
+    private VadBatchEngine engine;
+    private float[][] windows;
+
+    @BeforeEach
+    void setUp() {
+        assertTrue(Files.exists(Path.of("models/silero_vad.onnx")), "找不到VAD模型文件");
+        model = new SileroVadModel();
+        ReflectionTestUtils.setField(model, "modelPath", "models/silero_vad.onnx");
+        model.initialize();
+        engine = new VadBatchEngine(model, new SimpleMeterRegistry(), true, 32, 2);
+        engine.start();
+
+        // 噪声夹杂正弦波，模拟有人说话和安静交替的输入
+        Random random = new Random(42);
+        windows = new float[WINDOWS_PER_SESSION][AudioUtils.BUFFER_SIZE];
+        for (int w = 0; w < WINDOWS_PER_SESSION; w++) {
+            for (int i = 0; i < AudioUtils.BUFFER_SIZE; i++) {
+                float tone = (w / 10) % 2 == 0 ? (float) Math.sin(2 * Math.PI * 220 * i / AudioUtils.SAMPLE_RATE) * 0.3f : 0;
+                windows[w][i] = tone + (random.nextFloat() - 0.5f) * 0.02f;
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.stop();
+        model.close();
+    }
+
+    @Test
+    void batchEngineMatchesSingle() throws Exception {
+        float[] expected = new float[windows.length];
+        float[][][] singleState = null;
+        for (int w = 0; w < windows.length; w++) {
+            InferenceResult single = model.infer(windows[w], singleState);
+            expected[w] = single.probability;
+            singleState = single.state;
+        }
+
+        // 多个会话同时推理，批量线程把它们合并成多行的批次，每行的结果和隐状态要与逐窗口推理一致
+        int sessions = 8;
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        for (int s = 0; s < sessions; s++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    VadBatchEngine.Slot slot = engine.newSlot();
+                    for (int w = 0; w < windows.length; w++) {
+                        System.arraycopy(windows[w], 0, slot.samples, 0, windows[w].length);
+                        assertEquals(expected[w], engine.infer(slot), 1e-4f);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(List.of(), failures);
+    }
+
+    @Test
+    void compareThroughput() throws Exception {
+        // 预热
+        runSingle();
+        runBatched();
+
+        long singleNanos = runSingle();
+        long batchNanos = runBatched();
+
+        int total = SESSIONS * WINDOWS_PER_SESSION;
+        logger.info("逐窗口推理: {} 窗口/秒", Math.round(total * 1e9 / singleNanos));
+        logger.info("批量推理:   {} 窗口/秒", Math.round(total * 1e9 / batchNanos));
+    }
+
+    @Test
+    void allocationPerWindow() {
+        // 关闭批量线程，推理全部在当前线程进行，便于统计本线程的分配量
+        VadBatchEngine inline = new VadBatchEngine(model, new SimpleMeterRegistry(), false, 1, 0);
+        inline.start();
+        try {
+            VadBatchEngine.Slot slot = inline.newSlot();
+            float[][][][] state = { null };
+            Runnable single = () -> {
+                for (float[] window : windows) {
+                    state[0] = model.infer(window, state[0]).state;
+                }
+            };
+            Runnable reused = () -> {
+                for (float[] window : windows) {
+                    System.arraycopy(window, 0, slot.samples, 0, window.length);
+                    inline.infer(slot);
+                }
+            };
+            // 预热，张量和缓冲区在首次推理时创建
+            single.run();
+            reused.run();
+
+            long singleBytes = allocatedBytes(single) / WINDOWS_PER_SESSION;
+            long reusedBytes = allocatedBytes(reused) / WINDOWS_PER_SESSION;
+            logger.info("每窗口分配 - 逐窗口推理: {} 字节，复用缓冲区: {} 字节", singleBytes, reusedBytes);
+            // 只剩下ONNX Runtime每次调用内部的少量句柄数组
+            assertTrue(reusedBytes < singleBytes / 4, "复用缓冲区后分配没有明显减少: " + reusedBytes);
+        } finally {
+            inline.stop();
+        }
+    }
+
+    private long allocatedBytes(Runnable task) {
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        task.run();
+        return bean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private long runSingle() throws Exception {
+        return run(() -> {
+            float[][][] state = null;
+            for (float[] window : windows) {
+                state = model.infer(window, state).state;
+            }
+        });
+    }
+
+    private long runBatched() throws Exception {
+        return run(() -> {
+            VadBatchEngine.Slot slot = engine.newSlot();
+            for (float[] window : windows) {
+                System.arraycopy(window, 0, slot.samples, 0, window.length);
+                engine.infer(slot);
+            }
+        });
+    }
+
+    /**
+     * 每个会话一个线程，按顺序推理自己的窗口并携带隐状态
+     */
+    private long run(Runnable session) throws Exception {
+        CountDownLatch done = new CountDownLatch(SESSIONS);
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int s = 0; s < SESSIONS; s++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                session.run();
+                done.countDown();
+            }));
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return elapsed;
+    }
+}
@@ -0,0 +1,80 @@
+package com.xiaozhi.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 进程内解码与ffmpeg命令行解码的耗时对比
+ * 需要本机有FFmpeg原生库和ffmpeg命令
+ *
+ * 运行: mvn test -Dtest=AudioCodecBenchmarkTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class AudioCodecBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(AudioCodecBenchmarkTest.class);
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 50;
+
+    private Path mp3Path;
+    private byte[] mp3Data;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assertTrue(AudioCodec.isNativeAvailable(), "FFmpeg原生库不可用");
+        // 生成3秒440Hz正弦波，编码为MP3作为测试样本，接近一句TTS的长度
+        byte[] pcm = new byte[AudioUtils.SAMPLE_RATE * 3 * 2];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            short s = (short) (Math.sin(2 * Math.PI * 440 * i / AudioUtils.SAMPLE_RATE) * 8000);
+            pcm[i * 2] = (byte) s;
+            pcm[i * 2 + 1] = (byte) (s >> 8);
+        }
+        mp3Path = Files.createTempFile("audio-codec-bench", ".mp3");
+        AudioCodec.encodeMp3(pcm, mp3Path);
+        mp3Data = Files.readAllBytes(mp3Path);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(mp3Path);
+    }
+
+    @Test
+    void compareDecode() throws Exception {
+        byte[] nativePcm = AudioCodec.decodeToPcm(mp3Data);
+        byte[] processPcm = AudioCodec.decodeWithProcess(mp3Data);
+        // 两种方式的编码器延迟处理可能略有差异，只要求长度接近
+        assertTrue(Math.abs(nativePcm.length - processPcm.length) < AudioUtils.SAMPLE_RATE / 5,
+                "解码长度差异过大: " + nativePcm.length + " vs " + processPcm.length);
+
+        for (int i = 0; i < WARMUP; i++) {
+            AudioCodec.decodeToPcm(mp3Data);
+            AudioCodec.decodeWithProcess(mp3Data);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            AudioCodec.decodeToPcm(mp3Data);
+        }
+        double nativeMs = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            AudioCodec.decodeWithProcess(mp3Data);
+        }
+        double processMs = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+
+        logger.info("进程内解码: {} ms/次, ffmpeg命令行: {} ms/次",
+                String.format("%.2f", nativeMs), String.format("%.2f", processMs));
+        assertTrue(nativeMs < processMs, "进程内解码应当比fork ffmpeg更快");
+    }
+}
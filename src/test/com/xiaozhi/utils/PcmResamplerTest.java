@@ -0,0 +1,102 @@
+package com.xiaozhi.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式PCM重采样：插值结果、跨数据块的状态和不完整的半个样本
+ */
+public class PcmResamplerTest {
+
+    @Test
+    void sameRateKeepsSamples() {
+        short[] input = { 1, -2, 300, -400, 5000, 32767, -32768 };
+        short[] output = samples(new PcmResampler(16000, 16000).process(bytes(input), 0, input.length * 2));
+        // 最后一个样本留到下一块插值
+        assertEquals(input.length - 1, output.length);
+        for (int i = 0; i < output.length; i++) {
+            assertEquals(input[i], output[i]);
+        }
+    }
+
+    @Test
+    void downsamplesByInterpolation() {
+        // 线性斜坡，24kHz到16kHz每个输出样本前进1.5个输入样本
+        short[] input = new short[301];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (short) (i * 10);
+        }
+        short[] output = samples(new PcmResampler(24000, 16000).process(bytes(input), 0, input.length * 2));
+        assertEquals(200, output.length);
+        for (int k = 0; k < output.length; k++) {
+            assertEquals(Math.round(k * 1.5 * 10), output[k]);
+        }
+    }
+
+    @Test
+    void upsamplesByInterpolation() {
+        short[] input = { 0, 100, 200, 300 };
+        short[] output = samples(new PcmResampler(8000, 16000).process(bytes(input), 0, input.length * 2));
+        assertArrayEquals(new short[] { 0, 50, 100, 150, 200, 250 }, output);
+    }
+
+    @Test
+    void chunkBoundariesDoNotChangeOutput() {
+        Random random = new Random(3);
+        short[] input = new short[4000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (short) random.nextInt();
+        }
+        byte[] data = bytes(input);
+        byte[] whole = new PcmResampler(24000, 16000).process(data, 0, data.length);
+
+        // 随机切块，包含奇数长度，数据块会在样本中间断开
+        PcmResampler resampler = new PcmResampler(24000, 16000);
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(data.length - offset, 1 + random.nextInt(97));
+            chunked.writeBytes(resampler.process(data, offset, length));
+            offset += length;
+        }
+        assertArrayEquals(whole, chunked.toByteArray());
+    }
+
+    @Test
+    void halfSampleWaitsForNextChunk() {
+        PcmResampler resampler = new PcmResampler(16000, 16000);
+        byte[] data = bytes(new short[] { 0x1234, 0x5678, 0x0102 });
+        assertEquals(0, resampler.process(data, 0, 1).length);
+        assertEquals(0, resampler.process(data, 1, 2).length);
+        short[] output = samples(resampler.process(data, 3, 3));
+        assertArrayEquals(new short[] { 0x1234, 0x5678 }, output);
+    }
+
+    @Test
+    void emptyChunk() {
+        PcmResampler resampler = new PcmResampler(24000, 16000);
+        assertEquals(0, resampler.process(new byte[0], 0, 0).length);
+        assertEquals(0, resampler.process(new byte[4], 2, 0).length);
+    }
+
+    private static byte[] bytes(short[] samples) {
+        byte[] data = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            data[i * 2] = (byte) samples[i];
+            data[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+        return data;
+    }
+
+    private static short[] samples(byte[] data) {
+        short[] samples = new short[data.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((data[i * 2] & 0xFF) | (data[i * 2 + 1] << 8));
+        }
+        return samples;
+    }
+}